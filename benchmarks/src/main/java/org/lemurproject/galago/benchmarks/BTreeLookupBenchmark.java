@@ -0,0 +1,86 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.benchmarks;
+
+import org.lemurproject.galago.core.util.SyntheticCorpus;
+import org.lemurproject.galago.utility.ByteUtil;
+import org.lemurproject.galago.utility.btree.BTreeIterator;
+import org.lemurproject.galago.utility.btree.disk.DiskBTreeReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key lookups in the vocabulary of a DiskBTreeReader (the postings part), for
+ * terms drawn from the same Zipfian distribution as the corpus, and for
+ * missing keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BTreeLookupBenchmark {
+
+  private static final int KEYS = 1024;
+  private File directory;
+  private DiskBTreeReader reader;
+  private byte[][] keys;
+  private byte[][] missingKeys;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    directory = BenchmarkIndex.buildIndex(PostingListBenchmark.DOCUMENTS, PostingListBenchmark.VOCABULARY, SyntheticCorpus.DEFAULT_SEED);
+    reader = new DiskBTreeReader(new File(BenchmarkIndex.indexPath(directory), "postings"));
+
+    // query terms follow the corpus distribution, but from a different stream
+    SyntheticCorpus queries = new SyntheticCorpus(PostingListBenchmark.VOCABULARY, 1.0, SyntheticCorpus.DEFAULT_SEED + 1);
+    List<byte[]> present = new ArrayList<>();
+    while (present.size() < KEYS) {
+      byte[] key = ByteUtil.fromString(SyntheticCorpus.term(queries.nextRank()));
+      if (reader.getIterator(key) != null) {
+        present.add(key);
+      }
+    }
+    keys = present.toArray(new byte[KEYS][]);
+    missingKeys = new byte[KEYS][];
+    for (int i = 0; i < KEYS; i++) {
+      missingKeys[i] = ByteUtil.fromString("missing" + i);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    reader.close();
+  }
+
+  @Benchmark
+  public BTreeIterator lookup() throws IOException {
+    next = (next + 1) & (KEYS - 1);
+    return reader.getIterator(keys[next]);
+  }
+
+  @Benchmark
+  public BTreeIterator lookupMissing() throws IOException {
+    next = (next + 1) & (KEYS - 1);
+    return reader.getIterator(missingKeys[next]);
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.benchmarks;
+
+import org.lemurproject.galago.core.tools.App;
+import org.lemurproject.galago.core.util.SyntheticCorpus;
+import org.lemurproject.galago.utility.FSUtil;
+import org.lemurproject.galago.utility.Parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Indexes of the synthetic corpus that are shared by the benchmarks.
+ */
+public class BenchmarkIndex {
+
+  /**
+   * Returns the directory of an index of the synthetic corpus with these
+   * parameters, building it on first use. Indexes are kept (by default in
+   * java.io.tmpdir, or in -Dgalago.benchmark.dir) so that every forked
+   * benchmark JVM reuses the same index instead of building its own.
+   */
+  public static File buildIndex(int documents, int vocabularySize, long seed) throws Exception {
+    File root = new File(System.getProperty("galago.benchmark.dir", System.getProperty("java.io.tmpdir")));
+    File directory = new File(root, "galago-benchmark-" + documents + "-" + vocabularySize + "-" + seed);
+    File complete = new File(directory, "complete");
+    synchronized (BenchmarkIndex.class) {
+      if (complete.exists()) {
+        return directory;
+      }
+      if (directory.exists()) {
+        // a previous build was interrupted
+        FSUtil.deleteDirectory(directory);
+      }
+      if (!directory.mkdirs()) {
+        throw new IOException("Could not create " + directory);
+      }
+      File corpus = new File(directory, "corpus.trectext");
+      File index = indexPath(directory);
+      new SyntheticCorpus(vocabularySize, 1.0, seed).writeTrecText(corpus, 0, documents, 50, 500);
+
+      Parameters p = Parameters.create();
+      p.set("inputPath", corpus.getAbsolutePath());
+      p.set("indexPath", index.getAbsolutePath());
+      p.set("fieldIndex", false);
+      p.set("tokenizer", Parameters.parseArray("fields", Arrays.asList("title")));
+      App.run("build", p, quiet());
+      if (!complete.createNewFile()) {
+        throw new IOException("Could not create " + complete);
+      }
+      return directory;
+    }
+  }
+
+  /**
+   * Adds an impact ordered part, "impacts." + scorer, to an index built by
+   * buildIndex (once), and returns its part name.
+   */
+  public static String buildImpacts(File directory, String scorer) throws Exception {
+    String partName = "impacts." + scorer;
+    File complete = new File(directory, partName + ".complete");
+    synchronized (BenchmarkIndex.class) {
+      if (!complete.exists()) {
+        Parameters p = Parameters.create();
+        p.set("indexPath", indexPath(directory).getAbsolutePath());
+        p.set("partName", partName);
+        p.set("scorer", scorer);
+        p.set("impactOrdered", true);
+        App.run("build-impacts", p, quiet());
+        if (!complete.createNewFile()) {
+          throw new IOException("Could not create " + complete);
+        }
+      }
+      return partName;
+    }
+  }
+
+  /**
+   * Adds a "prior" part to an index built by buildIndex (once), whose prior
+   * decreases with the document number, as an index numbered by
+   * PriorOrderedDocumentNumberer would, and returns its part name.
+   */
+  public static String buildPriors(File directory, int documents) throws Exception {
+    String partName = "prior";
+    File complete = new File(directory, partName + ".complete");
+    synchronized (BenchmarkIndex.class) {
+      if (!complete.exists()) {
+        File priors = new File(directory, "priors.tsv");
+        try (PrintStream out = new PrintStream(priors, "UTF-8")) {
+          for (int i = 0; i < documents; i++) {
+            out.println("doc-" + i + "\t" + Math.log((documents - i) / (double) documents));
+          }
+        }
+        Parameters p = Parameters.create();
+        p.set("indexPath", indexPath(directory).getAbsolutePath());
+        p.set("inputPath", priors.getAbsolutePath());
+        p.set("type", "prior");
+        p.set("partName", partName);
+        p.set("default", Math.log(1.0 / (documents + 1)));
+        App.run("build-special", p, quiet());
+        if (!complete.createNewFile()) {
+          throw new IOException("Could not create " + complete);
+        }
+      }
+      return partName;
+    }
+  }
+
+  private static PrintStream quiet() {
+    return new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    });
+  }
+
+  public static File indexPath(File directory) {
+    return new File(directory, "index");
+  }
+}
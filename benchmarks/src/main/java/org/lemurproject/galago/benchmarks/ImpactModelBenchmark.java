@@ -0,0 +1,96 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.benchmarks;
+
+import org.lemurproject.galago.core.retrieval.LocalRetrieval;
+import org.lemurproject.galago.core.retrieval.Results;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
+import org.lemurproject.galago.core.util.SyntheticCorpus;
+import org.lemurproject.galago.utility.Parameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query latency of score-at-a-time processing over an impact ordered BM25
+ * part, against document-at-a-time models over the same #impacts queries.
+ * A finite postingBudget measures anytime (early terminated) retrieval.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImpactModelBenchmark {
+
+  @Param({"saat", "rankeddocument", "maxscore"})
+  public String processingModel;
+
+  @Param({"9223372036854775807", "100000"})
+  public long postingBudget;
+
+  @Param({"100"})
+  public int requested;
+
+  private static final int QUERIES = 64;
+  private File directory;
+  private LocalRetrieval retrieval;
+  private List<Node> queries;
+  private Parameters queryParameters;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    directory = BenchmarkIndex.buildIndex(PostingListBenchmark.DOCUMENTS, PostingListBenchmark.VOCABULARY, SyntheticCorpus.DEFAULT_SEED);
+    String part = BenchmarkIndex.buildImpacts(directory, "bm25");
+    retrieval = new LocalRetrieval(BenchmarkIndex.indexPath(directory).getAbsolutePath(), Parameters.create());
+
+    queryParameters = Parameters.create();
+    queryParameters.set("requested", requested);
+    queryParameters.set("processingModel", processingModel);
+    queryParameters.set("postingBudget", postingBudget);
+
+    SyntheticCorpus terms = new SyntheticCorpus(PostingListBenchmark.VOCABULARY, 1.0, SyntheticCorpus.DEFAULT_SEED + 2);
+    queries = new ArrayList<>();
+    for (int i = 0; i < QUERIES; i++) {
+      StringBuilder query = new StringBuilder("#combine(");
+      int length = 2 + (i % 4);
+      for (int j = 0; j < length; j++) {
+        // skip the few terms that are in nearly every document
+        String term = SyntheticCorpus.term(5 + terms.nextRank() % (PostingListBenchmark.VOCABULARY - 5));
+        query.append(" #impacts:").append(term).append(":part=").append(part).append("()");
+      }
+      query.append(" )");
+      queries.add(retrieval.transformQuery(StructuredQuery.parse(query.toString()), queryParameters.clone()));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    retrieval.close();
+  }
+
+  @Benchmark
+  public Results query() throws Exception {
+    next = (next + 1) % QUERIES;
+    return retrieval.executeQuery(queries.get(next), queryParameters.clone());
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.benchmarks;
+
+import org.lemurproject.galago.core.index.disk.PositionIndexReader;
+import org.lemurproject.galago.core.retrieval.iterator.disk.DiskExtentIterator;
+import org.lemurproject.galago.core.retrieval.processing.ScoringContext;
+import org.lemurproject.galago.core.util.SyntheticCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iteration over positional posting lists (PositionIndexExtentSource): a full
+ * scan loading every extent, and a syncTo walk that jumps over most postings
+ * (using the skip lists on long lists).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostingListBenchmark {
+
+  // Zipf rank of the term: 0 is in nearly every document
+  @Param({"0", "10", "1000"})
+  public int termRank;
+
+  // syncTo targets are every 'stride'-th document
+  @Param({"97"})
+  public int stride;
+
+  public static final int DOCUMENTS = 20000;
+  public static final int VOCABULARY = 50000;
+
+  private File directory;
+  private PositionIndexReader reader;
+  private String term;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    directory = BenchmarkIndex.buildIndex(DOCUMENTS, VOCABULARY, SyntheticCorpus.DEFAULT_SEED);
+    reader = new PositionIndexReader(new File(BenchmarkIndex.indexPath(directory), "postings").getAbsolutePath());
+    term = SyntheticCorpus.term(termRank);
+    if (reader.getTermExtents(term) == null) {
+      throw new IllegalStateException("Term " + term + " is not in the synthetic index.");
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    reader.close();
+  }
+
+  @Benchmark
+  public long scanExtents() throws IOException {
+    DiskExtentIterator iterator = reader.getTermExtents(term);
+    ScoringContext sc = new ScoringContext();
+    long positions = 0;
+    while (!iterator.isDone()) {
+      sc.document = iterator.currentCandidate();
+      positions += iterator.extents(sc).size();
+      iterator.movePast(sc.document);
+    }
+    return positions;
+  }
+
+  @Benchmark
+  public long scanCounts() throws IOException {
+    DiskExtentIterator iterator = reader.getTermExtents(term);
+    ScoringContext sc = new ScoringContext();
+    long count = 0;
+    while (!iterator.isDone()) {
+      sc.document = iterator.currentCandidate();
+      count += iterator.count(sc);
+      iterator.movePast(sc.document);
+    }
+    return count;
+  }
+
+  @Benchmark
+  public long syncTo() throws IOException {
+    DiskExtentIterator iterator = reader.getTermExtents(term);
+    ScoringContext sc = new ScoringContext();
+    long matches = 0;
+    for (long document = 0; document < DOCUMENTS && !iterator.isDone(); document += stride) {
+      iterator.syncTo(document);
+      sc.document = document;
+      if (iterator.hasMatch(sc)) {
+        matches += iterator.count(sc);
+      }
+    }
+    return matches;
+  }
+}
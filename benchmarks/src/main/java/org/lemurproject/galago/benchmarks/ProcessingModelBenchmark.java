@@ -0,0 +1,103 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.benchmarks;
+
+import org.lemurproject.galago.core.retrieval.LocalRetrieval;
+import org.lemurproject.galago.core.retrieval.Results;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
+import org.lemurproject.galago.core.util.SyntheticCorpus;
+import org.lemurproject.galago.utility.Parameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query latency of each processing model on the synthetic index, for a fixed
+ * set of bag-of-words queries (Zipfian terms, two to five per query).
+ * Score-at-a-time needs an impact part, see ImpactModelBenchmark.
+ *
+ * priorordered needs a document prior: it runs the same queries, each
+ * combined with a prior that decreases with the document number (the
+ * pruning models do not accept a prior child).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessingModelBenchmark {
+
+  @Param({"rankeddocument", "maxscore", "batchscore", "taat", "priorordered",
+    "org.lemurproject.galago.core.retrieval.processing.WeakAndDocumentModel"})
+  public String processingModel;
+
+  @Param({"#combine", "#sdm"})
+  public String operator;
+
+  @Param({"100"})
+  public int requested;
+
+  private static final int QUERIES = 64;
+  private File directory;
+  private LocalRetrieval retrieval;
+  private List<Node> queries;
+  private Parameters queryParameters;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    directory = BenchmarkIndex.buildIndex(PostingListBenchmark.DOCUMENTS, PostingListBenchmark.VOCABULARY, SyntheticCorpus.DEFAULT_SEED);
+    String prior = processingModel.equals("priorordered")
+            ? BenchmarkIndex.buildPriors(directory, PostingListBenchmark.DOCUMENTS) : null;
+    retrieval = new LocalRetrieval(BenchmarkIndex.indexPath(directory).getAbsolutePath(), Parameters.create());
+
+    queryParameters = Parameters.create();
+    queryParameters.set("requested", requested);
+    queryParameters.set("processingModel", processingModel);
+
+    SyntheticCorpus terms = new SyntheticCorpus(PostingListBenchmark.VOCABULARY, 1.0, SyntheticCorpus.DEFAULT_SEED + 2);
+    queries = new ArrayList<>();
+    for (int i = 0; i < QUERIES; i++) {
+      StringBuilder query = new StringBuilder(operator).append("(");
+      int length = 2 + (i % 4);
+      for (int j = 0; j < length; j++) {
+        // skip the few terms that are in nearly every document
+        query.append(' ').append(SyntheticCorpus.term(5 + terms.nextRank() % (PostingListBenchmark.VOCABULARY - 5)));
+      }
+      query.append(" )");
+      if (prior != null) {
+        query.insert(0, "#combine( #prior:part=" + prior + "() ").append(" )");
+      }
+      queries.add(retrieval.transformQuery(StructuredQuery.parse(query.toString()), queryParameters.clone()));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    retrieval.close();
+  }
+
+  @Benchmark
+  public Results query() throws Exception {
+    next = (next + 1) % QUERIES;
+    return retrieval.executeQuery(queries.get(next), queryParameters.clone());
+  }
+}
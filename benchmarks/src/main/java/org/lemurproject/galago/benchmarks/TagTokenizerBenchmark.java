@@ -0,0 +1,55 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.benchmarks;
+
+import org.lemurproject.galago.core.parse.Document;
+import org.lemurproject.galago.core.parse.TagTokenizer;
+import org.lemurproject.galago.core.util.SyntheticCorpus;
+import org.lemurproject.galago.utility.Parameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TagTokenizer throughput on synthetic documents with a title field; the
+ * score is documents tokenized per millisecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagTokenizerBenchmark {
+
+  private static final int DOCUMENTS = 1024;
+  private List<String> texts;
+  private TagTokenizer tokenizer;
+  private int next;
+
+  @Setup
+  public void setup() {
+    texts = new SyntheticCorpus(PostingListBenchmark.VOCABULARY).documents(DOCUMENTS, 50, 500);
+    tokenizer = new TagTokenizer(Parameters.parseArray("fields", Arrays.asList("title")));
+  }
+
+  @Benchmark
+  public Document tokenize() {
+    next = (next + 1) & (DOCUMENTS - 1);
+    Document document = new Document("doc-" + next, texts.get(next));
+    tokenizer.tokenize(document);
+    return document;
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.benchmarks;
+
+import org.lemurproject.galago.core.util.SyntheticCorpus;
+import org.lemurproject.galago.utility.buffer.VByteInput;
+import org.lemurproject.galago.utility.buffer.VByteOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of VByte-compressed document gaps, as stored in posting lists.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VByteBenchmark {
+
+  // maximum gap; small gaps are one byte, large ones up to three
+  @Param({"100", "100000"})
+  public int maximumGap;
+
+  private static final int VALUES = 100000;
+  private byte[] encoded;
+
+  @Setup
+  public void setup() throws IOException {
+    Random random = new Random(SyntheticCorpus.DEFAULT_SEED);
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    VByteOutput output = new VByteOutput(new DataOutputStream(buffer));
+    for (int i = 0; i < VALUES; i++) {
+      output.writeInt(1 + random.nextInt(maximumGap));
+    }
+    output.close();
+    encoded = buffer.toByteArray();
+  }
+
+  @Benchmark
+  public long readInt() throws IOException {
+    VByteInput input = new VByteInput(new DataInputStream(new ByteArrayInputStream(encoded)));
+    long sum = 0;
+    for (int i = 0; i < VALUES; i++) {
+      sum += input.readInt();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long readLong() throws IOException {
+    VByteInput input = new VByteInput(new DataInputStream(new ByteArrayInputStream(encoded)));
+    long sum = 0;
+    for (int i = 0; i < VALUES; i++) {
+      sum += input.readLong();
+    }
+    return sum;
+  }
+}
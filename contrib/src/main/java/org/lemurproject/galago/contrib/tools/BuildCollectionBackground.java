@@ -46,6 +46,7 @@ public class BuildCollectionBackground extends AppFunction {
     }
 
     stage.add(new StepInformation(WordCounter.class));
+    stage.add(Utility.getHashCombiner(new WordCount.WordOrder(), WordCountReducer.class));
     stage.add(Utility.getSorter(new WordCount.WordOrder()));
     stage.add(new StepInformation(WordCountReducer.class));
     stage.add(new OutputStepInformation(outputName));
@@ -57,6 +57,7 @@ public class BuildSpecialCollBackground extends AppFunction {
       stage.add(new StepInformation(WordCountStemmer.class, stemParams));
     }
 
+    stage.add(Utility.getHashCombiner(new WordCount.WordOrder(), WordCountReducer.class));
     stage.add(Utility.getSorter(new WordCount.WordOrder()));
     stage.add(new StepInformation(WordCountReducer.class));
     stage.add(new OutputStepInformation(outputName));
@@ -43,6 +43,21 @@ public class DocumentPriorReader extends KeyValueReader {
     }
   }
 
+  /**
+   * The prior of documents that are not stored in this part.
+   */
+  public double getDefault() {
+    return def;
+  }
+
+  /**
+   * True if the stored priors never increase with the document id (i.e. the
+   * index was numbered with PriorOrderedDocumentNumberer).
+   */
+  public boolean isDescending() {
+    return manifest.get("descending", false);
+  }
+
   @Override
   public KeyIterator getIterator() throws IOException {
     return new KeyIterator(reader, def);
@@ -23,6 +23,8 @@ public class DocumentPriorWriter extends KeyValueWriter<DocumentFeature> {
   int lastDocument = -1;
   double maxObservedScore = Double.NEGATIVE_INFINITY;
   double minObservedScore = Double.POSITIVE_INFINITY;
+  double lastScore = Double.POSITIVE_INFINITY;
+  boolean descending = true;
   Counter written;
 
   /** Creates a new create of DocumentLengthsWriter */
@@ -42,6 +44,8 @@ public class DocumentPriorWriter extends KeyValueWriter<DocumentFeature> {
 
     maxObservedScore = Math.max(maxObservedScore, docfeat.value);
     minObservedScore = Math.min(minObservedScore, docfeat.value);
+    descending &= (docfeat.value <= lastScore);
+    lastScore = docfeat.value;
     GenericElement element = new GenericElement(Utility.fromLong(docfeat.document), Utility.fromDouble(docfeat.value));
 
     written.increment();
@@ -53,6 +57,8 @@ public class DocumentPriorWriter extends KeyValueWriter<DocumentFeature> {
     Parameters p = writer.getManifest();
     p.set("maxScore", this.maxObservedScore);
     p.set("minScore", this.minObservedScore);
+    // true if documents are numbered in decreasing prior order
+    p.set("descending", this.descending);
     if(!p.isDouble("default")){
       p.set("defaultProb", this.minObservedScore);
     }
@@ -0,0 +1,221 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.index.disk;
+
+import org.lemurproject.galago.core.index.KeyListReader;
+import org.lemurproject.galago.core.index.source.ImpactSource;
+import org.lemurproject.galago.core.parse.stem.Stemmer;
+import org.lemurproject.galago.core.retrieval.iterator.BaseIterator;
+import org.lemurproject.galago.core.retrieval.iterator.disk.DiskImpactIterator;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.NodeParameters;
+import org.lemurproject.galago.core.retrieval.query.NodeType;
+import org.lemurproject.galago.utility.ByteUtil;
+import org.lemurproject.galago.utility.btree.BTreeIterator;
+import org.lemurproject.galago.utility.btree.BTreeReader;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a precomputed impact index ( term -> list(document-id, impact) ), as
+ * built by 'galago build-impacts'.
+ *
+ * Query with: #impacts:term:part=[partName]()
+ *
+ * @see ImpactIndexWriter
+ */
+public class ImpactIndexReader extends KeyListReader {
+
+  Stemmer stemmer;
+  final double base;
+  final double scale;
+  final double missingScore;
+
+  public ImpactIndexReader(BTreeReader reader) throws Exception {
+    super(reader);
+    stemmer = Stemmer.create(reader.getManifest());
+    base = reader.getManifest().getDouble("impactBase");
+    scale = reader.getManifest().getDouble("impactScale");
+    missingScore = reader.getManifest().get("missingScore", 0.0);
+  }
+
+  public ImpactIndexReader(String pathname) throws Exception {
+    super(pathname);
+    stemmer = Stemmer.create(reader.getManifest());
+    base = reader.getManifest().getDouble("impactBase");
+    scale = reader.getManifest().getDouble("impactScale");
+    missingScore = reader.getManifest().get("missingScore", 0.0);
+  }
+
+  @Override
+  public KeyIterator getIterator() throws IOException {
+    return new KeyIterator(reader);
+  }
+
+  public double getImpactBase() {
+    return base;
+  }
+
+  public double getImpactScale() {
+    return scale;
+  }
+
+  /**
+   * Score of documents for terms that do not occur in the index.
+   */
+  public double getMissingScore() {
+    return missingScore;
+  }
+
+  /**
+   * Returns true if the lists also store impact ordered segments.
+   */
+  public boolean isImpactOrdered() {
+    return reader.getManifest().get("impactOrdered", false);
+  }
+
+  /**
+   * Returns the impact list of the (stemmed) term, or null if the term does
+   * not occur in the index.
+   */
+  public ImpactIndexSource getTermSource(String term) throws IOException {
+    BTreeIterator iterator = reader.getIterator(ByteUtil.fromString(stemmer.stemAsRequired(term)));
+    if (iterator != null) {
+      return new ImpactIndexSource(iterator);
+    }
+    return null;
+  }
+
+  /**
+   * Returns an iterator over the impacts of the (stemmed) term. Terms that do
+   * not occur in the index produce an empty iterator, so the delta scoring
+   * interface is always available.
+   */
+  public DiskImpactIterator getTermImpacts(String term, NodeParameters np) throws IOException {
+    ImpactIndexSource source = getTermSource(term);
+    if (source != null) {
+      return new DiskImpactIterator(source, np, base, scale);
+    }
+    return new DiskImpactIterator(new MissingTermSource(term, missingScore), np, base, scale);
+  }
+
+  @Override
+  public Map<String, NodeType> getNodeTypes() {
+    HashMap<String, NodeType> types = new HashMap<>();
+    types.put("impacts", new NodeType(DiskImpactIterator.class));
+    return types;
+  }
+
+  @Override
+  public BaseIterator getIterator(Node node) throws IOException {
+    if (node.getOperator().equals("impacts")) {
+      return getTermImpacts(node.getDefaultParameter(), node.getNodeParameters());
+    }
+    return null;
+  }
+
+  public static class KeyIterator extends KeyListReader.KeyValueIterator {
+
+    public KeyIterator(BTreeReader reader) throws IOException {
+      super(reader);
+    }
+
+    @Override
+    public String getValueString() throws IOException {
+      ImpactIndexSource source = getValueSource();
+      return ByteUtil.toString(getKey()) + ",documents=" + source.totalEntries() + ",maxImpact=" + source.maximumImpact();
+    }
+
+    public ImpactIndexSource getValueSource() throws IOException {
+      return new ImpactIndexSource(iterator);
+    }
+
+    @Override
+    public BaseIterator getValueIterator() throws IOException {
+      return new DiskImpactIterator(getValueSource(), new NodeParameters(),
+              reader.getManifest().getDouble("impactBase"), reader.getManifest().getDouble("impactScale"));
+    }
+
+    @Override
+    public String getKeyString() throws IOException {
+      return ByteUtil.toString(iterator.getKey());
+    }
+  }
+
+  /**
+   * Empty list used for terms that are not in the index.
+   */
+  private static class MissingTermSource implements ImpactSource {
+
+    final String key;
+    final double defaultScore;
+
+    MissingTermSource(String key, double defaultScore) {
+      this.key = key;
+      this.defaultScore = defaultScore;
+    }
+
+    @Override
+    public int impact(long id) {
+      return 0;
+    }
+
+    @Override
+    public int maximumImpact() {
+      return 0;
+    }
+
+    @Override
+    public int blockMaximumImpact() {
+      return 0;
+    }
+
+    @Override
+    public double defaultScore() {
+      return defaultScore;
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public boolean isDone() {
+      return true;
+    }
+
+    @Override
+    public boolean hasAllCandidates() {
+      return false;
+    }
+
+    @Override
+    public long totalEntries() {
+      return 0;
+    }
+
+    @Override
+    public String key() {
+      return key;
+    }
+
+    @Override
+    public long currentCandidate() {
+      return Long.MAX_VALUE;
+    }
+
+    @Override
+    public boolean hasMatch(long id) {
+      return false;
+    }
+
+    @Override
+    public void movePast(long id) {
+    }
+
+    @Override
+    public void syncTo(long id) {
+    }
+  }
+}
@@ -0,0 +1,224 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.index.disk;
+
+import org.lemurproject.galago.core.index.source.BTreeValueSource;
+import org.lemurproject.galago.core.index.source.ImpactSource;
+import org.lemurproject.galago.utility.btree.BTreeIterator;
+import org.lemurproject.galago.utility.buffer.DataStream;
+import org.lemurproject.galago.utility.buffer.VByteInput;
+
+import java.io.IOException;
+
+/**
+ * Reads a list of quantized impacts. The block table in the header is used to
+ * skip whole blocks of postings without decoding them.
+ *
+ * @see ImpactIndexWriter
+ */
+public class ImpactIndexSource extends BTreeValueSource implements ImpactSource {
+
+  long documentCount;
+  int blockSize;
+  int blockCount;
+  int maximumImpact;
+  double defaultScore;
+  // block table
+  long[] blockLastDocument;
+  int[] blockMaximumImpact;
+  long[] blockStart;
+  // impact ordered segments (optional)
+  int segmentCount;
+  int[] segmentImpact;
+  long[] segmentDocumentCount;
+  long[] segmentStart;
+  long[] segmentLength;
+  // data
+  DataStream dataStream;
+  VByteInput data;
+  int currentBlock;
+  long documentIndex;
+  long currentDocument;
+  int currentImpact;
+  boolean done;
+
+  public ImpactIndexSource(BTreeIterator iterator) throws IOException {
+    super(iterator);
+    reset();
+  }
+
+  @Override
+  public void reset() throws IOException {
+    DataStream valueStream = btreeIter.getValueStream();
+    VByteInput stream = new VByteInput(valueStream);
+
+    documentCount = stream.readLong();
+    blockSize = stream.readInt();
+    blockCount = stream.readInt();
+    maximumImpact = stream.readInt();
+    defaultScore = stream.readDouble();
+
+    blockLastDocument = new long[blockCount];
+    blockMaximumImpact = new int[blockCount];
+    blockStart = new long[blockCount];
+    long lastDocument = 0;
+    long start = 0;
+    for (int b = 0; b < blockCount; b++) {
+      lastDocument += stream.readLong();
+      blockLastDocument[b] = lastDocument;
+      blockMaximumImpact[b] = stream.readInt();
+      blockStart[b] = start;
+      start += stream.readLong();
+    }
+
+    segmentCount = stream.readInt();
+    segmentImpact = new int[segmentCount];
+    segmentDocumentCount = new long[segmentCount];
+    segmentStart = new long[segmentCount];
+    segmentLength = new long[segmentCount];
+    for (int s = 0; s < segmentCount; s++) {
+      segmentImpact[s] = stream.readInt();
+      segmentDocumentCount[s] = stream.readLong();
+      segmentLength[s] = stream.readLong();
+      segmentStart[s] = start;
+      start += segmentLength[s];
+    }
+
+    long dataStart = valueStream.getPosition();
+    // segments are stored after the document ordered postings
+    for (int s = 0; s < segmentCount; s++) {
+      segmentStart[s] += dataStart;
+    }
+    dataStream = btreeIter.getSubValueStream(dataStart, btreeIter.getValueLength() - dataStart);
+    data = new VByteInput(dataStream);
+
+    currentBlock = 0;
+    documentIndex = 0;
+    currentDocument = 0;
+    done = false;
+    load();
+  }
+
+  private void load() throws IOException {
+    if (documentIndex >= documentCount) {
+      done = true;
+      currentDocument = Long.MAX_VALUE;
+      currentImpact = 0;
+      return;
+    }
+    currentDocument += data.readLong();
+    currentImpact = dataStream.readUnsignedByte();
+    currentBlock = (int) (documentIndex / blockSize);
+  }
+
+  @Override
+  public boolean isDone() {
+    return done;
+  }
+
+  @Override
+  public boolean hasAllCandidates() {
+    return false;
+  }
+
+  @Override
+  public long totalEntries() {
+    return documentCount;
+  }
+
+  @Override
+  public long currentCandidate() {
+    return currentDocument;
+  }
+
+  @Override
+  public void movePast(long document) throws IOException {
+    syncTo(document + 1);
+  }
+
+  @Override
+  public void syncTo(long document) throws IOException {
+    if (done || document <= currentDocument) {
+      return;
+    }
+
+    // skip whole blocks that end before the target
+    if (document > blockLastDocument[currentBlock]) {
+      int block = currentBlock + 1;
+      while (block < blockCount && blockLastDocument[block] < document) {
+        block++;
+      }
+      if (block >= blockCount) {
+        documentIndex = documentCount;
+        load();
+        return;
+      }
+      dataStream.seek(blockStart[block]);
+      documentIndex = (long) block * blockSize;
+      currentDocument = blockLastDocument[block - 1];
+      load();
+    }
+
+    // linear from here
+    while (!done && document > currentDocument) {
+      documentIndex++;
+      load();
+    }
+  }
+
+  @Override
+  public int impact(long id) {
+    if (!done && currentDocument == id) {
+      return currentImpact;
+    }
+    return 0;
+  }
+
+  @Override
+  public int maximumImpact() {
+    return maximumImpact;
+  }
+
+  @Override
+  public int blockMaximumImpact() {
+    return done ? 0 : blockMaximumImpact[currentBlock];
+  }
+
+  @Override
+  public double defaultScore() {
+    return defaultScore;
+  }
+
+  /**
+   * Number of impact ordered segments, zero if the part was not built with
+   * 'impactOrdered'.
+   */
+  public int segmentCount() {
+    return segmentCount;
+  }
+
+  /**
+   * Segments are ordered by decreasing impact.
+   */
+  public int segmentImpact(int segment) {
+    return segmentImpact[segment];
+  }
+
+  public long segmentDocumentCount(int segment) {
+    return segmentDocumentCount[segment];
+  }
+
+  /**
+   * Decodes the (ascending) document ids of a segment into 'documents', which
+   * must hold at least segmentDocumentCount(segment) values.
+   */
+  public void readSegment(int segment, long[] documents) throws IOException {
+    DataStream segmentStream = btreeIter.getSubValueStream(segmentStart[segment], segmentLength[segment]);
+    VByteInput input = new VByteInput(segmentStream);
+    long document = 0;
+    int count = (int) segmentDocumentCount[segment];
+    for (int i = 0; i < count; i++) {
+      document += input.readLong();
+      documents[i] = document;
+    }
+  }
+}
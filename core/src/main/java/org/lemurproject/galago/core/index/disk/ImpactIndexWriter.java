@@ -0,0 +1,219 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.index.disk;
+
+import org.lemurproject.galago.core.btree.format.TupleflowDiskBTreeWriter;
+import org.lemurproject.galago.tupleflow.buffer.DiskSpillCompressedByteBuffer;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.btree.IndexElement;
+import org.lemurproject.galago.utility.buffer.CompressedByteBuffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an index of precomputed, quantized per-posting impacts.
+ *
+ * Each list stores, for every document containing the term, a small integer
+ * impact (1 .. 2^bits - 1). The score of the posting is recovered as:
+ *
+ * score = impactBase + impact * impactScale
+ *
+ * where impactBase and impactScale are global to the part (stored in the
+ * manifest), so impacts are comparable across terms.
+ *
+ * data stored in each list:
+ *
+ * header: - document count - block size - block count - maximum impact -
+ * default (non-matching document) score - for each block: (last document
+ * delta, maximum impact in the block, block byte length) - segment count - for
+ * each segment: (impact, document count, segment byte length)
+ *
+ * data: - for each posting: document delta (vbyte), impact (one raw byte)
+ *
+ * segments: (only if 'impactOrdered' is set) the same postings again, grouped
+ * into one segment per distinct impact, in decreasing impact order. Within a
+ * segment the documents are stored as ascending deltas (vbyte). These are read
+ * by score-at-a-time processing.
+ *
+ * @see ImpactIndexReader
+ */
+public class ImpactIndexWriter {
+
+  private TupleflowDiskBTreeWriter writer;
+  private ImpactList list;
+  private int blockSize;
+  private boolean impactOrdered;
+
+  public ImpactIndexWriter(String filename, Parameters parameters) throws IOException {
+    writer = new TupleflowDiskBTreeWriter(filename, parameters);
+    blockSize = (int) parameters.get("impactBlockSize", 128L);
+    impactOrdered = parameters.get("impactOrdered", false);
+    writer.getManifest().set("readerClass", ImpactIndexReader.class.getName());
+    writer.getManifest().set("writerClass", getClass().getName());
+  }
+
+  public Parameters getManifest() {
+    return writer.getManifest();
+  }
+
+  /**
+   * Starts a new list, the default score is returned for documents that are
+   * not in the list.
+   */
+  public void processWord(byte[] word, double defaultScore) throws IOException {
+    if (list != null) {
+      list.close();
+      writer.add(list);
+    }
+    list = new ImpactList(word, blockSize, defaultScore, impactOrdered);
+  }
+
+  public void processPosting(long document, int impact) throws IOException {
+    list.addPosting(document, impact);
+  }
+
+  public void close() throws IOException {
+    if (list != null) {
+      list.close();
+      writer.add(list);
+    }
+    writer.close();
+  }
+
+  public static class ImpactList implements IndexElement {
+
+    private final byte[] word;
+    private final int blockSize;
+    private final double defaultScore;
+    private final CompressedByteBuffer header = new CompressedByteBuffer();
+    private final CompressedByteBuffer blocks = new CompressedByteBuffer();
+    private final DiskSpillCompressedByteBuffer data = new DiskSpillCompressedByteBuffer();
+    // impact ordered segments, indexed by impact
+    private final CompressedByteBuffer[] segments;
+    private final long[] segmentLastDocument;
+    private final long[] segmentDocumentCount;
+    private long documentCount;
+    private long blockCount;
+    private long lastDocument;
+    private long lastBlockDocument;
+    private long blockStartLength;
+    private int blockMaxImpact;
+    private int maxImpact;
+
+    public ImpactList(byte[] word, int blockSize, double defaultScore, boolean impactOrdered) {
+      this.word = word;
+      this.blockSize = blockSize;
+      this.defaultScore = defaultScore;
+      if (impactOrdered) {
+        segments = new CompressedByteBuffer[256];
+        segmentLastDocument = new long[256];
+        segmentDocumentCount = new long[256];
+      } else {
+        segments = null;
+        segmentLastDocument = null;
+        segmentDocumentCount = null;
+      }
+    }
+
+    public void addPosting(long document, int impact) {
+      assert (impact > 0 && impact < 256) : "Impacts must fit in a byte.";
+      data.add(document - lastDocument);
+      data.addRaw(impact);
+      lastDocument = document;
+      documentCount++;
+      blockMaxImpact = Math.max(blockMaxImpact, impact);
+      maxImpact = Math.max(maxImpact, impact);
+
+      if (segments != null) {
+        if (segments[impact] == null) {
+          segments[impact] = new CompressedByteBuffer();
+        }
+        segments[impact].add(document - segmentLastDocument[impact]);
+        segmentLastDocument[impact] = document;
+        segmentDocumentCount[impact]++;
+      }
+
+      if (documentCount % blockSize == 0) {
+        finishBlock();
+      }
+    }
+
+    private void finishBlock() {
+      blocks.add(lastDocument - lastBlockDocument);
+      blocks.add(blockMaxImpact);
+      blocks.add(data.length() - blockStartLength);
+      lastBlockDocument = lastDocument;
+      blockStartLength = data.length();
+      blockMaxImpact = 0;
+      blockCount++;
+    }
+
+    public void close() {
+      if (documentCount % blockSize != 0) {
+        finishBlock();
+      }
+      header.add(documentCount);
+      header.add(blockSize);
+      header.add(blockCount);
+      header.add(maxImpact);
+      header.addDouble(defaultScore);
+      header.add(blocks);
+      blocks.clear();
+
+      int segmentCount = 0;
+      if (segments != null) {
+        for (int impact = maxImpact; impact > 0; impact--) {
+          if (segments[impact] != null) {
+            segmentCount++;
+          }
+        }
+      }
+      header.add(segmentCount);
+      for (int impact = maxImpact; impact > 0 && segmentCount > 0; impact--) {
+        if (segments[impact] != null) {
+          header.add(impact);
+          header.add(segmentDocumentCount[impact]);
+          header.add(segments[impact].length());
+        }
+      }
+    }
+
+    private long segmentsLength() {
+      long length = 0;
+      if (segments != null) {
+        for (CompressedByteBuffer segment : segments) {
+          if (segment != null) {
+            length += segment.length();
+          }
+        }
+      }
+      return length;
+    }
+
+    @Override
+    public byte[] key() {
+      return word;
+    }
+
+    @Override
+    public long dataLength() {
+      return header.length() + data.length() + segmentsLength();
+    }
+
+    @Override
+    public void write(OutputStream stream) throws IOException {
+      header.write(stream);
+      header.clear();
+      data.write(stream);
+      data.clear();
+      if (segments != null) {
+        for (int impact = maxImpact; impact > 0; impact--) {
+          if (segments[impact] != null) {
+            segments[impact].write(stream);
+            segments[impact] = null;
+          }
+        }
+      }
+    }
+  }
+}
@@ -7,9 +7,11 @@ import org.lemurproject.galago.core.index.stats.NodeStatistics;
 import org.lemurproject.galago.utility.btree.BTreeIterator;
 import org.lemurproject.galago.utility.buffer.DataStream;
 import org.lemurproject.galago.utility.buffer.VByteInput;
+import org.lemurproject.galago.utility.metrics.Metrics;
 
 import java.io.DataInput;
 import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This iterator simply ignores the positions information - faster b/c when
@@ -22,6 +24,12 @@ import java.io.IOException;
  */
 final public class PositionIndexCountSource extends BTreeValueSource implements CountSource {
 
+  private static final LongAdder postingsDecoded = Metrics.counter("galago_postings_decoded_total", "source", "counts");
+  private static final LongAdder skipsTaken = Metrics.counter("galago_posting_skips_total", "source", "counts");
+  // counted locally, and added to the metrics when the list is done or reset
+  private long decoded = 0;
+  private long skipped = 0;
+
   public long documentCount;
   public long collectionCount;
   public long maximumPositionCount;
@@ -58,6 +66,7 @@ final public class PositionIndexCountSource extends BTreeValueSource implements
 
   @Override
   public void reset() throws IOException {
+    flushMetrics();
     currentDocument = 0;
     currentCount = 0;
     done = false;
@@ -148,12 +157,25 @@ final public class PositionIndexCountSource extends BTreeValueSource implements
       done = true;
       currentDocument = Long.MAX_VALUE;
       currentCount = 0;
+      flushMetrics();
       return;
     }
+    decoded++;
     currentDocument += documents.readLong();
     currentCount = counts.readInt();
   }
 
+  private void flushMetrics() {
+    if (decoded > 0) {
+      postingsDecoded.add(decoded);
+      decoded = 0;
+    }
+    if (skipped > 0) {
+      skipsTaken.add(skipped);
+      skipped = 0;
+    }
+  }
+
   @Override
   public boolean isDone() {
     return done;
@@ -214,6 +236,7 @@ final public class PositionIndexCountSource extends BTreeValueSource implements
     }
 
     assert skipsRead < numSkips;
+    skipped++;
     long currentSkipPosition = lastSkipPosition + skips.readLong();
     if (skipsRead % skipResetDistance == 0) {
       // Position the skip positions stream
@@ -8,10 +8,12 @@ import org.lemurproject.galago.core.index.stats.NodeStatistics;
 import org.lemurproject.galago.core.util.ExtentArray;
 import org.lemurproject.galago.utility.buffer.DataStream;
 import org.lemurproject.galago.utility.buffer.VByteInput;
+import org.lemurproject.galago.utility.metrics.Metrics;
 
 import java.io.DataInput;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  *
@@ -19,6 +21,12 @@ import java.io.IOException;
  */
 final public class PositionIndexExtentSource extends BTreeValueSource implements ExtentSource {
 
+    private static final LongAdder postingsDecoded = Metrics.counter("galago_postings_decoded_total", "source", "extents");
+    private static final LongAdder skipsTaken = Metrics.counter("galago_posting_skips_total", "source", "extents");
+    // counted locally, and added to the metrics when the list is done or reset
+    private long decoded = 0;
+    private long skipped = 0;
+
     public long documentCount;
     public long totalPositionCount;
     public long maximumPositionCount;
@@ -74,6 +82,7 @@ final public class PositionIndexExtentSource extends BTreeValueSource implements
 
     @Override
     public void reset() throws IOException {
+        flushMetrics();
         currentDocument = 0;
         currentCount = 0;
         extentArray.reset();
@@ -150,6 +159,17 @@ final public class PositionIndexExtentSource extends BTreeValueSource implements
         loadNextPosting();
     }
 
+    private void flushMetrics() {
+        if (decoded > 0) {
+            postingsDecoded.add(decoded);
+            decoded = 0;
+        }
+        if (skipped > 0) {
+            skipsTaken.add(skipped);
+            skipped = 0;
+        }
+    }
+
     private void loadNextPosting() throws IOException {
         if (documentIndex >= documentCount) {
             done = true;
@@ -157,6 +177,7 @@ final public class PositionIndexExtentSource extends BTreeValueSource implements
             extentsLoaded = true;
             currentCount = 0;
             currentDocument = Long.MAX_VALUE;
+            flushMetrics();
             return;
         }
         // We're at the previous document, if we didn't yet load its extents,
@@ -170,6 +191,7 @@ final public class PositionIndexExtentSource extends BTreeValueSource implements
         }
 
         // Read next document delta and number of positions
+        decoded++;
         currentDocument += documents.readLong();
         currentCount = counts.readInt();
 
@@ -281,6 +303,7 @@ final public class PositionIndexExtentSource extends BTreeValueSource implements
         }
 
         assert skip.read < skip.total;
+        skipped++;
         long currentSkipPosition = skip.nextPosition + skip.data.readLong();
         if (skip.read % skip.resetDistance == 0) {
             // Position the skip positions stream
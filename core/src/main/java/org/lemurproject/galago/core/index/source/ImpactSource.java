@@ -0,0 +1,16 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.index.source;
+
+/**
+ * A source of quantized impacts, one small integer per posting.
+ */
+public interface ImpactSource extends DiskSource {
+  /** the quantized impact of this document, 0 if the document is not in the list */
+  public int impact(long id);
+  /** the largest impact in the whole list */
+  public int maximumImpact();
+  /** the largest impact in the block containing the current candidate */
+  public int blockMaximumImpact();
+  /** the score assigned to documents that are not in the list */
+  public double defaultScore();
+}
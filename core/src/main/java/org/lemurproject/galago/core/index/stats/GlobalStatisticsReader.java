@@ -0,0 +1,179 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.index.stats;
+
+import org.lemurproject.galago.core.parse.stem.Stemmer;
+import org.lemurproject.galago.utility.ByteUtil;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.btree.disk.DiskBTreeReader;
+import org.lemurproject.galago.utility.compression.VByte;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the global statistics written by GlobalStatisticsWriter (see the
+ * build-global-stats app). Readers are shared by path, so every retrieval in a
+ * process that is configured with the same 'globalStatsPath' uses one copy;
+ * a shared reader is closed when the last retrieval that opened it closes it.
+ *
+ * @see GlobalStatisticsWriter
+ */
+public class GlobalStatisticsReader implements Closeable {
+
+  private static final Map<String, GlobalStatisticsReader> open = new HashMap<>();
+  private final String path;
+  private int references = 1;
+  private final DiskBTreeReader reader;
+  private final Set<String> parts;
+  private final Parameters fields;
+  private final Map<String, Stemmer> stemmers = new HashMap<>();
+
+  public GlobalStatisticsReader(String path) throws IOException {
+    this.path = path;
+    this.reader = new DiskBTreeReader(path);
+    this.parts = new HashSet<>(reader.getManifest().getAsList("parts", String.class));
+    this.fields = reader.getManifest().get("fields", Parameters.create());
+    Parameters stemmerClasses = reader.getManifest().get("stemmers", Parameters.create());
+    for (String part : stemmerClasses.getKeys()) {
+      try {
+        stemmers.put(part, Stemmer.create(Parameters.parseArray("stemmer", stemmerClasses.getString(part))));
+      } catch (ReflectiveOperationException e) {
+        reader.close();
+        throw new IOException("Unable to create the stemmer of part " + part + " in " + path, e);
+      }
+    }
+  }
+
+  /**
+   * Returns the shared reader for this path, opening it if necessary. Each
+   * call must be matched by a call to close.
+   */
+  public static GlobalStatisticsReader open(String path) throws IOException {
+    String key = new File(path).getAbsolutePath();
+    synchronized (open) {
+      GlobalStatisticsReader r = open.get(key);
+      if (r == null) {
+        r = new GlobalStatisticsReader(key);
+        open.put(key, r);
+      } else {
+        r.references++;
+      }
+      return r;
+    }
+  }
+
+  public Parameters getManifest() {
+    return reader.getManifest();
+  }
+
+  /**
+   * Checks that these statistics were built from an index, or from the shards
+   * it merges, by comparing the document count and collection length of its
+   * 'document' field with those of the shards recorded in the file.
+   *
+   * @throws IllegalArgumentException if the index does not match
+   */
+  public void checkIndex(FieldStatistics documents) {
+    List<Parameters> shards = reader.getManifest().getAsList("shards", Parameters.class);
+    if (shards.isEmpty()) {
+      // written without shard statistics
+      return;
+    }
+    FieldStatistics total = getFieldStatistics("document");
+    if (total != null && total.documentCount == documents.documentCount
+            && total.collectionLength == documents.collectionLength) {
+      return;
+    }
+    for (Parameters shard : shards) {
+      if (shard.get("documentCount", -1L) == documents.documentCount
+              && shard.get("collectionLength", -1L) == documents.collectionLength) {
+        return;
+      }
+    }
+    throw new IllegalArgumentException("Global statistics " + path + " were not built from this index ("
+            + documents.documentCount + " documents, collection length " + documents.collectionLength + ").");
+  }
+
+  public boolean hasPart(String part) {
+    return parts.contains(part);
+  }
+
+  /**
+   * Returns the global statistics of a term in an index part, or null if the
+   * part was not aggregated or the term is not in it. The term is stemmed
+   * with the part's stemmer, as the part's own reader would.
+   */
+  public NodeStatistics getNodeStatistics(String part, String term) throws IOException {
+    if (!parts.contains(part)) {
+      return null;
+    }
+    Stemmer stemmer = stemmers.get(part);
+    byte[] prefix = partPrefix(part);
+    byte[] t = ByteUtil.fromString(stemmer == null ? term : stemmer.stemAsRequired(term));
+    byte[] key = new byte[prefix.length + t.length];
+    System.arraycopy(prefix, 0, key, 0, prefix.length);
+    System.arraycopy(t, 0, key, prefix.length, t.length);
+
+    byte[] value = reader.getValueBytes(key);
+    if (value == null) {
+      return null;
+    }
+    NodeStatistics stats = new NodeStatistics();
+    stats.node = term;
+    int offset = 0;
+    stats.nodeFrequency = VByte.uncompressLong(value, offset);
+    offset += VByte.compressLong(stats.nodeFrequency).length;
+    stats.nodeDocumentCount = VByte.uncompressLong(value, offset);
+    offset += VByte.compressLong(stats.nodeDocumentCount).length;
+    stats.maximumCount = VByte.uncompressLong(value, offset);
+    return stats;
+  }
+
+  /**
+   * Returns the global statistics of a field (e.g. 'document'), or null if
+   * the field was not aggregated.
+   */
+  public FieldStatistics getFieldStatistics(String field) {
+    if (!fields.isMap(field)) {
+      return null;
+    }
+    Parameters p = fields.getMap(field);
+    FieldStatistics stats = new FieldStatistics();
+    stats.fieldName = p.get("fieldName", field);
+    stats.collectionLength = p.getLong("collectionLength");
+    stats.documentCount = p.getLong("documentCount");
+    stats.nonZeroLenDocCount = p.getLong("nonZeroLenDocCount");
+    stats.maxLength = p.getLong("maxLength");
+    stats.minLength = p.getLong("minLength");
+    stats.firstDocId = p.getLong("firstDocId");
+    stats.lastDocId = p.getLong("lastDocId");
+    stats.avgLength = p.getDouble("avgLength");
+    return stats;
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (open) {
+      if (--references > 0) {
+        return;
+      }
+      open.remove(path, this);
+    }
+    reader.close();
+  }
+
+  static byte[] partPrefix(String part) {
+    byte[] p = ByteUtil.fromString(part);
+    byte[] prefix = new byte[p.length + 1];
+    System.arraycopy(p, 0, prefix, 0, p.length);
+    return prefix;
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.index.stats;
+
+import org.lemurproject.galago.utility.ByteUtil;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.btree.GenericElement;
+import org.lemurproject.galago.utility.btree.disk.DiskBTreeWriter;
+import org.lemurproject.galago.utility.compression.VByte;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes collection-wide statistics, merged over a set of shard indexes, to a
+ * single btree file. Each key is an index part name and a term, separated by a
+ * zero byte; each value is the (nodeFrequency, nodeDocumentCount,
+ * maximumCount) triple, vbyte compressed. Field statistics, and the stemmer
+ * of each part, are stored in the manifest.
+ *
+ * Parts must be written in sorted order, and the terms of each part in key
+ * order.
+ *
+ * @see GlobalStatisticsReader
+ */
+public class GlobalStatisticsWriter implements Closeable {
+
+  private final DiskBTreeWriter writer;
+  private final List<String> parts = new ArrayList<>();
+  private final Parameters fields = Parameters.create();
+  private final Parameters stemmers = Parameters.create();
+  private String currentPart = null;
+  private byte[] currentPrefix = null;
+
+  public GlobalStatisticsWriter(String path) throws IOException {
+    Parameters manifest = Parameters.create();
+    manifest.set("writerClass", getClass().getName());
+    this.writer = new DiskBTreeWriter(path, manifest);
+  }
+
+  public Parameters getManifest() {
+    return writer.getManifest();
+  }
+
+  public void startPart(String part) {
+    if (currentPart != null && currentPart.compareTo(part) >= 0) {
+      throw new IllegalArgumentException("Part " + part + " is out of order.");
+    }
+    currentPart = part;
+    currentPrefix = GlobalStatisticsReader.partPrefix(part);
+    parts.add(part);
+  }
+
+  /**
+   * Records the stemmer of the current part, so that readers can stem query
+   * terms as the part's own reader would.
+   */
+  public void setStemmer(String stemmerClass) {
+    stemmers.set(currentPart, stemmerClass);
+  }
+
+  public void add(byte[] term, NodeStatistics stats) throws IOException {
+    byte[] key = new byte[currentPrefix.length + term.length];
+    System.arraycopy(currentPrefix, 0, key, 0, currentPrefix.length);
+    System.arraycopy(term, 0, key, currentPrefix.length, term.length);
+
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(buffer);
+    VByte.compressLong(out, stats.nodeFrequency);
+    VByte.compressLong(out, stats.nodeDocumentCount);
+    VByte.compressLong(out, stats.maximumCount);
+    out.close();
+
+    writer.add(new GenericElement(key, buffer.toByteArray()));
+  }
+
+  public void add(String term, NodeStatistics stats) throws IOException {
+    add(ByteUtil.fromString(term), stats);
+  }
+
+  public void setFieldStatistics(String field, FieldStatistics stats) {
+    fields.set(field, stats.toParameters());
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.getManifest().set("parts", parts);
+    writer.getManifest().set("fields", fields);
+    writer.getManifest().set("stemmers", stemmers);
+    writer.close();
+  }
+}
@@ -0,0 +1,109 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.parse;
+
+import org.lemurproject.galago.tupleflow.InputClass;
+import org.lemurproject.galago.tupleflow.OutputClass;
+import org.lemurproject.galago.tupleflow.StandardStep;
+import org.lemurproject.galago.tupleflow.TupleFlowParameters;
+import org.lemurproject.galago.tupleflow.execution.ErrorStore;
+import org.lemurproject.galago.tupleflow.execution.Verified;
+import org.lemurproject.galago.utility.StreamCreator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Numbers documents in decreasing order of a static prior (e.g. the output
+ * of 'galago pagerank', or any build-special prior file).</p>
+ *
+ * <p>Documents listed in the prior file(s) are numbered 0..n-1, from the
+ * highest prior to the lowest (ties broken by name). Documents without a prior
+ * are numbered after all of them, in the same way as DocumentNumberer.</p>
+ *
+ * <p>Used with: --numberer/class=org.lemurproject.galago.core.parse.PriorOrderedDocumentNumberer
+ * --numberer/priorPath=/path/to/priors [--numberer/split=\t]</p>
+ *
+ * <p>A prior part built from the same file will then be in decreasing order,
+ * which allows PriorOrderedDocumentModel to stop early.</p>
+ */
+@Verified
+@InputClass(className = "org.lemurproject.galago.core.parse.Document")
+@OutputClass(className = "org.lemurproject.galago.core.parse.Document")
+public class PriorOrderedDocumentNumberer extends StandardStep<Document, Document> {
+
+  final Map<String, Integer> ranks;
+  int fileId = -1;
+  long curNum = -1;
+  int increment = -1;
+
+  public PriorOrderedDocumentNumberer(TupleFlowParameters parameters) throws IOException {
+    List<String> priorPaths = parameters.getJSON().getAsList("priorPath", String.class);
+    String split = parameters.getJSON().get("split", "");
+
+    final Map<String, Double> priors = new HashMap<>();
+    for (String path : priorPaths) {
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(StreamCreator.openInputStream(path)))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          line = line.trim();
+          if (line.isEmpty()) {
+            continue;
+          }
+          // default: any whitespace (tab from build-special files, space from pagerank)
+          String[] parts = split.isEmpty() ? line.split("\\s+") : line.split(split);
+          if (parts.length < 2) {
+            continue;
+          }
+          priors.put(parts[0], Double.parseDouble(parts[1]));
+        }
+      }
+    }
+
+    List<String> names = new ArrayList<>(priors.keySet());
+    Collections.sort(names, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        int c = Double.compare(priors.get(b), priors.get(a));
+        return (c != 0) ? c : a.compareTo(b);
+      }
+    });
+
+    ranks = new HashMap<>(names.size());
+    for (int i = 0; i < names.size(); i++) {
+      ranks.put(names.get(i), i);
+    }
+  }
+
+  @Override
+  public void process(Document doc) throws IOException {
+    if (fileId != doc.fileId) {
+      fileId = doc.fileId;
+      increment = doc.totalFileCount;
+      curNum = doc.fileId;
+    }
+
+    if (doc.identifier < 0) {
+      Integer rank = ranks.get(doc.name);
+      if (rank != null) {
+        doc.identifier = rank;
+      } else {
+        doc.identifier = ranks.size() + curNum;
+        curNum += increment;
+      }
+    }
+    processor.process(doc);
+  }
+
+  public static void verify(TupleFlowParameters parameters, ErrorStore store) {
+    if (!parameters.getJSON().containsKey("priorPath")) {
+      store.addError("PriorOrderedDocumentNumberer requires a 'priorPath' parameter.");
+    }
+  }
+}
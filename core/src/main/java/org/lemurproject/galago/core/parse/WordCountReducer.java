@@ -4,6 +4,7 @@ package org.lemurproject.galago.core.parse;
 import java.io.IOException;
 import java.util.Arrays;
 import org.lemurproject.galago.core.types.WordCount;
+import org.lemurproject.galago.tupleflow.Combiner;
 import org.lemurproject.galago.tupleflow.InputClass;
 import org.lemurproject.galago.tupleflow.OutputClass;
 import org.lemurproject.galago.tupleflow.StandardStep;
@@ -17,7 +18,7 @@ import org.lemurproject.galago.tupleflow.execution.Verified;
 @OutputClass(className = "org.lemurproject.galago.core.types.WordCount", order = {"+word"})
 @Verified
 public class WordCountReducer extends StandardStep<WordCount, WordCount> implements
-        WordCount.Source {
+        WordCount.Source, Combiner<WordCount> {
 
   private WordCount last = null;
 
@@ -26,15 +27,20 @@ public class WordCountReducer extends StandardStep<WordCount, WordCount> impleme
     if (last == null) {
       last = wordCount;
     } else if (Arrays.equals(wordCount.word, last.word)) {
-      last.collectionFrequency += wordCount.collectionFrequency;
-      last.documentCount += wordCount.documentCount;
-      last.maxDocumentFrequency = Math.max(last.maxDocumentFrequency, wordCount.maxDocumentFrequency);
+      combine(last, wordCount);
     } else {
       processor.process(last);
       last = wordCount;
     }
   }
 
+  @Override
+  public void combine(WordCount aggregate, WordCount value) {
+    aggregate.collectionFrequency += value.collectionFrequency;
+    aggregate.documentCount += value.documentCount;
+    aggregate.maxDocumentFrequency = Math.max(aggregate.maxDocumentFrequency, value.maxDocumentFrequency);
+  }
+
   @Override
   public void close() throws IOException {
     if (last != null) {
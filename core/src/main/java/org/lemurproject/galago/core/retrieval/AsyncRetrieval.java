@@ -0,0 +1,47 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.retrieval;
+
+import org.lemurproject.galago.core.index.stats.NodeStatistics;
+import org.lemurproject.galago.core.parse.Document;
+import org.lemurproject.galago.core.parse.Document.DocumentComponents;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.utility.Parameters;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking versions of the per-query Retrieval calls, for asynchronous
+ * callers. The calling thread is never blocked; failures complete the future
+ * exceptionally.
+ *
+ * Work is run on the retrieval's async executor, which may be replaced with
+ * setAsyncExecutor (e.g. with the caller's own pool). Remote retrievals do not
+ * hold a thread while a request is in flight, and the executor is only used to
+ * complete the returned futures.
+ */
+public interface AsyncRetrieval {
+
+  /**
+   * See Retrieval.executeQuery(Node, Parameters).
+   */
+  CompletableFuture<Results> executeQueryAsync(Node root, Parameters parameters);
+
+  /**
+   * See Retrieval.getNodeStatistics(Node).
+   */
+  CompletableFuture<NodeStatistics> getNodeStatisticsAsync(Node node);
+
+  /**
+   * See Retrieval.getDocuments(List, DocumentComponents).
+   */
+  CompletableFuture<Map<String, Document>> getDocumentsAsync(List<String> identifiers, DocumentComponents p);
+
+  /**
+   * Replaces the executor used for asynchronous calls. The retrieval does not
+   * shut down an executor that it is given.
+   */
+  void setAsyncExecutor(Executor executor);
+}
@@ -325,8 +325,9 @@ public class FeatureFactory {
         } else if (BaseIterator.class.isAssignableFrom(formals.get(0)) && childIterators.size() > childIdx) {
           // Some number of Iterator, can be different - just do the one at the front now
           // only if we have a childIterator left to assign!
-          if (formals.get(0).isAssignableFrom(childIterators.get(childIdx).getClass())) {
-            arguments.add(childIterators.get(childIdx));
+          BaseIterator argument = asArgument(formals.get(0), childIterators.get(childIdx));
+          if (argument != null) {
+            arguments.add(argument);
             childIdx++;
           } else {
             fail = true;
@@ -337,19 +338,20 @@ public class FeatureFactory {
           // Only an array of structured iterators - all the same type
           // First check that all children match
           Class<?> ac = formals.get(0).getComponentType();
+          Object[] generalArray = (Object[]) Array.newInstance(ac, childIterators.size() - childIdx);
           for (int i = childIdx; i < childIterators.size(); i++) {
-            if (!ac.isAssignableFrom(childIterators.get(i).getClass())) {
+            BaseIterator argument = asArgument(ac, childIterators.get(i));
+            if (argument == null) {
               fail = true;
               failStr = "Argument " + arguments.size() + " is:\n" + childIterators.get(i).getClass().getName() + "\nConstructor expected an array of:\n" + ac.getName();
               break;
             }
+            generalArray[i - childIdx] = argument;
           }
 
           if (fail) {
             break;
           }
-          Object typedArray = Array.newInstance(formals.get(0).getComponentType(), 0);
-          Object[] generalArray = childIterators.subList(childIdx, childIterators.size()).toArray((Object[]) typedArray);
           arguments.add(generalArray);
         }
         formals.poll();
@@ -375,6 +377,20 @@ public class FeatureFactory {
     }
   }
 
+  /**
+   * Returns the child iterator if it can be passed as a constructor argument of
+   * the formal type, or null. A profiled child only implements the interfaces
+   * of its iterator; if the constructor needs the concrete class, the iterator
+   * itself is passed, and calls from the parent to it are not profiled.
+   */
+  private static BaseIterator asArgument(Class<?> formal, BaseIterator child) {
+    if (formal.isInstance(child)) {
+      return child;
+    }
+    BaseIterator unwrapped = ProfilingIterator.unwrap(child);
+    return formal.isInstance(unwrapped) ? unwrapped : null;
+  }
+
   public List<String> getTraversalNames() {
     ArrayList<String> result = new ArrayList<>();
     for (TraversalSpec spec : traversals) {
@@ -62,6 +62,9 @@ public class GroupRetrieval implements Retrieval {
 
   @Override
   public void close() throws IOException {
+    for (Traversal traversal : defaultTraversals) {
+      traversal.close();
+    }
     for (Retrieval r : groups.values()) {
       r.close();
     }
@@ -136,6 +139,16 @@ public class GroupRetrieval implements Retrieval {
     return groups.get(defGroup).getNodeStatistics(node);
   }
 
+  @Override
+  public List<NodeStatistics> getNodeStatistics(List<Node> nodes) throws Exception {
+    return groups.get(defGroup).getNodeStatistics(nodes);
+  }
+
+  @Override
+  public double getMaximumScore(Node root, Parameters queryParams) throws Exception {
+    return groups.get(defGroup).getMaximumScore(root, queryParams);
+  }
+
   @Override
   public Integer getDocumentLength(Long docid) throws IOException {
     return groups.get(defGroup).getDocumentLength(docid);
@@ -228,6 +241,10 @@ public class GroupRetrieval implements Retrieval {
     return groups.get(group).getNodeStatistics(node);
   }
 
+  public List<NodeStatistics> getNodeStatistics(List<Node> nodes, String group) throws Exception {
+    return groups.get(group).getNodeStatistics(nodes);
+  }
+
   public Integer getDocumentLength(Long docid, String group) throws IOException {
     return groups.get(group).getDocumentLength(docid);
   }
@@ -11,18 +11,26 @@ import org.lemurproject.galago.core.parse.Document.DocumentComponents;
 import org.lemurproject.galago.core.retrieval.iterator.*;
 import org.lemurproject.galago.core.retrieval.processing.ProcessingModel;
 import org.lemurproject.galago.core.retrieval.processing.ScoringContext;
+import org.lemurproject.galago.core.retrieval.processing.SearchAfter;
 import org.lemurproject.galago.core.retrieval.query.Node;
 import org.lemurproject.galago.core.retrieval.query.NodeType;
+import org.lemurproject.galago.core.retrieval.query.ProfiledNode;
 import org.lemurproject.galago.core.retrieval.query.QueryType;
 import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
 import org.lemurproject.galago.core.retrieval.traversal.Traversal;
 import org.lemurproject.galago.core.tokenize.Tokenizer;
 import org.lemurproject.galago.utility.CmpUtil;
 import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.metrics.Metrics;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 
 /**
@@ -37,9 +45,16 @@ import java.util.logging.Logger;
  * @author irmarc
  * @author sjh
  */
-public class LocalRetrieval implements Retrieval {
+public class LocalRetrieval implements Retrieval, AsyncRetrieval {
 
     protected final Logger logger = Logger.getLogger(this.getClass().getName());
+    private static final LongAdder activeQueries = Metrics.level("galago_queries_active");
+    private static final LongAdder namesCacheHits = Metrics.counter("galago_cache_requests_total", "cache", "names", "result", "hit");
+    private static final LongAdder namesCacheMisses = Metrics.counter("galago_cache_requests_total", "cache", "names", "result", "miss");
+    private static final LongAdder statsCacheHits = Metrics.counter("galago_cache_requests_total", "cache", "nodeStatistics", "result", "hit");
+    private static final LongAdder statsCacheMisses = Metrics.counter("galago_cache_requests_total", "cache", "nodeStatistics", "result", "miss");
+    private static final LongAdder cachedRetrievalHits = Metrics.counter("galago_cache_requests_total", "cache", "cachedRetrieval", "result", "hit");
+    private static final LongAdder cachedRetrievalMisses = Metrics.counter("galago_cache_requests_total", "cache", "cachedRetrieval", "result", "miss");
     protected Index index;
     protected FeatureFactory features;
     protected Parameters globalParameters;
@@ -50,6 +65,11 @@ public class LocalRetrieval implements Retrieval {
     protected Cache<Long, String> nameCache;
     @Nullable
     protected Cache<Node, NodeStatistics> nodeStatisticsCache;
+    // asynchronous calls run on a pool of 'asyncThreads' threads, created on first use
+    private Executor asyncExecutor;
+    private ExecutorService ownedAsyncExecutor;
+    // profiles of the iterators created by a query run with "profile": true on this thread
+    private final ThreadLocal<List<ProfiledNode>> activeProfiles = new ThreadLocal<>();
 
 
     /**
@@ -91,6 +111,7 @@ public class LocalRetrieval implements Retrieval {
         try {
             this.index = indx;
             features = new FeatureFactory(globalParameters);
+            closeTraversals();
             defaultTraversals = features.getTraversals(this);
             if(nodeStatisticsCache != null) nodeStatisticsCache.invalidateAll();
             if(nameCache != null) nameCache.invalidateAll();
@@ -108,9 +129,36 @@ public class LocalRetrieval implements Retrieval {
      */
     @Override
     public void close() throws IOException {
+        synchronized (this) {
+            if (ownedAsyncExecutor != null) {
+                ownedAsyncExecutor.shutdown();
+            }
+        }
+        closeTraversals();
         index.close();
     }
 
+    private void closeTraversals() throws IOException {
+        if (defaultTraversals != null) {
+            for (Traversal traversal : defaultTraversals) {
+                traversal.close();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void setAsyncExecutor(Executor executor) {
+        this.asyncExecutor = executor;
+    }
+
+    protected synchronized Executor getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            ownedAsyncExecutor = RetrievalExecutors.create(globalParameters, "asyncThreads", Runtime.getRuntime().availableProcessors(), "local-retrieval");
+            asyncExecutor = ownedAsyncExecutor;
+        }
+        return asyncExecutor;
+    }
+
     /**
      * Returns some statistics about a particular index part -- vocab size,
      * number of entries, maximumDocCount of any indexed term, etc
@@ -158,6 +206,16 @@ public class LocalRetrieval implements Retrieval {
         return this.index.getDocuments(identifier, p);
     }
 
+    @Override
+    public CompletableFuture<Map<String, Document>> getDocumentsAsync(final List<String> identifiers, final DocumentComponents p) {
+        return RetrievalExecutors.supply(new Callable<Map<String, Document>>() {
+            @Override
+            public Map<String, Document> call() throws Exception {
+                return getDocuments(identifiers, p);
+            }
+        }, getAsyncExecutor());
+    }
+
     /*
      * getArrayResults annotates a queue of scored documents returns an array
      *
@@ -192,9 +250,11 @@ public class LocalRetrieval implements Retrieval {
             if(nameCache != null) {
                 String name = nameCache.getIfPresent(doc.document);
                 if(name != null) {
+                    namesCacheHits.increment();
                     doc.documentName = name;
                     continue;
                 }
+                namesCacheMisses.increment();
             }
             namesIterator.syncTo(doc.document);
             sc.document = doc.document;
@@ -244,10 +304,29 @@ public class LocalRetrieval implements Retrieval {
         if (globalParameters.containsKey("processingModel")) {
             queryParams.set("processingModel", globalParameters.getString("processingModel"));
         }
-        ProcessingModel pm = ProcessingModel.create(this, queryTree, queryParams);
+        boolean profile = queryParams.get("profile", false);
+        List<ProfiledNode> profiles = new ArrayList<>();
+        if (profile) {
+            activeProfiles.set(profiles);
+        }
+        long start = System.nanoTime();
+        activeQueries.increment();
 
-        // get some results
-        results = pm.execute(queryTree, queryParams);
+        ProcessingModel pm;
+        try {
+            pm = ProcessingModel.create(this, queryTree, queryParams);
+
+            // get some results
+            results = pm.execute(queryTree, queryParams);
+        } finally {
+            activeQueries.decrement();
+            if (profile) {
+                activeProfiles.remove();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        Metrics.histogram("galago_query_seconds", "model", pm.getClass().getSimpleName()).record(nanos);
+        Metrics.histogram("galago_operator_query_seconds", "operator", queryTree.getOperator()).record(nanos);
         if (results == null) {
             results = new ScoredDocument[0];
         }
@@ -255,14 +334,34 @@ public class LocalRetrieval implements Retrieval {
         // Format and get names
         String indexId = this.globalParameters.get("indexId", "0");
         List<ScoredDocument> rankedList = Arrays.asList(getArrayResults(results, indexId));
+        SearchAfter after = SearchAfter.create(queryParams);
+        if (after != null) {
+            // ranks continue from the previous page
+            for (ScoredDocument sd : rankedList) {
+                sd.rank += after.rank;
+            }
+        }
 
         Results r = new Results(this);
         r.inputQuery = queryTree;
         r.processingModel = pm.getClass();
         r.scoredDocuments = rankedList;
+        if (profile) {
+            r.profile = ProfiledNode.root(pm.getClass().getSimpleName(), nanos, profiles);
+        }
         return r;
     }
 
+    @Override
+    public CompletableFuture<Results> executeQueryAsync(final Node queryTree, final Parameters queryParams) {
+        return RetrievalExecutors.supply(new Callable<Results>() {
+            @Override
+            public Results call() throws Exception {
+                return executeQuery(queryTree, queryParams);
+            }
+        }, getAsyncExecutor());
+    }
+
     public BaseIterator createIterator(Parameters queryParameters, Node node) throws Exception {
         if (queryParameters.get("shareNodes", globalParameters.get("shareNodes", true))) {
             return createNodeMergedIterator(node, new HashMap<>());
@@ -284,8 +383,12 @@ public class LocalRetrieval implements Retrieval {
 
         // second check if this node is cached
         if (cache != null && cache.isCached(node)) {
+            cachedRetrievalHits.increment();
             iterator = cache.getCachedIterator(node);
         } else {
+            if (cache != null) {
+                cachedRetrievalMisses.increment();
+            }
 
       // otherwise we need to create a new iterator
             // start by recursively creating children
@@ -300,6 +403,11 @@ public class LocalRetrieval implements Retrieval {
             }
         }
 
+        List<ProfiledNode> profiles = activeProfiles.get();
+        if (profiles != null) {
+            iterator = ProfilingIterator.wrap(iterator, node, internalIterators, profiles);
+        }
+
         // we've created a new iterator - add to the cache for future nodes
         if (queryIteratorCache != null) {
             queryIteratorCache.put(node.toString(), iterator);
@@ -338,8 +446,10 @@ public class LocalRetrieval implements Retrieval {
         if (cache != null && cache.cacheStats) {
             AggregateStatistic stat = cache.getCachedStatistic(rootString);
             if (stat != null && stat instanceof FieldStatistics) {
+                cachedRetrievalHits.increment();
                 return (FieldStatistics) stat;
             }
+            cachedRetrievalMisses.increment();
         }
 
         FieldStatistics s;
@@ -408,7 +518,9 @@ public class LocalRetrieval implements Retrieval {
             CountIterator iterator = (CountIterator) structIterator;
             return iterator.getOrCalculateStatistics();
         }
-        return nodeStatisticsCache.get(root, (missing) -> {
+        final boolean[] computed = new boolean[1];
+        NodeStatistics stats = nodeStatisticsCache.get(root, (missing) -> {
+            computed[0] = true;
             try {
                 CountIterator iterator = (CountIterator) structIterator;
                 return iterator.getOrCalculateStatistics();
@@ -416,6 +528,67 @@ public class LocalRetrieval implements Retrieval {
                 throw new RuntimeException(e);
             }
         });
+        (computed[0] ? statsCacheMisses : statsCacheHits).increment();
+        return stats;
+    }
+
+    @Override
+    public CompletableFuture<NodeStatistics> getNodeStatisticsAsync(final Node root) {
+        // cached statistics do not need a thread
+        NodeStatistics cached = (nodeStatisticsCache != null) ? nodeStatisticsCache.getIfPresent(root) : null;
+        if (cached != null) {
+            statsCacheHits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        return RetrievalExecutors.supply(new Callable<NodeStatistics>() {
+            @Override
+            public NodeStatistics call() throws Exception {
+                return getNodeStatistics(root);
+            }
+        }, getAsyncExecutor());
+    }
+
+    @Override
+    public double getMaximumScore(Node root, Parameters queryParams) throws Exception {
+        // replace the collection-wide maximum counts with those of this index
+        Node localRoot = root.clone();
+        setLocalMaximumCounts(localRoot);
+
+        BaseIterator iterator = createIterator(queryParams, localRoot);
+        if (iterator instanceof ScoreIterator) {
+            return ((ScoreIterator) iterator).maximumScore();
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    private void setLocalMaximumCounts(Node node) throws Exception {
+        for (Node child : node.getInternalNodes()) {
+            setLocalMaximumCounts(child);
+        }
+        if (!node.getNodeParameters().containsKey("maximumCount")) {
+            return;
+        }
+        // the count node is found as in AnnotateCollectionStatistics (single children, or the second of two)
+        Node countNode = node;
+        while (countNode != null && !isCountNode(countNode)) {
+            if (countNode.numChildren() == 1) {
+                countNode = countNode.getChild(0);
+            } else if (countNode.numChildren() == 2) {
+                countNode = countNode.getChild(1);
+            } else {
+                countNode = null;
+            }
+        }
+        if (countNode != null) {
+            // a count of one still bounds the score of documents without the term
+            long maximumCount = Math.max(1, getNodeStatistics(countNode).maximumCount);
+            node.getNodeParameters().set("maximumCount", maximumCount);
+        }
+    }
+
+    private boolean isCountNode(Node node) throws Exception {
+        NodeType nodeType = getNodeType(node);
+        return nodeType != null && CountIterator.class.isAssignableFrom(nodeType.getIteratorClass());
     }
 
     @Override
@@ -7,6 +7,7 @@ import org.lemurproject.galago.core.index.stats.NodeStatistics;
 import org.lemurproject.galago.core.parse.Document;
 import org.lemurproject.galago.core.parse.Document.DocumentComponents;
 import org.lemurproject.galago.core.retrieval.iterator.*;
+import org.lemurproject.galago.core.retrieval.processing.SearchAfter;
 import org.lemurproject.galago.core.retrieval.query.Node;
 import org.lemurproject.galago.core.retrieval.query.NodeType;
 import org.lemurproject.galago.core.retrieval.query.QueryType;
@@ -17,6 +18,15 @@ import org.lemurproject.galago.utility.Parameters;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * This class allows searching over a set of Retrievals.
@@ -25,9 +35,34 @@ import java.util.*;
  * MultiRetrievals under a MultiRetrieval, it is not recommended, as this
  * behavior has not been tested and is currently undefined.
  *
+ * Requests to the shards are run in parallel on a bounded thread pool
+ * ('shardThreads', default: min(#shards, 2 * #cores)). If 'virtualThreads' is
+ * set and the JVM supports them, a virtual thread per task is used instead.
+ *
+ * Selective search: with 'shardSelection' set (globally or per query), only
+ * some shards are searched for each query:
+ * - 'cori' : shards are ranked with CORI, using the document frequency of each
+ * query term in each shard (vocabulary lookups only), and the top
+ * 'selectedShards' shards are searched. The per-shard frequencies of the most
+ * recent 'coriCacheSize' (default: 100000) terms are cached, so shards are
+ * only asked for terms that have not been seen.
+ * - 'safe' : shards are searched in decreasing order of their upper bound on
+ * the query score (see Retrieval.getMaximumScore), 'selectedShards' at a time,
+ * until no remaining shard can enter the top 'requested' documents. Returns
+ * the same documents as searching every shard.
+ * - 'all' : (default) every shard is searched.
+ *
+ * Asynchronous calls (see AsyncRetrieval) are sent to every shard without
+ * blocking: remote shards are called asynchronously, and do not hold a thread
+ * while a request is in flight; local shards are run on the shard pool. The
+ * async executors of the shards are left as they are, as the shards may be
+ * shared with other callers. Queries that use shard selection are run on a
+ * separate pool of 'asyncThreads' threads (default: #cores), as selection
+ * waits for a first round of shard requests.
+ *
  * @author sjh
  */
-public class MultiRetrieval implements Retrieval {
+public class MultiRetrieval implements Retrieval, AsyncRetrieval {
 
   protected ArrayList<Retrieval> retrievals;
   protected FeatureFactory features;
@@ -36,10 +71,23 @@ public class MultiRetrieval implements Retrieval {
   protected Parameters retrievalParts;
   protected HashMap<String, String> defaultIndexOperators = new HashMap<>();
   protected HashSet<String> knownIndexOperators = new HashSet<>();
+  protected ExecutorService executor;
+  private Executor asyncExecutor = null;
+  private ExecutorService ownedAsyncExecutor = null;
+  private List<FieldStatistics> shardLengths = null;
+  private final Map<String, long[]> shardFrequencies;
 
   public MultiRetrieval(ArrayList<Retrieval> indexes, Parameters p) throws Exception {
     this.retrievals = indexes;
     this.globalParameters = p;
+    this.executor = createExecutor(p, indexes.size());
+    final int coriCacheSize = (int) p.get("coriCacheSize", 100000L);
+    this.shardFrequencies = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+        return size() > coriCacheSize;
+      }
+    };
     initRetrieval();
     this.features = new FeatureFactory(this.globalParameters);
     defaultTraversals = features.getTraversals(this);
@@ -47,11 +95,120 @@ public class MultiRetrieval implements Retrieval {
 
   @Override
   public void close() throws IOException {
+    executor.shutdown();
+    synchronized (this) {
+      if (ownedAsyncExecutor != null) {
+        ownedAsyncExecutor.shutdown();
+      }
+    }
+    for (Traversal traversal : defaultTraversals) {
+      traversal.close();
+    }
     for (Retrieval r : retrievals) {
       r.close();
     }
   }
 
+  private static ExecutorService createExecutor(Parameters p, int shards) {
+    int defaultThreads = Math.min(shards, 2 * Runtime.getRuntime().availableProcessors());
+    return RetrievalExecutors.create(p, "shardThreads", defaultThreads, "multi-retrieval");
+  }
+
+  /**
+   * A request made to a single shard.
+   */
+  protected interface ShardRequest<T> {
+
+    T run(Retrieval r) throws Exception;
+  }
+
+  /**
+   * Runs the request on every shard in parallel, and returns the results in
+   * shard order. Error messages are collected from every failing shard.
+   */
+  protected <T> List<T> runOnShards(final ShardRequest<T> request, List<String> errors) throws InterruptedException {
+    return runOnShards(retrievals, request, errors);
+  }
+
+  /**
+   * Runs the request on each of the listed shards in parallel.
+   */
+  protected <T> List<T> runOnShards(List<Retrieval> shards, final ShardRequest<T> request, List<String> errors) throws InterruptedException {
+    List<Future<T>> futures = new ArrayList<>(shards.size());
+    for (final Retrieval r : shards) {
+      futures.add(executor.submit(new Callable<T>() {
+        @Override
+        public T call() throws Exception {
+          return request.run(r);
+        }
+      }));
+    }
+
+    List<T> results = new ArrayList<>(shards.size());
+    for (Future<T> future : futures) {
+      try {
+        results.add(future.get());
+      } catch (ExecutionException e) {
+        Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+        Logger.getLogger(MultiRetrieval.class.getName()).log(Level.FINE, "Shard request failed.", cause);
+        errors.add(cause.getMessage());
+      }
+    }
+    return results;
+  }
+
+  /**
+   * The asynchronous form of a ShardRequest.
+   */
+  protected interface AsyncShardRequest<T> {
+
+    CompletableFuture<T> run(AsyncRetrieval r);
+  }
+
+  /**
+   * Sends the request to each of the listed shards without blocking. Remote
+   * shards are called asynchronously, others are run on the shard pool. Fails
+   * if any shard fails.
+   */
+  protected <T> CompletableFuture<List<T>> supplyOnShards(List<Retrieval> shards, final ShardRequest<T> request, AsyncShardRequest<T> asyncRequest) {
+    final List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+    for (final Retrieval r : shards) {
+      if (r instanceof AsyncRetrieval && !(r instanceof LocalRetrieval)) {
+        futures.add(asyncRequest.run((AsyncRetrieval) r));
+      } else {
+        futures.add(RetrievalExecutors.supply(new Callable<T>() {
+          @Override
+          public T call() throws Exception {
+            return request.run(r);
+          }
+        }, executor));
+      }
+    }
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(new Function<Void, List<T>>() {
+      @Override
+      public List<T> apply(Void v) {
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+          results.add(future.join());
+        }
+        return results;
+      }
+    });
+  }
+
+  @Override
+  public synchronized void setAsyncExecutor(Executor asyncExecutor) {
+    this.asyncExecutor = asyncExecutor;
+  }
+
+  private synchronized Executor getAsyncExecutor() {
+    if (asyncExecutor == null) {
+      ownedAsyncExecutor = RetrievalExecutors.create(globalParameters, "asyncThreads", Runtime.getRuntime().availableProcessors(), "multi-retrieval-async");
+      asyncExecutor = ownedAsyncExecutor;
+    }
+    return asyncExecutor;
+  }
+
   @Override
   public IndexPartStatistics getIndexPartStatistics(String partName) throws IOException {
     IndexPartStatistics aggregate = null;
@@ -96,6 +253,30 @@ public class MultiRetrieval implements Retrieval {
     return results;
   }
 
+  @Override
+  public CompletableFuture<Map<String, Document>> getDocumentsAsync(final List<String> identifiers, final DocumentComponents p) {
+    return supplyOnShards(retrievals, new ShardRequest<Map<String, Document>>() {
+      @Override
+      public Map<String, Document> run(Retrieval r) throws Exception {
+        return r.getDocuments(identifiers, p);
+      }
+    }, new AsyncShardRequest<Map<String, Document>>() {
+      @Override
+      public CompletableFuture<Map<String, Document>> run(AsyncRetrieval r) {
+        return r.getDocumentsAsync(identifiers, p);
+      }
+    }).thenApply(new Function<List<Map<String, Document>>, Map<String, Document>>() {
+      @Override
+      public Map<String, Document> apply(List<Map<String, Document>> shardDocuments) {
+        HashMap<String, Document> results = new HashMap<>();
+        for (Map<String, Document> documents : shardDocuments) {
+          results.putAll(documents);
+        }
+        return results;
+      }
+    });
+  }
+
   /**
    * Runs a query across all retrieval objects
    *
@@ -116,58 +297,84 @@ public class MultiRetrieval implements Retrieval {
     return results;
   }
 
-  private ScoredDocument[] runRankedQuery(Node root, Parameters parameters) throws Exception {
-    // Asynchronously run retrieval
-    ArrayList<Thread> threads = new ArrayList<>();
-    final List<ScoredDocument> queryResultCollector = Collections.synchronizedList(new ArrayList<ScoredDocument>());
-    final List<String> errorCollector = Collections.synchronizedList(new ArrayList<String>());
-    final Node queryTree = root;
-
-    for (Retrieval retrieval : retrievals) {
-      final Parameters shardParams = parameters.clone();
-      final Retrieval r = retrieval;
-      Thread t = new Thread() {
+  @Override
+  public CompletableFuture<Results> executeQueryAsync(final Node queryTree, final Parameters p) {
+    String selection = p.get("shardSelection", globalParameters.get("shardSelection", "all"));
+    if (!selection.equals("all")) {
+      return RetrievalExecutors.supply(new Callable<Results>() {
         @Override
-        public void run() {
-          try {
-            List<ScoredDocument> results = r.executeQuery(queryTree, shardParams).scoredDocuments;
-            if (results != null) {
-              queryResultCollector.addAll(results);
-            }
-          } catch (Exception e) {
-            errorCollector.add(e.getMessage());
-          }
+        public Results call() throws Exception {
+          return executeQuery(queryTree, p);
         }
-      };
-      threads.add(t);
-      t.start();
+      }, getAsyncExecutor());
     }
 
-    // Wait for a finished list
-    for (Thread t : threads) {
-      t.join();
-    }
+    final int requested = (int) p.get("requested", 1000);
+    final SearchAfter after = SearchAfter.create(p);
+    CompletableFuture<List<List<ScoredDocument>>> shardResults = supplyOnShards(retrievals, new ShardRequest<List<ScoredDocument>>() {
+      @Override
+      public List<ScoredDocument> run(Retrieval r) throws Exception {
+        int shard = shardOf(r);
+        return shardDocuments(r.executeQuery(queryTree, shardParameters(p, after, shard)), shard);
+      }
+    }, new AsyncShardRequest<List<ScoredDocument>>() {
+      @Override
+      public CompletableFuture<List<ScoredDocument>> run(AsyncRetrieval r) {
+        final int shard = shardOf((Retrieval) r);
+        return r.executeQueryAsync(queryTree, shardParameters(p, after, shard)).thenApply(new Function<Results, List<ScoredDocument>>() {
+          @Override
+          public List<ScoredDocument> apply(Results results) {
+            return shardDocuments(results, shard);
+          }
+        });
+      }
+    });
 
-    if (errorCollector.size() > 0) {
-      System.err.println("Failed to run: " + root.toString());
-      for (String e : errorCollector) {
-        System.err.println(e);
+    // a failing shard fails the query: no partial results.
+    return shardResults.thenApply(new Function<List<List<ScoredDocument>>, Results>() {
+      @Override
+      public Results apply(List<List<ScoredDocument>> shardResults) {
+        Results results = new Results(MultiRetrieval.this);
+        results.inputQuery = queryTree;
+        results.scoredDocuments = Arrays.asList(rankResults(shardResults, requested, after));
+        return results;
       }
+    });
+  }
+
+  private ScoredDocument[] runRankedQuery(final Node queryTree, final Parameters parameters) throws Exception {
+    int requested = (int) parameters.get("requested", 1000);
+    String selection = parameters.get("shardSelection", globalParameters.get("shardSelection", "all"));
+    int selectedShards = (int) parameters.get("selectedShards", globalParameters.get("selectedShards", (long) Math.max(1, (retrievals.size() + 9) / 10)));
+
+    List<List<ScoredDocument>> shardResults;
+    switch (selection) {
+      case "all":
+        shardResults = searchShards(retrievals, queryTree, parameters);
+        break;
+      case "cori":
+        shardResults = searchShards(selectShardsCORI(queryTree, selectedShards), queryTree, parameters);
+        break;
+      case "safe":
+        shardResults = searchShardsSafe(queryTree, parameters, requested, selectedShards);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown shardSelection: " + selection + ", expected one of: all, cori, safe.");
+    }
+
+    if (shardResults == null) {
       // we do not want to return partial or erroneous results.
       return new ScoredDocument[0];
     }
+    return rankResults(shardResults, requested, SearchAfter.create(parameters));
+  }
 
-
-    // sort the results and invert (sort is inverted)
-    Collections.sort(queryResultCollector, Collections.reverseOrder());
-
+  private static ScoredDocument[] rankResults(List<List<ScoredDocument>> shardResults, int requested, SearchAfter after) {
     // get the best {requested} results
-    int requested = (int) parameters.get("requested", 1000);
+    ScoredDocument[] results = mergeRankedLists(shardResults, requested);
 
-    // fix ranks
-    List<ScoredDocument> scoredDocuments = queryResultCollector.subList(0, Math.min(queryResultCollector.size(), requested));
-    ScoredDocument[] results = scoredDocuments.toArray(new ScoredDocument[scoredDocuments.size()]);
-    int rank = 1;
+    // fix ranks, continuing from the previous page
+    int rank = (after != null) ? after.rank + 1 : 1;
     for (ScoredDocument r : results) {
       r.rank = rank;
       rank += 1;
@@ -176,6 +383,323 @@ public class MultiRetrieval implements Retrieval {
     return results;
   }
 
+  /**
+   * Runs the query on each of the shards, returns null on any error.
+   */
+  private List<List<ScoredDocument>> searchShards(List<Retrieval> shards, final Node queryTree, final Parameters parameters) throws Exception {
+    final List<String> errorCollector = Collections.synchronizedList(new ArrayList<String>());
+    final SearchAfter after = SearchAfter.create(parameters);
+    List<List<ScoredDocument>> shardResults = runOnShards(shards, new ShardRequest<List<ScoredDocument>>() {
+      @Override
+      public List<ScoredDocument> run(Retrieval r) throws Exception {
+        int shard = shardOf(r);
+        return shardDocuments(r.executeQuery(queryTree, shardParameters(parameters, after, shard)), shard);
+      }
+    }, errorCollector);
+
+    if (errorCollector.size() > 0) {
+      System.err.println("Failed to run: " + queryTree.toString());
+      for (String e : errorCollector) {
+        System.err.println(e);
+      }
+      return null;
+    }
+    return shardResults;
+  }
+
+  private int shardOf(Retrieval r) {
+    for (int i = 0; i < retrievals.size(); i++) {
+      if (retrievals.get(i) == r) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Not a shard of this retrieval: " + r);
+  }
+
+  /**
+   * The query parameters for one shard: a search-after cursor is rewritten in
+   * terms of the documents of that shard.
+   */
+  private static Parameters shardParameters(Parameters parameters, SearchAfter after, int shard) {
+    Parameters p = parameters.clone();
+    if (after != null) {
+      p.set("searchAfter", after.forShard(shard).toString());
+    }
+    return p;
+  }
+
+  private static List<ScoredDocument> shardDocuments(Results results, int shard) {
+    if (results.scoredDocuments == null) {
+      return Collections.emptyList();
+    }
+    for (ScoredDocument sd : results.scoredDocuments) {
+      sd.shard = shard;
+    }
+    return results.scoredDocuments;
+  }
+
+  /**
+   * Searches shards in decreasing order of their score upper bound, stopping
+   * once the k-th best document scores at least the bound of every remaining
+   * shard.
+   */
+  private List<List<ScoredDocument>> searchShardsSafe(final Node queryTree, final Parameters parameters, int requested, int batchSize) throws Exception {
+    final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+    final List<Double> bounds = runOnShards(retrievals, new ShardRequest<Double>() {
+      @Override
+      public Double run(Retrieval r) throws Exception {
+        return r.getMaximumScore(queryTree, parameters.clone());
+      }
+    }, errors);
+    if (errors.size() > 0) {
+      System.err.println("Failed to bound: " + queryTree.toString());
+      for (String e : errors) {
+        System.err.println(e);
+      }
+      return null;
+    }
+
+    List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < retrievals.size(); i++) {
+      order.add(i);
+    }
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Double.compare(bounds.get(b), bounds.get(a));
+      }
+    });
+
+    List<List<ScoredDocument>> shardResults = new ArrayList<>();
+    int next = 0;
+    while (next < order.size()) {
+      List<Retrieval> batch = new ArrayList<>();
+      for (; next < order.size() && batch.size() < batchSize; next++) {
+        batch.add(retrievals.get(order.get(next)));
+      }
+      List<List<ScoredDocument>> batchResults = searchShards(batch, queryTree, parameters);
+      if (batchResults == null) {
+        return null;
+      }
+      shardResults.addAll(batchResults);
+
+      if (next < order.size()) {
+        ScoredDocument[] current = mergeRankedLists(shardResults, requested);
+        if (current.length >= requested && current[current.length - 1].score >= bounds.get(order.get(next))) {
+          break;
+        }
+      }
+    }
+    return shardResults;
+  }
+
+  /**
+   * Ranks shards for the query using CORI (Callan et al., 1995), with the
+   * document frequency of each query term in each shard. Shards that do not
+   * contain any query term are not selected.
+   */
+  private List<Retrieval> selectShardsCORI(Node queryTree, int selectedShards) throws Exception {
+    final List<Node> terms = new ArrayList<>();
+    findTermNodes(queryTree, terms, new HashSet<String>());
+    if (terms.isEmpty()) {
+      return retrievals;
+    }
+
+    List<long[]> frequencies = getShardFrequencies(terms);
+    List<FieldStatistics> lengths = getShardLengths();
+
+    int shardCount = retrievals.size();
+    double avgLength = 0.0;
+    for (FieldStatistics l : lengths) {
+      avgLength += (double) l.collectionLength / (double) shardCount;
+    }
+
+    final double[] beliefs = new double[shardCount];
+    boolean[] matches = new boolean[shardCount];
+    for (int t = 0; t < terms.size(); t++) {
+      int shardFrequency = 0;
+      for (int i = 0; i < shardCount; i++) {
+        if (frequencies.get(t)[i] > 0) {
+          shardFrequency++;
+        }
+      }
+      if (shardFrequency == 0) {
+        continue;
+      }
+      double idf = Math.log((shardCount + 0.5) / shardFrequency) / Math.log(shardCount + 1.0);
+      for (int i = 0; i < shardCount; i++) {
+        double df = frequencies.get(t)[i];
+        double tf = df / (df + 50.0 + 150.0 * lengths.get(i).collectionLength / Math.max(1.0, avgLength));
+        beliefs[i] += 0.4 + 0.6 * tf * idf;
+        matches[i] |= (df > 0);
+      }
+    }
+
+    List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < shardCount; i++) {
+      if (matches[i]) {
+        order.add(i);
+      }
+    }
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Double.compare(beliefs[b], beliefs[a]);
+      }
+    });
+
+    List<Retrieval> selected = new ArrayList<>();
+    for (int i = 0; i < order.size() && i < selectedShards; i++) {
+      selected.add(retrievals.get(order.get(i)));
+    }
+    return selected;
+  }
+
+  private void findTermNodes(Node node, List<Node> terms, HashSet<String> seen) throws Exception {
+    if (node.numChildren() == 0) {
+      NodeType nt = getNodeType(node);
+      if (nt != null && CountIterator.class.isAssignableFrom(nt.getIteratorClass()) && seen.add(node.toString())) {
+        terms.add(node);
+      }
+      return;
+    }
+    for (Node child : node.getInternalNodes()) {
+      findTermNodes(child, terms, seen);
+    }
+  }
+
+  /**
+   * The document frequency of each term in each shard. Only the terms that are
+   * not cached are counted, with a single request per shard.
+   */
+  private List<long[]> getShardFrequencies(List<Node> terms) throws Exception {
+    List<long[]> frequencies = new ArrayList<>(terms.size());
+    final List<Node> missing = new ArrayList<>();
+    synchronized (shardFrequencies) {
+      for (Node term : terms) {
+        long[] cached = shardFrequencies.get(term.toString());
+        frequencies.add(cached);
+        if (cached == null) {
+          missing.add(term);
+        }
+      }
+    }
+    if (missing.isEmpty()) {
+      return frequencies;
+    }
+
+    final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+    List<List<NodeStatistics>> stats = runOnShards(retrievals, new ShardRequest<List<NodeStatistics>>() {
+      @Override
+      public List<NodeStatistics> run(Retrieval r) throws Exception {
+        return r.getNodeStatistics(new ArrayList<>(missing));
+      }
+    }, errors);
+    if (errors.size() > 0) {
+      throw new IOException("Unable to count " + missing.toString() + ": " + errors.toString());
+    }
+
+    int m = 0;
+    for (int t = 0; t < terms.size(); t++) {
+      if (frequencies.get(t) != null) {
+        continue;
+      }
+      long[] counts = new long[retrievals.size()];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = stats.get(i).get(m).nodeDocumentCount;
+      }
+      frequencies.set(t, counts);
+      synchronized (shardFrequencies) {
+        shardFrequencies.put(missing.get(m).toString(), counts);
+      }
+      m++;
+    }
+    return frequencies;
+  }
+
+  private synchronized List<FieldStatistics> getShardLengths() throws Exception {
+    if (shardLengths == null) {
+      final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+      shardLengths = runOnShards(retrievals, new ShardRequest<FieldStatistics>() {
+        @Override
+        public FieldStatistics run(Retrieval r) throws Exception {
+          return r.getCollectionStatistics("#lengths:part=lengths()");
+        }
+      }, errors);
+      if (errors.size() > 0) {
+        shardLengths = null;
+        throw new IOException("Unable to collect shard lengths: " + errors.toString());
+      }
+    }
+    return shardLengths;
+  }
+
+  /**
+   * The merged ranked order: decreasing score, equal scores by shard, then as
+   * ranked by the shard. Search-after cursors depend on this order.
+   */
+  private static final Comparator<ScoredDocument> RANKED = new Comparator<ScoredDocument>() {
+    @Override
+    public int compare(ScoredDocument a, ScoredDocument b) {
+      int cmp = Double.compare(b.score, a.score);
+      if (cmp != 0) {
+        return cmp;
+      }
+      cmp = Integer.compare(a.shard, b.shard);
+      if (cmp != 0) {
+        return cmp;
+      }
+      return b.compareTo(a);
+    }
+  };
+
+  /**
+   * k-way merge of the (descending) ranked lists from each shard.
+   */
+  protected static ScoredDocument[] mergeRankedLists(List<List<ScoredDocument>> shardResults, int requested) {
+    final Comparator<ScoredDocument> descending = RANKED;
+
+    int total = 0;
+    List<List<ScoredDocument>> lists = new ArrayList<>(shardResults.size());
+    for (List<ScoredDocument> list : shardResults) {
+      // shards return ranked lists -- but do not depend on it.
+      for (int i = 1; i < list.size(); i++) {
+        if (descending.compare(list.get(i - 1), list.get(i)) > 0) {
+          list = new ArrayList<>(list);
+          Collections.sort(list, descending);
+          break;
+        }
+      }
+      if (!list.isEmpty()) {
+        lists.add(list);
+        total += list.size();
+      }
+    }
+
+    final List<List<ScoredDocument>> heads = lists;
+    final int[] positions = new int[lists.size()];
+    PriorityQueue<Integer> queue = new PriorityQueue<>(Math.max(1, lists.size()), new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return descending.compare(heads.get(a).get(positions[a]), heads.get(b).get(positions[b]));
+      }
+    });
+    for (int i = 0; i < lists.size(); i++) {
+      queue.add(i);
+    }
+
+    ScoredDocument[] results = new ScoredDocument[Math.min(total, requested)];
+    for (int i = 0; i < results.length; i++) {
+      int list = queue.poll();
+      results[i] = lists.get(list).get(positions[list]);
+      positions[list]++;
+      if (positions[list] < lists.get(list).size()) {
+        queue.add(list);
+      }
+    }
+    return results;
+  }
+
   @Override
   public Node transformQuery(Node root, Parameters qp) throws Exception {
     return transformQuery(defaultTraversals, root, qp);
@@ -271,42 +795,24 @@ public class MultiRetrieval implements Retrieval {
   }
 
   @Override
-  public FieldStatistics getCollectionStatistics(Node node) throws Exception {
-
-    ArrayList<Thread> threads = new ArrayList<Thread>();
-    final Node root = node;
-    final List<FieldStatistics> stats = Collections.synchronizedList(new ArrayList<FieldStatistics>());
+  public FieldStatistics getCollectionStatistics(final Node node) throws Exception {
     final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
-
-    for (final Retrieval r : this.retrievals) {
-      Thread t = new Thread() {
-        @Override
-        public void run() {
-          try {
-            FieldStatistics ns = r.getCollectionStatistics(root);
-            stats.add(ns);
-          } catch (Exception ex) {
-            errors.add(ex.getMessage());
-          }
-        }
-      };
-      threads.add(t);
-      t.start();
-    }
-
-    for (Thread t : threads) {
-      t.join();
-    }
+    List<FieldStatistics> stats = runOnShards(new ShardRequest<FieldStatistics>() {
+      @Override
+      public FieldStatistics run(Retrieval r) throws Exception {
+        return r.getCollectionStatistics(node);
+      }
+    }, errors);
 
     if (errors.size() > 0) {
-      System.err.println("Failed to count: " + root.toString());
+      System.err.println("Failed to count: " + node.toString());
       for (String e : errors) {
         System.err.println(e);
       }
       throw new IOException("Unable to count " + node.toString());
     }
 
-    FieldStatistics output = stats.remove(0);
+    FieldStatistics output = stats.remove(0).clone();
     for (FieldStatistics s : stats) {
       output.add(s);
     }
@@ -326,47 +832,87 @@ public class MultiRetrieval implements Retrieval {
 
   @Override
   public NodeStatistics getNodeStatistics(Node node) throws Exception {
+    return getNodeStatistics(Collections.singletonList(node)).get(0);
+  }
 
-    ArrayList<Thread> threads = new ArrayList<Thread>();
-    final Node root = node;
-    final List<NodeStatistics> stats = Collections.synchronizedList(new ArrayList<NodeStatistics>());
+  /**
+   * Collects the statistics of all nodes with a single request per shard.
+   */
+  @Override
+  public List<NodeStatistics> getNodeStatistics(final List<Node> nodes) throws Exception {
     final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
-
-    for (final Retrieval r : this.retrievals) {
-      Thread t = new Thread() {
-        @Override
-        public void run() {
-          try {
-            NodeStatistics ns = r.getNodeStatistics(root);
-            stats.add(ns);
-          } catch (Exception ex) {
-            errors.add(ex.getMessage());
-          }
-        }
-      };
-      threads.add(t);
-      t.start();
-    }
-
-    for (Thread t : threads) {
-      t.join();
-    }
+    List<List<NodeStatistics>> stats = runOnShards(new ShardRequest<List<NodeStatistics>>() {
+      @Override
+      public List<NodeStatistics> run(Retrieval r) throws Exception {
+        return r.getNodeStatistics(new ArrayList<>(nodes));
+      }
+    }, errors);
 
     if (errors.size() > 0) {
-      System.err.println("Failed to count: " + root.toString());
+      System.err.println("Failed to count: " + nodes.toString());
       for (String e : errors) {
         System.err.println(e);
       }
-      throw new IOException("Unable to count " + node.toString());
+      throw new IOException("Unable to count " + nodes.toString());
     }
 
-    NodeStatistics output = stats.remove(0);
-    for (NodeStatistics s : stats) {
-      output.add(s);
+    // shards may cache their statistics, merge into copies
+    List<NodeStatistics> output = new ArrayList<>(nodes.size());
+    for (NodeStatistics s : stats.remove(0)) {
+      output.add(s.clone());
+    }
+    for (List<NodeStatistics> shardStats : stats) {
+      for (int i = 0; i < output.size(); i++) {
+        output.get(i).add(shardStats.get(i));
+      }
     }
     return output;
   }
 
+  @Override
+  public CompletableFuture<NodeStatistics> getNodeStatisticsAsync(final Node node) {
+    return supplyOnShards(retrievals, new ShardRequest<NodeStatistics>() {
+      @Override
+      public NodeStatistics run(Retrieval r) throws Exception {
+        return r.getNodeStatistics(node);
+      }
+    }, new AsyncShardRequest<NodeStatistics>() {
+      @Override
+      public CompletableFuture<NodeStatistics> run(AsyncRetrieval r) {
+        return r.getNodeStatisticsAsync(node);
+      }
+    }).thenApply(new Function<List<NodeStatistics>, NodeStatistics>() {
+      @Override
+      public NodeStatistics apply(List<NodeStatistics> stats) {
+        // shards may cache their statistics, merge into a copy
+        NodeStatistics output = stats.get(0).clone();
+        for (int i = 1; i < stats.size(); i++) {
+          output.add(stats.get(i));
+        }
+        return output;
+      }
+    });
+  }
+
+  @Override
+  public double getMaximumScore(final Node root, final Parameters queryParams) throws Exception {
+    final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+    List<Double> bounds = runOnShards(new ShardRequest<Double>() {
+      @Override
+      public Double run(Retrieval r) throws Exception {
+        return r.getMaximumScore(root, queryParams.clone());
+      }
+    }, errors);
+    if (errors.size() > 0) {
+      throw new IOException("Unable to bound " + root.toString() + ": " + errors.toString());
+    }
+    double max = Double.NEGATIVE_INFINITY;
+    for (double bound : bounds) {
+      max = Math.max(max, bound);
+    }
+    return max;
+  }
+
   @Override
   public NodeType getNodeType(Node node) throws Exception {
     NodeType nodeType = getIndexNodeType(node);
@@ -17,6 +17,9 @@ import java.net.URL;
  * with remote Galago servers. See org.lemurproject.galago.core.tools.StreamContextHandler
  * for additional details.
  *
+ * Each call opens a new connection; RemoteRetrieval ('galago://' indexes) uses
+ * persistent, pipelined connections and a binary encoding instead.
+ *
  * @author irmarc
  */
 public class ProxyRetrieval implements InvocationHandler {
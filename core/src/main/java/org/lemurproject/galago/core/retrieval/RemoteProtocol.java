@@ -0,0 +1,279 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.retrieval;
+
+import org.lemurproject.galago.core.index.stats.FieldStatistics;
+import org.lemurproject.galago.core.index.stats.NodeStatistics;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.NodeParameters;
+import org.lemurproject.galago.utility.Parameters;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary protocol used between RemoteRetrieval (client) and RetrievalServer.
+ *
+ * Each connection carries a stream of requests and a stream of responses.
+ * Requests are tagged with an id, and responses may be returned in any order,
+ * so several requests can be in flight on a single connection (pipelining).
+ *
+ * request : [int id][byte opcode][arguments]
+ * response : [int id][byte status][result or error message]
+ *
+ * Query trees, parameters, statistics and ranked lists have compact encodings
+ * (see the write/read methods below). Other Retrieval methods are forwarded
+ * with INVOKE, using Java serialization for the arguments and result, as in
+ * ProxyRetrieval.
+ */
+public final class RemoteProtocol {
+
+  public static final int MAGIC = 0x47414c31; // "GAL1"
+
+  public static final byte EXECUTE_QUERY = 1;
+  public static final byte TRANSFORM_QUERY = 2;
+  public static final byte NODE_STATISTICS = 3;
+  public static final byte NODE_STATISTICS_LIST = 4;
+  public static final byte COLLECTION_STATISTICS = 5;
+  public static final byte MAXIMUM_SCORE = 6;
+  public static final byte INVOKE = 7;
+
+  public static final byte OK = 0;
+  public static final byte ERROR = 1;
+
+  private static final byte STRING = 0;
+  private static final byte LONG = 1;
+  private static final byte DOUBLE = 2;
+  private static final byte BOOLEAN = 3;
+
+  private static final byte DOCUMENT = 0;
+  private static final byte PASSAGE = 1;
+
+  private RemoteProtocol() {
+  }
+
+  public static void writeString(DataOutput out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] data = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(data.length);
+    out.write(data);
+  }
+
+  public static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] data = new byte[length];
+    in.readFully(data);
+    return new String(data, StandardCharsets.UTF_8);
+  }
+
+  public static void writeParameters(DataOutput out, Parameters p) throws IOException {
+    writeString(out, (p == null) ? null : p.toString());
+  }
+
+  public static Parameters readParameters(DataInput in) throws IOException {
+    String json = readString(in);
+    return (json == null) ? Parameters.create() : Parameters.parseString(json);
+  }
+
+  /**
+   * Node trees are written in pre-order: operator, position, typed parameters,
+   * children.
+   */
+  public static void writeNode(DataOutput out, Node node) throws IOException {
+    out.writeUTF(node.getOperator());
+    out.writeInt(node.getPosition());
+    NodeParameters np = node.getNodeParameters();
+    out.writeShort(np.getKeySet().size());
+    for (String key : np.getKeySet()) {
+      out.writeUTF(key);
+      if (np.isString(key)) {
+        out.writeByte(STRING);
+        writeString(out, np.getString(key));
+      } else if (np.isLong(key)) {
+        out.writeByte(LONG);
+        out.writeLong(np.getLong(key));
+      } else if (np.isDouble(key)) {
+        out.writeByte(DOUBLE);
+        out.writeDouble(np.getDouble(key));
+      } else {
+        out.writeByte(BOOLEAN);
+        out.writeBoolean(np.getBoolean(key));
+      }
+    }
+    List<Node> children = node.getInternalNodes();
+    out.writeShort(children.size());
+    for (Node child : children) {
+      writeNode(out, child);
+    }
+  }
+
+  public static Node readNode(DataInput in) throws IOException {
+    String operator = in.readUTF();
+    int position = in.readInt();
+    NodeParameters np = new NodeParameters();
+    int keys = in.readShort();
+    for (int i = 0; i < keys; i++) {
+      String key = in.readUTF();
+      byte type = in.readByte();
+      switch (type) {
+        case STRING:
+          np.set(key, readString(in));
+          break;
+        case LONG:
+          np.set(key, in.readLong());
+          break;
+        case DOUBLE:
+          np.set(key, in.readDouble());
+          break;
+        case BOOLEAN:
+          np.set(key, in.readBoolean());
+          break;
+        default:
+          throw new IOException("Unknown node parameter type: " + type);
+      }
+    }
+    int childCount = in.readShort();
+    List<Node> children = new ArrayList<>(childCount);
+    for (int i = 0; i < childCount; i++) {
+      children.add(readNode(in));
+    }
+    return new Node(operator, np, children, position);
+  }
+
+  public static void writeNodes(DataOutput out, List<Node> nodes) throws IOException {
+    out.writeInt(nodes.size());
+    for (Node node : nodes) {
+      writeNode(out, node);
+    }
+  }
+
+  public static List<Node> readNodes(DataInput in) throws IOException {
+    int count = in.readInt();
+    List<Node> nodes = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      nodes.add(readNode(in));
+    }
+    return nodes;
+  }
+
+  /**
+   * Ranked lists are written without annotations.
+   */
+  public static void writeScoredDocuments(DataOutput out, List<ScoredDocument> documents) throws IOException {
+    out.writeInt(documents.size());
+    for (ScoredDocument sd : documents) {
+      if (sd instanceof ScoredPassage) {
+        out.writeByte(PASSAGE);
+        out.writeInt(((ScoredPassage) sd).begin);
+        out.writeInt(((ScoredPassage) sd).end);
+      } else {
+        out.writeByte(DOCUMENT);
+      }
+      out.writeLong(sd.document);
+      out.writeDouble(sd.score);
+      out.writeInt(sd.rank);
+      writeString(out, sd.documentName);
+      writeString(out, sd.source);
+    }
+  }
+
+  public static List<ScoredDocument> readScoredDocuments(DataInput in) throws IOException {
+    int count = in.readInt();
+    List<ScoredDocument> documents = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      ScoredDocument sd;
+      if (in.readByte() == PASSAGE) {
+        ScoredPassage sp = new ScoredPassage();
+        sp.begin = in.readInt();
+        sp.end = in.readInt();
+        sd = sp;
+      } else {
+        sd = new ScoredDocument();
+      }
+      sd.document = in.readLong();
+      sd.score = in.readDouble();
+      sd.rank = in.readInt();
+      sd.documentName = readString(in);
+      sd.source = readString(in);
+      documents.add(sd);
+    }
+    return documents;
+  }
+
+  public static void writeNodeStatistics(DataOutput out, NodeStatistics stats) throws IOException {
+    writeString(out, stats.node);
+    out.writeLong(stats.nodeFrequency);
+    out.writeLong(stats.nodeDocumentCount);
+    out.writeLong(stats.maximumCount);
+  }
+
+  public static NodeStatistics readNodeStatistics(DataInput in) throws IOException {
+    NodeStatistics stats = new NodeStatistics();
+    stats.node = readString(in);
+    stats.nodeFrequency = in.readLong();
+    stats.nodeDocumentCount = in.readLong();
+    stats.maximumCount = in.readLong();
+    return stats;
+  }
+
+  public static void writeFieldStatistics(DataOutput out, FieldStatistics stats) throws IOException {
+    writeString(out, stats.fieldName);
+    out.writeLong(stats.collectionLength);
+    out.writeLong(stats.documentCount);
+    out.writeLong(stats.nonZeroLenDocCount);
+    out.writeLong(stats.maxLength);
+    out.writeLong(stats.minLength);
+    out.writeDouble(stats.avgLength);
+    out.writeLong(stats.firstDocId);
+    out.writeLong(stats.lastDocId);
+  }
+
+  public static FieldStatistics readFieldStatistics(DataInput in) throws IOException {
+    FieldStatistics stats = new FieldStatistics();
+    stats.fieldName = readString(in);
+    stats.collectionLength = in.readLong();
+    stats.documentCount = in.readLong();
+    stats.nonZeroLenDocCount = in.readLong();
+    stats.maxLength = in.readLong();
+    stats.minLength = in.readLong();
+    stats.avgLength = in.readDouble();
+    stats.firstDocId = in.readLong();
+    stats.lastDocId = in.readLong();
+    return stats;
+  }
+
+  /**
+   * Fallback for any other object: length-prefixed Java serialization.
+   */
+  public static void writeObject(DataOutput out, Object value) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(buffer)) {
+      oos.writeObject(value);
+    }
+    out.writeInt(buffer.size());
+    out.write(buffer.toByteArray());
+  }
+
+  public static Object readObject(DataInput in) throws IOException {
+    byte[] data = new byte[in.readInt()];
+    in.readFully(data);
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+      return ois.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+  }
+}
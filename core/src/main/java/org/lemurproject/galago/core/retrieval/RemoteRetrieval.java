@@ -0,0 +1,626 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.retrieval;
+
+import org.lemurproject.galago.core.index.stats.FieldStatistics;
+import org.lemurproject.galago.core.index.stats.IndexPartStatistics;
+import org.lemurproject.galago.core.index.stats.NodeStatistics;
+import org.lemurproject.galago.core.parse.Document;
+import org.lemurproject.galago.core.parse.Document.DocumentComponents;
+import org.lemurproject.galago.core.retrieval.processing.ProcessingModel;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.NodeType;
+import org.lemurproject.galago.core.retrieval.query.QueryType;
+import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
+import org.lemurproject.galago.core.tokenize.Tokenizer;
+import org.lemurproject.galago.utility.Parameters;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client for a remote index served by RetrievalServer, using the binary
+ * protocol in RemoteProtocol. Opened by RetrievalFactory for
+ * 'galago://host:port' index paths.
+ *
+ * Connections are persistent, and any number of requests may be in flight on
+ * each connection; responses are matched to requests by id. Calls are spread
+ * over 'remoteConnections' connections (default: 1). Broken connections are
+ * re-opened on the next call.
+ *
+ * Asynchronous calls (see AsyncRetrieval) do not hold a thread while the
+ * request is in flight. Their futures are completed on the async executor
+ * (default: the common fork-join pool), never on a connection's reader thread.
+ *
+ * Parameters:
+ * - remoteConnections : number of connections to the server
+ * - remoteTimeout : milliseconds to wait for a response (default: 60000)
+ */
+public class RemoteRetrieval implements Retrieval, AsyncRetrieval {
+
+  private static final Logger logger = Logger.getLogger("RemoteRetrieval");
+  private final String host;
+  private final int port;
+  private final long timeout;
+  private final Connection[] connections;
+  private final AtomicInteger nextRequest = new AtomicInteger(0);
+  private Parameters globalParameters = null;
+  private Tokenizer tokenizer = null;
+  private volatile Executor asyncExecutor = ForkJoinPool.commonPool();
+
+  public RemoteRetrieval(String url, Parameters parameters) throws IOException {
+    String address = url.startsWith("galago://") ? url.substring("galago://".length()) : url;
+    if (address.endsWith("/")) {
+      address = address.substring(0, address.length() - 1);
+    }
+    int colon = address.lastIndexOf(':');
+    if (colon < 0) {
+      throw new IllegalArgumentException("Remote index url requires a port: " + url);
+    }
+    this.host = address.substring(0, colon);
+    this.port = Integer.parseInt(address.substring(colon + 1));
+    this.timeout = parameters.get("remoteTimeout", 60000L);
+    this.connections = new Connection[(int) parameters.get("remoteConnections", 1L)];
+    for (int i = 0; i < connections.length; i++) {
+      connections[i] = new Connection();
+    }
+  }
+
+  public String getAddress() {
+    return "galago://" + host + ":" + port;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Connection c : connections) {
+      c.close();
+    }
+  }
+
+  /**
+   * Writes the arguments of a request.
+   */
+  protected interface RequestWriter {
+
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * Sends a request, the returned future completes with the decoded response.
+   * Any number of requests may be sent before the first response arrives.
+   */
+  protected CompletableFuture<Object> send(byte opcode, RequestWriter writer) throws IOException {
+    int sequence = nextRequest.incrementAndGet();
+    // the low byte is the opcode, so that a response to an abandoned request can still be read
+    int id = (sequence << 8) | (opcode & 0xff);
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(buffer);
+    out.writeInt(id);
+    out.writeByte(opcode);
+    writer.write(out);
+    out.flush();
+
+    Connection connection = connections[(sequence & Integer.MAX_VALUE) % connections.length];
+    return connection.send(id, buffer.toByteArray());
+  }
+
+  protected Object call(byte opcode, RequestWriter writer) throws IOException {
+    CompletableFuture<Object> response = send(opcode, writer);
+    try {
+      return (timeout > 0) ? response.get(timeout, TimeUnit.MILLISECONDS) : response.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw new IOException(cause.getMessage(), cause);
+      }
+      throw new IOException(cause);
+    } catch (TimeoutException e) {
+      response.cancel(false);
+      throw new IOException("Timed out waiting for " + getAddress());
+    } catch (InterruptedException e) {
+      response.cancel(false);
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Number of requests that are waiting for a response.
+   */
+  int getPendingRequests() {
+    int count = 0;
+    for (Connection connection : connections) {
+      count += connection.pending.size();
+    }
+    return count;
+  }
+
+  /**
+   * Sends a request without blocking. The returned future completes on the
+   * async executor, and fails if there is no response within 'remoteTimeout'.
+   */
+  protected CompletableFuture<Object> sendAsync(byte opcode, RequestWriter writer) {
+    final CompletableFuture<Object> result = new CompletableFuture<>();
+    final CompletableFuture<Object> response;
+    try {
+      response = send(opcode, writer);
+    } catch (IOException e) {
+      result.completeExceptionally(e);
+      return result;
+    }
+
+    if (timeout > 0) {
+      final ScheduledFuture<?> timer = Timeouts.scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          response.completeExceptionally(new IOException("Timed out waiting for " + getAddress()));
+        }
+      }, timeout, TimeUnit.MILLISECONDS);
+      response.whenComplete(new BiConsumer<Object, Throwable>() {
+        @Override
+        public void accept(Object value, Throwable error) {
+          timer.cancel(false);
+        }
+      });
+    }
+
+    final Executor executor = asyncExecutor;
+    response.whenComplete(new BiConsumer<Object, Throwable>() {
+      @Override
+      public void accept(final Object value, final Throwable error) {
+        Runnable completion = new Runnable() {
+          @Override
+          public void run() {
+            if (error != null) {
+              result.completeExceptionally(error);
+            } else {
+              result.complete(value);
+            }
+          }
+        };
+        try {
+          executor.execute(completion);
+        } catch (RejectedExecutionException e) {
+          completion.run();
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Forwards a method call using Java serialization.
+   */
+  protected Object invoke(final String method, final Object... args) throws IOException {
+    return call(RemoteProtocol.INVOKE, new RequestWriter() {
+      @Override
+      public void write(DataOutputStream out) throws IOException {
+        out.writeUTF(method);
+        RemoteProtocol.writeObject(out, args);
+      }
+    });
+  }
+
+  private static Object readResponse(byte opcode, DataInputStream in) throws IOException {
+    switch (opcode) {
+      case RemoteProtocol.EXECUTE_QUERY:
+        String modelName = RemoteProtocol.readString(in);
+        List<ScoredDocument> documents = RemoteProtocol.readScoredDocuments(in);
+        Results results = new Results(null, null, documents);
+        results.processingModel = findProcessingModel(modelName);
+        return results;
+      case RemoteProtocol.TRANSFORM_QUERY:
+        Node node = RemoteProtocol.readNode(in);
+        Parameters queryParams = RemoteProtocol.readParameters(in);
+        return new Object[]{node, queryParams};
+      case RemoteProtocol.NODE_STATISTICS:
+        return RemoteProtocol.readNodeStatistics(in);
+      case RemoteProtocol.NODE_STATISTICS_LIST:
+        int count = in.readInt();
+        List<NodeStatistics> stats = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          stats.add(RemoteProtocol.readNodeStatistics(in));
+        }
+        return stats;
+      case RemoteProtocol.COLLECTION_STATISTICS:
+        return RemoteProtocol.readFieldStatistics(in);
+      case RemoteProtocol.MAXIMUM_SCORE:
+        return in.readDouble();
+      default:
+        return RemoteProtocol.readObject(in);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Class<? extends ProcessingModel> findProcessingModel(String name) {
+    if (name == null) {
+      return null;
+    }
+    try {
+      return (Class<? extends ProcessingModel>) Class.forName(name);
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public synchronized Parameters getGlobalParameters() {
+    if (globalParameters == null) {
+      try {
+        globalParameters = (Parameters) invoke("getGlobalParameters");
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return globalParameters;
+  }
+
+  @Override
+  public Parameters getAvailableParts() throws IOException {
+    return (Parameters) invoke("getAvailableParts");
+  }
+
+  @Override
+  public Document getDocument(String identifier, DocumentComponents p) throws IOException {
+    return (Document) invoke("getDocument", identifier, p);
+  }
+
+  @Override
+  public Long getDocumentId(String docname) throws IOException {
+    return (Long) invoke("getDocumentId", docname);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Map<String, Document> getDocuments(List<String> identifier, DocumentComponents p) throws IOException {
+    return (Map<String, Document>) invoke("getDocuments", new ArrayList<>(identifier), p);
+  }
+
+  @Override
+  public NodeType getNodeType(Node node) throws Exception {
+    return (NodeType) invoke("getNodeType", node);
+  }
+
+  @Override
+  public QueryType getQueryType(Node node) throws Exception {
+    return (QueryType) invoke("getQueryType", node);
+  }
+
+  @Override
+  public Node transformQuery(final Node root, final Parameters queryParams) throws Exception {
+    Object[] response = (Object[]) call(RemoteProtocol.TRANSFORM_QUERY, new RequestWriter() {
+      @Override
+      public void write(DataOutputStream out) throws IOException {
+        RemoteProtocol.writeNode(out, root);
+        RemoteProtocol.writeParameters(out, queryParams);
+      }
+    });
+    // transformations may add query parameters
+    queryParams.copyFrom((Parameters) response[1]);
+    return (Node) response[0];
+  }
+
+  @Override
+  public Results executeQuery(Node root) throws Exception {
+    return executeQuery(root, Parameters.create());
+  }
+
+  @Override
+  public Results executeQuery(final Node root, final Parameters parameters) throws Exception {
+    Results results = (Results) call(RemoteProtocol.EXECUTE_QUERY, new RequestWriter() {
+      @Override
+      public void write(DataOutputStream out) throws IOException {
+        RemoteProtocol.writeNode(out, root);
+        RemoteProtocol.writeParameters(out, parameters);
+      }
+    });
+    results.retrieval = this;
+    results.inputQuery = root;
+    return results;
+  }
+
+  @Override
+  public CompletableFuture<Results> executeQueryAsync(final Node root, final Parameters parameters) {
+    return sendAsync(RemoteProtocol.EXECUTE_QUERY, new RequestWriter() {
+      @Override
+      public void write(DataOutputStream out) throws IOException {
+        RemoteProtocol.writeNode(out, root);
+        RemoteProtocol.writeParameters(out, parameters);
+      }
+    }).thenApply(new Function<Object, Results>() {
+      @Override
+      public Results apply(Object response) {
+        Results results = (Results) response;
+        results.retrieval = RemoteRetrieval.this;
+        results.inputQuery = root;
+        return results;
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<NodeStatistics> getNodeStatisticsAsync(final Node node) {
+    return sendAsync(RemoteProtocol.NODE_STATISTICS, new RequestWriter() {
+      @Override
+      public void write(DataOutputStream out) throws IOException {
+        RemoteProtocol.writeNode(out, node);
+      }
+    }).thenApply(new Function<Object, NodeStatistics>() {
+      @Override
+      public NodeStatistics apply(Object response) {
+        return (NodeStatistics) response;
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<Map<String, Document>> getDocumentsAsync(List<String> identifiers, DocumentComponents p) {
+    final Object[] args = new Object[]{new ArrayList<>(identifiers), p};
+    return sendAsync(RemoteProtocol.INVOKE, new RequestWriter() {
+      @Override
+      public void write(DataOutputStream out) throws IOException {
+        out.writeUTF("getDocuments");
+        RemoteProtocol.writeObject(out, args);
+      }
+    }).thenApply(new Function<Object, Map<String, Document>>() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public Map<String, Document> apply(Object response) {
+        return (Map<String, Document>) response;
+      }
+    });
+  }
+
+  @Override
+  public void setAsyncExecutor(Executor executor) {
+    this.asyncExecutor = executor;
+  }
+
+  @Override
+  public IndexPartStatistics getIndexPartStatistics(String partName) throws IOException {
+    return (IndexPartStatistics) invoke("getIndexPartStatistics", partName);
+  }
+
+  @Override
+  public FieldStatistics getCollectionStatistics(String nodeString) throws Exception {
+    return getCollectionStatistics(StructuredQuery.parse(nodeString));
+  }
+
+  @Override
+  public FieldStatistics getCollectionStatistics(final Node node) throws Exception {
+    return (FieldStatistics) call(RemoteProtocol.COLLECTION_STATISTICS, new RequestWriter() {
+      @Override
+      public void write(DataOutputStream out) throws IOException {
+        RemoteProtocol.writeNode(out, node);
+      }
+    });
+  }
+
+  @Override
+  public NodeStatistics getNodeStatistics(String nodeString) throws Exception {
+    return getNodeStatistics(StructuredQuery.parse(nodeString));
+  }
+
+  @Override
+  public NodeStatistics getNodeStatistics(final Node node) throws Exception {
+    return (NodeStatistics) call(RemoteProtocol.NODE_STATISTICS, new RequestWriter() {
+      @Override
+      public void write(DataOutputStream out) throws IOException {
+        RemoteProtocol.writeNode(out, node);
+      }
+    });
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<NodeStatistics> getNodeStatistics(final List<Node> nodes) throws Exception {
+    return (List<NodeStatistics>) call(RemoteProtocol.NODE_STATISTICS_LIST, new RequestWriter() {
+      @Override
+      public void write(DataOutputStream out) throws IOException {
+        RemoteProtocol.writeNodes(out, nodes);
+      }
+    });
+  }
+
+  @Override
+  public double getMaximumScore(final Node root, final Parameters queryParams) throws Exception {
+    return (Double) call(RemoteProtocol.MAXIMUM_SCORE, new RequestWriter() {
+      @Override
+      public void write(DataOutputStream out) throws IOException {
+        RemoteProtocol.writeNode(out, root);
+        RemoteProtocol.writeParameters(out, queryParams);
+      }
+    });
+  }
+
+  @Override
+  public Integer getDocumentLength(Long docid) throws IOException {
+    return (Integer) invoke("getDocumentLength", docid);
+  }
+
+  @Override
+  public Integer getDocumentLength(String docname) throws IOException {
+    return (Integer) invoke("getDocumentLength", docname);
+  }
+
+  @Override
+  public String getDocumentName(Long docid) throws IOException {
+    return (String) invoke("getDocumentName", docid);
+  }
+
+  @Override
+  public void addNodeToCache(Node node) throws Exception {
+    invoke("addNodeToCache", node);
+  }
+
+  @Override
+  public void addAllNodesToCache(Node node) throws Exception {
+    invoke("addAllNodesToCache", node);
+  }
+
+  /**
+   * Tokenizers are not serializable, this one is configured from the global
+   * parameters of the server.
+   */
+  @Override
+  public synchronized Tokenizer getTokenizer() {
+    if (tokenizer == null) {
+      tokenizer = Tokenizer.create(getGlobalParameters());
+    }
+    return tokenizer;
+  }
+
+  /**
+   * A persistent connection; a reader thread completes the pending requests
+   * as their responses arrive. A request that times out or is cancelled is
+   * removed at once; its response, if it ever arrives, is read and dropped.
+   */
+  private class Connection {
+
+    private final Map<Integer, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+    private Socket socket = null;
+    private DataOutputStream output = null;
+
+    synchronized CompletableFuture<Object> send(final int id, byte[] request) throws IOException {
+      if (socket == null) {
+        open();
+      }
+      final CompletableFuture<Object> response = new CompletableFuture<>();
+      pending.put(id, response);
+      response.whenComplete(new BiConsumer<Object, Throwable>() {
+        @Override
+        public void accept(Object value, Throwable error) {
+          pending.remove(id, response);
+        }
+      });
+      try {
+        output.write(request);
+        output.flush();
+      } catch (IOException e) {
+        pending.remove(id);
+        fail(e);
+        throw e;
+      }
+      return response;
+    }
+
+    private void open() throws IOException {
+      final Socket s = new Socket();
+      s.setTcpNoDelay(true);
+      s.connect(new InetSocketAddress(host, port));
+      output = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+      output.writeInt(RemoteProtocol.MAGIC);
+      socket = s;
+
+      final DataInputStream input = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+      Thread reader = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          read(s, input);
+        }
+      }, "remote-retrieval-" + host + ":" + port);
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    private void read(Socket s, DataInputStream input) {
+      try {
+        while (true) {
+          int id = input.readInt();
+          byte status = input.readByte();
+          CompletableFuture<Object> response = pending.remove(id);
+          // a null response was abandoned (timed out or cancelled)
+          if (status == RemoteProtocol.OK) {
+            Object value = readResponse((byte) id, input);
+            if (response != null) {
+              response.complete(value);
+            }
+          } else {
+            String message = RemoteProtocol.readString(input);
+            if (response != null) {
+              response.completeExceptionally(new IOException(message));
+            }
+          }
+        }
+      } catch (IOException e) {
+        if (!s.isClosed()) {
+          logger.log(Level.INFO, "Lost connection to " + getAddress(), e);
+        }
+        synchronized (this) {
+          if (socket == s) {
+            fail(e);
+          }
+        }
+      }
+    }
+
+    private void fail(IOException e) {
+      try {
+        if (socket != null) {
+          socket.close();
+        }
+      } catch (IOException ignored) {
+      }
+      socket = null;
+      output = null;
+      for (Integer id : new ArrayList<>(pending.keySet())) {
+        CompletableFuture<Object> response = pending.remove(id);
+        if (response != null) {
+          response.completeExceptionally(e);
+        }
+      }
+    }
+
+    synchronized void close() throws IOException {
+      if (socket != null) {
+        Socket s = socket;
+        socket = null;
+        output = null;
+        s.close();
+      }
+    }
+  }
+
+  /**
+   * Expires asynchronous requests, created on first use.
+   */
+  private static class Timeouts {
+
+    static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "remote-retrieval-timeouts");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
+    static {
+      scheduler.setRemoveOnCancelPolicy(true);
+    }
+  }
+}
@@ -0,0 +1,619 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.retrieval;
+
+import org.lemurproject.galago.core.index.stats.FieldStatistics;
+import org.lemurproject.galago.core.index.stats.IndexPartStatistics;
+import org.lemurproject.galago.core.index.stats.NodeStatistics;
+import org.lemurproject.galago.core.parse.Document;
+import org.lemurproject.galago.core.parse.Document.DocumentComponents;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.NodeType;
+import org.lemurproject.galago.core.retrieval.query.QueryType;
+import org.lemurproject.galago.core.tokenize.Tokenizer;
+import org.lemurproject.galago.utility.Parameters;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * A shard served by several identical replicas (e.g. remote 'galago://'
+ * servers over copies of the same index). Created by RetrievalFactory when a
+ * shard is given as a list of paths:
+ *
+ * { "index" : [ ["galago://a:1234", "galago://b:1234"], "galago://c:1234" ] }
+ *
+ * Each request is sent to the replica with the lowest recent latency. If it
+ * has not answered within the 'hedgePercentile' (default: 0.95) of recent
+ * request latencies, a duplicate (hedged) request is sent to the next best
+ * replica, and the first response is used. A losing request to a remote
+ * replica is cancelled (its thread is interrupted, and the request dropped);
+ * a losing request to a local replica runs to completion and is discarded,
+ * as an interrupt during a read would close the index files. Failed requests
+ * are retried on the next replica.
+ *
+ * Requests to the replicas are run on a bounded pool of 'replicaThreads'
+ * threads (default: 2 * #cores). Asynchronous calls (see AsyncRetrieval) are
+ * hedged in the same way, and do not block the caller.
+ *
+ * Parameters:
+ * - hedgePercentile : latency percentile that triggers a hedged request
+ * - hedgeDelay : delay (ms) used until enough latencies are known, and the
+ * minimum delay (default: 10)
+ */
+public class ReplicatedRetrieval implements Retrieval, AsyncRetrieval {
+
+  private static final int HISTORY = 256;
+  private static final int MIN_SAMPLES = 16;
+  private static final long FAILED = Long.MAX_VALUE / 2;
+  private final List<Retrieval> replicas;
+  private final double[] averageLatency;
+  private final long[] latencies = new long[HISTORY];
+  private int latencyCount = 0;
+  private final double hedgePercentile;
+  private final long minimumDelay;
+  private final ExecutorService executor;
+  private final ScheduledExecutorService timer;
+  private volatile Executor asyncExecutor = ForkJoinPool.commonPool();
+  private long hedgedRequests = 0;
+
+  public ReplicatedRetrieval(List<Retrieval> replicas, Parameters p) {
+    if (replicas.isEmpty()) {
+      throw new IllegalArgumentException("ReplicatedRetrieval requires at least one replica.");
+    }
+    this.replicas = new ArrayList<>(replicas);
+    this.averageLatency = new double[replicas.size()];
+    this.hedgePercentile = p.get("hedgePercentile", 0.95);
+    this.minimumDelay = TimeUnit.MILLISECONDS.toNanos(p.get("hedgeDelay", 10L));
+
+    this.executor = RetrievalExecutors.create(p, "replicaThreads", 2 * Runtime.getRuntime().availableProcessors(), "replica-request");
+    this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "replica-hedge");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  public List<Retrieval> getReplicas() {
+    return replicas;
+  }
+
+  public synchronized long getHedgedRequestCount() {
+    return hedgedRequests;
+  }
+
+  @Override
+  public void close() throws IOException {
+    executor.shutdown();
+    timer.shutdown();
+    for (Retrieval r : replicas) {
+      r.close();
+    }
+  }
+
+  /**
+   * A request made to a single replica.
+   */
+  protected interface ReplicaRequest<T> {
+
+    T run(Retrieval r) throws Exception;
+  }
+
+  /**
+   * Sends the request to the best replica, hedging to the next best replica
+   * if the response is slow, and failing over if the request fails.
+   */
+  protected <T> T request(final ReplicaRequest<T> request) throws Exception {
+    Call<T> call = new Call<>(request);
+    call.sendNext();
+    try {
+      return call.response.get();
+    } catch (ExecutionException failed) {
+      Throwable cause = failed.getCause();
+      throw (cause instanceof Exception) ? (Exception) cause : failed;
+    } catch (InterruptedException e) {
+      call.response.cancel(false);
+      call.cancel(-1);
+      throw e;
+    }
+  }
+
+  /**
+   * The asynchronous form of request. The returned future is completed on the
+   * async executor.
+   */
+  protected <T> CompletableFuture<T> requestAsync(final ReplicaRequest<T> request) {
+    Call<T> call = new Call<>(request);
+    call.sendNext();
+
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    final Executor completions = asyncExecutor;
+    call.response.whenComplete(new BiConsumer<T, Throwable>() {
+      @Override
+      public void accept(final T value, final Throwable error) {
+        Runnable completion = new Runnable() {
+          @Override
+          public void run() {
+            if (error != null) {
+              result.completeExceptionally(error);
+            } else {
+              result.complete(value);
+            }
+          }
+        };
+        try {
+          completions.execute(completion);
+        } catch (RejectedExecutionException e) {
+          completion.run();
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * The (possibly hedged) requests for one call to the replicas; the first
+   * response wins, and the other requests are cancelled.
+   */
+  private class Call<T> {
+
+    final ReplicaRequest<T> request;
+    final Integer[] order;
+    final long delay;
+    final Future<?>[] tasks;
+    final CompletableFuture<T> response = new CompletableFuture<>();
+    ScheduledFuture<?> hedge = null;
+    int next = 0;
+    int outstanding = 0;
+
+    Call(ReplicaRequest<T> request) {
+      this.request = request;
+      this.order = replicaOrder();
+      this.delay = hedgeDelay();
+      this.tasks = new Future<?>[order.length];
+    }
+
+    /**
+     * Sends the request to the next replica, and sets a timer to hedge to the
+     * one after it.
+     */
+    synchronized void sendNext() {
+      if (response.isDone() || next >= order.length) {
+        return;
+      }
+      final int position = next++;
+      if (hedge != null) {
+        hedge.cancel(false);
+        hedge = null;
+      }
+      try {
+        outstanding++;
+        tasks[position] = executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            execute(position);
+          }
+        });
+        if (next < order.length) {
+          hedge = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+              hedge(position);
+            }
+          }, delay, TimeUnit.NANOSECONDS);
+        }
+      } catch (RejectedExecutionException e) {
+        response.completeExceptionally(e);
+      }
+    }
+
+    void hedge(int position) {
+      synchronized (this) {
+        // a response, a failure, or a newer request has arrived
+        if (response.isDone() || next != position + 1) {
+          return;
+        }
+      }
+      penalize(order[position], delay);
+      sendNext();
+    }
+
+    void execute(int position) {
+      int replica = order[position];
+      long start = System.nanoTime();
+      T result;
+      try {
+        result = request.run(replicas.get(replica));
+      } catch (Exception e) {
+        if (response.isDone()) {
+          // this request lost, and was cancelled
+          return;
+        }
+        // failed replicas are tried last, until they answer again
+        recordLatency(replica, FAILED);
+        synchronized (this) {
+          outstanding--;
+          if (outstanding > 0) {
+            return;
+          }
+          if (next < order.length) {
+            sendNext();
+            return;
+          }
+        }
+        response.completeExceptionally(e);
+        return;
+      }
+      recordLatency(replica, System.nanoTime() - start);
+      if (response.complete(result)) {
+        cancel(position);
+      }
+    }
+
+    /**
+     * Cancels the timer and every request that is still running, except for
+     * the winning request. Only requests to remote replicas are interrupted:
+     * interrupting a thread that reads a FileChannel closes the channel.
+     */
+    synchronized void cancel(int winner) {
+      if (hedge != null) {
+        hedge.cancel(false);
+      }
+      for (int i = 0; i < next; i++) {
+        if (i != winner && tasks[i] != null) {
+          tasks[i].cancel(replicas.get(order[i]) instanceof RemoteRetrieval);
+        }
+      }
+    }
+  }
+
+  private synchronized Integer[] replicaOrder() {
+    Integer[] order = new Integer[replicas.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Double.compare(averageLatency[a], averageLatency[b]);
+      }
+    });
+    return order;
+  }
+
+  private synchronized void recordLatency(int replica, long nanos) {
+    // exponentially weighted, unmeasured replicas are tried first
+    if (nanos == FAILED || averageLatency[replica] == 0.0 || averageLatency[replica] >= FAILED) {
+      averageLatency[replica] = nanos;
+    } else {
+      averageLatency[replica] = 0.8 * averageLatency[replica] + 0.2 * nanos;
+    }
+    if (nanos != FAILED) {
+      latencies[latencyCount % HISTORY] = nanos;
+      latencyCount++;
+    }
+  }
+
+  private synchronized void penalize(int replica, long nanos) {
+    // a replica that has not answered is at least this slow
+    hedgedRequests++;
+    averageLatency[replica] = Math.max(averageLatency[replica], nanos);
+  }
+
+  synchronized long hedgeDelay() {
+    int samples = Math.min(latencyCount, HISTORY);
+    if (samples < MIN_SAMPLES) {
+      return minimumDelay;
+    }
+    long[] recent = Arrays.copyOf(latencies, samples);
+    Arrays.sort(recent);
+    int index = (int) Math.min(samples - 1, Math.floor(hedgePercentile * samples));
+    return Math.max(minimumDelay, recent[index]);
+  }
+
+  @Override
+  public synchronized void setAsyncExecutor(Executor executor) {
+    this.asyncExecutor = executor;
+  }
+
+  @Override
+  public Parameters getGlobalParameters() {
+    try {
+      return request(new ReplicaRequest<Parameters>() {
+        @Override
+        public Parameters run(Retrieval r) throws Exception {
+          return r.getGlobalParameters();
+        }
+      });
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public Parameters getAvailableParts() throws IOException {
+    return ioRequest(new ReplicaRequest<Parameters>() {
+      @Override
+      public Parameters run(Retrieval r) throws Exception {
+        return r.getAvailableParts();
+      }
+    });
+  }
+
+  @Override
+  public Document getDocument(final String identifier, final DocumentComponents p) throws IOException {
+    return ioRequest(new ReplicaRequest<Document>() {
+      @Override
+      public Document run(Retrieval r) throws Exception {
+        return r.getDocument(identifier, p);
+      }
+    });
+  }
+
+  @Override
+  public Long getDocumentId(final String docname) throws IOException {
+    return ioRequest(new ReplicaRequest<Long>() {
+      @Override
+      public Long run(Retrieval r) throws Exception {
+        return r.getDocumentId(docname);
+      }
+    });
+  }
+
+  @Override
+  public Map<String, Document> getDocuments(final List<String> identifier, final DocumentComponents p) throws IOException {
+    return ioRequest(new ReplicaRequest<Map<String, Document>>() {
+      @Override
+      public Map<String, Document> run(Retrieval r) throws Exception {
+        return r.getDocuments(identifier, p);
+      }
+    });
+  }
+
+  @Override
+  public NodeType getNodeType(final Node node) throws Exception {
+    return request(new ReplicaRequest<NodeType>() {
+      @Override
+      public NodeType run(Retrieval r) throws Exception {
+        return r.getNodeType(node);
+      }
+    });
+  }
+
+  @Override
+  public QueryType getQueryType(final Node node) throws Exception {
+    return request(new ReplicaRequest<QueryType>() {
+      @Override
+      public QueryType run(Retrieval r) throws Exception {
+        return r.getQueryType(node);
+      }
+    });
+  }
+
+  @Override
+  public Node transformQuery(final Node root, final Parameters queryParams) throws Exception {
+    final Parameters original = queryParams.clone();
+    Object[] transformed = request(new ReplicaRequest<Object[]>() {
+      @Override
+      public Object[] run(Retrieval r) throws Exception {
+        // each replica transforms its own copy of the query and parameters
+        Parameters replicaParams = original.clone();
+        Node replicaRoot = r.transformQuery(root.clone(), replicaParams);
+        return new Object[]{replicaRoot, replicaParams};
+      }
+    });
+    queryParams.copyFrom((Parameters) transformed[1]);
+    return (Node) transformed[0];
+  }
+
+  @Override
+  public Results executeQuery(Node root) throws Exception {
+    return executeQuery(root, Parameters.create());
+  }
+
+  @Override
+  public Results executeQuery(final Node root, final Parameters parameters) throws Exception {
+    Results results = request(new ReplicaRequest<Results>() {
+      @Override
+      public Results run(Retrieval r) throws Exception {
+        // each replica gets its own copy, queries may modify parameters
+        return r.executeQuery(root, parameters.clone());
+      }
+    });
+    results.retrieval = this;
+    return results;
+  }
+
+  @Override
+  public CompletableFuture<Results> executeQueryAsync(final Node root, final Parameters parameters) {
+    return requestAsync(new ReplicaRequest<Results>() {
+      @Override
+      public Results run(Retrieval r) throws Exception {
+        Results results = r.executeQuery(root, parameters.clone());
+        results.retrieval = ReplicatedRetrieval.this;
+        return results;
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<NodeStatistics> getNodeStatisticsAsync(final Node node) {
+    return requestAsync(new ReplicaRequest<NodeStatistics>() {
+      @Override
+      public NodeStatistics run(Retrieval r) throws Exception {
+        return r.getNodeStatistics(node);
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<Map<String, Document>> getDocumentsAsync(final List<String> identifiers, final DocumentComponents p) {
+    return requestAsync(new ReplicaRequest<Map<String, Document>>() {
+      @Override
+      public Map<String, Document> run(Retrieval r) throws Exception {
+        return r.getDocuments(identifiers, p);
+      }
+    });
+  }
+
+  @Override
+  public IndexPartStatistics getIndexPartStatistics(final String partName) throws IOException {
+    return ioRequest(new ReplicaRequest<IndexPartStatistics>() {
+      @Override
+      public IndexPartStatistics run(Retrieval r) throws Exception {
+        return r.getIndexPartStatistics(partName);
+      }
+    });
+  }
+
+  @Override
+  public FieldStatistics getCollectionStatistics(final String nodeString) throws Exception {
+    return request(new ReplicaRequest<FieldStatistics>() {
+      @Override
+      public FieldStatistics run(Retrieval r) throws Exception {
+        return r.getCollectionStatistics(nodeString);
+      }
+    });
+  }
+
+  @Override
+  public FieldStatistics getCollectionStatistics(final Node node) throws Exception {
+    return request(new ReplicaRequest<FieldStatistics>() {
+      @Override
+      public FieldStatistics run(Retrieval r) throws Exception {
+        return r.getCollectionStatistics(node);
+      }
+    });
+  }
+
+  @Override
+  public NodeStatistics getNodeStatistics(final String nodeString) throws Exception {
+    return request(new ReplicaRequest<NodeStatistics>() {
+      @Override
+      public NodeStatistics run(Retrieval r) throws Exception {
+        return r.getNodeStatistics(nodeString);
+      }
+    });
+  }
+
+  @Override
+  public NodeStatistics getNodeStatistics(final Node node) throws Exception {
+    return request(new ReplicaRequest<NodeStatistics>() {
+      @Override
+      public NodeStatistics run(Retrieval r) throws Exception {
+        return r.getNodeStatistics(node);
+      }
+    });
+  }
+
+  @Override
+  public List<NodeStatistics> getNodeStatistics(final List<Node> nodes) throws Exception {
+    return request(new ReplicaRequest<List<NodeStatistics>>() {
+      @Override
+      public List<NodeStatistics> run(Retrieval r) throws Exception {
+        return r.getNodeStatistics(nodes);
+      }
+    });
+  }
+
+  @Override
+  public double getMaximumScore(final Node root, final Parameters queryParams) throws Exception {
+    return request(new ReplicaRequest<Double>() {
+      @Override
+      public Double run(Retrieval r) throws Exception {
+        return r.getMaximumScore(root, queryParams.clone());
+      }
+    });
+  }
+
+  @Override
+  public Integer getDocumentLength(final Long docid) throws IOException {
+    return ioRequest(new ReplicaRequest<Integer>() {
+      @Override
+      public Integer run(Retrieval r) throws Exception {
+        return r.getDocumentLength(docid);
+      }
+    });
+  }
+
+  @Override
+  public Integer getDocumentLength(final String docname) throws IOException {
+    return ioRequest(new ReplicaRequest<Integer>() {
+      @Override
+      public Integer run(Retrieval r) throws Exception {
+        return r.getDocumentLength(docname);
+      }
+    });
+  }
+
+  @Override
+  public String getDocumentName(final Long docid) throws IOException {
+    return ioRequest(new ReplicaRequest<String>() {
+      @Override
+      public String run(Retrieval r) throws Exception {
+        return r.getDocumentName(docid);
+      }
+    });
+  }
+
+  @Override
+  public void addNodeToCache(Node node) throws Exception {
+    for (Retrieval r : replicas) {
+      r.addNodeToCache(node);
+    }
+  }
+
+  @Override
+  public void addAllNodesToCache(Node node) throws Exception {
+    for (Retrieval r : replicas) {
+      r.addAllNodesToCache(node);
+    }
+  }
+
+  @Override
+  public Tokenizer getTokenizer() {
+    try {
+      return request(new ReplicaRequest<Tokenizer>() {
+        @Override
+        public Tokenizer run(Retrieval r) throws Exception {
+          return r.getTokenizer();
+        }
+      });
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private <T> T ioRequest(ReplicaRequest<T> request) throws IOException {
+    try {
+      return request(request);
+    } catch (IOException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+}
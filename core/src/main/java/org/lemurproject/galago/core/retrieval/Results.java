@@ -6,6 +6,7 @@ package org.lemurproject.galago.core.retrieval;
 import org.lemurproject.galago.core.parse.Document;
 import org.lemurproject.galago.core.retrieval.processing.ProcessingModel;
 import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.ProfiledNode;
 
 import javax.annotation.Nonnull;
 import java.io.*;
@@ -24,6 +25,8 @@ public class Results implements Serializable {
   public Node inputQuery;
   public List<ScoredDocument> scoredDocuments;
   public Class<? extends ProcessingModel> processingModel;
+  // iterator counters, for queries run with "profile": true
+  public ProfiledNode profile;
 
   // empty construction -- a
   public Results(Retrieval retrieval) {
@@ -14,6 +14,7 @@ import org.lemurproject.galago.utility.Parameters;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -193,6 +194,39 @@ public interface Retrieval extends Closeable {
    */
   NodeStatistics getNodeStatistics(Node node) throws Exception;
 
+  /**
+   * Returns collection statistics for each of a list of count nodes, in the
+   * same order. Retrievals over several shards collect all of the statistics
+   * in a single request per shard; by default each node is counted in turn.
+   *
+   * See nodeStatistics(Node node).
+   *
+   * @return List of NodeStatistics
+   * @throws Exception
+   */
+  default List<NodeStatistics> getNodeStatistics(List<Node> nodes) throws Exception {
+    List<NodeStatistics> stats = new ArrayList<>(nodes.size());
+    for (Node node : nodes) {
+      stats.add(getNodeStatistics(node));
+    }
+    return stats;
+  }
+
+  /**
+   * Returns an upper bound on the score of any document in this retrieval for
+   * an annotated query. Collection-wide 'maximumCount' statistics are replaced
+   * by the local values, so the bound is specific to this index (or shard).
+   *
+   * Returns positive infinity if the query can not be bounded, which is the
+   * default.
+   *
+   * @return maximum score
+   * @throws Exception
+   */
+  default double getMaximumScore(Node root, Parameters queryParams) throws Exception {
+    return Double.POSITIVE_INFINITY;
+  }
+
   /**
    * Returns the length of a particular document. Where docid
    * is the internal identifier of the document.
@@ -0,0 +1,72 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.retrieval;
+
+import org.lemurproject.galago.utility.Parameters;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Thread pools used by retrievals.
+ */
+public final class RetrievalExecutors {
+
+  private RetrievalExecutors() {
+  }
+
+  /**
+   * If 'virtualThreads' is set and the JVM supports them, returns an executor
+   * that starts a virtual thread per task. Otherwise returns a pool of
+   * p[threadsKey] (default: defaultThreads) daemon threads.
+   */
+  public static ExecutorService create(Parameters p, String threadsKey, int defaultThreads, final String name) {
+    if (p.get("virtualThreads", false)) {
+      try {
+        Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        return (ExecutorService) factory.invoke(null);
+      } catch (ReflectiveOperationException e) {
+        Logger.getLogger("RetrievalExecutors").info("Virtual threads are not available, using a thread pool.");
+      }
+    }
+    int threads = (int) p.get(threadsKey, (long) Math.max(1, defaultThreads));
+    final AtomicInteger threadCount = new AtomicInteger(0);
+    return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name + "-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Runs the task on the executor; exceptions complete the future.
+   */
+  public static <T> CompletableFuture<T> supply(final Callable<T> task, Executor executor) {
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            future.complete(task.call());
+          } catch (Throwable e) {
+            future.completeExceptionally(e);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+}
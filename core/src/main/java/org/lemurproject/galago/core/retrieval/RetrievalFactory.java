@@ -18,6 +18,12 @@ import java.util.*;
  * { "index" : { "g1" : [ "/path/to/index1", "/path/to/index2" ] "g2" :
  * "/path/to/index3" } }
  *
+ * Any shard in a list may be given as a list of replicas (see
+ * ReplicatedRetrieval):
+ *
+ * { "index" : [ [ "galago://host1:1234", "galago://host2:1234" ],
+ * "galago://host3:1234" ] }
+ *
  *
  * @author irmarc, sjh
  */
@@ -40,7 +46,7 @@ public class RetrievalFactory {
 
       // if we have a list of index paths:
     } else if (parameters.isList("index")) {
-      List<String> indexes = parameters.getList("index", String.class);
+      List<Object> indexes = parameters.getList("index", Object.class);
       return instance(indexes, parameters);
 
       // if we have a mapping from groupName to list of index paths
@@ -53,7 +59,7 @@ public class RetrievalFactory {
         if (groups.isString(group)) {
           indexGroups.put(group, instance(groups.getString(group), parameters));
         } else if (groups.isList(group)) {
-          indexGroups.put(group, instance(groups.getList(group, String.class), parameters));
+          indexGroups.put(group, instance(groups.getList(group, Object.class), parameters));
         }
       }
 
@@ -69,6 +75,7 @@ public class RetrievalFactory {
    * cases:
    *  1 index path - local
    *  1 index path - proxy
+   *  1 index path - remote (binary protocol, see RetrievalServer)
    *  many index paths - multi - locals
    *  many index paths - multi - proxies
    */
@@ -80,6 +87,8 @@ public class RetrievalFactory {
               new Class[]{Retrieval.class}, ih);
       ih.setRetrieval(asRetrieval);
       return asRetrieval;
+    } else if (path.startsWith("galago://")) {
+      return new RemoteRetrieval(path, parameters);
     } else {
       return new LocalRetrieval(path, parameters);
     }
@@ -89,7 +98,21 @@ public class RetrievalFactory {
 		return instance(path, Parameters.create());
 	}
 
-  public static Retrieval instance(List<String> indexes, Parameters parameters) throws Exception {
+  /**
+   * Opens a shard: either a single index path, or a list of replicas.
+   */
+  public static Retrieval instance(Object shard, Parameters parameters) throws Exception {
+    if (shard instanceof List) {
+      List<Retrieval> replicas = new ArrayList<>();
+      for (Object path : (List<?>) shard) {
+        replicas.add(instance((String) path, parameters));
+      }
+      return new ReplicatedRetrieval(replicas, parameters);
+    }
+    return instance((String) shard, parameters);
+  }
+
+  public static Retrieval instance(List<?> indexes, Parameters parameters) throws Exception {
 
     if (indexes.size() == 1) {
       return instance(indexes.get(0), parameters);
@@ -100,7 +123,7 @@ public class RetrievalFactory {
     final List<Retrieval> retrievals = Collections.synchronizedList(new ArrayList<Retrieval>());
     final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
 
-    for (final String path : indexes) {
+    for (final Object path : indexes) {
       Thread t = new Thread() {
         @Override
         public void run() {
@@ -20,6 +20,7 @@ public class ScoredDocument extends Ranked implements EvalDoc, Comparable<Scored
   public String documentName;
   public String source; // lets us know where this scored doc came from
   public long document;
+  public int shard = -1; // the shard of a MultiRetrieval that returned this doc
   public AnnotatedNode annotation = null;
 
   public ScoredDocument() {
@@ -98,6 +99,7 @@ public class ScoredDocument extends Ranked implements EvalDoc, Comparable<Scored
     doc.documentName = this.documentName;
     doc.document = this.document;
     doc.source = this.source;
+    doc.shard = this.shard;
     doc.annotation = this.annotation;
     return doc;
   }
@@ -0,0 +1,32 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.retrieval.iterator;
+
+/**
+ * Defines an interface for scoring a whole block of postings at once. The
+ * processing model decodes the counts and lengths for a block of candidate
+ * documents into int arrays, and the iterator converts them into scores in a
+ * single tight loop (no per-document virtual calls, so the JIT can unroll and
+ * vectorize it).
+ *
+ * @see org.lemurproject.galago.core.retrieval.processing.BatchScoreDocumentModel
+ */
+public interface BatchScoringIterator extends ScoreIterator {
+
+  /**
+   * Returns the count iterator that supplies the term counts for this scorer.
+   */
+  public CountIterator getCountIterator();
+
+  /**
+   * Returns the lengths iterator that supplies the document lengths for this
+   * scorer.
+   */
+  public LengthsIterator getLengthsIterator();
+
+  /**
+   * Scores the first 'size' (count, length) pairs, writing the (unweighted)
+   * score of pair i to scores[i]. Must agree (up to floating point rounding)
+   * with what score(ScoringContext) returns for the same pair.
+   */
+  public void scoreBatch(int[] counts, int[] lengths, double[] scores, int size);
+}
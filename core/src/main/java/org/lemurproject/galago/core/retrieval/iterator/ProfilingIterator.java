@@ -0,0 +1,147 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.retrieval.iterator;
+
+import org.lemurproject.galago.core.retrieval.processing.ScoringContext;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.ProfiledNode;
+import org.lemurproject.galago.core.util.ExtentArray;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Wraps an iterator in a proxy that implements all of its interfaces, and
+ * counts calls, candidates, extents and time into a ProfiledNode.
+ *
+ * Only the interfaces of the iterator are visible through the proxy, so
+ * callers that need a concrete iterator class should use unwrap; FeatureFactory
+ * does so for constructor arguments that need one.
+ */
+public class ProfilingIterator implements InvocationHandler {
+
+  private final BaseIterator iterator;
+  private final ProfiledNode profile;
+  private long extentsDocument = -1;
+
+  private ProfilingIterator(BaseIterator iterator, ProfiledNode profile) {
+    this.iterator = iterator;
+    this.profile = profile;
+  }
+
+  /**
+   * Returns a profiled view of the iterator. The new profile node is added to
+   * the list of profiles, with the profiles of the (already wrapped) children.
+   */
+  public static BaseIterator wrap(BaseIterator iterator, Node node, List<BaseIterator> children, List<ProfiledNode> profiles) {
+    if (iterator == null || getProfile(iterator) != null) {
+      return iterator;
+    }
+    List<ProfiledNode> childProfiles = new ArrayList<>();
+    for (BaseIterator child : children) {
+      ProfiledNode childProfile = getProfile(child);
+      if (childProfile != null) {
+        childProfiles.add(childProfile);
+      }
+    }
+    ProfiledNode profile = new ProfiledNode(node.getOperator(), iterator.getClass().getSimpleName(),
+            node.getNodeParameters().toString(), childProfiles);
+
+    Set<Class<?>> interfaces = new LinkedHashSet<>();
+    for (Class<?> c = iterator.getClass(); c != null; c = c.getSuperclass()) {
+      collectInterfaces(c, interfaces);
+    }
+    BaseIterator proxy;
+    try {
+      proxy = (BaseIterator) Proxy.newProxyInstance(iterator.getClass().getClassLoader(),
+              interfaces.toArray(new Class<?>[interfaces.size()]),
+              new ProfilingIterator(iterator, profile));
+    } catch (IllegalArgumentException e) {
+      // e.g. non-public interfaces from different packages; not profiled
+      return iterator;
+    }
+    profiles.add(profile);
+    return proxy;
+  }
+
+  private static void collectInterfaces(Class<?> c, Set<Class<?>> interfaces) {
+    for (Class<?> i : c.getInterfaces()) {
+      if (interfaces.add(i)) {
+        collectInterfaces(i, interfaces);
+      }
+    }
+  }
+
+  /**
+   * Returns the profile of a wrapped iterator, or null.
+   */
+  public static ProfiledNode getProfile(BaseIterator iterator) {
+    if (iterator != null && Proxy.isProxyClass(iterator.getClass())) {
+      InvocationHandler handler = Proxy.getInvocationHandler(iterator);
+      if (handler instanceof ProfilingIterator) {
+        return ((ProfilingIterator) handler).profile;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the iterator underneath a profiled view.
+   */
+  public static BaseIterator unwrap(BaseIterator iterator) {
+    if (getProfile(iterator) != null) {
+      return ((ProfilingIterator) Proxy.getInvocationHandler(iterator)).iterator;
+    }
+    return iterator;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String name = method.getName();
+    boolean moves = name.equals("syncTo") || name.equals("movePast");
+    long before = moves ? iterator.currentCandidate() : 0;
+
+    long start = System.nanoTime();
+    Object result;
+    try {
+      result = method.invoke(iterator, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    } finally {
+      profile.nanos += System.nanoTime() - start;
+    }
+
+    if (moves) {
+      if (name.equals("syncTo")) {
+        profile.syncToCalls++;
+      } else {
+        profile.movePastCalls++;
+      }
+      long after = iterator.currentCandidate();
+      if (after != before && !iterator.isDone()) {
+        profile.postings++;
+        if (name.equals("syncTo")) {
+          profile.skips++;
+        }
+      }
+    } else if (iterator instanceof ExtentIterator && args != null && args.length == 1 && args[0] instanceof ScoringContext) {
+      // extents are materialized once per document, whether read as extents or counted
+      long document = ((ScoringContext) args[0]).document;
+      if (document != extentsDocument) {
+        if (name.equals("extents")) {
+          profile.extents += ((ExtentArray) result).size();
+          extentsDocument = document;
+        } else if (name.equals("count")) {
+          profile.extents += (Integer) result;
+          extentsDocument = document;
+        }
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,131 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.retrieval.iterator.disk;
+
+import org.lemurproject.galago.core.index.source.ImpactSource;
+import org.lemurproject.galago.core.retrieval.iterator.DeltaScoringIterator;
+import org.lemurproject.galago.core.retrieval.processing.ScoringContext;
+import org.lemurproject.galago.core.retrieval.query.AnnotatedNode;
+import org.lemurproject.galago.core.retrieval.query.NodeParameters;
+
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Scores documents directly from a precomputed impact list. Scores are
+ * recovered from the quantized impacts (base + impact * scale), document
+ * lengths are never read.
+ *
+ * The maximum score is derived from the largest impact in the list, so this
+ * gives much tighter bounds to MaxScore and WAND than the count based scorers.
+ *
+ * @see org.lemurproject.galago.core.index.disk.ImpactIndexReader
+ */
+public class DiskImpactIterator extends SourceIterator implements DeltaScoringIterator {
+
+  final ImpactSource impactSrc;
+  final NodeParameters np;
+  // quantization
+  final double base;
+  final double scale;
+  final double defaultScore;
+  // delta
+  final double weight;
+  final double min;
+  final double max;
+  final double weightedMin;
+  final double weightedMax;
+  final double weightedMaxDiff;
+
+  public DiskImpactIterator(ImpactSource src, NodeParameters np, double base, double scale) {
+    super(src);
+    this.impactSrc = src;
+    this.np = np;
+    this.base = base;
+    this.scale = scale;
+    this.defaultScore = src.defaultScore();
+
+    weight = np.get("w", 1.0);
+    max = Math.max(defaultScore, impactScore(src.maximumImpact()));
+    // the lowest posting score is at least 'base'
+    min = Math.min(defaultScore, base);
+    weightedMin = weight * min;
+    weightedMax = weight * max;
+    weightedMaxDiff = weightedMax - weightedMin;
+  }
+
+  private double impactScore(int impact) {
+    return base + impact * scale;
+  }
+
+  public int impact(ScoringContext c) {
+    return impactSrc.impact(c.document);
+  }
+
+  /**
+   * Upper bound on the score of any document in the current block.
+   */
+  public double blockMaximumScore() {
+    return Math.max(defaultScore, impactScore(impactSrc.blockMaximumImpact()));
+  }
+
+  @Override
+  public double score(ScoringContext c) {
+    int impact = impactSrc.impact(c.document);
+    if (impact == 0) {
+      return defaultScore;
+    }
+    return impactScore(impact);
+  }
+
+  @Override
+  public double deltaScore(ScoringContext c) {
+    return weight * (max - score(c));
+  }
+
+  @Override
+  public double getWeight() {
+    return weight;
+  }
+
+  @Override
+  public double maximumDifference() {
+    return weightedMaxDiff;
+  }
+
+  @Override
+  public double maximumWeightedScore() {
+    return weightedMax;
+  }
+
+  @Override
+  public double minimumWeightedScore() {
+    return weightedMin;
+  }
+
+  @Override
+  public double maximumScore() {
+    return max;
+  }
+
+  @Override
+  public double minimumScore() {
+    return min;
+  }
+
+  @Override
+  public String getValueString(ScoringContext c) throws IOException {
+    return String.format("%s,%d,%d", getKeyString(), currentCandidate(), impact(c));
+  }
+
+  @Override
+  public AnnotatedNode getAnnotatedNode(ScoringContext c) throws IOException {
+    String type = "impacts";
+    String className = this.getClass().getSimpleName();
+    String parameters = np.toString();
+    long document = currentCandidate();
+    boolean atCandidate = hasMatch(c);
+    String returnValue = Double.toString(score(c));
+    String extraInfo = "impact=" + impact(c);
+    return new AnnotatedNode(type, className, parameters, document, atCandidate, returnValue, extraInfo, Collections.<AnnotatedNode>emptyList());
+  }
+}
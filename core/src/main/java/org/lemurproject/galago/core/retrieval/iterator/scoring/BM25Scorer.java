@@ -40,16 +40,37 @@ public class BM25Scorer {
     idf = Math.log(documentCount / (df + 0.5));
   }
 
-  public double score(int count, int length) {
+  /**
+   * The BM25 score of a term, shared with BM25ScoringIterator.
+   */
+  static double score(double count, double length, double idf, double k, double b, double avgDocLength) {
     double numerator = count * (k + 1);
     double denominator = count + (k * (1 - b + (b * length / avgDocLength)));
     return idf * numerator / denominator;
   }
 
+  /**
+   * Scores a block of (count, length) pairs in one pass.
+   */
+  static void score(int[] counts, int[] lengths, double[] scores, int size, double idf, double k, double b, double avgDocLength) {
+    for (int i = 0; i < size; i++) {
+      scores[i] = score(counts[i], lengths[i], idf, k, b, avgDocLength);
+    }
+  }
+
+  public double score(int count, int length) {
+    return score(count, length, idf, k, b, avgDocLength);
+  }
+
+  /**
+   * Scores a block of (count, length) pairs in one pass.
+   */
+  public void score(int[] counts, int[] lengths, double[] scores, int size) {
+    score(counts, lengths, scores, size, idf, k, b, avgDocLength);
+  }
+
   public double score(int count, int length, double externalIDF) {
-    double numerator = count * (k + 1);
-    double denominator = count + (k * (1 - b + (b * length / avgDocLength)));
-    return externalIDF * numerator / denominator;
+    return score(count, length, externalIDF, k, b, avgDocLength);
   }
     
   public double getIDF() {
@@ -3,6 +3,7 @@ package org.lemurproject.galago.core.retrieval.iterator.scoring;
 
 import org.lemurproject.galago.core.retrieval.RequiredParameters;
 import org.lemurproject.galago.core.retrieval.RequiredStatistics;
+import org.lemurproject.galago.core.retrieval.iterator.BatchScoringIterator;
 import org.lemurproject.galago.core.retrieval.iterator.CountIterator;
 import org.lemurproject.galago.core.retrieval.iterator.DeltaScoringIterator;
 import org.lemurproject.galago.core.retrieval.iterator.LengthsIterator;
@@ -21,7 +22,7 @@ import java.util.List;
  */
 @RequiredStatistics(statistics = {"collectionLength", "documentCount", "nodeFrequency", "nodeDocumentCount", "maximumCount"})
 @RequiredParameters(parameters = {"b", "k"})
-public class BM25ScoringIterator extends ScoringFunctionIterator implements DeltaScoringIterator {
+public class BM25ScoringIterator extends ScoringFunctionIterator implements DeltaScoringIterator, BatchScoringIterator {
 
   // delta
   private final double weight;
@@ -117,10 +118,13 @@ public class BM25ScoringIterator extends ScoringFunctionIterator implements Delt
     return score(count, length);
   }
 
+  @Override
+  public void scoreBatch(int[] counts, int[] lengths, double[] scores, int size) {
+    BM25Scorer.score(counts, lengths, scores, size, idf, k, b, avgDocLength);
+  }
+
   private double score(double count, double length) {
-    double numerator = count * (k + 1);
-    double denominator = count + (k * (1 - b + (b * length / avgDocLength)));
-    return idf * numerator / denominator;
+    return BM25Scorer.score(count, length, idf, k, b, avgDocLength);
   }
 
   @Override
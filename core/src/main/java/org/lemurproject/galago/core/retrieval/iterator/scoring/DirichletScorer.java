@@ -35,6 +35,16 @@ public class DirichletScorer {
     return Math.log(numerator / denominator);
   }
 
+  /**
+   * Scores a block of (count, length) pairs in one pass.
+   */
+  public void score(int[] counts, int[] lengths, double[] scores, int size) {
+    final double smoothing = mu * background;
+    for (int i = 0; i < size; i++) {
+      scores[i] = Math.log((counts[i] + smoothing) / (lengths[i] + mu));
+    }
+  }
+
   public double score(int count, int length, double externalBk) {
     double numerator = count + (mu * externalBk);
     double denominator = length + mu;
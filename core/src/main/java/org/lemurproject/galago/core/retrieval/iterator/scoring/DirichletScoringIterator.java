@@ -3,6 +3,7 @@ package org.lemurproject.galago.core.retrieval.iterator.scoring;
 
 import org.lemurproject.galago.core.retrieval.RequiredParameters;
 import org.lemurproject.galago.core.retrieval.RequiredStatistics;
+import org.lemurproject.galago.core.retrieval.iterator.BatchScoringIterator;
 import org.lemurproject.galago.core.retrieval.iterator.CountIterator;
 import org.lemurproject.galago.core.retrieval.iterator.DeltaScoringIterator;
 import org.lemurproject.galago.core.retrieval.iterator.LengthsIterator;
@@ -21,7 +22,7 @@ import java.io.IOException;
 @RequiredStatistics(statistics = {"collectionLength", "nodeFrequency", "maximumCount"})
 @RequiredParameters(parameters = {"mu"})
 public class DirichletScoringIterator extends ScoringFunctionIterator
-        implements DeltaScoringIterator {
+        implements DeltaScoringIterator, BatchScoringIterator {
 
   // delta
   private final double weight;
@@ -104,6 +105,14 @@ public class DirichletScoringIterator extends ScoringFunctionIterator
     return dirichletScore(count, length);
   }
 
+  @Override
+  public void scoreBatch(int[] counts, int[] lengths, double[] scores, int size) {
+    final double smoothing = mu * background;
+    for (int i = 0; i < size; i++) {
+      scores[i] = Math.log((counts[i] + smoothing) / (lengths[i] + mu));
+    }
+  }
+
   private double dirichletScore(double count, double length) {
     double numerator = count + (mu * background);
     double denominator = length + mu;
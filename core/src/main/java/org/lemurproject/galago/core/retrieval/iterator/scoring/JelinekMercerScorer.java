@@ -33,4 +33,15 @@ public class JelinekMercerScorer {
     double foreground = (double) count / (double) length;
     return Math.log((lambda * foreground) + ((1 - lambda) * background));
   }
+
+  /**
+   * Scores a block of (count, length) pairs in one pass.
+   */
+  public void score(int[] counts, int[] lengths, double[] scores, int size) {
+    final double smoothed = (1 - lambda) * background;
+    for (int i = 0; i < size; i++) {
+      double foreground = (double) counts[i] / (double) lengths[i];
+      scores[i] = Math.log((lambda * foreground) + smoothed);
+    }
+  }
 }
@@ -3,6 +3,7 @@ package org.lemurproject.galago.core.retrieval.iterator.scoring;
 
 import org.lemurproject.galago.core.retrieval.RequiredParameters;
 import org.lemurproject.galago.core.retrieval.RequiredStatistics;
+import org.lemurproject.galago.core.retrieval.iterator.BatchScoringIterator;
 import org.lemurproject.galago.core.retrieval.iterator.CountIterator;
 import org.lemurproject.galago.core.retrieval.iterator.DeltaScoringIterator;
 import org.lemurproject.galago.core.retrieval.iterator.LengthsIterator;
@@ -19,7 +20,7 @@ import java.io.IOException;
 @RequiredStatistics(statistics = {"maximumCount", "collectionLength", "nodeFrequency"})
 @RequiredParameters(parameters = {"lambda"})
 public class JelinekMercerScoringIterator extends ScoringFunctionIterator
-        implements DeltaScoringIterator {
+        implements DeltaScoringIterator, BatchScoringIterator {
 
   // delta
   private final double weight;
@@ -103,6 +104,16 @@ public class JelinekMercerScoringIterator extends ScoringFunctionIterator
     return score(count, length);
   }
 
+  @Override
+  public void scoreBatch(int[] counts, int[] lengths, double[] scores, int size) {
+    final double smoothed = (1 - lambda) * background;
+    for (int i = 0; i < size; i++) {
+      // length zero is scored as a missing document, see score(ScoringContext)
+      double foreground = (lengths[i] == 0) ? 0.0 : (double) counts[i] / (double) lengths[i];
+      scores[i] = Math.log((lambda * foreground) + smoothed);
+    }
+  }
+
   public double score(double count, double length) {
     double foreground = count / length;
     return Math.log((lambda * foreground) + ((1 - lambda) * background));
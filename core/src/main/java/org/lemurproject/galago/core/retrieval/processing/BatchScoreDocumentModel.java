@@ -0,0 +1,227 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.retrieval.processing;
+
+import org.lemurproject.galago.core.retrieval.LocalRetrieval;
+import org.lemurproject.galago.core.retrieval.ScoredDocument;
+import org.lemurproject.galago.core.retrieval.iterator.BaseIterator;
+import org.lemurproject.galago.core.retrieval.iterator.BatchScoringIterator;
+import org.lemurproject.galago.core.retrieval.iterator.CountIterator;
+import org.lemurproject.galago.core.retrieval.iterator.DeltaScoringIterator;
+import org.lemurproject.galago.core.retrieval.iterator.DisjunctionIterator;
+import org.lemurproject.galago.core.retrieval.iterator.LengthsIterator;
+import org.lemurproject.galago.core.retrieval.iterator.ScoreIterator;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.NodeType;
+import org.lemurproject.galago.utility.FixedSizeMinHeap;
+import org.lemurproject.galago.utility.Parameters;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exhaustive (rank-safe) scoring of a #combine of BatchScoringIterators.
+ *
+ * Instead of scoring one document at a time through the iterator tree, the
+ * collection is processed in windows of 'blockSize' document ids. For each
+ * window the postings of every distinct count iterator are decoded into int
+ * arrays, the union of matching documents forms the candidate block, the
+ * lengths of all candidates are decoded once per distinct lengths iterator, and
+ * each scorer then scores the whole block in a single tight loop. The weighted
+ * block scores are summed and offered to the top-k heap.
+ *
+ * Produces the same ranking as RankedDocumentModel and MaxScoreDocumentModel.
+ */
+public class BatchScoreDocumentModel extends ProcessingModel {
+
+  LocalRetrieval retrieval;
+
+  public BatchScoreDocumentModel(LocalRetrieval lr) {
+    this.retrieval = lr;
+  }
+
+  @Override
+  public ScoredDocument[] execute(Node queryTree, Parameters queryParams) throws Exception {
+    int requested = (int) queryParams.get("requested", 1000);
+    SearchAfter after = SearchAfter.create(queryParams);
+    int blockSize = (int) queryParams.get("blockSize", retrieval.getGlobalParameters().get("blockSize", 4096L));
+
+    // step one: find the set of scoring nodes in the tree
+    List<Node> scoringNodes = new ArrayList<>();
+    boolean canScore = findBatchNodes(queryTree, scoringNodes, retrieval);
+    if (!canScore) {
+      throw new IllegalArgumentException("Query tree does not support batch scoring interface.\n" + queryTree.toPrettyString());
+    }
+
+    // step two: create an iterator for each node, sharing low level iterators
+    Map<String, BaseIterator> queryIteratorCache = new HashMap<>();
+    List<BatchScoringIterator> scorers = new ArrayList<>();
+    for (Node scoringNode : scoringNodes) {
+      scorers.add((BatchScoringIterator) retrieval.createNodeMergedIterator(scoringNode, queryIteratorCache));
+    }
+
+    // each distinct count / lengths iterator is decoded once per block
+    Map<CountIterator, PostingBlock> postings = new IdentityHashMap<>();
+    Map<LengthsIterator, int[]> lengths = new IdentityHashMap<>();
+    PostingBlock[] scorerPostings = new PostingBlock[scorers.size()];
+    int[][] scorerLengths = new int[scorers.size()][];
+    double[] weights = new double[scorers.size()];
+    for (int i = 0; i < scorers.size(); i++) {
+      BatchScoringIterator scorer = scorers.get(i);
+      if (!postings.containsKey(scorer.getCountIterator())) {
+        postings.put(scorer.getCountIterator(), new PostingBlock(scorer.getCountIterator(), blockSize));
+      }
+      if (!lengths.containsKey(scorer.getLengthsIterator())) {
+        lengths.put(scorer.getLengthsIterator(), new int[blockSize]);
+      }
+      scorerPostings[i] = postings.get(scorer.getCountIterator());
+      scorerLengths[i] = lengths.get(scorer.getLengthsIterator());
+      weights[i] = ((DeltaScoringIterator) scorer).getWeight();
+    }
+
+    FixedSizeMinHeap<ScoredDocument> queue = new FixedSizeMinHeap<>(ScoredDocument.class, requested, new ScoredDocument.ScoredDocumentComparator());
+    ScoringContext context = new ScoringContext();
+
+    boolean[] matched = new boolean[blockSize];
+    int[] denseCounts = new int[blockSize];
+    long[] candidates = new long[blockSize];
+    int[] counts = new int[blockSize];
+    double[] scores = new double[blockSize];
+    double[] totals = new double[blockSize];
+
+    while (true) {
+      // the next window starts at the smallest remaining candidate
+      long windowStart = Long.MAX_VALUE;
+      for (PostingBlock block : postings.values()) {
+        if (!block.iterator.isDone()) {
+          windowStart = Math.min(windowStart, block.iterator.currentCandidate());
+        }
+      }
+      if (windowStart == Long.MAX_VALUE) {
+        break;
+      }
+      long windowEnd = windowStart + blockSize;
+
+      // decode postings, marking the union of matching documents
+      for (PostingBlock block : postings.values()) {
+        block.decode(context, windowStart, windowEnd, matched);
+      }
+      int size = 0;
+      for (int offset = 0; offset < blockSize; offset++) {
+        if (matched[offset]) {
+          candidates[size++] = windowStart + offset;
+          matched[offset] = false;
+        }
+      }
+
+      // decode lengths for the candidate block
+      for (Map.Entry<LengthsIterator, int[]> entry : lengths.entrySet()) {
+        LengthsIterator lengthsIterator = entry.getKey();
+        int[] blockLengths = entry.getValue();
+        for (int i = 0; i < size; i++) {
+          context.document = candidates[i];
+          lengthsIterator.syncTo(context.document);
+          blockLengths[i] = lengthsIterator.length(context);
+        }
+      }
+
+      // score the block, one scorer at a time
+      Arrays.fill(totals, 0, size, 0.0);
+      for (int s = 0; s < scorers.size(); s++) {
+        PostingBlock block = scorerPostings[s];
+        block.scatter(denseCounts);
+        for (int i = 0; i < size; i++) {
+          counts[i] = denseCounts[(int) (candidates[i] - windowStart)];
+        }
+        block.clear(denseCounts);
+
+        scorers.get(s).scoreBatch(counts, scorerLengths[s], scores, size);
+        double weight = weights[s];
+        for (int i = 0; i < size; i++) {
+          totals[i] += weight * scores[i];
+        }
+      }
+
+      // feed the top-k collector
+      for (int i = 0; i < size; i++) {
+        if ((after == null || after.accepts(totals[i], candidates[i])) && (queue.size() < requested || totals[i] > queue.peek().score)) {
+          queue.offer(new ScoredDocument(candidates[i], totals[i]));
+        }
+      }
+    }
+
+    return toReversedArray(queue);
+  }
+
+  private boolean findBatchNodes(Node n, List<Node> scorers, LocalRetrieval ret) throws Exception {
+    // throw exception if we can't determine the class of each node.
+    NodeType nt = ret.getNodeType(n);
+    Class<? extends BaseIterator> iteratorClass = nt.getIteratorClass();
+
+    if (BatchScoringIterator.class.isAssignableFrom(iteratorClass)
+            && DeltaScoringIterator.class.isAssignableFrom(iteratorClass)) {
+      // we have a batch scoring class (delta scoring provides the weight)
+      scorers.add(n);
+      return true;
+
+    } else if (DisjunctionIterator.class.isAssignableFrom(iteratorClass) && ScoreIterator.class.isAssignableFrom(iteratorClass)) {
+      // we have a disjoint score combination node (e.g. #combine)
+      boolean r = true;
+      for (Node c : n.getInternalNodes()) {
+        r &= findBatchNodes(c, scorers, ret);
+      }
+      return r;
+
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * The decoded postings of a single count iterator for the current window.
+   */
+  private static class PostingBlock {
+
+    final CountIterator iterator;
+    int[] offsets;
+    int[] counts;
+    int size;
+
+    PostingBlock(CountIterator iterator, int blockSize) {
+      this.iterator = iterator;
+      this.offsets = new int[blockSize];
+      this.counts = new int[blockSize];
+    }
+
+    void decode(ScoringContext context, long windowStart, long windowEnd, boolean[] matched) throws IOException {
+      size = 0;
+      while (!iterator.isDone() && iterator.currentCandidate() < windowEnd) {
+        context.document = iterator.currentCandidate();
+        if (iterator.hasMatch(context)) {
+          int offset = (int) (context.document - windowStart);
+          offsets[size] = offset;
+          counts[size] = iterator.count(context);
+          matched[offset] = true;
+          size++;
+        }
+        iterator.movePast(context.document);
+      }
+    }
+
+    void scatter(int[] dense) {
+      for (int i = 0; i < size; i++) {
+        dense[offsets[i]] = counts[i];
+      }
+    }
+
+    void clear(int[] dense) {
+      for (int i = 0; i < size; i++) {
+        dense[offsets[i]] = 0;
+      }
+    }
+  }
+}
@@ -32,6 +32,7 @@ public class MaxScoreDocumentModel extends ProcessingModel {
   public ScoredDocument[] execute(Node queryTree, Parameters queryParams) throws Exception {
     ScoringContext context = new ScoringContext();
     int requested = (int) queryParams.get("requested", 1000);
+    SearchAfter after = SearchAfter.create(queryParams);
 
     // step one: find the set of deltaScoringNodes in the tree
     List<Node> scoringNodes = new ArrayList<Node>();
@@ -119,7 +120,7 @@ public class MaxScoreDocumentModel extends ProcessingModel {
 
         // Fully scored it
         if (i == scoringIterators.size()) {
-          if (queue.size() < requested || runningScore > queue.peek().score) {
+          if ((after == null || after.accepts(runningScore, candidate)) && (queue.size() < requested || runningScore > queue.peek().score)) {
             ScoredDocument scoredDocument = new ScoredDocument(candidate, runningScore);
             queue.offer(scoredDocument);
 
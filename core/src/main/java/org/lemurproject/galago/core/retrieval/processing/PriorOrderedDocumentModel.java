@@ -0,0 +1,138 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.retrieval.processing;
+
+import org.lemurproject.galago.core.index.IndexPartReader;
+import org.lemurproject.galago.core.index.disk.DocumentPriorReader;
+import org.lemurproject.galago.core.retrieval.LocalRetrieval;
+import org.lemurproject.galago.core.retrieval.ScoredDocument;
+import org.lemurproject.galago.core.retrieval.iterator.BaseIterator;
+import org.lemurproject.galago.core.retrieval.iterator.ScoreCombinationIterator;
+import org.lemurproject.galago.core.retrieval.iterator.ScoreIterator;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.NodeParameters;
+import org.lemurproject.galago.core.retrieval.query.NodeType;
+import org.lemurproject.galago.utility.FixedSizeMinHeap;
+import org.lemurproject.galago.utility.Parameters;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rank-safe early termination for queries of the form:
+ *
+ * #combine( #prior:part=prior() ...other scoring nodes... )
+ *
+ * over an index numbered in decreasing prior order (see
+ * PriorOrderedDocumentNumberer). Documents are scored in document id order, as
+ * in RankedDocumentModel; since the prior never increases with the document
+ * id, the best possible score of any remaining document is:
+ *
+ * w_prior * prior(next) + sum_i w_i * maximumScore_i
+ *
+ * Processing stops once this bound can not enter the top k. If the prior part
+ * is not in decreasing order, or the bound is not finite, every candidate is
+ * scored.
+ */
+public class PriorOrderedDocumentModel extends ProcessingModel {
+
+  LocalRetrieval retrieval;
+
+  public PriorOrderedDocumentModel(LocalRetrieval lr) {
+    this.retrieval = lr;
+  }
+
+  @Override
+  public ScoredDocument[] execute(Node queryTree, Parameters queryParams) throws Exception {
+    ScoringContext context = new ScoringContext();
+    ScoringContext priorContext = new ScoringContext();
+    int requested = (int) queryParams.get("requested", 1000);
+    SearchAfter after = SearchAfter.create(queryParams);
+    boolean annotate = queryParams.get("annotate", false);
+
+    NodeType rootType = retrieval.getNodeType(queryTree);
+    if (!ScoreCombinationIterator.class.isAssignableFrom(rootType.getIteratorClass())) {
+      throw new IllegalArgumentException("PriorOrderedDocumentModel requires a #combine root node.\n" + queryTree.toPrettyString());
+    }
+
+    // find the prior, and the weights of each child (as in ScoreCombinationIterator)
+    List<Node> children = queryTree.getInternalNodes();
+    NodeParameters np = queryTree.getNodeParameters();
+    double[] weights = new double[children.size()];
+    double weightSum = 0.0;
+    int priorIndex = -1;
+    for (int i = 0; i < children.size(); i++) {
+      weights[i] = np.get(Integer.toString(i), 1.0);
+      weightSum += weights[i];
+      if (children.get(i).getOperator().equals("prior")) {
+        priorIndex = i;
+      }
+    }
+    if (priorIndex < 0) {
+      throw new IllegalArgumentException("PriorOrderedDocumentModel requires a #prior child of the root node.\n" + queryTree.toPrettyString());
+    }
+    if (np.get("norm", true) && weightSum > 0.0) {
+      for (int i = 0; i < weights.length; i++) {
+        weights[i] /= weightSum;
+      }
+    }
+
+    // construct the iterators, sharing the children with the root
+    Map<String, BaseIterator> queryIteratorCache = new HashMap<>();
+    double restBound = 0.0;
+    ScoreIterator prior = null;
+    for (int i = 0; i < children.size(); i++) {
+      ScoreIterator child = (ScoreIterator) retrieval.createNodeMergedIterator(children.get(i), queryIteratorCache);
+      if (i == priorIndex) {
+        prior = child;
+      } else {
+        restBound += weights[i] * child.maximumScore();
+      }
+    }
+    ScoreIterator iterator = (ScoreIterator) retrieval.createNodeMergedIterator(queryTree, queryIteratorCache);
+
+    Node priorNode = children.get(priorIndex);
+    IndexPartReader part = retrieval.getIndex().getIndexPart(priorNode.getNodeParameters().getString("part"));
+    DocumentPriorReader priorReader = (DocumentPriorReader) part;
+    double priorWeight = weights[priorIndex];
+    double defaultPrior = priorReader.getDefault();
+
+    boolean earlyTermination = priorReader.isDescending()
+            && priorWeight > 0.0
+            && !Double.isInfinite(restBound) && !Double.isNaN(restBound);
+
+    FixedSizeMinHeap<ScoredDocument> queue = new FixedSizeMinHeap<>(ScoredDocument.class, requested, new ScoredDocument.ScoredDocumentComparator());
+
+    while (!iterator.isDone()) {
+      long document = iterator.currentCandidate();
+
+      if (earlyTermination && queue.size() >= requested) {
+        // the prior of any later document is bounded by the next stored prior
+        prior.syncTo(document);
+        double priorBound = defaultPrior;
+        if (!prior.isDone()) {
+          priorContext.document = prior.currentCandidate();
+          priorBound = Math.max(defaultPrior, prior.score(priorContext));
+        }
+        if (priorWeight * priorBound + restBound <= queue.peek().score) {
+          break;
+        }
+      }
+
+      context.document = document;
+      iterator.syncTo(document);
+      if (iterator.hasMatch(context)) {
+        double score = iterator.score(context);
+        if ((after == null || after.accepts(score, document)) && (queue.size() < requested || queue.peek().score < score)) {
+          ScoredDocument scoredDocument = new ScoredDocument(document, score);
+          if (annotate) {
+            scoredDocument.annotation = iterator.getAnnotatedNode(context);
+          }
+          queue.offer(scoredDocument);
+        }
+      }
+      iterator.movePast(document);
+    }
+    return toReversedArray(queue);
+  }
+}
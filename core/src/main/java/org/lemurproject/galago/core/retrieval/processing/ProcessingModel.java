@@ -51,6 +51,10 @@ public abstract class ProcessingModel {
         case "rankeddocument": return new RankedDocumentModel(r);
         case "rankedpassage": return new RankedPassageModel(r);
         case "maxscore": return new MaxScoreDocumentModel(r);
+        case "batchscore": return new BatchScoreDocumentModel(r);
+        case "saat": return new ScoreAtATimeDocumentModel(r);
+        case "taat": return new TermAtATimeDocumentModel(r);
+        case "priorordered": return new PriorOrderedDocumentModel(r);
         // CURRENTLY BROKEN DO NOT USE
 //      } else if (modelName.equals("wand")) {
 //        return new WANDScoreDocumentModel(r);
@@ -32,6 +32,7 @@ public class RankedDocumentModel extends ProcessingModel {
 
     // Number of documents requested.
     int requested = queryParams.get("requested", 1000);
+    SearchAfter after = SearchAfter.create(queryParams);
     boolean annotate = queryParams.get("annotate", false);
 
     // Maintain a queue of candidates
@@ -49,7 +50,7 @@ public class RankedDocumentModel extends ProcessingModel {
       iterator.syncTo(document);
       if (iterator.hasMatch(context)) {
         double score = iterator.score(context);
-        if (queue.size() < requested || queue.peek().score < score) {
+        if ((after == null || after.accepts(score, document)) && (queue.size() < requested || queue.peek().score < score)) {
           ScoredDocument scoredDocument = new ScoredDocument(document, score);
           if (annotate) {
             scoredDocument.annotation = iterator.getAnnotatedNode(context);
@@ -32,6 +32,7 @@ public class RankedNonZeroLengthDocumentModel extends ProcessingModel {
 
     // Number of documents requested.
     int requested = queryParams.get("requested", 1000);
+    SearchAfter after = SearchAfter.create(queryParams);
     boolean annotate = queryParams.get("annotate", false);
 
     // Maintain a queue of candidates
@@ -55,7 +56,7 @@ public class RankedNonZeroLengthDocumentModel extends ProcessingModel {
       if (iterator.hasMatch(context)) {
         double score = iterator.score(context);
 
-        if (length > 0 && (queue.size() < requested || queue.peek().score < score)) {
+        if (length > 0 && (after == null || after.accepts(score, document)) && (queue.size() < requested || queue.peek().score < score)) {
           ScoredDocument scoredDocument = new ScoredDocument(document, score);
           if (annotate) {
             scoredDocument.annotation = iterator.getAnnotatedNode(context);
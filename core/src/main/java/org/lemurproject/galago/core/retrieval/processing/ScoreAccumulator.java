@@ -0,0 +1,148 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.retrieval.processing;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Score accumulators indexed by document id, with a bitmap of the touched
+ * documents. Documents are split into pages; small shards use a single page
+ * covering every document (a dense array), large shards allocate 64k
+ * document pages on first use. Only touched pages are cleared between
+ * queries.
+ *
+ * Used by the term-at-a-time and score-at-a-time models, which take
+ * accumulators from a pool of at most #cores, shared by all threads.
+ */
+class ScoreAccumulator {
+
+  static final long DEFAULT_DENSE_LIMIT = 1L << 24;
+  private static final int PAGE_SHIFT = 16;
+  private static final int POOLED_ACCUMULATORS = Runtime.getRuntime().availableProcessors();
+  private static final ArrayDeque<ScoreAccumulator> accumulators = new ArrayDeque<>();
+  int shift;
+  int mask;
+  float[][] pages = new float[0][];
+  long[][] touched = new long[0][];
+  boolean[] dirty = new boolean[0];
+  long documentSpace = -1;
+  long denseLimit = -1;
+
+  /**
+   * Takes an accumulator from the pool, preferably one that is already sized
+   * for the shard, or creates a new one.
+   */
+  static ScoreAccumulator acquire(long documentSpace) {
+    synchronized (accumulators) {
+      for (Iterator<ScoreAccumulator> it = accumulators.iterator(); it.hasNext();) {
+        ScoreAccumulator accumulator = it.next();
+        if (accumulator.documentSpace == documentSpace) {
+          it.remove();
+          return accumulator;
+        }
+      }
+      ScoreAccumulator accumulator = accumulators.pollFirst();
+      return (accumulator != null) ? accumulator : new ScoreAccumulator();
+    }
+  }
+
+  /**
+   * Returns a cleared accumulator to the pool; accumulators beyond the pool
+   * size are dropped.
+   */
+  static void release(ScoreAccumulator accumulator) {
+    synchronized (accumulators) {
+      if (accumulators.size() < POOLED_ACCUMULATORS) {
+        accumulators.addFirst(accumulator);
+      }
+    }
+  }
+
+  void prepare(long documentSpace, long denseLimit) {
+    if (documentSpace == this.documentSpace && denseLimit == this.denseLimit) {
+      return;
+    }
+    if (documentSpace > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Score accumulators support at most " + Integer.MAX_VALUE + " documents per shard.");
+    }
+    this.documentSpace = documentSpace;
+    this.denseLimit = denseLimit;
+    if (documentSpace <= denseLimit) {
+      // one page covers the whole shard
+      shift = 31;
+      mask = Integer.MAX_VALUE;
+      pages = new float[][]{new float[(int) documentSpace]};
+      touched = new long[][]{new long[(int) ((documentSpace + 63) >>> 6)]};
+    } else {
+      shift = PAGE_SHIFT;
+      mask = (1 << PAGE_SHIFT) - 1;
+      int pageCount = (int) ((documentSpace + mask) >>> PAGE_SHIFT);
+      pages = new float[pageCount][];
+      touched = new long[pageCount][];
+    }
+    dirty = new boolean[pages.length];
+  }
+
+  void add(int document, float value) {
+    int page = document >>> shift;
+    int offset = document & mask;
+    float[] values = pages[page];
+    if (values == null) {
+      values = pages[page] = new float[1 << shift];
+      touched[page] = new long[(1 << shift) >>> 6];
+    }
+    dirty[page] = true;
+    touched[page][offset >>> 6] |= 1L << (offset & 63);
+    values[offset] += value;
+  }
+
+  float get(int document) {
+    return pages[document >>> shift][document & mask];
+  }
+
+  /**
+   * Iterates over the touched documents in increasing order.
+   */
+  Cursor cursor() {
+    return new Cursor();
+  }
+
+  void clear() {
+    for (int page = 0; page < pages.length; page++) {
+      if (dirty[page]) {
+        Arrays.fill(pages[page], 0.0f);
+        Arrays.fill(touched[page], 0L);
+        dirty[page] = false;
+      }
+    }
+  }
+
+  class Cursor {
+
+    int page = 0;
+    int word = 0;
+    long bits = 0;
+
+    boolean hasNext() {
+      while (bits == 0) {
+        if (page >= pages.length) {
+          return false;
+        }
+        if (!dirty[page] || word >= touched[page].length) {
+          page++;
+          word = 0;
+          continue;
+        }
+        bits = touched[page][word++];
+      }
+      return true;
+    }
+
+    int next() {
+      int bit = Long.numberOfTrailingZeros(bits);
+      bits &= bits - 1;
+      return (page << shift) + ((word - 1) << 6) + bit;
+    }
+  }
+}
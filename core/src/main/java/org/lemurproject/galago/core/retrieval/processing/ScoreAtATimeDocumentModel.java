@@ -0,0 +1,174 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.retrieval.processing;
+
+import org.lemurproject.galago.core.index.IndexPartReader;
+import org.lemurproject.galago.core.index.disk.ImpactIndexReader;
+import org.lemurproject.galago.core.index.disk.ImpactIndexSource;
+import org.lemurproject.galago.core.index.stats.FieldStatistics;
+import org.lemurproject.galago.core.retrieval.LocalRetrieval;
+import org.lemurproject.galago.core.retrieval.ScoredDocument;
+import org.lemurproject.galago.core.retrieval.iterator.BaseIterator;
+import org.lemurproject.galago.core.retrieval.iterator.DisjunctionIterator;
+import org.lemurproject.galago.core.retrieval.iterator.ScoreIterator;
+import org.lemurproject.galago.core.retrieval.iterator.disk.DiskImpactIterator;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.NodeType;
+import org.lemurproject.galago.utility.FixedSizeMinHeap;
+import org.lemurproject.galago.utility.Parameters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Score-at-a-time processing of a #combine of #impacts nodes, in the style of
+ * Anh and Moffat's impact ordered query evaluation.
+ *
+ * Requires an impact part built with 'build-impacts --impactOrdered=true'.
+ * Each list is stored as segments of documents that share an impact. All the
+ * segments of all query terms are processed from the largest (weighted) score
+ * contribution down, accumulating into a ScoreAccumulator taken from the
+ * shared pool. Processing stops once 'postingBudget' postings have been
+ * scored, which bounds the cost of a query independently of the length of its
+ * lists. With an unlimited budget the results are the same as
+ * RankedDocumentModel over the same query (up to float precision of the
+ * accumulated contributions).
+ */
+public class ScoreAtATimeDocumentModel extends ProcessingModel {
+
+  LocalRetrieval retrieval;
+  // postings scored by the last query
+  long scoredPostings;
+
+  public ScoreAtATimeDocumentModel(LocalRetrieval lr) {
+    this.retrieval = lr;
+  }
+
+  @Override
+  public ScoredDocument[] execute(Node queryTree, Parameters queryParams) throws Exception {
+    int requested = (int) queryParams.get("requested", 1000);
+    SearchAfter after = SearchAfter.create(queryParams);
+    long postingBudget = queryParams.get("postingBudget", retrieval.getGlobalParameters().get("postingBudget", Long.MAX_VALUE));
+
+    // step one: find the set of impact nodes in the tree
+    List<Node> impactNodes = new ArrayList<>();
+    boolean canScore = findImpactNodes(queryTree, impactNodes, retrieval);
+    if (!canScore) {
+      throw new IllegalArgumentException("Query tree does not support score-at-a-time processing.\n" + queryTree.toPrettyString());
+    }
+
+    // step two: collect the segments of each list
+    //  score(d) = sum_i w_i * default_i + sum_{i : d in list i} w_i * (impactScore_i(d) - default_i)
+    double constant = 0.0;
+    List<Segment> segments = new ArrayList<>();
+    int maxSegmentSize = 0;
+    for (Node node : impactNodes) {
+      ImpactIndexReader reader = getReader(node);
+      double weight = node.getNodeParameters().get("w", 1.0);
+      ImpactIndexSource source = reader.getTermSource(node.getDefaultParameter());
+      if (source == null) {
+        constant += weight * reader.getMissingScore();
+        continue;
+      }
+      constant += weight * source.defaultScore();
+      if (source.segmentCount() == 0 && source.totalEntries() > 0) {
+        throw new IllegalArgumentException("Impact part was not built with 'impactOrdered', can not process: " + node.toString());
+      }
+      for (int s = 0; s < source.segmentCount(); s++) {
+        double impactScore = reader.getImpactBase() + source.segmentImpact(s) * reader.getImpactScale();
+        segments.add(new Segment(source, s, weight * (impactScore - source.defaultScore())));
+        maxSegmentSize = Math.max(maxSegmentSize, (int) source.segmentDocumentCount(s));
+      }
+    }
+
+    // highest contributions first
+    Collections.sort(segments, new Comparator<Segment>() {
+      @Override
+      public int compare(Segment a, Segment b) {
+        return Double.compare(b.contribution, a.contribution);
+      }
+    });
+
+    // step three: accumulate, until the posting budget is exhausted
+    FieldStatistics stats = retrieval.getCollectionStatistics("#lengths:part=lengths()");
+    ScoreAccumulator accumulator = ScoreAccumulator.acquire(stats.lastDocId + 1);
+    accumulator.prepare(stats.lastDocId + 1, ScoreAccumulator.DEFAULT_DENSE_LIMIT);
+    long[] documents = new long[maxSegmentSize];
+
+    try {
+      long remaining = postingBudget;
+      for (Segment segment : segments) {
+        if (remaining <= 0) {
+          break;
+        }
+        segment.source.readSegment(segment.segment, documents);
+        int count = (int) Math.min(remaining, segment.source.segmentDocumentCount(segment.segment));
+        float contribution = (float) segment.contribution;
+        for (int i = 0; i < count; i++) {
+          accumulator.add((int) documents[i], contribution);
+        }
+        remaining -= count;
+      }
+      scoredPostings = postingBudget - remaining;
+
+      // step four: select the top k
+      FixedSizeMinHeap<ScoredDocument> queue = new FixedSizeMinHeap<>(ScoredDocument.class, requested, new ScoredDocument.ScoredDocumentComparator());
+      ScoreAccumulator.Cursor cursor = accumulator.cursor();
+      while (cursor.hasNext()) {
+        int document = cursor.next();
+        double score = constant + accumulator.get(document);
+        if ((after == null || after.accepts(score, document)) && (queue.size() < requested || score > queue.peek().score)) {
+          queue.offer(new ScoredDocument(document, score));
+        }
+      }
+      return toReversedArray(queue);
+    } finally {
+      accumulator.clear();
+      ScoreAccumulator.release(accumulator);
+    }
+  }
+
+  private ImpactIndexReader getReader(Node node) throws Exception {
+    IndexPartReader part = retrieval.getIndex().getIndexPart(node.getNodeParameters().getString("part"));
+    if (!(part instanceof ImpactIndexReader)) {
+      throw new IllegalArgumentException("Score-at-a-time processing requires an impact part: " + node.toString());
+    }
+    return (ImpactIndexReader) part;
+  }
+
+  private boolean findImpactNodes(Node n, List<Node> impactNodes, LocalRetrieval ret) throws Exception {
+    // throw exception if we can't determine the class of each node.
+    NodeType nt = ret.getNodeType(n);
+    Class<? extends BaseIterator> iteratorClass = nt.getIteratorClass();
+
+    if (DiskImpactIterator.class.isAssignableFrom(iteratorClass)) {
+      impactNodes.add(n);
+      return true;
+
+    } else if (DisjunctionIterator.class.isAssignableFrom(iteratorClass) && ScoreIterator.class.isAssignableFrom(iteratorClass)) {
+      // we have a disjoint score combination node (e.g. #combine)
+      boolean r = true;
+      for (Node c : n.getInternalNodes()) {
+        r &= findImpactNodes(c, impactNodes, ret);
+      }
+      return r;
+
+    } else {
+      return false;
+    }
+  }
+
+  private static class Segment {
+
+    final ImpactIndexSource source;
+    final int segment;
+    final double contribution;
+
+    Segment(ImpactIndexSource source, int segment, double contribution) {
+      this.source = source;
+      this.segment = segment;
+      this.contribution = contribution;
+    }
+  }
+}
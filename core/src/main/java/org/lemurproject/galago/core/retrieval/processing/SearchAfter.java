@@ -0,0 +1,107 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.retrieval.processing;
+
+import org.lemurproject.galago.core.retrieval.ScoredDocument;
+import org.lemurproject.galago.utility.CmpUtil;
+import org.lemurproject.galago.utility.Parameters;
+
+/**
+ * A search-after cursor for deep paging: the score, shard, document and rank
+ * of the last result of the previous page, passed as the 'searchAfter' query
+ * parameter.
+ *
+ * Document models only rank documents that come after the cursor in the
+ * ranked order (a lower score, or an equal score and a higher document
+ * number). The next page is then requested with 'requested' = page size, so
+ * the heap stays small, and models that prune on the heap threshold (maxscore,
+ * wand) prune as well as they do for the first page. Ranks continue from the
+ * rank of the cursor.
+ *
+ * Document numbers are local to a shard. A MultiRetrieval orders equal scores
+ * by shard, and rewrites the cursor for each shard before searching it (see
+ * forShard); the shard is -1 for a single index.
+ *
+ * Cursors are opaque strings, see toCursor.
+ */
+public class SearchAfter {
+
+  public final double score;
+  public final int shard;
+  public final long document;
+  public final int rank;
+
+  public SearchAfter(double score, long document) {
+    this(score, -1, document, 0);
+  }
+
+  public SearchAfter(double score, int shard, long document, int rank) {
+    this.score = score;
+    this.shard = shard;
+    this.document = document;
+    this.rank = rank;
+  }
+
+  /**
+   * Returns the cursor in the query parameters, or null.
+   */
+  public static SearchAfter create(Parameters queryParams) {
+    if (!queryParams.isString("searchAfter")) {
+      return null;
+    }
+    return parse(queryParams.getString("searchAfter"));
+  }
+
+  public static SearchAfter parse(String cursor) {
+    String[] fields = cursor.split(":");
+    if (fields.length != 4) {
+      throw new IllegalArgumentException("Malformed searchAfter cursor: " + cursor);
+    }
+    try {
+      double score = Double.longBitsToDouble(Long.parseUnsignedLong(fields[0], 16));
+      int shard = Integer.parseInt(fields[1]);
+      long document = Long.parseLong(fields[2]);
+      int rank = Integer.parseInt(fields[3]);
+      return new SearchAfter(score, shard, document, rank);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Malformed searchAfter cursor: " + cursor, e);
+    }
+  }
+
+  /**
+   * The cursor that continues a ranked list after this document. The score is
+   * encoded exactly.
+   */
+  public static String toCursor(ScoredDocument last) {
+    return new SearchAfter(last.score, last.shard, last.document, last.rank).toString();
+  }
+
+  /**
+   * The cursor for one shard of a MultiRetrieval. Shards before the cursor
+   * shard have already returned all documents with the cursor score, shards
+   * after it have returned none of them.
+   */
+  public SearchAfter forShard(int shard) {
+    long local;
+    if (shard < this.shard) {
+      local = Long.MAX_VALUE;
+    } else if (shard > this.shard) {
+      local = -1;
+    } else {
+      local = document;
+    }
+    return new SearchAfter(score, -1, local, rank);
+  }
+
+  /**
+   * True if the document is ranked after the cursor.
+   */
+  public boolean accepts(double score, long document) {
+    int cmp = CmpUtil.compare(score, this.score);
+    return cmp < 0 || (cmp == 0 && document > this.document);
+  }
+
+  @Override
+  public String toString() {
+    return Long.toHexString(Double.doubleToLongBits(score)) + ":" + shard + ":" + document + ":" + rank;
+  }
+}
@@ -0,0 +1,189 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.retrieval.processing;
+
+import org.lemurproject.galago.core.index.stats.FieldStatistics;
+import org.lemurproject.galago.core.retrieval.LocalRetrieval;
+import org.lemurproject.galago.core.retrieval.ScoredDocument;
+import org.lemurproject.galago.core.retrieval.iterator.BaseIterator;
+import org.lemurproject.galago.core.retrieval.iterator.BatchScoringIterator;
+import org.lemurproject.galago.core.retrieval.iterator.CountIterator;
+import org.lemurproject.galago.core.retrieval.iterator.DeltaScoringIterator;
+import org.lemurproject.galago.core.retrieval.iterator.DisjunctionIterator;
+import org.lemurproject.galago.core.retrieval.iterator.LengthsIterator;
+import org.lemurproject.galago.core.retrieval.iterator.ScoreIterator;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.NodeType;
+import org.lemurproject.galago.utility.FixedSizeMinHeap;
+import org.lemurproject.galago.utility.Parameters;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Term-at-a-time scoring of a #combine of BatchScoringIterators, intended for
+ * short (one to three term) bag-of-words queries over long lists.
+ *
+ * Each term list is traversed once, on its own. The contribution of a
+ * matching posting, relative to a document that does not contain the term
+ * (w * (score(count, length) - score(0, length))), is added into an
+ * accumulator array indexed by document id. A single pass over the touched
+ * documents then adds the non-matching score of every term and selects the
+ * top k.
+ *
+ * Shards with at most 'taatDenseLimit' documents use one dense float array,
+ * sized to the shard, larger shards use a paged accumulator that allocates
+ * pages on demand. Accumulators are reused across queries from a pool of at
+ * most #cores accumulators, shared by all threads, so the memory held does not
+ * grow with the number of search threads.
+ *
+ * Produces the same ranking as RankedDocumentModel (up to float precision of
+ * the accumulated contributions).
+ */
+public class TermAtATimeDocumentModel extends ProcessingModel {
+
+  private static final int BATCH = 512;
+  LocalRetrieval retrieval;
+
+  public TermAtATimeDocumentModel(LocalRetrieval lr) {
+    this.retrieval = lr;
+  }
+
+  @Override
+  public ScoredDocument[] execute(Node queryTree, Parameters queryParams) throws Exception {
+    int requested = (int) queryParams.get("requested", 1000);
+    SearchAfter after = SearchAfter.create(queryParams);
+    long denseLimit = queryParams.get("taatDenseLimit", retrieval.getGlobalParameters().get("taatDenseLimit", ScoreAccumulator.DEFAULT_DENSE_LIMIT));
+
+    // step one: find the set of scoring nodes in the tree
+    List<Node> scoringNodes = new ArrayList<>();
+    boolean canScore = findBatchNodes(queryTree, scoringNodes, retrieval);
+    if (!canScore) {
+      throw new IllegalArgumentException("Query tree does not support term-at-a-time processing.\n" + queryTree.toPrettyString());
+    }
+
+    // step two: create an iterator for each node, sharing low level iterators
+    Map<String, BaseIterator> queryIteratorCache = new HashMap<>();
+    List<BatchScoringIterator> scorers = new ArrayList<>();
+    for (Node scoringNode : scoringNodes) {
+      scorers.add((BatchScoringIterator) retrieval.createNodeMergedIterator(scoringNode, queryIteratorCache));
+    }
+
+    FieldStatistics stats = retrieval.getCollectionStatistics("#lengths:part=lengths()");
+    ScoreAccumulator accumulator = ScoreAccumulator.acquire(stats.lastDocId + 1);
+    accumulator.prepare(stats.lastDocId + 1, denseLimit);
+
+    ScoringContext context = new ScoringContext();
+    int[] documents = new int[BATCH];
+    int[] counts = new int[BATCH];
+    int[] lengths = new int[BATCH];
+    int[] zeros = new int[BATCH];
+    double[] scores = new double[BATCH];
+    double[] backgrounds = new double[BATCH];
+
+    try {
+      // step three: accumulate each term, one list at a time
+      for (BatchScoringIterator scorer : scorers) {
+        double weight = ((DeltaScoringIterator) scorer).getWeight();
+        CountIterator countIterator = scorer.getCountIterator();
+        LengthsIterator lengthsIterator = scorer.getLengthsIterator();
+        countIterator.reset();
+        lengthsIterator.reset();
+
+        while (!countIterator.isDone()) {
+          int size = 0;
+          while (size < BATCH && !countIterator.isDone()) {
+            context.document = countIterator.currentCandidate();
+            if (countIterator.hasMatch(context)) {
+              lengthsIterator.syncTo(context.document);
+              documents[size] = (int) context.document;
+              counts[size] = countIterator.count(context);
+              lengths[size] = lengthsIterator.length(context);
+              size++;
+            }
+            countIterator.movePast(context.document);
+          }
+          scorer.scoreBatch(counts, lengths, scores, size);
+          scorer.scoreBatch(zeros, lengths, backgrounds, size);
+          for (int i = 0; i < size; i++) {
+            accumulator.add(documents[i], (float) (weight * (scores[i] - backgrounds[i])));
+          }
+        }
+      }
+
+      // step four: one pass over the touched documents, adding the
+      // non-matching scores and selecting the top k
+      Map<LengthsIterator, int[]> blockLengths = new IdentityHashMap<>();
+      for (BatchScoringIterator scorer : scorers) {
+        if (!blockLengths.containsKey(scorer.getLengthsIterator())) {
+          scorer.getLengthsIterator().reset();
+          blockLengths.put(scorer.getLengthsIterator(), new int[BATCH]);
+        }
+      }
+      double[] totals = new double[BATCH];
+      FixedSizeMinHeap<ScoredDocument> queue = new FixedSizeMinHeap<>(ScoredDocument.class, requested, new ScoredDocument.ScoredDocumentComparator());
+
+      ScoreAccumulator.Cursor cursor = accumulator.cursor();
+      while (cursor.hasNext()) {
+        int size = 0;
+        while (size < BATCH && cursor.hasNext()) {
+          documents[size] = cursor.next();
+          totals[size] = accumulator.get(documents[size]);
+          size++;
+        }
+        for (Map.Entry<LengthsIterator, int[]> entry : blockLengths.entrySet()) {
+          LengthsIterator lengthsIterator = entry.getKey();
+          int[] values = entry.getValue();
+          for (int i = 0; i < size; i++) {
+            context.document = documents[i];
+            lengthsIterator.syncTo(context.document);
+            values[i] = lengthsIterator.length(context);
+          }
+        }
+        for (BatchScoringIterator scorer : scorers) {
+          double weight = ((DeltaScoringIterator) scorer).getWeight();
+          scorer.scoreBatch(zeros, blockLengths.get(scorer.getLengthsIterator()), backgrounds, size);
+          for (int i = 0; i < size; i++) {
+            totals[i] += weight * backgrounds[i];
+          }
+        }
+        for (int i = 0; i < size; i++) {
+          if ((after == null || after.accepts(totals[i], documents[i])) && (queue.size() < requested || totals[i] > queue.peek().score)) {
+            queue.offer(new ScoredDocument(documents[i], totals[i]));
+          }
+        }
+      }
+
+      return toReversedArray(queue);
+    } finally {
+      accumulator.clear();
+      ScoreAccumulator.release(accumulator);
+    }
+  }
+
+  private boolean findBatchNodes(Node n, List<Node> scorers, LocalRetrieval ret) throws Exception {
+    // throw exception if we can't determine the class of each node.
+    NodeType nt = ret.getNodeType(n);
+    Class<? extends BaseIterator> iteratorClass = nt.getIteratorClass();
+
+    if (BatchScoringIterator.class.isAssignableFrom(iteratorClass)
+            && DeltaScoringIterator.class.isAssignableFrom(iteratorClass)) {
+      // we have a batch scoring class (delta scoring provides the weight)
+      scorers.add(n);
+      return true;
+
+    } else if (DisjunctionIterator.class.isAssignableFrom(iteratorClass) && ScoreIterator.class.isAssignableFrom(iteratorClass)) {
+      // we have a disjoint score combination node (e.g. #combine)
+      boolean r = true;
+      for (Node c : n.getInternalNodes()) {
+        r &= findBatchNodes(c, scorers, ret);
+      }
+      return r;
+
+    } else {
+      return false;
+    }
+  }
+}
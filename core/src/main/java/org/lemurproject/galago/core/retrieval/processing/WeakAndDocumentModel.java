@@ -41,6 +41,7 @@ public class WeakAndDocumentModel extends ProcessingModel {
   public ScoredDocument[] execute(Node queryTree, Parameters queryParams) throws Exception {
     ScoringContext context = new ScoringContext();
     int requested = (int) queryParams.get("requested", 1000);
+    SearchAfter after = SearchAfter.create(queryParams);
     annotate = queryParams.get("annotate", false);
 
     // 1.0 is rank-k-safe, higher values are not.
@@ -97,7 +98,7 @@ public class WeakAndDocumentModel extends ProcessingModel {
           context.document = pivot;
           double score = score(sortedIterators, context, maximumPossibleScore);
           
-          if (queue.size() < requested || score > queue.peek().score) {
+          if ((after == null || after.accepts(score, context.document)) && (queue.size() < requested || score > queue.peek().score)) {
             ScoredDocument scoredDocument = new ScoredDocument(context.document, score);
             queue.offer(scoredDocument);
             
@@ -72,6 +72,7 @@ public class WorkingSetDocumentModel extends ProcessingModel {
     ScoreIterator iterator =
             (ScoreIterator) retrieval.createIterator(queryParams, queryTree);
     int requested = queryParams.get("requested", 1000);
+    SearchAfter after = SearchAfter.create(queryParams);
     boolean annotate = queryParams.get("annotate", false);
 
     // now there should be an iterator at the root of this tree
@@ -86,7 +87,7 @@ public class WorkingSetDocumentModel extends ProcessingModel {
 
       // This context is shared among all scorers
       double score = iterator.score(context);
-      if (requested < 0 || queue.size() < requested || queue.peek().score < score) {
+      if ((after == null || after.accepts(score, document)) && (requested < 0 || queue.size() < requested || queue.peek().score < score)) {
         ScoredDocument scoredDocument = new ScoredDocument(document, score);
         if (annotate) {
           scoredDocument.annotation = iterator.getAnnotatedNode(context);
@@ -0,0 +1,141 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.retrieval.query;
+
+import org.lemurproject.galago.utility.Parameters;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Execution counters for one iterator of a query tree, collected when a query
+ * is run with "profile": true.
+ *
+ * Times are inclusive: a node's time contains the time of its children. Nodes
+ * shared by several parents (see shareNodes) appear under each of them.
+ */
+public class ProfiledNode implements Serializable {
+
+  private static final long serialVersionUID = -3121787413925092347L;
+  public String operator;
+  public String className;
+  public String parameters;
+  public long syncToCalls;
+  public long movePastCalls;
+  // candidates the iterator moved onto (for index lists: postings decoded)
+  public long postings;
+  // syncTo calls that moved the iterator forward to a target chosen elsewhere
+  public long skips;
+  public long extents;
+  public long nanos;
+  public List<ProfiledNode> children;
+
+  public ProfiledNode() {
+    this.children = new ArrayList<>();
+  }
+
+  public ProfiledNode(String operator, String className, String parameters, List<ProfiledNode> children) {
+    this.operator = operator;
+    this.className = className;
+    this.parameters = parameters;
+    this.children = children;
+  }
+
+  /**
+   * Returns a root node for the iterators created by one query. Iterators that
+   * are not the child of another become children of the root.
+   */
+  public static ProfiledNode root(String processingModel, long nanos, List<ProfiledNode> nodes) {
+    Map<ProfiledNode, Boolean> internal = new IdentityHashMap<>();
+    for (ProfiledNode node : nodes) {
+      for (ProfiledNode child : node.children) {
+        internal.put(child, true);
+      }
+    }
+    List<ProfiledNode> roots = new ArrayList<>();
+    for (ProfiledNode node : nodes) {
+      if (!internal.containsKey(node)) {
+        roots.add(node);
+      }
+    }
+    ProfiledNode root = new ProfiledNode("query", processingModel, "", roots);
+    root.nanos = nanos;
+    return root;
+  }
+
+  /**
+   * Time spent in this iterator, excluding its children.
+   */
+  public long getSelfNanos() {
+    long self = nanos;
+    for (ProfiledNode child : children) {
+      self -= child.nanos;
+    }
+    return Math.max(0, self);
+  }
+
+  @Override
+  public String toString() {
+    return toPrettyString("");
+  }
+
+  private String toPrettyString(String prefix) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(prefix);
+    sb.append('#').append(operator).append(parameters).append("\t").append(className).append("\t");
+    sb.append(String.format("time=%.3fms self=%.3fms", nanos / 1e6, getSelfNanos() / 1e6));
+    sb.append(" syncTo=").append(syncToCalls).append(" movePast=").append(movePastCalls);
+    sb.append(" postings=").append(postings).append(" skips=").append(skips);
+    sb.append(" extents=").append(extents).append("\n");
+
+    for (ProfiledNode child : children) {
+      sb.append(child.toPrettyString(prefix + "  "));
+    }
+
+    return sb.toString();
+  }
+
+  public Parameters toJSON() {
+    Parameters out = Parameters.create();
+    out.put("operator", operator);
+    out.put("className", className);
+    out.put("parameters", parameters);
+    out.put("nanos", nanos);
+    out.put("selfNanos", getSelfNanos());
+    out.put("syncToCalls", syncToCalls);
+    out.put("movePastCalls", movePastCalls);
+    out.put("postings", postings);
+    out.put("skips", skips);
+    out.put("extents", extents);
+    List<Parameters> cjson = new ArrayList<>();
+    for (ProfiledNode child : children) {
+      cjson.add(child.toJSON());
+    }
+    out.put("children", cjson);
+    return out;
+  }
+
+  /**
+   * All nodes of this tree, each once.
+   */
+  public List<ProfiledNode> flatten() {
+    Map<ProfiledNode, Boolean> seen = new IdentityHashMap<>();
+    List<ProfiledNode> nodes = new ArrayList<>();
+    flatten(seen, nodes);
+    return Collections.unmodifiableList(nodes);
+  }
+
+  private void flatten(Map<ProfiledNode, Boolean> seen, List<ProfiledNode> nodes) {
+    if (seen.put(this, true) == null) {
+      nodes.add(this);
+      for (ProfiledNode child : children) {
+        child.flatten(seen, nodes);
+      }
+    }
+  }
+}
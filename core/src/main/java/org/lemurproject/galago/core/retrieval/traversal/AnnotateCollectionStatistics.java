@@ -2,6 +2,7 @@
 package org.lemurproject.galago.core.retrieval.traversal;
 
 import org.lemurproject.galago.core.index.stats.FieldStatistics;
+import org.lemurproject.galago.core.index.stats.GlobalStatisticsReader;
 import org.lemurproject.galago.core.index.stats.NodeStatistics;
 import org.lemurproject.galago.core.retrieval.GroupRetrieval;
 import org.lemurproject.galago.core.retrieval.RequiredStatistics;
@@ -14,7 +15,12 @@ import org.lemurproject.galago.core.retrieval.query.NodeType;
 import org.lemurproject.galago.utility.Parameters;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Class collects collections statistics:
@@ -24,6 +30,14 @@ import java.util.HashSet;
  *  - nodeFrequency : number of matching instances of node in index part / collection
  *  - nodeDocumentCount : number of matching documents for node in index part / collection
  *
+ * Node statistics for the whole query are collected with a single request to
+ * the retrieval, before the tree is annotated.
+ *
+ * If 'globalStatsPath' is set (see the build-global-stats app), term and field
+ * statistics are read from that file instead, so each shard scores with
+ * collection-wide statistics without asking the other shards. Nodes that are
+ * not in the file (e.g. windows) are still collected from the retrieval.
+ *
  * @author sjh
  */
 public class AnnotateCollectionStatistics extends Traversal {
@@ -31,11 +45,21 @@ public class AnnotateCollectionStatistics extends Traversal {
   HashSet<String> availableStatistics;
   Parameters globalParameters;
   Retrieval retrieval;
+  GlobalStatisticsReader globalStatistics;
 
   // featurefactory is necessary to get the correct class
-  public AnnotateCollectionStatistics(Retrieval retrieval) throws IOException {
+  public AnnotateCollectionStatistics(Retrieval retrieval) throws Exception {
     this.globalParameters = retrieval.getGlobalParameters();
     this.retrieval = retrieval;
+    if (globalParameters.isString("globalStatsPath")) {
+      this.globalStatistics = GlobalStatisticsReader.open(globalParameters.getString("globalStatsPath"));
+      try {
+        globalStatistics.checkIndex(retrieval.getCollectionStatistics("#lengths:document:part=lengths()"));
+      } catch (Exception e) {
+        globalStatistics.close();
+        throw e;
+      }
+    }
 
     this.availableStatistics = new HashSet<>();
     // field or document region statistics
@@ -51,12 +75,30 @@ public class AnnotateCollectionStatistics extends Traversal {
     this.availableStatistics.add("maximumCount");
   }
 
+  @Override
+  public Node traverse(Node tree, Parameters qp) throws Exception {
+    Map<String, NodeStatistics> prefetched = prefetchNodeStatistics(tree, qp);
+    return traverse(tree, qp, prefetched);
+  }
+
+  private Node traverse(Node tree, Parameters qp, Map<String, NodeStatistics> prefetched) throws Exception {
+    beforeNode(tree, qp);
+    for (int i = 0; i < tree.numChildren(); i++) {
+      tree.replaceChildAt(traverse(tree.getChild(i), qp, prefetched), i);
+    }
+    return annotateNode(tree, qp, prefetched);
+  }
+
   @Override
   public void beforeNode(Node node, Parameters qp) {
   }
 
   @Override
   public Node afterNode(Node node, Parameters qp) throws Exception {
+    return annotateNode(node, qp, Collections.<String, NodeStatistics>emptyMap());
+  }
+
+  private Node annotateNode(Node node, Parameters qp, Map<String, NodeStatistics> prefetched) throws Exception {
 
     // need to get list of required statistics
     NodeType nt = retrieval.getNodeType(node);
@@ -81,13 +123,80 @@ public class AnnotateCollectionStatistics extends Traversal {
         }
       }
       if (!reqStats.isEmpty()) {
-        annotate(node, reqStats, qp);
+        annotate(node, reqStats, qp, prefetched);
       }
     }
     return node;
   }
 
-  private void annotate(Node node, HashSet<String> reqStats, Parameters qp) throws Exception {
+  /**
+   * Collects the statistics of every count node that will be annotated, using
+   * one call to the retrieval (one round-trip per shard for a
+   * MultiRetrieval).
+   */
+  private Map<String, NodeStatistics> prefetchNodeStatistics(Node tree, Parameters qp) throws Exception {
+    List<Node> countNodes = new ArrayList<>();
+    HashSet<String> seen = new HashSet<>();
+    findStatisticsNodes(tree, countNodes, seen);
+
+    Map<String, NodeStatistics> prefetched = new HashMap<>();
+    String group = getGroup(qp);
+    if (group.isEmpty() && globalStatistics != null) {
+      List<Node> remaining = new ArrayList<>();
+      for (Node n : countNodes) {
+        NodeStatistics stats = getGlobalStatistics(n);
+        if (stats != null) {
+          prefetched.put(n.toString(), stats);
+        } else {
+          remaining.add(n);
+        }
+      }
+      countNodes = remaining;
+    }
+    if (countNodes.isEmpty()) {
+      return prefetched;
+    }
+
+    List<NodeStatistics> stats;
+    if (!group.isEmpty()) {
+      stats = ((GroupRetrieval) retrieval).getNodeStatistics(countNodes, group);
+    } else {
+      stats = retrieval.getNodeStatistics(countNodes);
+    }
+    for (int i = 0; i < countNodes.size(); i++) {
+      prefetched.put(countNodes.get(i).toString(), stats.get(i));
+    }
+    return prefetched;
+  }
+
+  private void findStatisticsNodes(Node node, List<Node> countNodes, HashSet<String> seen) throws Exception {
+    for (Node child : node.getInternalNodes()) {
+      findStatisticsNodes(child, countNodes, seen);
+    }
+
+    NodeType nt = retrieval.getNodeType(node);
+    if (nt == null) {
+      return;
+    }
+    RequiredStatistics required = nt.getIteratorClass().getAnnotation(RequiredStatistics.class);
+    if (required == null) {
+      return;
+    }
+    for (String stat : required.statistics()) {
+      if (stat.equals("nodeFrequency") || stat.equals("nodeDocumentCount")) {
+        Node countNode = findCountNode(node);
+        if (countNode != null) {
+          Node n = assignParts(countNode.clone());
+          if (seen.add(n.toString())) {
+            countNodes.add(n);
+          }
+        }
+        return;
+      }
+    }
+  }
+
+  private void annotate(Node node, HashSet<String> reqStats, Parameters qp, Map<String, NodeStatistics> prefetched) throws Exception {
     NodeParameters nodeParams = node.getNodeParameters();
 
     if (reqStats.contains("collectionLength")
@@ -126,10 +235,11 @@ public class AnnotateCollectionStatistics extends Traversal {
     if (reqStats.contains("nodeFrequency")
             || reqStats.contains("nodeDocumentCount")) {
 
-      NodeStatistics stats = getNodeStatistics(node, qp);
-      if (stats == null) {
+      Node countNode = findCountNode(node);
+      if (countNode == null) {
         return;
       }
+      NodeStatistics stats = collectStatistics(countNode, qp, prefetched);
 
       if (reqStats.contains("nodeFrequency")
               && !nodeParams.containsKey("nodeFrequency")) {
@@ -156,38 +266,76 @@ public class AnnotateCollectionStatistics extends Traversal {
         return ((GroupRetrieval) retrieval).getCollectionStatistics("#lengths:" + field + ":part=lengths()", group);
       }
     }
+    if (globalStatistics != null) {
+      FieldStatistics stats = globalStatistics.getFieldStatistics(field);
+      if (stats != null) {
+        return stats;
+      }
+    }
     return retrieval.getCollectionStatistics("#lengths:" + field + ":part=lengths()");
   }
 
-  private NodeStatistics getNodeStatistics(Node node, Parameters qp) throws Exception {
+  private Node findCountNode(Node node) throws Exception {
     // recurses down a stick (single children nodes only)
     if (isCountNode(node)) {
-      return collectStatistics(node, qp);
+      return node;
 
     } else if (node.numChildren() == 1) {
-      return getNodeStatistics(node.getInternalNodes().get(0), qp);
+      return findCountNode(node.getInternalNodes().get(0));
 
     } else if (node.numChildren() == 2) {
-      return getNodeStatistics(node.getInternalNodes().get(1), qp);
+      return findCountNode(node.getInternalNodes().get(1));
     }
     return null;
   }
 
-  private NodeStatistics collectStatistics(Node countNode, Parameters qp) throws Exception {
+  private NodeStatistics collectStatistics(Node countNode, Parameters qp, Map<String, NodeStatistics> prefetched) throws Exception {
     // recursively check if any child nodes use a specific background part
     Node n = assignParts(countNode.clone());
 
-    if (this.retrieval instanceof GroupRetrieval) {
-      String group = qp.get("group", globalParameters.get("group", ""));
-      group = qp.get("backgroundIndex", globalParameters.get("backgroundIndex", group));
+    NodeStatistics stats = prefetched.get(n.toString());
+    if (stats != null) {
+      return stats;
+    }
 
-      if (!group.isEmpty()) {
-        return ((GroupRetrieval) retrieval).getNodeStatistics(n, group);
+    String group = getGroup(qp);
+    if (!group.isEmpty()) {
+      return ((GroupRetrieval) retrieval).getNodeStatistics(n, group);
+    }
+    if (globalStatistics != null) {
+      stats = getGlobalStatistics(n);
+      if (stats != null) {
+        return stats;
       }
     }
     return retrieval.getNodeStatistics(n);
   }
 
+  /**
+   * Only single terms of aggregated parts are in the global statistics; the
+   * reader stems them as the part does. Returns null for anything else, and
+   * for terms that are not in the file, which are collected from the
+   * retrieval instead.
+   */
+  private NodeStatistics getGlobalStatistics(Node n) throws IOException {
+    if (!n.getInternalNodes().isEmpty()
+            || !n.getNodeParameters().isString("part")
+            || !n.getNodeParameters().containsKey("default")) {
+      return null;
+    }
+    String part = n.getNodeParameters().getString("part");
+    return globalStatistics.getNodeStatistics(part, n.getNodeParameters().getAsString("default"));
+  }
+
+  private String getGroup(Parameters qp) {
+    if (this.retrieval instanceof GroupRetrieval) {
+      String group = qp.get("group", globalParameters.get("group", ""));
+      group = qp.get("backgroundIndex", globalParameters.get("backgroundIndex", group));
+      return group;
+    }
+    return "";
+  }
+
   private boolean isCountNode(Node node) throws Exception {
     NodeType nodeType = retrieval.getNodeType(node);
     if (nodeType == null) {
@@ -224,4 +372,12 @@ public class AnnotateCollectionStatistics extends Traversal {
       return n;
     }
   }
-}
\ No newline at end of file
+
+  @Override
+  public void close() throws IOException {
+    if (globalStatistics != null) {
+      globalStatistics.close();
+      globalStatistics = null;
+    }
+  }
+}
@@ -4,6 +4,9 @@ package org.lemurproject.galago.core.retrieval.traversal;
 import org.lemurproject.galago.core.retrieval.query.Node;
 import org.lemurproject.galago.utility.Parameters;
 
+import java.io.Closeable;
+import java.io.IOException;
+
 /**
  * Basic interface for Traversals.
  *
@@ -11,7 +14,7 @@ import org.lemurproject.galago.utility.Parameters;
  *
  * @author trevor, sjh
  */
-public abstract class Traversal {
+public abstract class Traversal implements Closeable {
 
   /**
    * traverse is the main access point for this interface. Default behavior is
@@ -38,4 +41,12 @@ public abstract class Traversal {
   public abstract void beforeNode(Node original, Parameters queryParameters) throws Exception;
 
   public abstract Node afterNode(Node original, Parameters queryParameters) throws Exception;
+
+  /**
+   * Releases anything the traversal holds open; called when the retrieval
+   * that created it is closed.
+   */
+  @Override
+  public void close() throws IOException {
+  }
 }
@@ -0,0 +1,270 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.tools;
+
+import org.lemurproject.galago.core.index.stats.NodeStatistics;
+import org.lemurproject.galago.core.retrieval.RemoteProtocol;
+import org.lemurproject.galago.core.retrieval.Results;
+import org.lemurproject.galago.core.retrieval.Retrieval;
+import org.lemurproject.galago.core.retrieval.ScoredDocument;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.utility.Parameters;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves a retrieval object over the binary protocol in RemoteProtocol. Each
+ * connection has a reader thread that decodes requests; requests are run on a
+ * shared pool of 'remoteThreads' threads, and responses are written back as
+ * they complete, tagged with the request id.
+ *
+ * Clients connect with RetrievalFactory, using a 'galago://host:port' index.
+ *
+ * @see org.lemurproject.galago.core.retrieval.RemoteRetrieval
+ */
+public class RetrievalServer {
+
+  private static final Logger logger = Logger.getLogger("RetrievalServer");
+  private final Retrieval retrieval;
+  private final ServerSocket serverSocket;
+  private final ExecutorService workers;
+  private final Set<Socket> clients = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+  private volatile boolean running = true;
+
+  /**
+   * Listens on 'remotePort' (default: any free port).
+   */
+  public RetrievalServer(Retrieval retrieval, Parameters p) throws IOException {
+    this.retrieval = retrieval;
+    this.serverSocket = new ServerSocket();
+    this.serverSocket.setReuseAddress(true);
+    this.serverSocket.bind(new InetSocketAddress((int) p.get("remotePort", 0L)));
+
+    int threads = (int) p.get("remoteThreads", (long) Runtime.getRuntime().availableProcessors());
+    final AtomicInteger threadCount = new AtomicInteger(0);
+    this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "retrieval-server-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        accept();
+      }
+    }, "retrieval-server-accept");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  public String getURL(String host) {
+    return "galago://" + host + ":" + getPort();
+  }
+
+  public void close() throws IOException {
+    running = false;
+    serverSocket.close();
+    for (Socket client : clients) {
+      client.close();
+    }
+    workers.shutdown();
+  }
+
+  private void accept() {
+    while (running) {
+      try {
+        final Socket client = serverSocket.accept();
+        client.setTcpNoDelay(true);
+        clients.add(client);
+        Thread reader = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            serve(client);
+          }
+        }, "retrieval-server-" + client.getRemoteSocketAddress());
+        reader.setDaemon(true);
+        reader.start();
+      } catch (IOException e) {
+        if (running) {
+          logger.log(Level.WARNING, "Failed to accept connection.", e);
+        }
+      }
+    }
+  }
+
+  private void serve(Socket client) {
+    try {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+      final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+      if (input.readInt() != RemoteProtocol.MAGIC) {
+        throw new IOException("Unknown protocol from " + client.getRemoteSocketAddress());
+      }
+
+      while (running) {
+        final int id = input.readInt();
+        final byte opcode = input.readByte();
+        final Object[] arguments = readArguments(opcode, input);
+        workers.execute(new Runnable() {
+          @Override
+          public void run() {
+            byte[] response = respond(id, opcode, arguments);
+            try {
+              synchronized (output) {
+                output.write(response);
+                output.flush();
+              }
+            } catch (IOException e) {
+              logger.log(Level.FINE, "Failed to send response.", e);
+            }
+          }
+        });
+      }
+    } catch (EOFException e) {
+      // client closed the connection
+    } catch (IOException e) {
+      if (running) {
+        logger.log(Level.INFO, "Connection failed.", e);
+      }
+    } finally {
+      clients.remove(client);
+      try {
+        client.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  private Object[] readArguments(byte opcode, DataInputStream in) throws IOException {
+    switch (opcode) {
+      case RemoteProtocol.EXECUTE_QUERY:
+      case RemoteProtocol.TRANSFORM_QUERY:
+      case RemoteProtocol.MAXIMUM_SCORE:
+        return new Object[]{RemoteProtocol.readNode(in), RemoteProtocol.readParameters(in)};
+      case RemoteProtocol.NODE_STATISTICS:
+      case RemoteProtocol.COLLECTION_STATISTICS:
+        return new Object[]{RemoteProtocol.readNode(in)};
+      case RemoteProtocol.NODE_STATISTICS_LIST:
+        return new Object[]{RemoteProtocol.readNodes(in)};
+      case RemoteProtocol.INVOKE:
+        return new Object[]{in.readUTF(), RemoteProtocol.readObject(in)};
+      default:
+        throw new IOException("Unknown request type: " + opcode);
+    }
+  }
+
+  private byte[] respond(int id, byte opcode, Object[] arguments) {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(buffer);
+    try {
+      try {
+        out.writeInt(id);
+        out.writeByte(RemoteProtocol.OK);
+        writeResult(opcode, arguments, out);
+      } catch (Exception e) {
+        Throwable cause = (e instanceof InvocationTargetException) ? e.getCause() : e;
+        logger.log(Level.INFO, "Request failed.", cause);
+        buffer.reset();
+        out.writeInt(id);
+        out.writeByte(RemoteProtocol.ERROR);
+        RemoteProtocol.writeString(out, cause.toString());
+      }
+      out.flush();
+    } catch (IOException e) {
+      // can not happen, writing to memory
+      throw new RuntimeException(e);
+    }
+    return buffer.toByteArray();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void writeResult(byte opcode, Object[] arguments, DataOutputStream out) throws Exception {
+    switch (opcode) {
+      case RemoteProtocol.EXECUTE_QUERY: {
+        Results results = retrieval.executeQuery((Node) arguments[0], (Parameters) arguments[1]);
+        RemoteProtocol.writeString(out, (results.processingModel == null) ? null : results.processingModel.getName());
+        List<ScoredDocument> documents = results.scoredDocuments;
+        RemoteProtocol.writeScoredDocuments(out, (documents == null) ? Collections.<ScoredDocument>emptyList() : documents);
+        break;
+      }
+      case RemoteProtocol.TRANSFORM_QUERY: {
+        Parameters queryParams = (Parameters) arguments[1];
+        Node transformed = retrieval.transformQuery((Node) arguments[0], queryParams);
+        RemoteProtocol.writeNode(out, transformed);
+        RemoteProtocol.writeParameters(out, queryParams);
+        break;
+      }
+      case RemoteProtocol.MAXIMUM_SCORE:
+        out.writeDouble(retrieval.getMaximumScore((Node) arguments[0], (Parameters) arguments[1]));
+        break;
+      case RemoteProtocol.NODE_STATISTICS:
+        RemoteProtocol.writeNodeStatistics(out, retrieval.getNodeStatistics((Node) arguments[0]));
+        break;
+      case RemoteProtocol.COLLECTION_STATISTICS:
+        RemoteProtocol.writeFieldStatistics(out, retrieval.getCollectionStatistics((Node) arguments[0]));
+        break;
+      case RemoteProtocol.NODE_STATISTICS_LIST: {
+        List<NodeStatistics> stats = retrieval.getNodeStatistics((List<Node>) arguments[0]);
+        out.writeInt(stats.size());
+        for (NodeStatistics ns : stats) {
+          RemoteProtocol.writeNodeStatistics(out, ns);
+        }
+        break;
+      }
+      case RemoteProtocol.INVOKE:
+        RemoteProtocol.writeObject(out, invoke((String) arguments[0], (Object[]) arguments[1]));
+        break;
+      default:
+        throw new IOException("Unknown request type: " + opcode);
+    }
+  }
+
+  /**
+   * Finds the method by name and argument types, as in StreamContextHandler.
+   */
+  private Object invoke(String methodName, Object[] args) throws Exception {
+    for (Method method : Retrieval.class.getMethods()) {
+      Class<?>[] types = method.getParameterTypes();
+      if (!methodName.equals(method.getName()) || types.length != args.length) {
+        continue;
+      }
+      boolean matches = true;
+      for (int i = 0; i < types.length; i++) {
+        if (args[i] != null && !types[i].isAssignableFrom(args[i].getClass())) {
+          matches = false;
+        }
+      }
+      if (matches) {
+        return method.invoke(retrieval, args);
+      }
+    }
+    throw new NoSuchMethodException(methodName);
+  }
+}
@@ -8,6 +8,7 @@ import org.lemurproject.galago.core.parse.Document.DocumentComponents;
 import org.lemurproject.galago.core.retrieval.Retrieval;
 import org.lemurproject.galago.core.retrieval.RetrievalFactory;
 import org.lemurproject.galago.core.retrieval.ScoredDocument;
+import org.lemurproject.galago.core.retrieval.processing.SearchAfter;
 import org.lemurproject.galago.core.retrieval.query.Node;
 import org.lemurproject.galago.core.retrieval.query.SimpleQuery;
 import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
@@ -58,6 +59,8 @@ public class Search {
         public Node query;
         public Node transformedQuery;
         public List<SearchResultItem> items;
+        // search-after cursor for the next page, null if the page is empty
+        public String nextCursor;
 
         public SearchResult() {
             items = new LinkedList<SearchResultItem>();
@@ -67,6 +70,7 @@ public class Search {
     public static class SearchResultItem {
 
         public int rank;
+        public long internalId;
         public String identifier;
         public String displayTitle;
         public String url;
@@ -128,6 +132,9 @@ public class Search {
         int count = p.getInt("resultCount");
 
         List<ScoredDocument> results = retrieval.executeQuery(root, p).scoredDocuments;
+        // a search-after page continues the ranks of the previous page
+        SearchAfter after = SearchAfter.create(p);
+        int firstRank = (after != null) ? after.rank + 1 : 1;
 
         SearchResult result = new SearchResult();
         Set<String> queryTerms = StructuredQuery.findQueryTerms(root);
@@ -145,7 +152,8 @@ public class Search {
             }
             SearchResultItem item = new SearchResultItem();
 
-            item.rank = i + 1;
+            item.rank = firstRank + i;
+            item.internalId = results.get(i).document;
             item.identifier = identifier;
             item.displayTitle = identifier;
             item.document = document;
@@ -171,6 +179,8 @@ public class Search {
             }
             item.score = results.get(i).score;
             result.items.add(item);
+            ScoredDocument last = results.get(i);
+            result.nextCursor = new SearchAfter(last.score, last.shard, last.document, item.rank).toString();
         }
 
         return result;
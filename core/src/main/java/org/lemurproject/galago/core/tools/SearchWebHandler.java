@@ -37,7 +37,8 @@ import java.util.Map.Entry;
  *
  * <table> <tr> <td>/</td> <td>Main Page</td> </tr> <tr> <td>/search</td>
  * <td>HTML Search Results (q, start, n)</td> </tr> <tr> <td>/xmlsearch</td>
- * <td>XML Search Results (q, start, n)</td> </tr> <tr> <td>/snippet</td>
+ * <td>XML Search Results (q, start, n)</td> </tr> <tr> <td>/searchjson</td>
+ * <td>JSON Search Results (q, start or after, n)</td> </tr> <tr> <td>/snippet</td>
  * <td>XML Snippet Result (name, term+)</td> </tr> <tr> <td>/document</td>
  * <td>Document Result (name)</td> </tr> </table>
  *
@@ -321,6 +322,32 @@ public class SearchWebHandler implements WebHandler {
         outputter.endDocument();
     }
 
+    public void handleSearchJSON(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        SearchResult result = performSearch(request, false);
+        Parameters output = Parameters.create();
+        output.set("query", request.getParameter("q"));
+        if (result.transformedQuery != null) {
+            output.set("transformedQuery", result.transformedQuery.toString());
+        }
+        List<Parameters> items = new ArrayList<>();
+        for (SearchResultItem item : result.items) {
+            Parameters r = Parameters.create();
+            r.set("identifier", item.identifier);
+            r.set("rank", item.rank);
+            r.set("score", item.score);
+            items.add(r);
+        }
+        output.set("results", items);
+        if (result.nextCursor != null) {
+            output.set("next", result.nextCursor);
+        }
+
+        response.setContentType("application/json; charset=UTF-8");
+        PrintWriter writer = response.getWriter();
+        writer.write(output.toString());
+        writer.close();
+    }
+
     public void handleXCount(HttpServletRequest request, HttpServletResponse response)
             throws Exception {
         String exp = request.getParameter("expression");
@@ -471,6 +498,12 @@ public class SearchWebHandler implements WebHandler {
             } catch (Exception e) {
                 throw new ServletException("Caught exception from handleSearchXML", e);
             }
+        } else if (request.getPathInfo().equals("/searchjson")) {
+            try {
+                handleSearchJSON(request, response);
+            } catch (Exception e) {
+                throw new ServletException("Caught exception from handleSearchJSON", e);
+            }
         } else if (request.getPathInfo().equals("/xcount")) {
             try {
                 handleXCount(request, response);
@@ -519,6 +552,13 @@ public class SearchWebHandler implements WebHandler {
         p.set("indexId", id);
         p.set("queryType", qtype);
         p.set("requested", startAt + resultCount);
+        // a search-after cursor replaces the offset: only the page is ranked
+        String after = request.getParameter("after");
+        if (after != null && !after.isEmpty()) {
+            startAt = 0;
+            p.set("searchAfter", after);
+            p.set("requested", resultCount);
+        }
         p.set("startAt", startAt);
         p.set("resultCount", resultCount);
         p.set("retrievalGroup", retGroup);
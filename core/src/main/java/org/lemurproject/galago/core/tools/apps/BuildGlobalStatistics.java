@@ -0,0 +1,200 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.tools.apps;
+
+import org.lemurproject.galago.core.index.IndexPartReader;
+import org.lemurproject.galago.core.index.KeyIterator;
+import org.lemurproject.galago.core.index.disk.DiskIndex;
+import org.lemurproject.galago.core.index.stats.CollectionAggregateIterator;
+import org.lemurproject.galago.core.index.stats.FieldStatistics;
+import org.lemurproject.galago.core.index.stats.GlobalStatisticsWriter;
+import org.lemurproject.galago.core.index.stats.NodeAggregateIterator;
+import org.lemurproject.galago.core.index.stats.NodeStatistics;
+import org.lemurproject.galago.core.retrieval.iterator.BaseIterator;
+import org.lemurproject.galago.utility.CmpUtil;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.tools.AppFunction;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Aggregates the term and field statistics of a set of shard indexes into a
+ * single global statistics file. Retrievals opened with
+ * --globalStatsPath=/path/to/file annotate queries from this file, rather than
+ * collecting statistics from each shard for every query.
+ */
+public class BuildGlobalStatistics extends AppFunction {
+
+  @Override
+  public String getName() {
+    return "build-global-stats";
+  }
+
+  @Override
+  public String getHelpString() {
+    return "galago build-global-stats --index+/path/to/shard [--index+/path/to/shard]* --outputPath=/path/to/stats [options]\n\n"
+            + "  Aggregates term statistics (nodeFrequency, nodeDocumentCount, maximumCount)\n"
+            + "  and field statistics over all shards into a single file.\n\n"
+            + "\t--part+[partName]   : parts to aggregate\n"
+            + "\t                      (default: postings and field parts of the first shard)\n"
+            + "\t--lengths=[partName] : lengths part (default: lengths)\n\n"
+            + "  Use the output with: --globalStatsPath=/path/to/stats\n";
+  }
+
+  @Override
+  public void run(Parameters p, PrintStream output) throws Exception {
+    if (!p.isString("outputPath") || !p.containsKey("index")) {
+      output.println(getHelpString());
+      return;
+    }
+
+    List<String> paths = p.getAsList("index", String.class);
+    List<DiskIndex> shards = new ArrayList<>();
+    for (String path : paths) {
+      shards.add(new DiskIndex(path));
+    }
+
+    TreeSet<String> parts = new TreeSet<>();
+    if (p.containsKey("part")) {
+      parts.addAll(p.getAsList("part", String.class));
+    } else {
+      for (String part : shards.get(0).getPartNames()) {
+        if (part.startsWith("postings") || part.startsWith("field.")) {
+          parts.add(part);
+        }
+      }
+    }
+
+    String lengthsPart = p.get("lengths", "lengths");
+    GlobalStatisticsWriter writer = new GlobalStatisticsWriter(new File(p.getString("outputPath")).getAbsolutePath());
+    // lets retrievals check that the file belongs to their index
+    List<Parameters> shardStatistics = new ArrayList<>();
+    for (int i = 0; i < shards.size(); i++) {
+      Parameters shard = Parameters.create();
+      shard.set("path", paths.get(i));
+      for (FieldStatistics field : aggregateFields(Collections.singletonList(shards.get(i)), lengthsPart)) {
+        if (field.fieldName.equals("document")) {
+          shard.set("documentCount", field.documentCount);
+          shard.set("collectionLength", field.collectionLength);
+        }
+      }
+      shardStatistics.add(shard);
+    }
+    writer.getManifest().set("shards", shardStatistics);
+
+    for (String part : parts) {
+      long terms = writePart(shards, part, writer);
+      output.println("Aggregated " + terms + " terms from " + part);
+    }
+
+    for (FieldStatistics field : aggregateFields(shards, lengthsPart)) {
+      writer.setFieldStatistics(field.fieldName, field);
+    }
+    writer.close();
+
+    for (DiskIndex shard : shards) {
+      shard.close();
+    }
+    output.println("Wrote global statistics to " + p.getString("outputPath"));
+  }
+
+  /**
+   * Merges the (sorted) vocabularies of a part over all shards.
+   */
+  private long writePart(List<DiskIndex> shards, String part, GlobalStatisticsWriter writer) throws Exception {
+    List<KeyIterator> iterators = new ArrayList<>();
+    String stemmer = null;
+    for (DiskIndex shard : shards) {
+      if (!shard.containsPart(part)) {
+        continue;
+      }
+      IndexPartReader reader = shard.getIndexPart(part);
+      stemmer = reader.getManifest().get("stemmer", stemmer);
+      KeyIterator iterator = reader.getIterator();
+      if (!iterator.isDone()) {
+        iterators.add(iterator);
+      }
+    }
+
+    writer.startPart(part);
+    // the vocabulary is stemmed; query terms must be stemmed the same way
+    if (stemmer != null) {
+      writer.setStemmer(stemmer);
+    }
+    long terms = 0;
+    while (!iterators.isEmpty()) {
+      byte[] key = null;
+      for (KeyIterator iterator : iterators) {
+        if (key == null || CmpUtil.compare(iterator.getKey(), key) < 0) {
+          key = iterator.getKey();
+        }
+      }
+
+      NodeStatistics total = new NodeStatistics();
+      for (int i = iterators.size() - 1; i >= 0; i--) {
+        KeyIterator iterator = iterators.get(i);
+        if (!CmpUtil.equals(iterator.getKey(), key)) {
+          continue;
+        }
+        BaseIterator values = iterator.getValueIterator();
+        if (!(values instanceof NodeAggregateIterator)) {
+          throw new IllegalArgumentException("Part " + part + " does not store term statistics.");
+        }
+        total.add(((NodeAggregateIterator) values).getStatistics());
+        iterator.nextKey();
+        if (iterator.isDone()) {
+          iterators.remove(i);
+        }
+      }
+      writer.add(key, total);
+      terms++;
+    }
+    return terms;
+  }
+
+  private List<FieldStatistics> aggregateFields(List<DiskIndex> shards, String lengthsPart) throws Exception {
+    List<FieldStatistics> fields = new ArrayList<>();
+    for (DiskIndex shard : shards) {
+      if (!shard.containsPart(lengthsPart)) {
+        continue;
+      }
+      IndexPartReader reader = shard.getIndexPart(lengthsPart);
+      KeyIterator iterator = reader.getIterator();
+      while (!iterator.isDone()) {
+        BaseIterator values = iterator.getValueIterator();
+        if (values instanceof CollectionAggregateIterator) {
+          FieldStatistics stats = ((CollectionAggregateIterator) values).getStatistics();
+          String field = iterator.getKeyString();
+          FieldStatistics total = null;
+          for (FieldStatistics f : fields) {
+            if (f.fieldName.equals(field)) {
+              total = f;
+            }
+          }
+          if (total == null) {
+            total = stats.clone();
+            total.fieldName = field;
+            fields.add(total);
+          } else {
+            total.add(stats);
+          }
+        }
+        iterator.nextKey();
+      }
+    }
+    Collections.sort(fields, new Comparator<FieldStatistics>() {
+      @Override
+      public int compare(FieldStatistics a, FieldStatistics b) {
+        return a.fieldName.compareTo(b.fieldName);
+      }
+    });
+    return fields;
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.tools.apps;
+
+import org.lemurproject.galago.core.index.KeyIterator;
+import org.lemurproject.galago.core.index.disk.DiskIndex;
+import org.lemurproject.galago.core.index.disk.ImpactIndexWriter;
+import org.lemurproject.galago.core.index.stats.FieldStatistics;
+import org.lemurproject.galago.core.index.stats.NodeAggregateIterator;
+import org.lemurproject.galago.core.index.stats.NodeStatistics;
+import org.lemurproject.galago.core.retrieval.iterator.CountIterator;
+import org.lemurproject.galago.core.retrieval.iterator.LengthsIterator;
+import org.lemurproject.galago.core.retrieval.iterator.disk.DiskLengthsIterator;
+import org.lemurproject.galago.core.retrieval.iterator.scoring.BM25Scorer;
+import org.lemurproject.galago.core.retrieval.iterator.scoring.DirichletScorer;
+import org.lemurproject.galago.core.retrieval.processing.ScoringContext;
+import org.lemurproject.galago.core.retrieval.query.NodeParameters;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.tools.AppFunction;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.logging.Logger;
+
+/**
+ * Precomputes per-posting scores of an existing postings part, quantizes them
+ * into small integer impacts and writes them as a new index part.
+ *
+ * Quantization is global to the part: all scores are mapped linearly onto
+ * 1 .. 2^bits - 1 using the minimum and maximum posting score over the whole
+ * index. This keeps impacts comparable across terms, so the part can be used
+ * both by the delta scoring models (maxscore, wand) and for impact ordered
+ * processing.
+ *
+ * Each list stores a single score for the documents that do not contain the
+ * term. For BM25 that score is 0, so an impact part ranks like #bm25 (up to
+ * quantization). For Dirichlet it depends on the document length, and is
+ * computed once, for a document of average length: documents missing some
+ * query terms are scored as if they had the average length, so an impact
+ * part built with the Dirichlet scorer only approximates the ranking of
+ * #dirichlet.
+ */
+public class BuildImpactIndex extends AppFunction {
+
+  private static final Logger logger = Logger.getLogger("BuildImpactIndex");
+
+  @Override
+  public String getName() {
+    return "build-impacts";
+  }
+
+  @Override
+  public String getHelpString() {
+    return "galago build-impacts [parameters]\n\n"
+            + "  Precomputes quantized BM25 or Dirichlet scores for each posting\n"
+            + "  in a postings part, and stores them as a new index part.\n\n"
+            + "  Documents without a term are given one score per list. This is exact\n"
+            + "  for bm25 (0), but for dirichlet it is the score of a document of average\n"
+            + "  length, so dirichlet impacts only approximate #dirichlet rankings.\n\n"
+            + "  Query the new part with #impacts:term:part=<partName>()\n\n"
+            + "Parameters\n"
+            + "\tindexPath=/path/to/index/\n"
+            + "\tinputPart=[postings]\n"
+            + "\tpartName=[impacts]\n"
+            + "\tscorer=[bm25]|dirichlet\n"
+            + "\tb=[0.75] k=[1.2] (bm25)\n"
+            + "\tmu=[1500] (dirichlet)\n"
+            + "\tbits=[8]  (impact resolution, 1..8)\n"
+            + "\timpactBlockSize=[128] (postings per skip block)\n"
+            + "\timpactOrdered=[false] (also store impact ordered segments,\n"
+            + "\t                       required by score-at-a-time processing)\n";
+  }
+
+  @Override
+  public void run(Parameters p, PrintStream output) throws Exception {
+    if (!p.containsKey("indexPath")) {
+      output.println(getHelpString());
+      return;
+    }
+
+    String indexPath = p.getString("indexPath");
+    String inputPart = p.get("inputPart", "postings");
+    String partName = p.get("partName", "impacts");
+    String scorer = p.get("scorer", "bm25");
+    int bits = (int) p.get("bits", 8L);
+    if (bits < 1 || bits > 8) {
+      throw new IllegalArgumentException("build-impacts: bits must be between 1 and 8.");
+    }
+    if (!scorer.equals("bm25") && !scorer.equals("dirichlet")) {
+      throw new IllegalArgumentException("build-impacts: unknown scorer: " + scorer);
+    }
+    if (scorer.equals("dirichlet")) {
+      logger.warning("build-impacts: Dirichlet scores of documents without a term are approximated at the average document length.");
+    }
+    int levels = (1 << bits) - 1;
+
+    DiskIndex index = new DiskIndex(indexPath);
+    Parameters inputManifest = index.getIndexPart(inputPart).getManifest();
+    FieldStatistics fieldStats = ((DiskLengthsIterator) index.getLengthsIterator()).getStatistics();
+
+    // pass one: find the global range of posting scores
+    double minScore = Double.POSITIVE_INFINITY;
+    double maxScore = Double.NEGATIVE_INFINITY;
+    long terms = 0;
+    KeyIterator keys = index.getIndexPart(inputPart).getIterator();
+    while (!keys.isDone()) {
+      TermScorer ts = new TermScorer(p, scorer, fieldStats, (CountIterator) keys.getValueIterator(), index.getLengthsIterator());
+      while (ts.next()) {
+        minScore = Math.min(minScore, ts.score);
+        maxScore = Math.max(maxScore, ts.score);
+      }
+      terms++;
+      keys.nextKey();
+    }
+    logger.info("Found " + terms + " terms, score range: [" + minScore + ", " + maxScore + "]");
+
+    // score = base + impact * scale, impact in 1 .. levels
+    double scale;
+    double base;
+    if (terms == 0 || maxScore <= minScore) {
+      scale = 0.0;
+      base = (terms == 0) ? 0.0 : minScore;
+    } else {
+      scale = (maxScore - minScore) / Math.max(1, levels - 1);
+      base = minScore - scale;
+    }
+
+    Parameters writerParams = Parameters.create();
+    writerParams.set("impactBlockSize", p.get("impactBlockSize", 128L));
+    writerParams.set("impactBase", base);
+    writerParams.set("impactScale", scale);
+    writerParams.set("impactBits", (long) bits);
+    writerParams.set("impactOrdered", p.get("impactOrdered", false));
+    writerParams.set("missingScore", missingScore(p, scorer, fieldStats));
+    writerParams.set("scorer", scorer);
+    writerParams.set("inputPart", inputPart);
+    if (scorer.equals("bm25")) {
+      writerParams.set("b", p.get("b", 0.75));
+      writerParams.set("k", p.get("k", 1.2));
+    } else {
+      writerParams.set("mu", p.get("mu", 1500.0));
+    }
+    if (inputManifest.containsKey("stemmer")) {
+      writerParams.set("stemmer", inputManifest.getString("stemmer"));
+    }
+    if (inputManifest.containsKey("stemming")) {
+      writerParams.set("stemming", inputManifest.getBoolean("stemming"));
+    }
+
+    // pass two: quantize and write
+    ImpactIndexWriter writer = new ImpactIndexWriter(DiskIndex.getPartPath(indexPath, partName), writerParams);
+    keys = index.getIndexPart(inputPart).getIterator();
+    while (!keys.isDone()) {
+      TermScorer ts = new TermScorer(p, scorer, fieldStats, (CountIterator) keys.getValueIterator(), index.getLengthsIterator());
+      writer.processWord(keys.getKey(), ts.defaultScore());
+      while (ts.next()) {
+        int impact = (scale > 0.0) ? (int) Math.round((ts.score - base) / scale) : 1;
+        writer.processPosting(ts.document, Math.max(1, Math.min(levels, impact)));
+      }
+      keys.nextKey();
+    }
+    writer.close();
+    index.close();
+
+    output.println("Wrote " + terms + " impact lists to " + DiskIndex.getPartPath(indexPath, partName));
+  }
+
+  /**
+   * Score of a term that does not occur in the collection, for a document of
+   * average length (exact for bm25 only).
+   */
+  private static double missingScore(Parameters p, String scorer, FieldStatistics fieldStats) throws IOException {
+    if (scorer.equals("bm25")) {
+      return 0.0;
+    }
+    NodeStatistics empty = new NodeStatistics();
+    return new DirichletScorer(scorerParameters(p, fieldStats, empty)).score(0, (int) Math.round(fieldStats.avgLength));
+  }
+
+  private static NodeParameters scorerParameters(Parameters p, FieldStatistics fieldStats, NodeStatistics nodeStats) {
+    NodeParameters np = new NodeParameters();
+    np.set("b", p.get("b", 0.75));
+    np.set("k", p.get("k", 1.2));
+    np.set("mu", p.get("mu", 1500.0));
+    np.set("collectionLength", fieldStats.collectionLength);
+    np.set("documentCount", fieldStats.documentCount);
+    np.set("nodeFrequency", nodeStats.nodeFrequency);
+    np.set("nodeDocumentCount", nodeStats.nodeDocumentCount);
+    return np;
+  }
+
+  /**
+   * Walks the postings of a single term, producing the exact score of each.
+   */
+  private static class TermScorer {
+
+    final CountIterator counts;
+    final LengthsIterator lengths;
+    final ScoringContext sc = new ScoringContext();
+    final BM25Scorer bm25;
+    final DirichletScorer dirichlet;
+    final double avgLength;
+    long document;
+    double score;
+
+    TermScorer(Parameters p, String scorer, FieldStatistics fieldStats, CountIterator counts, LengthsIterator lengths) throws IOException {
+      this.counts = counts;
+      this.lengths = lengths;
+      this.avgLength = fieldStats.avgLength;
+      NodeParameters np = scorerParameters(p, fieldStats, ((NodeAggregateIterator) counts).getStatistics());
+      bm25 = scorer.equals("bm25") ? new BM25Scorer(np) : null;
+      dirichlet = scorer.equals("dirichlet") ? new DirichletScorer(np) : null;
+    }
+
+    boolean next() throws IOException {
+      while (!counts.isDone()) {
+        sc.document = counts.currentCandidate();
+        int count = counts.count(sc);
+        counts.movePast(sc.document);
+        if (count > 0) {
+          lengths.syncTo(sc.document);
+          document = sc.document;
+          score = score(count, lengths.length(sc));
+          return true;
+        }
+      }
+      return false;
+    }
+
+    double score(int count, int length) {
+      return (bm25 != null) ? bm25.score(count, length) : dirichlet.score(count, length);
+    }
+
+    /**
+     * Score of a document without the term. Dirichlet scores depend on the
+     * document length; this is the score at the average length.
+     */
+    double defaultScore() {
+      return score(0, (int) Math.round(avgLength));
+    }
+  }
+}
@@ -18,6 +18,8 @@ import org.lemurproject.galago.core.window.ReduceNumberWordCount;
 import org.lemurproject.galago.utility.StreamUtil;
 import org.lemurproject.galago.utility.tools.AppFunction;
 import org.lemurproject.galago.core.types.*;
+import org.lemurproject.galago.core.util.SyntheticCorpus;
+import org.lemurproject.galago.tupleflow.FileUtility;
 import org.lemurproject.galago.tupleflow.Order;
 import org.lemurproject.galago.tupleflow.TupleflowAppUtil;
 import org.lemurproject.galago.utility.FSUtil;
@@ -29,8 +31,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 
 import org.lemurproject.galago.utility.VersionInfo;
 
@@ -822,6 +826,21 @@ public class BuildIndex extends AppFunction {
             + "  --filetype={html | xml | txt | arc | warc | trectext | trecweb | twitter | corpus | selectivecorpus | wiki}:   \n"
             + "                           Force the file type.\n"
             + "                           [optional, no default]\n\n"
+            + "Benchmark Flags:\n"
+            + "  --benchmark={true|false}: Profiles every step of the build and reports documents/sec,\n"
+            + "                           tuples/sec, Sorter bytes spilled and time for each step, and\n"
+            + "                           CPU vs. wall time for each stage, as JSON. Requires --mode=local\n"
+            + "                           or --mode=threaded.\n"
+            + "                           Without --inputPath, a synthetic (Zipfian) corpus is indexed.\n"
+            + "                           [default=false]\n"
+            + "  --benchmarkDocuments={int}: Size of the synthetic corpus.\n"
+            + "                           [default=100000]\n"
+            + "  --benchmarkVocabulary={int}: Vocabulary of the synthetic corpus.\n"
+            + "                           [default=100000]\n"
+            + "  --benchmarkSample={0..1}: Fraction of the input files to index.\n"
+            + "                           [default=1.0]\n"
+            + "  --benchmarkReport=/path/to/report.json: Writes the report to a file.\n"
+            + "                           [optional, default prints the report]\n\n"
             + TupleflowAppUtil.getTupleFlowParameterString();
     //TODO: need to design parameters for field indexes + stemming for field indexes
   }
@@ -852,8 +871,133 @@ public class BuildIndex extends AppFunction {
     output.println("Documents Indexed: " + namesParams.getLong("keyCount") + ".");
   }
 
+  /**
+   * Builds an index with every step profiled (see StepProfiler), from a
+   * synthetic corpus, or from a sample of the input files, and returns the
+   * throughput of the whole build and of each stage and step.
+   */
+  public static Parameters benchmark(Parameters p, PrintStream output) throws Exception {
+    String mode = p.get("mode", "local");
+    if (!mode.equals("local") && !mode.equals("remotedebug") && !mode.startsWith("thread")) {
+      throw new IllegalArgumentException("build --benchmark profiles stages in this JVM, it requires --mode=local or threaded.");
+    }
+    p = p.clone();
+    List<File> temporary = new ArrayList<>();
+    Parameters report = Parameters.create();
+    try {
+      if (!p.containsKey("inputPath")) {
+        File corpus = FileUtility.createTemporaryDirectory();
+        temporary.add(corpus);
+        writeSyntheticCorpus(p, corpus);
+        p.set("inputPath", corpus.getAbsolutePath());
+        report.set("corpus", "synthetic");
+      } else if (p.containsKey("benchmarkSample")) {
+        List<String> sample = sampleInputFiles(p);
+        p.set("inputPath", sample);
+        report.set("corpus", "sample");
+        report.set("inputFiles", (long) sample.size());
+      } else {
+        report.set("corpus", "input");
+      }
+      if (!p.isString("indexPath")) {
+        File index = FileUtility.createTemporaryDirectory();
+        temporary.add(index);
+        p.set("indexPath", index.getAbsolutePath());
+      }
+
+      StepProfiler.reset();
+      StepProfiler.enable();
+      long start = System.nanoTime();
+      try {
+        execute(p, output);
+      } finally {
+        StepProfiler.disable();
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      DiskNameReader names = new DiskNameReader(p.getString("indexPath") + File.separator + "names");
+      long documents = names.getManifest().getLong("keyCount");
+      names.close();
+
+      report.set("documents", documents);
+      report.set("seconds", seconds);
+      report.set("documentsPerSecond", documents / seconds);
+
+      Parameters stages = StepProfiler.getReport();
+      for (String stage : stages.getKeys()) {
+        Parameters stageReport = stages.getMap(stage);
+        double wall = stageReport.getDouble("wallSeconds");
+        stageReport.set("cpuUtilization", (wall == 0.0) ? 0.0 : stageReport.getDouble("cpuSeconds") / wall);
+        for (Parameters step : stageReport.getList("steps", Parameters.class)) {
+          // how fast this step alone would get through the corpus
+          double stepSeconds = step.getDouble("seconds");
+          step.set("documentsPerSecond", (stepSeconds == 0.0) ? 0.0 : documents / stepSeconds);
+        }
+      }
+      report.set("stages", stages);
+      StepProfiler.reset();
+    } finally {
+      for (File f : temporary) {
+        FSUtil.deleteDirectory(f);
+      }
+    }
+
+    if (p.isString("benchmarkReport")) {
+      StreamUtil.copyStringToFile(report.toPrettyString(), new File(p.getString("benchmarkReport")));
+    } else {
+      output.println(report.toPrettyString());
+    }
+    return report;
+  }
+
+  private static void writeSyntheticCorpus(Parameters p, File directory) throws IOException {
+    int documents = (int) p.get("benchmarkDocuments", 100000L);
+    int vocabulary = (int) p.get("benchmarkVocabulary", 100000L);
+    // one file per parsing instance
+    int files = (int) Math.max(1, Math.min(documents, p.get("distrib", 10L)));
+    SyntheticCorpus corpus = new SyntheticCorpus(vocabulary, 1.0, p.get("seed", SyntheticCorpus.DEFAULT_SEED));
+    int first = 0;
+    for (int i = 0; i < files; i++) {
+      int count = documents / files + ((i < documents % files) ? 1 : 0);
+      corpus.writeTrecText(new File(directory, "synthetic-" + i + ".trectext"), first, count, 50, 500);
+      first += count;
+    }
+  }
+
+  private static List<String> sampleInputFiles(Parameters p) {
+    List<String> files = new ArrayList<>();
+    for (String path : p.getAsList("inputPath", String.class)) {
+      listFiles(new File(path), files);
+    }
+    if (files.isEmpty()) {
+      throw new IllegalArgumentException("build --benchmarkSample: no input files found.");
+    }
+    Collections.sort(files);
+    Collections.shuffle(files, new Random(p.get("seed", SyntheticCorpus.DEFAULT_SEED)));
+    int count = (int) Math.ceil(p.getAsDouble("benchmarkSample") * files.size());
+    return new ArrayList<>(files.subList(0, Math.max(1, Math.min(files.size(), count))));
+  }
+
+  private static void listFiles(File file, List<String> files) {
+    if (file.isDirectory()) {
+      File[] children = file.listFiles();
+      if (children != null) {
+        for (File child : children) {
+          listFiles(child, files);
+        }
+      }
+    } else if (file.isFile()) {
+      files.add(file.getAbsolutePath());
+    }
+  }
+
   @Override
   public void run(Parameters p, PrintStream output) throws Exception {
+    if (p.get("benchmark", false)) {
+      benchmark(p, output);
+      return;
+    }
+
     // build index input
     if (!p.isString("indexPath") && !p.isList("inputPath")) {
       output.println(getHelpString());
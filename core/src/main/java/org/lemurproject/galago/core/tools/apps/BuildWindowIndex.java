@@ -174,6 +174,8 @@ public class BuildWindowIndex extends AppFunction {
       stage.add(Utility.getSorter(new NumberedExtent.ExtentNameNumberBeginOrder()));
     } else {
       stage.add(new StepInformation(WindowToNumberWordCount.class));
+      // repeated windows in a document are summed before sorting
+      stage.add(Utility.getHashCombiner(new NumberWordCount.WordDocumentOrder(), ReduceNumberWordCount.class));
       stage.add(Utility.getSorter(new NumberWordCount.WordDocumentOrder()));
       stage.add(new StepInformation(ReduceNumberWordCount.class));
     }
@@ -37,7 +37,8 @@ public class DebugQuery extends AppFunction {
         "docid     ", " Default: missing, but the name of the document to explain",
         "query     ", " The query to issue to the index and explain.",
 	"queryFile ", " A series of queries in the specified file.  Assumes one query per line.",
-        "requested ", " The number of results to return");
+        "requested ", " The number of results to return",
+        "profile   ", " [=false] time and count postings for each query node.");
   }
 
     
@@ -108,7 +109,9 @@ public class DebugQuery extends AppFunction {
 
       for (String q : queryList) {
         Node query = StructuredQuery.parse (q);
+        long transformStart = System.nanoTime();
         Node xq = retrieval.transformQuery(query, retP);
+        long transformNanos = System.nanoTime() - transformStart;
 
 	System.out.println ("\n=======================================================");
 	System.out.println ("Query            : " + q);
@@ -129,6 +132,14 @@ public class DebugQuery extends AppFunction {
 
         Parameters finalOutput = Parameters.create();
         finalOutput.put("docs", jsonResults);
+        if (results.profile != null) {
+          // transformation includes collection statistics lookups
+          System.out.println (String.format("Transform time   : %.3fms", transformNanos / 1e6));
+          System.out.println ("Profile:");
+          System.out.print (results.profile);
+          finalOutput.put("transformNanos", transformNanos);
+          finalOutput.put("profile", results.profile.toJSON());
+        }
         if (prettyPrint) {
           output.println(finalOutput.toPrettyString());
         }
@@ -0,0 +1,401 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.core.tools.apps;
+
+import org.lemurproject.galago.core.retrieval.Retrieval;
+import org.lemurproject.galago.core.retrieval.RetrievalFactory;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.queries.JSONQueryFormat;
+import org.lemurproject.galago.utility.tools.AppFunction;
+import org.lemurproject.galago.utility.tools.Arguments;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replays a query log against a retrieval, either open loop at a target rate
+ * (--qps) or closed loop with a fixed number of clients (--concurrency), once
+ * for each processing model, and reports throughput and latency percentiles
+ * as JSON.
+ *
+ * Two latencies are reported for each request: service time (from the moment
+ * the request actually started) and response time, which is corrected for
+ * coordinated omission. In open loop the response time is measured from the
+ * time the request was scheduled, so requests that queue behind a slow query
+ * count the time they waited. In closed loop, clients only issue a request
+ * when the previous one returns; given --expectedInterval, each slow request
+ * is also recorded as the requests that would have been issued meanwhile.
+ */
+public class LoadTestFn extends AppFunction {
+
+  private static final Logger logger = Logger.getLogger("LoadTest");
+  private static final double[] PERCENTILES = {50, 90, 95, 99, 99.9};
+
+  public static void main(String[] args) throws Exception {
+    (new LoadTestFn()).run(Arguments.parse(args), System.out);
+  }
+
+  @Override
+  public String getName() {
+    return "load-test";
+  }
+
+  @Override
+  public String getHelpString() {
+    return "galago load-test <args>\n\n"
+            + "  Replays a batch of queries against an index (or a remote retrieval)\n"
+            + "  and reports throughput and latency percentiles for each processing\n"
+            + "  model as JSON. Queries are reused in order (or shuffled with --seed)\n"
+            + "  until the duration has passed.\n\n"
+            + "  Sample invocations:\n"
+            + "     galago load-test --index=/tmp/myindex --qps=200 /tmp/queries.json\n"
+            + "     galago load-test --index=/tmp/myindex --concurrency=16 /tmp/queries.json\n"
+            + "            --processingModels+rankeddocument --processingModels+maxscore\n\n"
+            + "  Args:\n"
+            + "     --index=path_to_your_index\n"
+            + "     /path/to/query/file : queries in the batch-search format\n"
+            + "     --queryFormat=[json]|tsv (with tsv, --queries=path to number<tab>text lines)\n"
+            + "     --qps=target requests per second; open loop, the default is closed loop\n"
+            + "     --threadCount=worker threads for open loop (default: processors)\n"
+            + "     --concurrency=clients for closed loop (default: processors)\n"
+            + "     --expectedInterval=milliseconds a closed loop client expects between\n"
+            + "           requests; enables coordinated omission correction in closed loop\n"
+            + "     --processingModels=list of processing models (default: --processingModel,\n"
+            + "           or rankeddocument)\n"
+            + "     --requested=[1000]\n"
+            + "     --warmup=[5] seconds, not measured\n"
+            + "     --duration=[30] seconds, measured\n"
+            + "     --seed=shuffle queries with this seed\n"
+            + "     --reportFile=write the JSON report here instead of to stdout\n"
+            + "     --baseline=an earlier report to compare with; the ratios of throughput\n"
+            + "           and latencies are added to the report\n";
+  }
+
+  @Override
+  public void run(Parameters p, PrintStream out) throws Exception {
+    if (!(p.containsKey("query") || p.containsKey("queries"))) {
+      out.println(this.getHelpString());
+      return;
+    }
+
+    List<Parameters> queries;
+    String queryFormat = p.get("queryFormat", "json").toLowerCase();
+    switch (queryFormat) {
+      case "json":
+        queries = JSONQueryFormat.collectQueries(p);
+        break;
+      case "tsv":
+        queries = JSONQueryFormat.collectTSVQueries(p);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown queryFormat: " + queryFormat + " try one of JSON, TSV");
+    }
+    if (queries.isEmpty()) {
+      throw new IllegalArgumentException("load-test: no queries found.");
+    }
+    if (p.containsKey("seed")) {
+      Collections.shuffle(queries, new Random(p.getLong("seed")));
+    }
+
+    List<String> models;
+    if (p.isList("processingModels")) {
+      models = p.getAsList("processingModels", String.class);
+    } else {
+      models = Collections.singletonList(p.get("processingModel", "rankeddocument"));
+    }
+
+    Parameters report = Parameters.create();
+    report.set("queries", (long) queries.size());
+    report.set("mode", p.containsKey("qps") ? "open" : "closed");
+    if (p.containsKey("qps")) {
+      report.set("targetQps", p.getAsDouble("qps"));
+      report.set("threadCount", p.get("threadCount", (long) Runtime.getRuntime().availableProcessors()));
+    } else {
+      report.set("concurrency", p.get("concurrency", (long) Runtime.getRuntime().availableProcessors()));
+      if (p.containsKey("expectedInterval")) {
+        report.set("expectedInterval", p.getAsDouble("expectedInterval"));
+      }
+    }
+    report.set("requested", p.get("requested", 1000L));
+    report.set("warmup", p.get("warmup", 5L));
+    report.set("duration", p.get("duration", 30L));
+
+    Retrieval retrieval = RetrievalFactory.create(p);
+    try {
+      Parameters results = Parameters.create();
+      for (String model : models) {
+        Parameters modelParams = Parameters.create();
+        modelParams.set("processingModel", model);
+        modelParams.set("requested", report.getLong("requested"));
+        modelParams.setBackoff(p);
+
+        LoadTest test = new LoadTest(retrieval, queries, modelParams);
+        if (p.containsKey("qps")) {
+          test.runOpenLoop(p.getAsDouble("qps"), (int) report.getLong("threadCount"), report.getLong("warmup"), report.getLong("duration"));
+        } else {
+          double expectedInterval = p.containsKey("expectedInterval") ? p.getAsDouble("expectedInterval") : 0.0;
+          test.runClosedLoop((int) report.getLong("concurrency"), (long) (expectedInterval * 1e6), report.getLong("warmup"), report.getLong("duration"));
+        }
+        Parameters result = test.getReport();
+        results.set(model, result);
+        logger.info(String.format("%s: %.1f qps, response p50 %.2f ms, p99 %.2f ms, %d errors", model,
+                result.getDouble("throughput"), result.getMap("response").getDouble("p50"),
+                result.getMap("response").getDouble("p99"), result.getLong("errors")));
+      }
+      report.set("models", results);
+    } finally {
+      retrieval.close();
+    }
+
+    if (p.isString("baseline")) {
+      report.set("baseline", compare(Parameters.parseFile(p.getString("baseline")), report));
+    }
+
+    if (p.isString("reportFile")) {
+      try (PrintStream reportStream = new PrintStream(new File(p.getString("reportFile")), "UTF-8")) {
+        reportStream.println(report.toPrettyString());
+      }
+    } else {
+      out.println(report.toPrettyString());
+    }
+  }
+
+  /**
+   * Ratios (current / baseline) of throughput and response latencies, for
+   * each model in both reports.
+   */
+  static Parameters compare(Parameters baseline, Parameters current) {
+    Parameters comparison = Parameters.create();
+    Parameters before = baseline.getMap("models");
+    Parameters after = current.getMap("models");
+    for (String model : after.getKeys()) {
+      if (!before.isMap(model)) {
+        continue;
+      }
+      Parameters b = before.getMap(model);
+      Parameters a = after.getMap(model);
+      Parameters ratios = Parameters.create();
+      ratios.set("throughput", ratio(a.getDouble("throughput"), b.getDouble("throughput")));
+      for (String key : a.getMap("response").getKeys()) {
+        if (b.getMap("response").containsKey(key)) {
+          ratios.set(key, ratio(a.getMap("response").getDouble(key), b.getMap("response").getDouble(key)));
+        }
+      }
+      comparison.set(model, ratios);
+    }
+    return comparison;
+  }
+
+  private static double ratio(double current, double baseline) {
+    return (baseline == 0.0) ? 0.0 : current / baseline;
+  }
+
+  /**
+   * One run of the query log with one set of query parameters.
+   */
+  static class LoadTest {
+
+    private final Retrieval retrieval;
+    private final List<Parameters> queries;
+    private final Parameters queryParams;
+    private final LatencySamples service = new LatencySamples();
+    private final LatencySamples response = new LatencySamples();
+    private final AtomicLong errors = new AtomicLong();
+    private long measuredNanos;
+
+    LoadTest(Retrieval retrieval, List<Parameters> queries, Parameters queryParams) {
+      this.retrieval = retrieval;
+      this.queries = queries;
+      this.queryParams = queryParams;
+    }
+
+    private void execute(int i) throws Exception {
+      Parameters query = queries.get(i % queries.size()).clone();
+      query.setBackoff(queryParams);
+      String text = query.getString("text");
+      if (query.get("casefold", false)) {
+        text = text.toLowerCase();
+      }
+      Node root = StructuredQuery.parse(text);
+      Node transformed = retrieval.transformQuery(root, query);
+      retrieval.executeQuery(transformed, query);
+    }
+
+    private void failed(Exception e) {
+      if (errors.getAndIncrement() == 0) {
+        logger.log(Level.WARNING, "Query failed", e);
+      }
+    }
+
+    /**
+     * Issues requests at a fixed rate, independent of how long they take.
+     * Latency is measured from the scheduled start, so queueing delay (in
+     * the pool, or because this thread fell behind) is counted.
+     */
+    void runOpenLoop(double qps, int threadCount, long warmupSeconds, long durationSeconds) throws InterruptedException {
+      final long interval = (long) (TimeUnit.SECONDS.toNanos(1) / qps);
+      final long start = System.nanoTime();
+      final long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+      final long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+      ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+      for (int i = 0;; i++) {
+        final long scheduled = start + i * interval;
+        if (scheduled >= end) {
+          break;
+        }
+        long wait = scheduled - System.nanoTime();
+        if (wait > 0) {
+          LockSupport.parkNanos(wait);
+        }
+        final int query = i;
+        pool.execute(new Runnable() {
+          @Override
+          public void run() {
+            long started = System.nanoTime();
+            try {
+              execute(query);
+            } catch (Exception e) {
+              failed(e);
+              return;
+            }
+            if (scheduled >= measureStart) {
+              long finished = System.nanoTime();
+              service.add(finished - started);
+              response.add(finished - scheduled);
+            }
+          }
+        });
+      }
+      pool.shutdown();
+      pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      // includes draining the queue, so an overloaded server shows its real throughput
+      measuredNanos = System.nanoTime() - measureStart;
+    }
+
+    /**
+     * Runs a fixed number of clients that each issue their next request as
+     * soon as the previous one returns.
+     */
+    void runClosedLoop(int concurrency, final long expectedIntervalNanos, long warmupSeconds, long durationSeconds) throws InterruptedException {
+      final long start = System.nanoTime();
+      final long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+      final long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+      final AtomicLong next = new AtomicLong();
+
+      Thread[] clients = new Thread[concurrency];
+      for (int c = 0; c < concurrency; c++) {
+        clients[c] = new Thread("load-test-client-" + c) {
+          @Override
+          public void run() {
+            long started;
+            while ((started = System.nanoTime()) < end) {
+              try {
+                execute((int) (next.getAndIncrement() % queries.size()));
+              } catch (Exception e) {
+                failed(e);
+                continue;
+              }
+              if (started >= measureStart) {
+                long latency = System.nanoTime() - started;
+                service.add(latency);
+                response.addCorrected(latency, expectedIntervalNanos);
+              }
+            }
+          }
+        };
+        clients[c].start();
+      }
+      for (Thread client : clients) {
+        client.join();
+      }
+      measuredNanos = Math.max(end, System.nanoTime()) - measureStart;
+    }
+
+    Parameters getReport() {
+      Parameters result = Parameters.create();
+      result.set("completed", (long) service.size());
+      result.set("errors", errors.get());
+      result.set("throughput", service.size() / (measuredNanos / 1e9));
+      result.set("service", service.summary());
+      result.set("response", response.summary());
+      return result;
+    }
+  }
+
+  /**
+   * All recorded latencies, so that percentiles are exact.
+   */
+  static class LatencySamples {
+
+    private long[] values = new long[1024];
+    private int size = 0;
+
+    synchronized void add(long nanos) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = nanos;
+    }
+
+    /**
+     * Records a latency, and if it is longer than the expected interval
+     * between requests, the latencies the requests that would have been sent
+     * in the meantime would have seen.
+     */
+    synchronized void addCorrected(long nanos, long expectedIntervalNanos) {
+      add(nanos);
+      if (expectedIntervalNanos > 0) {
+        for (long missed = nanos - expectedIntervalNanos; missed >= expectedIntervalNanos; missed -= expectedIntervalNanos) {
+          add(missed);
+        }
+      }
+    }
+
+    synchronized int size() {
+      return size;
+    }
+
+    synchronized Parameters summary() {
+      long[] sorted = Arrays.copyOf(values, size);
+      Arrays.sort(sorted);
+      Parameters summary = Parameters.create();
+      double total = 0.0;
+      for (long value : sorted) {
+        total += value;
+      }
+      summary.set("mean", (size == 0) ? 0.0 : total / size / 1e6);
+      for (double percentile : PERCENTILES) {
+        summary.set(percentileName(percentile), percentile(sorted, percentile) / 1e6);
+      }
+      summary.set("max", (size == 0) ? 0.0 : sorted[size - 1] / 1e6);
+      return summary;
+    }
+
+    static double percentile(long[] sorted, double percentile) {
+      if (sorted.length == 0) {
+        return 0.0;
+      }
+      int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+      return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    static String percentileName(double percentile) {
+      // 99.9 -> p999
+      String name = (percentile == Math.rint(percentile)) ? Long.toString((long) percentile) : Double.toString(percentile);
+      return "p" + name.replace(".", "");
+    }
+  }
+}
@@ -4,10 +4,12 @@
 package org.lemurproject.galago.core.tools.apps;
 
 import org.lemurproject.galago.utility.tools.AppFunction;
+import org.lemurproject.galago.core.tools.RetrievalServer;
 import org.lemurproject.galago.core.tools.Search;
 import org.lemurproject.galago.core.tools.SearchWebHandler;
 import org.lemurproject.galago.core.tools.StreamContextHandler;
 import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.tupleflow.web.MetricsWebHandler;
 import org.lemurproject.galago.tupleflow.web.WebHandler;
 import org.lemurproject.galago.tupleflow.web.WebServer;
 
@@ -41,7 +43,18 @@ public class SearchFn extends AppFunction {
             + "   --corpus={file path} : corpus file path\n"
             + "   --index={file path}  : index file path\n"
             + "   --index={url}        : galago search url (for distributed retrieval)\n"
-            + "   --port={int<65000}   : port number for web retrieval.\n\n"
+            + "   --port={int<65000}   : port number for web retrieval.\n"
+            + "   --remotePort={int<65000} : also serve the index over the binary\n"
+            + "                          protocol, for 'galago://host:port' indexes.\n"
+            + "   --maxConcurrentRequests={int} : queries handled at once; further\n"
+            + "                          queries wait in a queue.\n"
+            + "   --maxQueuedRequests={int} : queue length (default: 4 * concurrent).\n"
+            + "   --queueTimeout={ms}  : queries that wait longer get a 503 (default: 100).\n"
+            + "   --virtualThreads={true|false} : a virtual thread per request (Java 21+).\n"
+            + "   --gzip={true|false}  : compress responses (default: false).\n\n"
+            + "  Query-engine metrics are served at /metrics (Prometheus text format,\n"
+            + "  or JSON with ?format=json) and as the JMX MBean\n"
+            + "  org.lemurproject.galago:type=Metrics.\n\n"
             + "  JSONParameters can also be input through a configuration file.\n"
             + "  For example: search.parameters\n"
             + "  {\n"
@@ -62,6 +75,7 @@ public class SearchFn extends AppFunction {
     Search search = new Search(p);
     final StreamContextHandler streamHandler = new StreamContextHandler(search);
     final SearchWebHandler searchHandler = new SearchWebHandler(search);
+    final MetricsWebHandler metricsHandler = new MetricsWebHandler();
 
     WebServer server = WebServer.start(p, new WebHandler() {
       @Override
@@ -70,6 +84,8 @@ public class SearchFn extends AppFunction {
           response.setStatus(200);
         } else if(request.getPathInfo().equals("/stream")) {
           streamHandler.handle(request, response);
+        } else if(request.getPathInfo().equals("/metrics")) {
+          metricsHandler.handle(request, response);
         } else {
           searchHandler.handle(request, response);
         }
@@ -77,5 +93,10 @@ public class SearchFn extends AppFunction {
     });
 
     output.println("Server: "+server.getURL());
+
+    if (p.containsKey("remotePort")) {
+      RetrievalServer remoteServer = new RetrievalServer(search.getRetrieval(), p);
+      output.println("Remote: " + remoteServer.getURL(WebServer.getHostName()));
+    }
   }
 }
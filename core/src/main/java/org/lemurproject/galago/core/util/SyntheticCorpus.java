@@ -0,0 +1,95 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A deterministic synthetic corpus: term frequencies follow a Zipfian
+ * distribution over a fixed vocabulary, so the same seed always produces the
+ * same documents, the same index and comparable benchmark numbers.
+ *
+ * Terms are named "t" + rank, so t0 is the most frequent term.
+ */
+public class SyntheticCorpus {
+
+  public static final long DEFAULT_SEED = 20181001L;
+  private final int vocabularySize;
+  private final double[] cumulative;
+  private final Random random;
+
+  public SyntheticCorpus(int vocabularySize, double exponent, long seed) {
+    this.vocabularySize = vocabularySize;
+    this.random = new Random(seed);
+    this.cumulative = new double[vocabularySize];
+    double total = 0.0;
+    for (int rank = 0; rank < vocabularySize; rank++) {
+      total += 1.0 / Math.pow(rank + 1, exponent);
+      cumulative[rank] = total;
+    }
+    for (int rank = 0; rank < vocabularySize; rank++) {
+      cumulative[rank] /= total;
+    }
+  }
+
+  public SyntheticCorpus(int vocabularySize) {
+    this(vocabularySize, 1.0, DEFAULT_SEED);
+  }
+
+  public static String term(int rank) {
+    return "t" + rank;
+  }
+
+  public int nextRank() {
+    int index = Arrays.binarySearch(cumulative, random.nextDouble());
+    return Math.min(vocabularySize - 1, (index >= 0) ? index : -index - 1);
+  }
+
+  /**
+   * The text of a document of between minLength and maxLength terms, with a
+   * short title field.
+   */
+  public String nextDocumentText(int minLength, int maxLength) {
+    int length = minLength + random.nextInt(maxLength - minLength + 1);
+    StringBuilder sb = new StringBuilder();
+    sb.append("<title>").append(term(nextRank())).append(' ').append(term(nextRank())).append("</title>\n");
+    for (int i = 0; i < length; i++) {
+      sb.append(term(nextRank()));
+      sb.append((i % 20 == 19) ? '\n' : ' ');
+    }
+    return sb.toString();
+  }
+
+  public List<String> documents(int count, int minLength, int maxLength) {
+    List<String> documents = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      documents.add(nextDocumentText(minLength, maxLength));
+    }
+    return documents;
+  }
+
+  /**
+   * Writes count documents in trectext format, named doc-first .. doc-(first +
+   * count - 1).
+   */
+  public void writeTrecText(File output, int first, int count, int minLength, int maxLength) throws IOException {
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8))) {
+      for (int i = first; i < first + count; i++) {
+        writer.write("<DOC>\n<DOCNO>doc-" + i + "</DOCNO>\n<TEXT>\n");
+        writer.write(nextDocumentText(minLength, maxLength));
+        writer.write("\n</TEXT>\n</DOC>\n");
+      }
+    }
+  }
+}
@@ -5,6 +5,7 @@
 package org.lemurproject.galago.core.window;
 
 import org.lemurproject.galago.core.types.NumberWordCount;
+import org.lemurproject.galago.tupleflow.Combiner;
 import org.lemurproject.galago.tupleflow.InputClass;
 import org.lemurproject.galago.tupleflow.OutputClass;
 import org.lemurproject.galago.tupleflow.StandardStep;
@@ -14,6 +15,9 @@ import org.lemurproject.galago.utility.CmpUtil;
 import java.io.IOException;
 
 /**
+ * Sums the counts of adjacent NumberWordCounts with the same word and
+ * document. The sum is also available as a Combiner, to pre-aggregate
+ * unsorted counts in a HashCombiner.
  *
  * @author sjh
  */
@@ -21,7 +25,7 @@ import java.io.IOException;
 @InputClass(className = "org.lemurproject.galago.core.types.NumberWordCount", order = {"+word", "+document"})
 @OutputClass(className = "org.lemurproject.galago.core.types.NumberWordCount", order = {"+word", "+document"})
 public class ReduceNumberWordCount extends StandardStep<NumberWordCount, NumberWordCount>
-        implements NumberWordCount.Source {
+        implements NumberWordCount.Source, Combiner<NumberWordCount> {
 
   NumberWordCount last;
 
@@ -31,7 +35,7 @@ public class ReduceNumberWordCount extends StandardStep<NumberWordCount, NumberW
       last = current;
 
     } else if (CmpUtil.equals(last.word, current.word) && last.document == current.document) {
-      last.count += current.count;
+      combine(last, current);
 
     } else {
       processor.process(last);
@@ -39,6 +43,11 @@ public class ReduceNumberWordCount extends StandardStep<NumberWordCount, NumberW
     }
   }
 
+  @Override
+  public void combine(NumberWordCount aggregate, NumberWordCount value) {
+    aggregate.count += value.count;
+  }
+
   @Override
   public void close() throws IOException {
     if (last != null) {
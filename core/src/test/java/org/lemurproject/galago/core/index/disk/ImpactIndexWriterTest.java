@@ -0,0 +1,124 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.index.disk;
+
+import org.junit.Test;
+import org.lemurproject.galago.core.retrieval.LocalRetrieval;
+import org.lemurproject.galago.core.retrieval.ScoredDocument;
+import org.lemurproject.galago.core.retrieval.iterator.CountIterator;
+import org.lemurproject.galago.core.retrieval.iterator.ScoreIterator;
+import org.lemurproject.galago.core.retrieval.iterator.disk.DiskImpactIterator;
+import org.lemurproject.galago.core.retrieval.processing.MaxScoreDocumentModel;
+import org.lemurproject.galago.core.retrieval.processing.RankedDocumentModel;
+import org.lemurproject.galago.core.retrieval.processing.ScoringContext;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.NodeParameters;
+import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
+import org.lemurproject.galago.core.tools.App;
+import org.lemurproject.galago.core.tools.AppTest;
+import org.lemurproject.galago.tupleflow.FileUtility;
+import org.lemurproject.galago.utility.FSUtil;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.StreamUtil;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ImpactIndexWriterTest {
+
+  @Test
+  public void testBM25Impacts() throws Exception {
+    File corpus = FileUtility.createTemporary();
+    File index = FileUtility.createTemporaryDirectory();
+    try {
+      makeIndex(corpus, index);
+
+      Parameters p = Parameters.create();
+      p.set("indexPath", index.getAbsolutePath());
+      p.set("partName", "impacts");
+      p.set("scorer", "bm25");
+      p.set("impactBlockSize", 8);
+      App.run("build-impacts", p, System.out);
+
+      ImpactIndexReader reader = new ImpactIndexReader(new File(index, "impacts").getAbsolutePath());
+      double scale = reader.getImpactScale();
+      assertTrue(scale > 0.0);
+
+      LocalRetrieval ret = new LocalRetrieval(index.getAbsolutePath(), Parameters.create());
+
+      // every posting score is within half a quantization step of bm25
+      for (String term : new String[]{"text", "w1", "w25", "w77"}) {
+        Node bm25 = StructuredQuery.parse("#bm25( #lengths:document:part=lengths() #counts:" + term + ":part=postings() )");
+        Node counts = StructuredQuery.parse("#counts:" + term + ":part=postings()");
+        ScoreIterator bm25Iterator = (ScoreIterator) ret.createIterator(Parameters.create(), ret.transformQuery(bm25, Parameters.create()));
+        CountIterator countIterator = (CountIterator) ret.createIterator(Parameters.create(), counts);
+
+        DiskImpactIterator impacts = reader.getTermImpacts(term, new NodeParameters());
+        ScoringContext sc = new ScoringContext();
+        int postings = 0;
+        while (!countIterator.isDone()) {
+          sc.document = countIterator.currentCandidate();
+          assertEquals(sc.document, impacts.currentCandidate());
+          bm25Iterator.syncTo(sc.document);
+          assertTrue(impacts.impact(sc) > 0);
+          assertEquals(bm25Iterator.score(sc), impacts.score(sc), scale / 2 + 1e-9);
+          assertTrue(impacts.score(sc) <= impacts.maximumScore() + 1e-9);
+          countIterator.movePast(sc.document);
+          impacts.movePast(sc.document);
+          postings++;
+        }
+        assertTrue(impacts.isDone());
+        assertTrue(postings > 0);
+
+        // skipping over whole blocks agrees with the sequential scan
+        impacts.reset();
+        impacts.syncTo(90);
+        assertEquals(90, impacts.currentCandidate());
+      }
+
+      // missing terms produce an empty list
+      DiskImpactIterator missing = reader.getTermImpacts("nothere", new NodeParameters());
+      assertTrue(missing.isDone());
+      reader.close();
+
+      // impact queries run through the delta scoring models
+      Parameters queryParams = Parameters.create();
+      queryParams.set("requested", 10);
+      Node query = StructuredQuery.parse("#combine( #impacts:text:part=impacts() #impacts:w1:part=impacts() #impacts:w95:part=impacts() )");
+      query = ret.transformQuery(query, queryParams);
+
+      ScoredDocument[] safeResults = new RankedDocumentModel(ret).execute(query, queryParams);
+      ScoredDocument[] deltaResults = new MaxScoreDocumentModel(ret).execute(query, queryParams);
+      assertFalse(safeResults.length == 0);
+      assertEquals(safeResults.length, deltaResults.length);
+      for (int i = 0; i < safeResults.length; ++i) {
+        assertEquals(safeResults[i].document, deltaResults[i].document);
+        assertEquals(safeResults[i].score, deltaResults[i].score, 0.00001);
+      }
+    } finally {
+      corpus.delete();
+      FSUtil.deleteDirectory(index);
+    }
+  }
+
+  private void makeIndex(File corpus, File index) throws Exception {
+    StringBuilder c = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      StringBuilder data = new StringBuilder();
+      for (int j = 0; j < (i + 10); j++) {
+        data.append(" w").append(j % (i + 3));
+      }
+      c.append(AppTest.trecDocument("d-" + i, "Test text" + data.toString()));
+    }
+    StreamUtil.copyStringToFile(c.toString(), corpus);
+
+    Parameters p = Parameters.create();
+    p.set("inputPath", corpus.getAbsolutePath());
+    p.set("indexPath", index.getAbsolutePath());
+    App.run("build", p, System.out);
+  }
+}
@@ -4,6 +4,7 @@
 package org.lemurproject.galago.core.retrieval;
 
 import org.junit.Test;
+import org.lemurproject.galago.core.index.stats.NodeStatistics;
 import org.lemurproject.galago.core.retrieval.query.Node;
 import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
 import org.lemurproject.galago.core.tools.App;
@@ -14,10 +15,12 @@ import org.lemurproject.galago.utility.Parameters;
 import org.lemurproject.galago.utility.StreamUtil;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  *
@@ -93,6 +96,41 @@ public class MultiRetrievalTest {
         assertEquals(expDocs[i].rank, results.get(i).rank);
         assertEquals(expDocs[i].score, results.get(i).score, 0.000001);
       }
+
+      // batched node statistics match the per-node statistics
+      List<Node> countNodes = Arrays.asList(
+              StructuredQuery.parse("#counts:sample:part=postings.krovetz()"),
+              StructuredQuery.parse("#counts:document:part=postings.krovetz()"),
+              StructuredQuery.parse("#counts:long:part=postings.krovetz()"));
+      List<NodeStatistics> batch = mr.getNodeStatistics(countNodes);
+      assertEquals(countNodes.size(), batch.size());
+      for (int i = 0; i < countNodes.size(); i++) {
+        NodeStatistics single = mr.getNodeStatistics(countNodes.get(i));
+        assertEquals(single.nodeFrequency, batch.get(i).nodeFrequency);
+        assertEquals(single.nodeDocumentCount, batch.get(i).nodeDocumentCount);
+      }
+      assertEquals(1, batch.get(2).nodeFrequency);
+
+      // requesting fewer documents truncates the merged list
+      qp.set("requested", 3);
+      results = mr.executeQuery(queryTree, qp).scoredDocuments;
+      assertEquals(3, results.size());
+      for (int i = 0; i < results.size(); i++) {
+        assertEquals(expDocs[i].documentName, results.get(i).documentName);
+        assertEquals(expDocs[i].rank, results.get(i).rank);
+      }
+
+      // asynchronous calls match the blocking calls
+      List<ScoredDocument> async = mr.executeQueryAsync(queryTree, qp).get().scoredDocuments;
+      assertEquals(results.size(), async.size());
+      for (int i = 0; i < results.size(); i++) {
+        assertEquals(results.get(i).documentName, async.get(i).documentName);
+        assertEquals(results.get(i).score, async.get(i).score, 0.000001);
+      }
+      NodeStatistics asyncStats = mr.getNodeStatisticsAsync(countNodes.get(0)).get();
+      assertEquals(batch.get(0).nodeFrequency, asyncStats.nodeFrequency);
+      assertEquals(batch.get(0).nodeDocumentCount, asyncStats.nodeDocumentCount);
+      mr.close();
     } finally {
       if (trecCorpusFile1 != null) {
         trecCorpusFile1.delete();
@@ -108,4 +146,105 @@ public class MultiRetrievalTest {
       }
     }
   }
+
+  @Test
+  public void testMergeRankedLists() {
+    List<ScoredDocument> a = Arrays.asList(new ScoredDocument(1, 5.0), new ScoredDocument(2, 3.0), new ScoredDocument(3, 1.0));
+    // not sorted, the merge should not depend on it
+    List<ScoredDocument> b = Arrays.asList(new ScoredDocument(11, 2.0), new ScoredDocument(12, 4.0));
+    List<ScoredDocument> c = Arrays.asList();
+
+    ScoredDocument[] merged = MultiRetrieval.mergeRankedLists(Arrays.asList(a, b, c), 4);
+    assertEquals(4, merged.length);
+    long[] expected = {1, 12, 2, 11};
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], merged[i].document);
+    }
+
+    assertEquals(5, MultiRetrieval.mergeRankedLists(Arrays.asList(a, b, c), 100).length);
+  }
+
+  @Test
+  public void testShardSelection() throws Exception {
+    List<File> files = new ArrayList<>();
+    List<String> indexes = new ArrayList<>();
+    try {
+      // four topical shards, each with its own vocabulary and a shared term
+      for (int shard = 0; shard < 4; shard++) {
+        StringBuilder corpus = new StringBuilder();
+        for (int d = 0; d < 20; d++) {
+          StringBuilder text = new StringBuilder("shared");
+          for (int j = 0; j < (d % 5) + 2; j++) {
+            text.append(" topic").append(shard).append(" w").append((d + j) % 7);
+          }
+          corpus.append(AppTest.trecDocument("s" + shard + "-" + d, text.toString()));
+        }
+        File corpusFile = FileUtility.createTemporary();
+        StreamUtil.copyStringToFile(corpus.toString(), corpusFile);
+        files.add(corpusFile);
+
+        File index = FileUtility.createTemporaryDirectory();
+        files.add(index);
+        App.main(new String[]{"build", "--indexPath=" + index.getAbsolutePath(),
+                  "--inputPath=" + corpusFile.getAbsolutePath()});
+        indexes.add(index.getAbsolutePath());
+      }
+
+      Parameters params = Parameters.create();
+      params.set("index", indexes);
+      params.set("selectedShards", 1);
+      MultiRetrieval mr = (MultiRetrieval) RetrievalFactory.create(params);
+
+      for (String query : new String[]{"#combine( topic2 w3 )", "#combine( shared w1 )", "#combine( topic1 topic3 w5 )"}) {
+        Parameters qp = Parameters.create();
+        qp.set("requested", 5);
+        Node queryTree = mr.transformQuery(StructuredQuery.parse(query), qp);
+        List<ScoredDocument> all = mr.executeQuery(queryTree, qp).scoredDocuments;
+
+        // safe selection returns the same ranked list
+        qp.set("shardSelection", "safe");
+        List<ScoredDocument> safe = mr.executeQuery(queryTree, qp).scoredDocuments;
+        assertEquals(all.size(), safe.size());
+        for (int i = 0; i < all.size(); i++) {
+          assertEquals(all.get(i).documentName, safe.get(i).documentName);
+          assertEquals(all.get(i).score, safe.get(i).score, 0.000001);
+        }
+
+        // searching every selected shard with cori returns the same list
+        qp.set("shardSelection", "cori");
+        qp.set("selectedShards", 4);
+        List<ScoredDocument> cori = mr.executeQuery(queryTree, qp).scoredDocuments;
+        assertEquals(all.size(), cori.size());
+        for (int i = 0; i < all.size(); i++) {
+          assertEquals(all.get(i).documentName, cori.get(i).documentName);
+        }
+
+        qp.set("shardSelection", "safe");
+        List<ScoredDocument> async = mr.executeQueryAsync(queryTree, qp).get().scoredDocuments;
+        assertEquals(all.size(), async.size());
+        for (int i = 0; i < all.size(); i++) {
+          assertEquals(all.get(i).documentName, async.get(i).documentName);
+        }
+      }
+
+      // a single topical shard is selected for a topical query
+      Parameters qp = Parameters.create();
+      qp.set("shardSelection", "cori");
+      Node queryTree = mr.transformQuery(StructuredQuery.parse("#combine( topic2 w3 )"), qp);
+      List<ScoredDocument> cori = mr.executeQuery(queryTree, qp).scoredDocuments;
+      assertTrue(cori.size() > 0);
+      for (ScoredDocument sd : cori) {
+        assertTrue(sd.documentName.startsWith("s2-"));
+      }
+      mr.close();
+    } finally {
+      for (File f : files) {
+        if (f.isDirectory()) {
+          FSUtil.deleteDirectory(f);
+        } else {
+          f.delete();
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,194 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.retrieval;
+
+import org.junit.Test;
+import org.lemurproject.galago.core.index.stats.FieldStatistics;
+import org.lemurproject.galago.core.index.stats.NodeStatistics;
+import org.lemurproject.galago.core.parse.Document;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
+import org.lemurproject.galago.core.tools.App;
+import org.lemurproject.galago.core.tools.AppTest;
+import org.lemurproject.galago.core.tools.RetrievalServer;
+import org.lemurproject.galago.tupleflow.FileUtility;
+import org.lemurproject.galago.utility.FSUtil;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.StreamUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+public class RemoteRetrievalTest {
+
+  @Test
+  public void testNodeEncoding() throws Exception {
+    Node query = StructuredQuery.parse("#combine:0=0.5:1=2.5( #dirichlet:mu=1000:w=0.5( #lengths:document:part=lengths() #counts:a:part=postings() ) #od:1( b c ) #text:flag=true(d) )");
+
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    RemoteProtocol.writeNode(new DataOutputStream(buffer), query);
+    Node decoded = RemoteProtocol.readNode(new DataInputStream(new ByteArrayInputStream(buffer.toByteArray())));
+
+    assertEquals(query.toString(), decoded.toString());
+  }
+
+  @Test
+  public void testRemoteRetrieval() throws Exception {
+    File corpus = FileUtility.createTemporary();
+    File index = FileUtility.createTemporaryDirectory();
+    RetrievalServer server = null;
+    RetrievalServer stalledServer = null;
+    try {
+      StringBuilder c = new StringBuilder();
+      for (int i = 0; i < 50; i++) {
+        StringBuilder data = new StringBuilder();
+        for (int j = 0; j < (i % 11) + 3; j++) {
+          data.append(" w").append((i * j) % 13);
+        }
+        c.append(AppTest.trecDocument("d-" + i, "sample text" + data.toString()));
+      }
+      StreamUtil.copyStringToFile(c.toString(), corpus);
+
+      Parameters p = Parameters.create();
+      p.set("inputPath", corpus.getAbsolutePath());
+      p.set("indexPath", index.getAbsolutePath());
+      p.set("corpus", true);
+      App.run("build", p, System.out);
+
+      final LocalRetrieval local = new LocalRetrieval(index.getAbsolutePath(), Parameters.create());
+      server = new RetrievalServer(local, Parameters.create());
+
+      Parameters remoteParams = Parameters.create();
+      remoteParams.set("index", "galago://localhost:" + server.getPort());
+      final Retrieval remote = RetrievalFactory.create(remoteParams);
+
+      // statistics
+      FieldStatistics localLengths = local.getCollectionStatistics("#lengths:part=lengths()");
+      FieldStatistics remoteLengths = remote.getCollectionStatistics("#lengths:part=lengths()");
+      assertEquals(localLengths.collectionLength, remoteLengths.collectionLength);
+      assertEquals(localLengths.documentCount, remoteLengths.documentCount);
+
+      List<Node> nodes = Arrays.asList(
+              StructuredQuery.parse("#counts:w1:part=postings.krovetz()"),
+              StructuredQuery.parse("#counts:w5:part=postings.krovetz()"),
+              StructuredQuery.parse("#counts:missing:part=postings.krovetz()"));
+      List<NodeStatistics> remoteStats = remote.getNodeStatistics(nodes);
+      for (int i = 0; i < nodes.size(); i++) {
+        NodeStatistics localStats = local.getNodeStatistics(nodes.get(i));
+        assertEquals(localStats.nodeFrequency, remoteStats.get(i).nodeFrequency);
+        assertEquals(localStats.nodeDocumentCount, remoteStats.get(i).nodeDocumentCount);
+      }
+
+      // forwarded (serialized) calls
+      assertEquals(local.getDocumentId("d-7"), remote.getDocumentId("d-7"));
+      assertEquals(local.getDocumentLength("d-7"), remote.getDocumentLength("d-7"));
+      Document d = remote.getDocument("d-7", new Document.DocumentComponents(true, false, false));
+      assertNotNull(d.text);
+
+      // queries
+      Parameters qp = Parameters.create();
+      qp.set("requested", 10);
+      final Node query = remote.transformQuery(StructuredQuery.parse("#combine( w1 w5 sample )"), qp);
+      assertEquals(local.transformQuery(StructuredQuery.parse("#combine( w1 w5 sample )"), Parameters.create()).toString(), query.toString());
+
+      List<ScoredDocument> expected = local.executeQuery(query, qp).scoredDocuments;
+      Results results = remote.executeQuery(query, qp);
+      assertEquals(expected.size(), results.scoredDocuments.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(expected.get(i).documentName, results.scoredDocuments.get(i).documentName);
+        assertEquals(expected.get(i).rank, results.scoredDocuments.get(i).rank);
+        assertEquals(expected.get(i).score, results.scoredDocuments.get(i).score, 0.0000001);
+      }
+
+      // pipelined requests over the single connection
+      List<CompletableFuture<Object>> pending = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        pending.add(((RemoteRetrieval) remote).send(RemoteProtocol.EXECUTE_QUERY, new RemoteRetrieval.RequestWriter() {
+          @Override
+          public void write(DataOutputStream out) throws java.io.IOException {
+            RemoteProtocol.writeNode(out, query);
+            RemoteProtocol.writeParameters(out, Parameters.parseArray("requested", 10));
+          }
+        }));
+      }
+      for (CompletableFuture<Object> response : pending) {
+        List<ScoredDocument> pipelined = ((Results) response.get()).scoredDocuments;
+        assertEquals(expected.size(), pipelined.size());
+        assertEquals(expected.get(0).documentName, pipelined.get(0).documentName);
+      }
+
+      // asynchronous calls
+      AsyncRetrieval async = (AsyncRetrieval) remote;
+      CompletableFuture<Results> asyncResults = async.executeQueryAsync(query, qp);
+      CompletableFuture<NodeStatistics> asyncStats = async.getNodeStatisticsAsync(nodes.get(0));
+      CompletableFuture<Map<String, Document>> asyncDocuments = async.getDocumentsAsync(Arrays.asList("d-3", "d-4"), new Document.DocumentComponents(true, false, false));
+      assertEquals(expected.size(), asyncResults.get().scoredDocuments.size());
+      assertEquals(expected.get(0).documentName, asyncResults.get().scoredDocuments.get(0).documentName);
+      assertEquals(remoteStats.get(0).nodeFrequency, asyncStats.get().nodeFrequency);
+      assertEquals(2, asyncDocuments.get().size());
+      assertNotNull(asyncDocuments.get().get("d-3").text);
+
+      remote.close();
+
+      // a request that times out is dropped, and its late response skipped
+      final CountDownLatch release = new CountDownLatch(1);
+      Retrieval stalled = (Retrieval) Proxy.newProxyInstance(Retrieval.class.getClassLoader(), new Class<?>[]{Retrieval.class}, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          if (method.getName().equals("executeQuery")) {
+            release.await();
+          }
+          try {
+            return method.invoke(local, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        }
+      });
+      stalledServer = new RetrievalServer(stalled, Parameters.create());
+      remoteParams.set("index", "galago://localhost:" + stalledServer.getPort());
+      remoteParams.set("remoteTimeout", 100L);
+      RemoteRetrieval timed = (RemoteRetrieval) RetrievalFactory.create(remoteParams);
+      try {
+        timed.executeQuery(query, qp);
+        fail("the query should time out");
+      } catch (Exception e) {
+        // expected
+      }
+      assertEquals(0, timed.getPendingRequests());
+      release.countDown();
+      assertEquals(localLengths.documentCount, timed.getCollectionStatistics("#lengths:part=lengths()").documentCount);
+      assertEquals(expected.size(), timed.executeQuery(query, qp).scoredDocuments.size());
+      assertEquals(0, timed.getPendingRequests());
+      timed.close();
+      local.close();
+    } finally {
+      if (stalledServer != null) {
+        stalledServer.close();
+      }
+      if (server != null) {
+        server.close();
+      }
+      corpus.delete();
+      FSUtil.deleteDirectory(index);
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.retrieval;
+
+import org.junit.Test;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
+import org.lemurproject.galago.core.tools.App;
+import org.lemurproject.galago.core.tools.AppTest;
+import org.lemurproject.galago.core.tools.RetrievalServer;
+import org.lemurproject.galago.tupleflow.FileUtility;
+import org.lemurproject.galago.utility.FSUtil;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.StreamUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicatedRetrievalTest {
+
+  @Test(timeout = 120000)
+  public void testHedgedRequests() throws Exception {
+    File corpus = FileUtility.createTemporary();
+    File index = FileUtility.createTemporaryDirectory();
+    RetrievalServer fastServer = null;
+    RetrievalServer slowServer = null;
+    try {
+      StringBuilder c = new StringBuilder();
+      for (int i = 0; i < 20; i++) {
+        c.append(AppTest.trecDocument("d-" + i, "sample text w" + (i % 3) + " w" + (i % 5)));
+      }
+      StreamUtil.copyStringToFile(c.toString(), corpus);
+      Parameters p = Parameters.create();
+      p.set("inputPath", corpus.getAbsolutePath());
+      p.set("indexPath", index.getAbsolutePath());
+      App.run("build", p, System.out);
+
+      final LocalRetrieval local = new LocalRetrieval(index.getAbsolutePath(), Parameters.create());
+      // a replica that stalls every query until the end of the test
+      final CountDownLatch release = new CountDownLatch(1);
+      Retrieval slow = stalled(local, release, null, null);
+      fastServer = new RetrievalServer(local, Parameters.create());
+      slowServer = new RetrievalServer(slow, Parameters.create());
+
+      Parameters params = Parameters.create();
+      List<String> replicas = Arrays.asList("galago://localhost:" + slowServer.getPort(), "galago://localhost:" + fastServer.getPort());
+      params.set("index", Arrays.asList((Object) replicas));
+      params.set("hedgeDelay", 20L);
+      // a query that waited for the slow replica would not complete
+      params.set("remoteTimeout", 600000L);
+      ReplicatedRetrieval replicated = (ReplicatedRetrieval) RetrievalFactory.create(params);
+
+      // the replicas are unmeasured, so the first query goes to the slow one
+      Parameters qp = Parameters.create();
+      Node query = local.transformQuery(StructuredQuery.parse("#combine( w1 w2 )"), qp);
+      List<ScoredDocument> expected = local.executeQuery(query, qp).scoredDocuments;
+
+      for (int i = 0; i < 5; i++) {
+        List<ScoredDocument> results = replicated.executeQuery(query, qp).scoredDocuments;
+        assertEquals(expected.size(), results.size());
+        assertEquals(expected.get(0).documentName, results.get(0).documentName);
+      }
+      assertTrue(replicated.getHedgedRequestCount() >= 1);
+      List<ScoredDocument> async = replicated.executeQueryAsync(query, qp).get().scoredDocuments;
+      assertEquals(expected.size(), async.size());
+      release.countDown();
+      replicated.close();
+
+      // an unavailable replica fails over to the next
+      int unused;
+      try (ServerSocket socket = new ServerSocket(0)) {
+        unused = socket.getLocalPort();
+      }
+      params.set("index", Arrays.asList((Object) Arrays.asList("galago://localhost:" + unused, "galago://localhost:" + fastServer.getPort())));
+      Retrieval failover = RetrievalFactory.create(params);
+      assertEquals(expected.size(), failover.executeQuery(query, qp).scoredDocuments.size());
+      failover.close();
+    } finally {
+      if (fastServer != null) {
+        fastServer.close();
+      }
+      if (slowServer != null) {
+        slowServer.close();
+      }
+      corpus.delete();
+      FSUtil.deleteDirectory(index);
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testFailoverAndCancel() throws Exception {
+    File corpus = FileUtility.createTemporary();
+    File index = FileUtility.createTemporaryDirectory();
+    try {
+      StringBuilder c = new StringBuilder();
+      for (int i = 0; i < 20; i++) {
+        c.append(AppTest.trecDocument("d-" + i, "sample text w" + (i % 3) + " w" + (i % 5)));
+      }
+      StreamUtil.copyStringToFile(c.toString(), corpus);
+      App.run("build", Parameters.parseArray("inputPath", corpus.getAbsolutePath(), "indexPath", index.getAbsolutePath()), System.out);
+      LocalRetrieval local = new LocalRetrieval(index.getAbsolutePath(), Parameters.create());
+
+      // a replica that is down: every call fails
+      Retrieval down = (Retrieval) Proxy.newProxyInstance(Retrieval.class.getClassLoader(), new Class<?>[]{Retrieval.class}, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          if (method.getName().equals("close")) {
+            return null;
+          }
+          throw new IOException("replica is down");
+        }
+      });
+      ReplicatedRetrieval failover = new ReplicatedRetrieval(Arrays.asList(down, local), Parameters.create());
+      assertEquals(local.getGlobalParameters(), failover.getGlobalParameters());
+      assertTrue(failover.getTokenizer() != null);
+
+      // the slow replica is tried first; the query is hedged to the other
+      // replica. The losing request is local, so it is not interrupted: it
+      // runs to completion, and its index can still be queried.
+      LocalRetrieval losing = new LocalRetrieval(index.getAbsolutePath(), Parameters.create());
+      CountDownLatch release = new CountDownLatch(1);
+      CountDownLatch interrupted = new CountDownLatch(1);
+      CountDownLatch finished = new CountDownLatch(1);
+      Retrieval slow = stalled(losing, release, interrupted, finished);
+      ReplicatedRetrieval hedged = new ReplicatedRetrieval(Arrays.asList(slow, local), Parameters.parseArray("hedgeDelay", 1L));
+      Parameters qp = Parameters.create();
+      Node query = local.transformQuery(StructuredQuery.parse("#combine( w1 w2 )"), qp);
+      List<ScoredDocument> expected = local.executeQuery(query, qp).scoredDocuments;
+      assertEquals(expected.size(), hedged.executeQuery(query, qp).scoredDocuments.size());
+      assertEquals(1, hedged.getHedgedRequestCount());
+
+      release.countDown();
+      finished.await();
+      assertEquals(1, interrupted.getCount());
+      List<ScoredDocument> results = losing.executeQuery(query, qp).scoredDocuments;
+      assertEquals(expected.size(), results.size());
+      assertEquals(expected.get(0).documentName, results.get(0).documentName);
+
+      failover.close();
+      hedged.close();
+      losing.close();
+    } finally {
+      corpus.delete();
+      FSUtil.deleteDirectory(index);
+    }
+  }
+
+  /**
+   * A replica whose queries wait for the latch (e.g. a long garbage
+   * collection pause); interrupted queries count down the second latch, and
+   * queries that have returned or failed count down the third.
+   */
+  private static Retrieval stalled(final Retrieval replica, final CountDownLatch release, final CountDownLatch interrupted, final CountDownLatch finished) {
+    return (Retrieval) Proxy.newProxyInstance(Retrieval.class.getClassLoader(), new Class<?>[]{Retrieval.class}, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        boolean query = method.getName().equals("executeQuery");
+        try {
+          if (query) {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              if (interrupted != null) {
+                interrupted.countDown();
+              }
+              throw e;
+            }
+          }
+          if (method.getName().equals("close")) {
+            return null;
+          }
+          try {
+            return method.invoke(replica, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        } finally {
+          if (query && finished != null) {
+            finished.countDown();
+          }
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.retrieval.iterator;
+
+import org.junit.Test;
+import org.lemurproject.galago.core.retrieval.LocalRetrieval;
+import org.lemurproject.galago.core.retrieval.Results;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.ProfiledNode;
+import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
+import org.lemurproject.galago.core.tools.App;
+import org.lemurproject.galago.core.tools.AppTest;
+import org.lemurproject.galago.tupleflow.FileUtility;
+import org.lemurproject.galago.utility.FSUtil;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.StreamUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProfilingIteratorTest {
+
+  @Test
+  public void testProfile() throws Exception {
+    File corpus = FileUtility.createTemporary();
+    File index = FileUtility.createTemporaryDirectory();
+    try {
+      StringBuilder c = new StringBuilder();
+      for (int i = 0; i < 50; i++) {
+        StringBuilder data = new StringBuilder();
+        for (int j = 0; j < (i % 11) + 3; j++) {
+          data.append(" w").append((i * j) % 7);
+        }
+        c.append(AppTest.trecDocument("d-" + i, "sample text" + data.toString()));
+      }
+      StreamUtil.copyStringToFile(c.toString(), corpus);
+      App.run("build", Parameters.parseArray("inputPath", corpus.getAbsolutePath(), "indexPath", index.getAbsolutePath()), System.out);
+
+      LocalRetrieval retrieval = new LocalRetrieval(index.getAbsolutePath(), Parameters.create());
+      Node query = retrieval.transformQuery(StructuredQuery.parse("#combine( #od:1( w1 w2 ) w3 sample )"), Parameters.create());
+
+      for (String model : new String[]{"rankeddocument", "maxscore"}) {
+        Results plain = retrieval.executeQuery(query, Parameters.parseArray("requested", 10, "processingModel", model));
+        Results profiled = retrieval.executeQuery(query, Parameters.parseArray("requested", 10, "processingModel", model, "profile", true));
+        assertNull(plain.profile);
+        assertNotNull(profiled.profile);
+
+        // profiling does not change the ranking
+        assertEquals(plain.scoredDocuments.size(), profiled.scoredDocuments.size());
+        for (int i = 0; i < plain.scoredDocuments.size(); i++) {
+          assertEquals(plain.scoredDocuments.get(i).document, profiled.scoredDocuments.get(i).document);
+          assertEquals(plain.scoredDocuments.get(i).score, profiled.scoredDocuments.get(i).score, 0.0);
+        }
+
+        ProfiledNode root = profiled.profile;
+        assertEquals("query", root.operator);
+        assertTrue(root.nanos > 0);
+        assertTrue(!root.children.isEmpty());
+
+        boolean foundWindow = false;
+        boolean foundPostings = false;
+        for (ProfiledNode node : root.flatten()) {
+          if (node.operator.equals("od")) {
+            foundWindow = true;
+            assertEquals(2, node.children.size());
+            assertTrue(node.syncToCalls + node.movePastCalls > 0);
+            assertTrue(node.extents > 0);
+          }
+          if (node.operator.equals("extents") && node.postings > 0) {
+            foundPostings = true;
+          }
+        }
+        assertTrue(foundWindow);
+        assertTrue(foundPostings);
+        assertTrue(root.toString().contains("#od"));
+        assertTrue(root.toJSON().getList("children", Parameters.class).size() > 0);
+      }
+
+      // debug-query renders the tree
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      App.run("debug-query", Parameters.parseArray("index", index.getAbsolutePath(), "query", "#combine( #od:1( w1 w2 ) w3 )", "profile", true), new PrintStream(out));
+      Parameters output = Parameters.parseString(out.toString("UTF-8"));
+      assertTrue(output.isMap("profile"));
+      assertTrue(output.getMap("profile").getList("children", Parameters.class).size() > 0);
+
+      retrieval.close();
+    } finally {
+      corpus.delete();
+      FSUtil.deleteDirectory(index);
+    }
+  }
+}
@@ -5,6 +5,7 @@ import org.junit.Test;
 import org.lemurproject.galago.core.retrieval.LocalRetrieval;
 import org.lemurproject.galago.core.retrieval.LocalRetrievalTest;
 import org.lemurproject.galago.core.retrieval.Results;
+import org.lemurproject.galago.core.retrieval.processing.BatchScoreDocumentModel;
 import org.lemurproject.galago.core.retrieval.processing.MaxScoreDocumentModel;
 import org.lemurproject.galago.core.retrieval.processing.RankedDocumentModel;
 import org.lemurproject.galago.core.retrieval.query.Node;
@@ -60,10 +61,19 @@ public class BM25ScorerTest {
     assertEquals(50.0, scorer.avgDocLength, 0.001);
     assertEquals(1.58474, scorer.idf, 0.0001);
     assertEquals(3.79327, scorer.score(15, 200), 0.0001);
+
+    // the batch path must agree with the single-pair path
+    int[] counts = new int[]{0, 1, 15, 12, 5};
+    int[] lengths = new int[]{10, 1, 200, 85, 100};
+    double[] scores = new double[counts.length];
+    scorer.score(counts, lengths, scores, counts.length);
+    for (int i = 0; i < counts.length; i++) {
+      assertEquals(scorer.score(counts[i], lengths[i]), scores[i], 0.000001);
+    }
   }
 
   /**
-   * This test tests bm25 scores against past performance under both ranked document and maxscore models.
+   * This test tests bm25 scores against past performance under both ranked document maxscore and batchscore models.
    * @throws Exception
    */
   @Test
@@ -72,7 +82,7 @@ public class BM25ScorerTest {
     File trecCorpusFile = files[0];
     File indexFile = files[2];
 
-    for (String processingModel : Arrays.asList("rankeddocument", "maxscore")) {
+    for (String processingModel : Arrays.asList("rankeddocument", "maxscore", "batchscore")) {
       LocalRetrieval loc = new LocalRetrieval(indexFile.getAbsolutePath());
       Parameters qp = Parameters.create();
       qp.put("scorer", "bm25");
@@ -95,6 +105,9 @@ public class BM25ScorerTest {
         case "maxscore":
           assertEquals(MaxScoreDocumentModel.class, results.processingModel);
           break;
+        case "batchscore":
+          assertEquals(BatchScoreDocumentModel.class, results.processingModel);
+          break;
         default: throw new AssertionError("Bad processing model:"+processingModel);
       }
       Map<String, Double> actualScores = results.asDocumentFeatures();
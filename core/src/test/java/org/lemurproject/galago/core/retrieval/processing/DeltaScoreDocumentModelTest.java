@@ -105,6 +105,89 @@ public class DeltaScoreDocumentModelTest {
     }
   }
 
+  @Test
+  public void testBatchScore() throws Exception {
+    File corpus = FileUtility.createTemporary();
+    File index = FileUtility.createTemporaryDirectory();
+    try {
+      makeIndex(corpus, index);
+
+      Parameters globals = Parameters.create();
+      LocalRetrieval ret = new LocalRetrieval(index.getAbsolutePath(), globals);
+
+      for (String scorer : new String[]{"dirichlet", "bm25", "jm"}) {
+        Parameters queryParams = Parameters.create();
+        queryParams.set("requested", 10);
+        queryParams.set("scorer", scorer);
+        // small blocks force many windows over the 100 document collection
+        queryParams.set("blockSize", 7);
+
+        Node query = StructuredQuery.parse("#combine( test text 0 1 2 3 4 90 90 )");
+        query = ret.transformQuery(query, queryParams);
+
+        BatchScoreDocumentModel batchModel = new BatchScoreDocumentModel(ret);
+        ScoredDocument[] batchResults = batchModel.execute(query, queryParams);
+
+        RankedDocumentModel safeModel = new RankedDocumentModel(ret);
+        ScoredDocument[] safeResults = safeModel.execute(query, queryParams);
+
+        assertEquals(safeResults.length, batchResults.length);
+        for (int i = 0; i < safeResults.length; ++i) {
+          assertEquals(safeResults[i].document, batchResults[i].document);
+          assertEquals(safeResults[i].score, batchResults[i].score, 0.00001);
+        }
+      }
+    } finally {
+      corpus.delete();
+      FSUtil.deleteDirectory(index);
+    }
+  }
+
+  @Test
+  public void testTermAtATime() throws Exception {
+    File corpus = FileUtility.createTemporary();
+    File index = FileUtility.createTemporaryDirectory();
+    try {
+      makeIndex(corpus, index);
+
+      Parameters globals = Parameters.create();
+      LocalRetrieval ret = new LocalRetrieval(index.getAbsolutePath(), globals);
+
+      for (String scorer : new String[]{"dirichlet", "bm25", "jm"}) {
+        // dense and paged accumulators
+        for (long denseLimit : new long[]{1L << 24, 10L}) {
+          Parameters queryParams = Parameters.create();
+          queryParams.set("requested", 10);
+          queryParams.set("scorer", scorer);
+          queryParams.set("taatDenseLimit", denseLimit);
+
+          Node query = StructuredQuery.parse("#combine( text 1 90 )");
+          query = ret.transformQuery(query, queryParams);
+
+          TermAtATimeDocumentModel taatModel = new TermAtATimeDocumentModel(ret);
+          ScoredDocument[] taatResults = taatModel.execute(query, queryParams);
+          // accumulators are reused by the next query on this thread
+          ScoredDocument[] repeatResults = taatModel.execute(query, queryParams);
+
+          RankedDocumentModel safeModel = new RankedDocumentModel(ret);
+          ScoredDocument[] safeResults = safeModel.execute(query, queryParams);
+
+          assertEquals(safeResults.length, taatResults.length);
+          assertEquals(safeResults.length, repeatResults.length);
+          for (int i = 0; i < safeResults.length; ++i) {
+            assertEquals(safeResults[i].document, taatResults[i].document);
+            assertEquals(safeResults[i].score, taatResults[i].score, 0.0001);
+            assertEquals(taatResults[i].document, repeatResults[i].document);
+            assertEquals(taatResults[i].score, repeatResults[i].score, 0.0);
+          }
+        }
+      }
+    } finally {
+      corpus.delete();
+      FSUtil.deleteDirectory(index);
+    }
+  }
+
   private void makeIndex(File corpus, File index) throws Exception {
     StringBuilder c = new StringBuilder();
     for (int i = 0; i < 100; i++) {
@@ -0,0 +1,118 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.retrieval.processing;
+
+import org.junit.Test;
+import org.lemurproject.galago.core.index.disk.DocumentPriorReader;
+import org.lemurproject.galago.core.parse.PriorOrderedDocumentNumberer;
+import org.lemurproject.galago.core.retrieval.LocalRetrieval;
+import org.lemurproject.galago.core.retrieval.ScoredDocument;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.ProfiledNode;
+import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
+import org.lemurproject.galago.core.tools.App;
+import org.lemurproject.galago.core.tools.AppTest;
+import org.lemurproject.galago.tupleflow.FileUtility;
+import org.lemurproject.galago.utility.FSUtil;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.StreamUtil;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PriorOrderedDocumentModelTest {
+
+  @Test
+  public void testPriorOrderedIndex() throws Exception {
+    File corpus = FileUtility.createTemporary();
+    File priors = FileUtility.createTemporary();
+    File index = FileUtility.createTemporaryDirectory();
+    try {
+      StringBuilder c = new StringBuilder();
+      StringBuilder p = new StringBuilder();
+      for (int i = 0; i < 100; i++) {
+        StringBuilder data = new StringBuilder();
+        for (int j = 0; j < (i % 13) + 5; j++) {
+          data.append(" w").append(j % ((i % 7) + 2));
+        }
+        c.append(AppTest.trecDocument("d-" + i, "Test text" + data.toString()));
+        // the last ten documents have no prior
+        if (i < 90) {
+          p.append("d-").append(i).append("\t").append(-((i * 37) % 90) / 10.0).append("\n");
+        }
+      }
+      StreamUtil.copyStringToFile(c.toString(), corpus);
+      StreamUtil.copyStringToFile(p.toString(), priors);
+
+      Parameters numberer = Parameters.create();
+      numberer.set("class", PriorOrderedDocumentNumberer.class.getName());
+      numberer.set("priorPath", priors.getAbsolutePath());
+
+      Parameters buildParams = Parameters.create();
+      buildParams.set("inputPath", corpus.getAbsolutePath());
+      buildParams.set("indexPath", index.getAbsolutePath());
+      buildParams.set("numberer", numberer);
+      App.run("build", buildParams, System.out);
+
+      Parameters priorParams = Parameters.create();
+      priorParams.set("indexPath", index.getAbsolutePath());
+      priorParams.set("inputPath", priors.getAbsolutePath());
+      priorParams.set("type", "prior");
+      priorParams.set("partName", "prior");
+      priorParams.set("default", -20.0);
+      App.run("build-special", priorParams, System.out);
+
+      LocalRetrieval ret = new LocalRetrieval(index.getAbsolutePath(), Parameters.create());
+
+      // document d-0 has the highest prior (0.0), documents without priors come last
+      assertEquals(0L, (long) ret.getDocumentId("d-0"));
+      assertTrue(ret.getDocumentId("d-95") >= 90);
+      DocumentPriorReader priorReader = (DocumentPriorReader) ret.getIndex().getIndexPart("prior");
+      assertTrue(priorReader.isDescending());
+
+      for (String weight : new String[]{"0.1", "1", "10"}) {
+        Parameters queryParams = Parameters.create();
+        queryParams.set("requested", 5);
+        Node query = StructuredQuery.parse("#combine:0=" + weight + "( #prior:part=prior() w1 w5 )");
+        query = ret.transformQuery(query, queryParams);
+
+        ScoredDocument[] priorResults = new PriorOrderedDocumentModel(ret).execute(query, queryParams);
+        ScoredDocument[] safeResults = new RankedDocumentModel(ret).execute(query, queryParams);
+
+        assertEquals(safeResults.length, priorResults.length);
+        for (int i = 0; i < safeResults.length; ++i) {
+          assertEquals(safeResults[i].document, priorResults[i].document);
+          assertEquals(safeResults[i].score, priorResults[i].score, 0.00001);
+        }
+
+        // count the documents each model moves the root past
+        long safeScored = scoredDocuments(ret, query, queryParams, "rankeddocument");
+        long priorScored = scoredDocuments(ret, query, queryParams, "priorordered");
+        assertTrue(priorScored <= safeScored);
+        if (weight.equals("10")) {
+          // the prior dominates, so processing stops early
+          assertTrue(priorScored + " of " + safeScored, priorScored < safeScored / 2);
+        }
+      }
+    } finally {
+      corpus.delete();
+      priors.delete();
+      FSUtil.deleteDirectory(index);
+    }
+  }
+
+  private static long scoredDocuments(LocalRetrieval ret, Node query, Parameters queryParams, String processingModel) throws Exception {
+    Parameters p = queryParams.clone();
+    p.set("processingModel", processingModel);
+    p.set("profile", true);
+    for (ProfiledNode node : ret.executeQuery(query, p).profile.flatten()) {
+      if (node.operator.equals("combine")) {
+        return node.movePastCalls;
+      }
+    }
+    throw new AssertionError("no profile of the root node");
+  }
+}
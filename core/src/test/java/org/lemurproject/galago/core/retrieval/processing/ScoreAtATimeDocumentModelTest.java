@@ -0,0 +1,105 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.retrieval.processing;
+
+import org.junit.Test;
+import org.lemurproject.galago.core.retrieval.LocalRetrieval;
+import org.lemurproject.galago.core.retrieval.ScoredDocument;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
+import org.lemurproject.galago.core.tools.App;
+import org.lemurproject.galago.core.tools.AppTest;
+import org.lemurproject.galago.tupleflow.FileUtility;
+import org.lemurproject.galago.utility.FSUtil;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.StreamUtil;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScoreAtATimeDocumentModelTest {
+
+  @Test
+  public void testScoreAtATime() throws Exception {
+    File corpus = FileUtility.createTemporary();
+    File index = FileUtility.createTemporaryDirectory();
+    try {
+      makeIndex(corpus, index);
+
+      for (String scorer : new String[]{"bm25", "dirichlet"}) {
+        Parameters p = Parameters.create();
+        p.set("indexPath", index.getAbsolutePath());
+        p.set("partName", "impacts." + scorer);
+        p.set("scorer", scorer);
+        p.set("impactOrdered", true);
+        App.run("build-impacts", p, System.out);
+      }
+
+      LocalRetrieval ret = new LocalRetrieval(index.getAbsolutePath(), Parameters.create());
+
+      for (String scorer : new String[]{"bm25", "dirichlet"}) {
+        String part = "impacts." + scorer;
+        Parameters queryParams = Parameters.create();
+        queryParams.set("requested", 10);
+        Node query = StructuredQuery.parse("#combine:0=2( #impacts:text:part=" + part + "() #impacts:w1:part=" + part + "() #impacts:w50:part=" + part + "() #impacts:missing:part=" + part + "() )");
+        query = ret.transformQuery(query, queryParams);
+
+        ScoredDocument[] safeResults = new RankedDocumentModel(ret).execute(query, queryParams);
+        ScoreAtATimeDocumentModel model = new ScoreAtATimeDocumentModel(ret);
+        ScoredDocument[] saatResults = model.execute(query, queryParams);
+        long totalPostings = model.scoredPostings;
+        assertTrue(totalPostings > 5);
+
+        assertEquals(safeResults.length, saatResults.length);
+        for (int i = 0; i < safeResults.length; ++i) {
+          assertEquals(safeResults[i].score, saatResults[i].score, 0.00001);
+          // documents with (near) equal scores may be ordered differently
+          if (i + 1 >= safeResults.length || safeResults[i].score - safeResults[i + 1].score > 0.00001) {
+            if (i == 0 || safeResults[i - 1].score - safeResults[i].score > 0.00001) {
+              assertEquals(safeResults[i].document, saatResults[i].document);
+            }
+          }
+        }
+
+        // anytime termination: a tiny budget still returns the top segment
+        queryParams.set("postingBudget", 5);
+        ScoredDocument[] partialResults = model.execute(query, queryParams);
+        assertEquals(5, model.scoredPostings);
+        assertTrue(partialResults.length > 0);
+        assertTrue(partialResults.length <= 5);
+
+        // the pooled accumulator is cleared: the full query scores the same again
+        queryParams.remove("postingBudget");
+        ScoredDocument[] repeatedResults = model.execute(query, queryParams);
+        assertEquals(totalPostings, model.scoredPostings);
+        assertEquals(saatResults.length, repeatedResults.length);
+        for (int i = 0; i < saatResults.length; ++i) {
+          assertEquals(saatResults[i].score, repeatedResults[i].score, 0.0);
+        }
+      }
+    } finally {
+      corpus.delete();
+      FSUtil.deleteDirectory(index);
+    }
+  }
+
+  private void makeIndex(File corpus, File index) throws Exception {
+    StringBuilder c = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      StringBuilder data = new StringBuilder();
+      for (int j = 0; j < (i + 10); j++) {
+        data.append(" w").append(j % (i + 3));
+      }
+      c.append(AppTest.trecDocument("d-" + i, "Test text" + data.toString()));
+    }
+    StreamUtil.copyStringToFile(c.toString(), corpus);
+
+    Parameters p = Parameters.create();
+    p.set("inputPath", corpus.getAbsolutePath());
+    p.set("indexPath", index.getAbsolutePath());
+    App.run("build", p, System.out);
+  }
+}
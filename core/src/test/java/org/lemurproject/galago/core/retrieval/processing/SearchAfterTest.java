@@ -0,0 +1,174 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.retrieval.processing;
+
+import org.junit.Test;
+import org.lemurproject.galago.core.retrieval.LocalRetrieval;
+import org.lemurproject.galago.core.retrieval.MultiRetrieval;
+import org.lemurproject.galago.core.retrieval.Retrieval;
+import org.lemurproject.galago.core.retrieval.RetrievalFactory;
+import org.lemurproject.galago.core.retrieval.ScoredDocument;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
+import org.lemurproject.galago.core.tools.App;
+import org.lemurproject.galago.core.tools.AppTest;
+import org.lemurproject.galago.tupleflow.FileUtility;
+import org.lemurproject.galago.utility.FSUtil;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.StreamUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SearchAfterTest {
+
+  @Test
+  public void testCursor() {
+    ScoredDocument d = new ScoredDocument(42, -3.1234567890123);
+    d.shard = 1;
+    d.rank = 17;
+    SearchAfter after = SearchAfter.parse(SearchAfter.toCursor(d));
+    assertEquals(d.score, after.score, 0.0);
+    assertEquals(1, after.shard);
+    assertEquals(42, after.document);
+    assertEquals(17, after.rank);
+
+    assertTrue(after.accepts(-4.0, 1));
+    assertTrue(after.accepts(-4.0, 42));
+    assertTrue(after.accepts(d.score, 43));
+    assertTrue(!after.accepts(d.score, 41));
+    assertTrue(!after.accepts(d.score, 42));
+    assertTrue(!after.accepts(-3.0, 100));
+
+    // equal scores are ordered by shard
+    assertTrue(!after.forShard(0).accepts(d.score, 100));
+    assertTrue(after.forShard(0).accepts(-4.0, 42));
+    assertTrue(after.forShard(1).accepts(d.score, 43));
+    assertTrue(!after.forShard(1).accepts(d.score, 42));
+    assertTrue(after.forShard(2).accepts(d.score, 0));
+    assertTrue(after.forShard(2).accepts(d.score, 42));
+    assertTrue(!after.forShard(2).accepts(-3.0, 42));
+  }
+
+  @Test
+  public void testPaging() throws Exception {
+    File corpus = FileUtility.createTemporary();
+    File index = FileUtility.createTemporaryDirectory();
+    try {
+      StringBuilder c = new StringBuilder();
+      for (int i = 0; i < 100; i++) {
+        StringBuilder data = new StringBuilder();
+        for (int j = 0; j < (i % 13) + 5; j++) {
+          data.append(" w").append((i + j) % 7);
+        }
+        c.append(AppTest.trecDocument("d-" + i, "text" + data.toString()));
+      }
+      StreamUtil.copyStringToFile(c.toString(), corpus);
+      App.run("build", Parameters.parseArray("inputPath", corpus.getAbsolutePath(), "indexPath", index.getAbsolutePath()), System.out);
+
+      LocalRetrieval ret = new LocalRetrieval(index.getAbsolutePath(), Parameters.create());
+      Node query = ret.transformQuery(StructuredQuery.parse("#combine( w1 w3 text )"), Parameters.create());
+
+      for (ProcessingModel model : new ProcessingModel[]{new RankedDocumentModel(ret), new MaxScoreDocumentModel(ret)}) {
+        ScoredDocument[] deep = model.execute(query, Parameters.parseArray("requested", 60));
+
+        // walk pages of 7 with the cursor of the previous page
+        List<ScoredDocument> paged = new ArrayList<>();
+        String cursor = null;
+        while (paged.size() < deep.length) {
+          Parameters qp = Parameters.parseArray("requested", 7);
+          if (cursor != null) {
+            qp.set("searchAfter", cursor);
+          }
+          ScoredDocument[] page = model.execute(query, qp);
+          assertTrue(page != null && page.length > 0);
+          for (ScoredDocument sd : page) {
+            paged.add(sd);
+          }
+          cursor = SearchAfter.toCursor(page[page.length - 1]);
+        }
+
+        for (int i = 0; i < deep.length; i++) {
+          assertEquals(deep[i].document, paged.get(i).document);
+          assertEquals(deep[i].score, paged.get(i).score, 0.00001);
+        }
+      }
+      ret.close();
+    } finally {
+      corpus.delete();
+      FSUtil.deleteDirectory(index);
+    }
+  }
+
+  @Test
+  public void testMultiShardPaging() throws Exception {
+    File corpus1 = FileUtility.createTemporary();
+    File corpus2 = FileUtility.createTemporary();
+    File index1 = FileUtility.createTemporaryDirectory();
+    File index2 = FileUtility.createTemporaryDirectory();
+    try {
+      // the same texts in both shards: every score ties across the shards,
+      // and tied documents have the same internal number in each shard.
+      StringBuilder c1 = new StringBuilder();
+      StringBuilder c2 = new StringBuilder();
+      for (int i = 0; i < 40; i++) {
+        StringBuilder data = new StringBuilder();
+        for (int j = 0; j < (i % 5) + 3; j++) {
+          data.append(" w").append((i + j) % 4);
+        }
+        c1.append(AppTest.trecDocument("a-" + i, "text" + data.toString()));
+        c2.append(AppTest.trecDocument("b-" + i, "text" + data.toString()));
+      }
+      StreamUtil.copyStringToFile(c1.toString(), corpus1);
+      StreamUtil.copyStringToFile(c2.toString(), corpus2);
+      App.run("build", Parameters.parseArray("inputPath", corpus1.getAbsolutePath(), "indexPath", index1.getAbsolutePath()), System.out);
+      App.run("build", Parameters.parseArray("inputPath", corpus2.getAbsolutePath(), "indexPath", index2.getAbsolutePath()), System.out);
+
+      Parameters p = Parameters.create();
+      p.set("index", Arrays.asList(index1.getAbsolutePath(), index2.getAbsolutePath()));
+      Retrieval ret = RetrievalFactory.create(p);
+      assertTrue(ret instanceof MultiRetrieval);
+      Node query = ret.transformQuery(StructuredQuery.parse("#combine( w1 w3 )"), Parameters.create());
+
+      List<ScoredDocument> deep = ret.executeQuery(query, Parameters.parseArray("requested", 80)).scoredDocuments;
+      assertEquals(80, deep.size());
+
+      // walk pages of 7 with the cursor of the previous page
+      List<ScoredDocument> paged = new ArrayList<>();
+      String cursor = null;
+      while (paged.size() < deep.size()) {
+        Parameters qp = Parameters.parseArray("requested", 7);
+        if (cursor != null) {
+          qp.set("searchAfter", cursor);
+        }
+        List<ScoredDocument> page = ret.executeQuery(query, qp).scoredDocuments;
+        assertTrue(!page.isEmpty());
+        paged.addAll(page);
+        cursor = SearchAfter.toCursor(page.get(page.size() - 1));
+      }
+
+      assertEquals(deep.size(), paged.size());
+      Set<String> seen = new HashSet<>();
+      for (int i = 0; i < deep.size(); i++) {
+        assertEquals(deep.get(i).documentName, paged.get(i).documentName);
+        assertEquals(deep.get(i).score, paged.get(i).score, 0.00001);
+        assertEquals(i + 1, paged.get(i).rank);
+        assertTrue(seen.add(paged.get(i).documentName));
+      }
+      ret.close();
+    } finally {
+      corpus1.delete();
+      corpus2.delete();
+      FSUtil.deleteDirectory(index1);
+      FSUtil.deleteDirectory(index2);
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.tools.apps;
+
+import org.junit.Test;
+import org.lemurproject.galago.core.index.stats.FieldStatistics;
+import org.lemurproject.galago.core.index.stats.GlobalStatisticsReader;
+import org.lemurproject.galago.core.index.stats.NodeStatistics;
+import org.lemurproject.galago.core.retrieval.LocalRetrieval;
+import org.lemurproject.galago.core.retrieval.Retrieval;
+import org.lemurproject.galago.core.retrieval.RetrievalFactory;
+import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
+import org.lemurproject.galago.core.tools.App;
+import org.lemurproject.galago.core.tools.AppTest;
+import org.lemurproject.galago.tupleflow.FileUtility;
+import org.lemurproject.galago.utility.FSUtil;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.StreamUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BuildGlobalStatisticsTest {
+
+  @Test
+  public void testGlobalStatistics() throws Exception {
+    File corpus1 = FileUtility.createTemporary();
+    File corpus2 = FileUtility.createTemporary();
+    File index1 = FileUtility.createTemporaryDirectory();
+    File index2 = FileUtility.createTemporaryDirectory();
+    File stats = FileUtility.createTemporary();
+    File other = FileUtility.createTemporaryDirectory();
+    try {
+      StreamUtil.copyStringToFile(AppTest.trecDocument("i1-1", "this is a sample document")
+              + AppTest.trecDocument("i1-2", "sample document two"), corpus1);
+      StreamUtil.copyStringToFile(AppTest.trecDocument("i2-1", "this is a sample sample also a document")
+              + AppTest.trecDocument("i2-2", "another document four long zebra"), corpus2);
+      App.run("build", Parameters.parseArray("inputPath", corpus1.getAbsolutePath(), "indexPath", index1.getAbsolutePath()), System.out);
+      App.run("build", Parameters.parseArray("inputPath", corpus2.getAbsolutePath(), "indexPath", index2.getAbsolutePath()), System.out);
+
+      Parameters p = Parameters.create();
+      p.set("index", Arrays.asList(index1.getAbsolutePath(), index2.getAbsolutePath()));
+      p.set("outputPath", stats.getAbsolutePath());
+      App.run("build-global-stats", p, new PrintStream(new ByteArrayOutputStream()));
+
+      Retrieval multi = RetrievalFactory.create(Parameters.parseArray("index", Arrays.asList(index1.getAbsolutePath(), index2.getAbsolutePath())));
+
+      // the file matches the merged statistics
+      GlobalStatisticsReader reader = new GlobalStatisticsReader(stats.getAbsolutePath());
+      // inflected terms are stemmed as the part's reader would
+      for (String term : Arrays.asList("sample", "document", "zebra", "two", "documents", "samples")) {
+        NodeStatistics expected = multi.getNodeStatistics(StructuredQuery.parse("#counts:" + term + ":part=postings.krovetz()"));
+        NodeStatistics global = reader.getNodeStatistics("postings.krovetz", term);
+        assertEquals(expected.nodeFrequency, global.nodeFrequency);
+        assertEquals(expected.nodeDocumentCount, global.nodeDocumentCount);
+        assertEquals(expected.maximumCount, global.maximumCount);
+      }
+      assertTrue(reader.getNodeStatistics("postings.krovetz", "documents").nodeFrequency > 0);
+      assertNull(reader.getNodeStatistics("postings.krovetz", "missing"));
+      assertNull(reader.getNodeStatistics("unknown-part", "sample"));
+
+      FieldStatistics expectedField = multi.getCollectionStatistics("#lengths:document:part=lengths()");
+      FieldStatistics globalField = reader.getFieldStatistics("document");
+      assertEquals(expectedField.collectionLength, globalField.collectionLength);
+      assertEquals(expectedField.documentCount, globalField.documentCount);
+      assertEquals(expectedField.maxLength, globalField.maxLength);
+      reader.close();
+
+      // each shard annotates queries with the global statistics
+      Parameters qp = Parameters.create();
+      String expected = multi.transformQuery(StructuredQuery.parse("#combine( samples documents zebra missing )"), qp).toString();
+      for (File index : Arrays.asList(index1, index2)) {
+        Parameters shardParams = Parameters.create();
+        shardParams.set("globalStatsPath", stats.getAbsolutePath());
+        LocalRetrieval shard = new LocalRetrieval(index.getAbsolutePath(), shardParams);
+        assertEquals(expected, shard.transformQuery(StructuredQuery.parse("#combine( samples documents zebra missing )"), Parameters.create()).toString());
+        shard.close();
+      }
+
+      // shared readers stay open until the last user closes them
+      GlobalStatisticsReader first = GlobalStatisticsReader.open(stats.getAbsolutePath());
+      GlobalStatisticsReader second = GlobalStatisticsReader.open(stats.getAbsolutePath());
+      assertSame(first, second);
+      first.close();
+      assertEquals(4L, second.getFieldStatistics("document").documentCount);
+      second.close();
+      GlobalStatisticsReader third = GlobalStatisticsReader.open(stats.getAbsolutePath());
+      assertNotSame(first, third);
+      third.close();
+
+      // statistics of other shards are rejected
+      StreamUtil.copyStringToFile(AppTest.trecDocument("o-1", "a different collection entirely"), corpus1);
+      App.run("build", Parameters.parseArray("inputPath", corpus1.getAbsolutePath(), "indexPath", other.getAbsolutePath()), System.out);
+      Parameters otherParams = Parameters.create();
+      otherParams.set("globalStatsPath", stats.getAbsolutePath());
+      try {
+        new LocalRetrieval(other.getAbsolutePath(), otherParams);
+        fail("statistics of other shards should be rejected");
+      } catch (RuntimeException e) {
+        Throwable cause = e;
+        while (!(cause instanceof IllegalArgumentException)) {
+          cause = cause.getCause();
+        }
+        assertTrue(cause.getMessage().contains("not built from this index"));
+      }
+      multi.close();
+    } finally {
+      corpus1.delete();
+      corpus2.delete();
+      stats.delete();
+      FSUtil.deleteDirectory(index1);
+      FSUtil.deleteDirectory(index2);
+      FSUtil.deleteDirectory(other);
+    }
+  }
+}
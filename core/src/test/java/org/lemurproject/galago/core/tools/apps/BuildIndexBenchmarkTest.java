@@ -0,0 +1,101 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.tools.apps;
+
+import org.junit.Test;
+import org.lemurproject.galago.core.util.SyntheticCorpus;
+import org.lemurproject.galago.tupleflow.FileUtility;
+import org.lemurproject.galago.utility.FSUtil;
+import org.lemurproject.galago.utility.Parameters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BuildIndexBenchmarkTest {
+
+  @Test
+  public void testSyntheticBenchmark() throws Exception {
+    Parameters p = Parameters.create();
+    p.set("benchmark", true);
+    p.set("benchmarkDocuments", 200);
+    p.set("benchmarkVocabulary", 1000);
+    p.set("distrib", 2);
+    p.set("corpus", false);
+    p.set("stemmedPostings", false);
+
+    Parameters report = BuildIndex.benchmark(p, new PrintStream(new ByteArrayOutputStream()));
+    assertEquals("synthetic", report.getString("corpus"));
+    assertEquals(200, report.getLong("documents"));
+    assertTrue(report.getDouble("documentsPerSecond") > 0.0);
+
+    Parameters stages = report.getMap("stages");
+    Parameters parse = stages.getMap("parsePostings");
+    assertEquals(2, parse.getLong("instances"));
+    assertTrue(parse.getDouble("wallSeconds") > 0.0);
+    assertTrue(parse.containsKey("cpuSeconds"));
+    assertTrue(parse.containsKey("cpuUtilization"));
+
+    Set<String> parseSteps = new HashSet<>();
+    for (Parameters step : parse.getList("steps", Parameters.class)) {
+      parseSteps.add(step.getString("step"));
+      assertTrue(step.getLong("tuples") >= 0);
+      assertTrue(step.getDouble("seconds") <= step.getDouble("inclusiveSeconds") + 1e-9);
+      assertTrue(step.containsKey("bytesSpilled"));
+      assertTrue(step.containsKey("documentsPerSecond"));
+      if (step.getString("step").equals("TagTokenizer")) {
+        assertEquals(200, step.getLong("tuples"));
+      }
+    }
+    assertTrue(parseSteps.contains("UniversalParser"));
+    assertTrue(parseSteps.contains("TagTokenizer"));
+    assertTrue(parseSteps.contains("NumberedPostingsPositionExtractor"));
+    assertTrue(parseSteps.contains("Sorter"));
+
+    Set<String> writeSteps = new HashSet<>();
+    for (Parameters step : stages.getMap("writePostings").getList("steps", Parameters.class)) {
+      writeSteps.add(step.getString("step"));
+    }
+    assertTrue(writeSteps.contains("PositionIndexWriter"));
+  }
+
+  @Test
+  public void testSampledBenchmark() throws Exception {
+    File input = FileUtility.createTemporaryDirectory();
+    File index = FileUtility.createTemporaryDirectory();
+    File reportFile = FileUtility.createTemporary();
+    try {
+      SyntheticCorpus corpus = new SyntheticCorpus(500);
+      for (int i = 0; i < 4; i++) {
+        corpus.writeTrecText(new File(input, "part-" + i + ".trectext"), i * 10, 10, 10, 20);
+      }
+
+      Parameters p = Parameters.create();
+      p.set("benchmark", true);
+      p.set("inputPath", input.getAbsolutePath());
+      p.set("indexPath", index.getAbsolutePath());
+      p.set("benchmarkSample", 0.5);
+      p.set("benchmarkReport", reportFile.getAbsolutePath());
+      (new BuildIndex()).run(p, new PrintStream(new ByteArrayOutputStream()));
+
+      Parameters report = Parameters.parseFile(reportFile);
+      assertEquals("sample", report.getString("corpus"));
+      assertEquals(2, report.getLong("inputFiles"));
+      assertEquals(20, report.getLong("documents"));
+      // the index is kept when its path is given
+      assertTrue(new File(index, "postings").exists());
+      assertFalse(report.getMap("stages").isEmpty());
+    } finally {
+      FSUtil.deleteDirectory(input);
+      FSUtil.deleteDirectory(index);
+      reportFile.delete();
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ *  BSD License (http://lemurproject.org/galago-license)
+ */
+package org.lemurproject.galago.core.tools.apps;
+
+import org.junit.Test;
+import org.lemurproject.galago.core.tools.AppTest;
+import org.lemurproject.galago.tupleflow.FileUtility;
+import org.lemurproject.galago.utility.FSUtil;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.StreamUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoadTestFnTest {
+
+  @Test
+  public void testClosedAndOpenLoop() throws Exception {
+    File input = FileUtility.createTemporary();
+    File queries = FileUtility.createTemporary();
+    File report = FileUtility.createTemporary();
+    File index = FileUtility.createTemporaryDirectory();
+    try {
+      makeIndex(input, index);
+
+      List<Parameters> queryList = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        Parameters q = Parameters.create();
+        q.set("number", "q" + i);
+        q.set("text", "#combine( t" + i + " t" + (i * 7 % 100) + " )");
+        queryList.add(q);
+      }
+      StringBuilder tsv = new StringBuilder();
+      for (Parameters q : queryList) {
+        tsv.append(q.getString("number")).append('\t').append(q.getString("text")).append('\n');
+      }
+      StreamUtil.copyStringToFile(tsv.toString(), queries);
+
+      // closed loop, two models, report to a file
+      Parameters p = Parameters.create();
+      p.set("index", index.getAbsolutePath());
+      p.set("queries", queryList);
+      p.set("processingModels", Arrays.asList("rankeddocument", "maxscore"));
+      p.set("concurrency", 2);
+      p.set("expectedInterval", 1);
+      p.set("requested", 10);
+      p.set("warmup", 0);
+      p.set("duration", 1);
+      p.set("reportFile", report.getAbsolutePath());
+      (new LoadTestFn()).run(p, System.out);
+
+      Parameters closed = Parameters.parseFile(report);
+      assertEquals("closed", closed.getString("mode"));
+      for (String model : new String[]{"rankeddocument", "maxscore"}) {
+        Parameters result = closed.getMap("models").getMap(model);
+        assertEquals(0, result.getLong("errors"));
+        assertTrue(result.getLong("completed") > 0);
+        assertTrue(result.getDouble("throughput") > 0.0);
+        Parameters service = result.getMap("service");
+        Parameters response = result.getMap("response");
+        assertTrue(service.getDouble("p50") <= service.getDouble("p99"));
+        assertTrue(service.getDouble("p999") <= service.getDouble("max"));
+        // corrected latencies include the service times
+        assertTrue(response.getDouble("max") >= service.getDouble("max"));
+      }
+
+      // open loop, compared with the closed loop report
+      p = Parameters.create();
+      p.set("index", index.getAbsolutePath());
+      p.set("queries", queries.getAbsolutePath());
+      p.set("queryFormat", "tsv");
+      p.set("processingModel", "rankeddocument");
+      p.set("qps", 50);
+      p.set("threadCount", 2);
+      p.set("requested", 10);
+      p.set("warmup", 0);
+      p.set("duration", 1);
+      p.set("baseline", report.getAbsolutePath());
+      ByteArrayOutputStream array = new ByteArrayOutputStream();
+      (new LoadTestFn()).run(p, new PrintStream(array));
+
+      Parameters open = Parameters.parseString(array.toString());
+      assertEquals("open", open.getString("mode"));
+      Parameters result = open.getMap("models").getMap("rankeddocument");
+      assertEquals(0, result.getLong("errors"));
+      assertEquals(50, result.getLong("completed"));
+      Parameters service = result.getMap("service");
+      Parameters response = result.getMap("response");
+      // response time is measured from the scheduled start
+      assertTrue(response.getDouble("p50") >= service.getDouble("p50"));
+      assertTrue(open.getMap("baseline").getMap("rankeddocument").getDouble("throughput") > 0.0);
+      assertTrue(open.getMap("baseline").getMap("rankeddocument").containsKey("p99"));
+
+    } finally {
+      input.delete();
+      queries.delete();
+      report.delete();
+      FSUtil.deleteDirectory(index);
+    }
+  }
+
+  @Test
+  public void testLatencySamples() {
+    LoadTestFn.LatencySamples samples = new LoadTestFn.LatencySamples();
+    for (int i = 1; i <= 100; i++) {
+      samples.add(i * 1000000L);
+    }
+    Parameters summary = samples.summary();
+    assertEquals(50.0, summary.getDouble("p50"), 0.0001);
+    assertEquals(99.0, summary.getDouble("p99"), 0.0001);
+    assertEquals(100.0, summary.getDouble("p999"), 0.0001);
+    assertEquals(100.0, summary.getDouble("max"), 0.0001);
+    assertEquals(50.5, summary.getDouble("mean"), 0.0001);
+
+    // a 10ms stall with a 1ms expected interval hides 9 requests
+    LoadTestFn.LatencySamples corrected = new LoadTestFn.LatencySamples();
+    corrected.addCorrected(10000000L, 1000000L);
+    assertEquals(10, corrected.size());
+    corrected.addCorrected(500000L, 1000000L);
+    assertEquals(11, corrected.size());
+  }
+
+  private void makeIndex(File input, File index) throws Exception {
+    Random r = new Random(1);
+    StringBuilder corpus = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      StringBuilder text = new StringBuilder();
+      text.append("t").append(i);
+      for (int j = 0; j < 100; j++) {
+        text.append(" t").append(r.nextInt(100));
+      }
+      corpus.append(AppTest.trecDocument("doc-" + i, text.toString()));
+    }
+    StreamUtil.copyStringToFile(corpus.toString(), input);
+
+    Parameters p = Parameters.create();
+    p.set("inputPath", input.getAbsolutePath());
+    p.set("indexPath", index.getAbsolutePath());
+    (new BuildIndex()).run(p, System.out);
+  }
+}
@@ -0,0 +1,34 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.tupleflow;
+
+import java.io.IOException;
+
+/**
+ * An Order that can also serialize objects as flat records and encode their
+ * ordered fields as binary-comparable keys: for any two objects a and b,
+ * comparing their keys byte-wise (as unsigned bytes, shorter keys first)
+ * gives the same sign as lessThan().compare(a, b).
+ *
+ * Orders generated by the TemplateTypeBuilder implement this interface; the
+ * Sorter uses it to sort serialized records without keeping an object for
+ * each tuple (see the sorter's "binary" option).
+ *
+ * @param <T> The ordered class.
+ */
+public interface BinaryOrder<T> extends Order<T> {
+
+  /**
+   * Appends the key of the object's ordered fields to the output.
+   */
+  public void writeKey(T object, KeyOutput output);
+
+  /**
+   * Writes every field of the object, in declaration order.
+   */
+  public void writeRecord(T object, ArrayOutput output) throws IOException;
+
+  /**
+   * Reads an object written by writeRecord.
+   */
+  public T readRecord(ArrayInput input) throws IOException;
+}
@@ -0,0 +1,303 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.tupleflow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The Sorter's buffer in binary mode: tuples are kept as serialized records in
+ * large off-heap arenas instead of as objects, so buffering them costs
+ * neither object headers nor garbage collection work.
+ *
+ * Each record is stored as [key length][record length][key][record], where the
+ * key is the BinaryOrder's binary-comparable encoding of the ordered fields.
+ * The buffer keeps the position and the first eight key bytes of each record
+ * in primitive arrays; sorting is a radix sort on those prefixes, followed by
+ * a byte-wise comparison of the full keys for records whose prefixes tie.
+ * Both sorts are stable, so records come out in the same order as a
+ * Collections.sort of the objects would give.
+ *
+ * Arenas are allocated as needed and reused after the buffer is cleared.
+ */
+class BinarySortBuffer<T> {
+
+  static final int ARENA_SIZE = 16 * 1024 * 1024;
+  private static final int HEADER_SIZE = 8;
+  private static final int INSERTION_SORT_SIZE = 16;
+
+  private final BinaryOrder<T> order;
+  private final KeyOutput key = new KeyOutput();
+  private final RecordOutput record = new RecordOutput();
+  private final ArrayOutput recordOutput = new ArrayOutput(new DataOutputStream(record));
+  private final ArrayList<ByteBuffer> arenas = new ArrayList<>();
+  private int arena = -1;
+  private long bytes = 0;
+  // (arena << 32 | position) and key prefix of each record
+  private long[] offsets = new long[1024];
+  private long[] prefixes = new long[1024];
+  private int count = 0;
+
+  BinarySortBuffer(BinaryOrder<T> order) {
+    this.order = order;
+  }
+
+  /**
+   * The number of buffered records.
+   */
+  int size() {
+    return count;
+  }
+
+  /**
+   * The number of arena bytes used by buffered records.
+   */
+  long getBytes() {
+    return bytes;
+  }
+
+  void add(T object) throws IOException {
+    key.reset();
+    order.writeKey(object, key);
+    record.reset();
+    order.writeRecord(object, recordOutput);
+
+    int length = HEADER_SIZE + key.length() + record.size();
+    ByteBuffer buffer = reserve(length);
+    int position = buffer.position();
+    buffer.putInt(key.length());
+    buffer.putInt(record.size());
+    buffer.put(key.getBuffer(), 0, key.length());
+    buffer.put(record.getBuffer(), 0, record.size());
+    bytes += length;
+
+    if (count == offsets.length) {
+      offsets = Arrays.copyOf(offsets, count * 2);
+      prefixes = Arrays.copyOf(prefixes, count * 2);
+    }
+    offsets[count] = ((long) arena << 32) | position;
+    prefixes[count] = key.prefix();
+    count++;
+  }
+
+  private ByteBuffer reserve(int length) {
+    if (arena >= 0 && arenas.get(arena).remaining() >= length) {
+      return arenas.get(arena);
+    }
+    arena++;
+    if (arena < arenas.size() && arenas.get(arena).capacity() >= length) {
+      arenas.get(arena).clear();
+    } else {
+      // records never span arenas, so a huge record gets an arena of its own
+      ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(ARENA_SIZE, length));
+      if (arena < arenas.size()) {
+        arenas.set(arena, buffer);
+      } else {
+        arenas.add(buffer);
+      }
+    }
+    return arenas.get(arena);
+  }
+
+  /**
+   * Sorts the buffered records by key.
+   */
+  void sort() {
+    if (count < 2) {
+      return;
+    }
+    radixSort();
+
+    // ties in the prefix are broken by the rest of the key
+    int start = 0;
+    for (int i = 1; i <= count; i++) {
+      if (i == count || prefixes[i] != prefixes[start]) {
+        if (i - start > 1) {
+          sortByKey(start, i);
+        }
+        start = i;
+      }
+    }
+  }
+
+  /**
+   * A stable least-significant-byte radix sort of the prefixes (as unsigned
+   * longs), carrying the offsets along. Byte positions where all prefixes
+   * agree are skipped.
+   */
+  private void radixSort() {
+    int[][] histograms = new int[8][256];
+    for (int i = 0; i < count; i++) {
+      long prefix = prefixes[i];
+      for (int b = 0; b < 8; b++) {
+        histograms[b][(int) (prefix >>> (8 * b)) & 0xFF]++;
+      }
+    }
+
+    long[] prefixesOut = new long[count];
+    long[] offsetsOut = new long[count];
+    for (int b = 0; b < 8; b++) {
+      int[] histogram = histograms[b];
+      int shift = 8 * b;
+      if (histogram[(int) (prefixes[0] >>> shift) & 0xFF] == count) {
+        continue;
+      }
+      int total = 0;
+      for (int v = 0; v < 256; v++) {
+        int c = histogram[v];
+        histogram[v] = total;
+        total += c;
+      }
+      for (int i = 0; i < count; i++) {
+        int destination = histogram[(int) (prefixes[i] >>> shift) & 0xFF]++;
+        prefixesOut[destination] = prefixes[i];
+        offsetsOut[destination] = offsets[i];
+      }
+      System.arraycopy(prefixesOut, 0, prefixes, 0, count);
+      System.arraycopy(offsetsOut, 0, offsets, 0, count);
+    }
+  }
+
+  /**
+   * Stable merge sort of offsets[start, end) by full key.
+   */
+  private void sortByKey(int start, int end) {
+    long[] scratch = new long[end - start];
+    mergeSort(start, end, scratch);
+  }
+
+  private void mergeSort(int start, int end, long[] scratch) {
+    if (end - start <= INSERTION_SORT_SIZE) {
+      for (int i = start + 1; i < end; i++) {
+        long value = offsets[i];
+        int j = i - 1;
+        while (j >= start && compareKeys(offsets[j], value) > 0) {
+          offsets[j + 1] = offsets[j];
+          j--;
+        }
+        offsets[j + 1] = value;
+      }
+      return;
+    }
+    int middle = (start + end) >>> 1;
+    mergeSort(start, middle, scratch);
+    mergeSort(middle, end, scratch);
+    if (compareKeys(offsets[middle - 1], offsets[middle]) <= 0) {
+      return;
+    }
+    int left = start;
+    int right = middle;
+    int out = 0;
+    while (left < middle && right < end) {
+      if (compareKeys(offsets[right], offsets[left]) < 0) {
+        scratch[out++] = offsets[right++];
+      } else {
+        scratch[out++] = offsets[left++];
+      }
+    }
+    while (left < middle) {
+      scratch[out++] = offsets[left++];
+    }
+    while (right < end) {
+      scratch[out++] = offsets[right++];
+    }
+    System.arraycopy(scratch, 0, offsets, start, out);
+  }
+
+  /**
+   * Compares the keys of two records whose first eight bytes are equal.
+   */
+  private int compareKeys(long one, long two) {
+    ByteBuffer a = arenas.get((int) (one >>> 32));
+    ByteBuffer b = arenas.get((int) (two >>> 32));
+    int aPosition = (int) one;
+    int bPosition = (int) two;
+    int aLength = a.getInt(aPosition);
+    int bLength = b.getInt(bPosition);
+    int shared = Math.min(aLength, bLength);
+    aPosition += HEADER_SIZE;
+    bPosition += HEADER_SIZE;
+    for (int i = 8; i < shared; i++) {
+      int x = a.get(aPosition + i) & 0xFF;
+      int y = b.get(bPosition + i) & 0xFF;
+      if (x != y) {
+        return x - y;
+      }
+    }
+    return aLength - bLength;
+  }
+
+  /**
+   * Sends the records to the processor, in their current order.
+   */
+  void emit(Processor<T> output) throws IOException {
+    ArenaInput input = new ArenaInput();
+    ArrayInput arrayInput = new ArrayInput(new DataInputStream(input));
+    for (int i = 0; i < count; i++) {
+      ByteBuffer buffer = arenas.get((int) (offsets[i] >>> 32));
+      int position = (int) offsets[i];
+      int keyLength = buffer.getInt(position);
+      int recordLength = buffer.getInt(position + 4);
+      input.reset(buffer, position + HEADER_SIZE + keyLength, recordLength);
+      output.process(order.readRecord(arrayInput));
+    }
+  }
+
+  /**
+   * Drops all records, keeping the arenas for reuse.
+   */
+  void clear() {
+    count = 0;
+    arena = -1;
+    bytes = 0;
+  }
+
+  private static class RecordOutput extends ByteArrayOutputStream {
+
+    byte[] getBuffer() {
+      return buf;
+    }
+  }
+
+  private static class ArenaInput extends InputStream {
+
+    private ByteBuffer buffer;
+    private int position;
+    private int end;
+
+    void reset(ByteBuffer buffer, int position, int length) {
+      this.buffer = buffer;
+      this.position = position;
+      this.end = position + length;
+    }
+
+    @Override
+    public int read() {
+      if (position >= end) {
+        return -1;
+      }
+      return buffer.get(position++) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] data, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (position >= end) {
+        return -1;
+      }
+      int n = Math.min(length, end - position);
+      for (int i = 0; i < n; i++) {
+        data[offset + i] = buffer.get(position + i);
+      }
+      position += n;
+      return n;
+    }
+  }
+}
@@ -0,0 +1,18 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.tupleflow;
+
+/**
+ * Merges two objects with equal keys into one, for a HashCombiner. The merge
+ * must be associative and commutative, since objects meet in no particular
+ * order and partial aggregates may be merged again later (usually by the same
+ * class, as a reducer step after the Sorter).
+ *
+ * Implementations need a public constructor without arguments.
+ */
+public interface Combiner<T> {
+
+  /**
+   * Adds the value into the aggregate; the value is discarded afterwards.
+   */
+  public void combine(T aggregate, T value);
+}
@@ -7,11 +7,14 @@ package org.lemurproject.galago.tupleflow;
  * If this list is tobe extended - append to the end of the list. - this ensures
  * that all previously written files are compatible
  *
+ * LZ4 frames blocks of the stream with checksums (see LZ4OutputStream); it
+ * compresses less than GZIP but is many times faster to write.
+ *
  * @author sjh
  */
 public enum CompressionType {
 
-  UNSPECIFIED, NONE, VBYTE, GZIP;
+  UNSPECIFIED, NONE, VBYTE, GZIP, LZ4;
 
   public static byte toByte(CompressionType c) {
     switch (c) {
@@ -23,6 +26,8 @@ public enum CompressionType {
         return (byte) 2;
       case GZIP:
         return (byte) 3;
+      case LZ4:
+        return (byte) 4;
       default:
         return (byte) 0;
     }
@@ -38,6 +43,8 @@ public enum CompressionType {
         return VBYTE;
       case 3:
         return GZIP;
+      case 4:
+        return LZ4;
       default:
         return UNSPECIFIED;
     }
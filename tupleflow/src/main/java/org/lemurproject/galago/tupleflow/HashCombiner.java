@@ -0,0 +1,172 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.tupleflow;
+
+import org.lemurproject.galago.tupleflow.execution.ErrorStore;
+import org.lemurproject.galago.tupleflow.execution.Verification;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.debug.Counter;
+import org.lemurproject.galago.utility.debug.NullCounter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <p> Aggregates a stream of objects in a hash table before they are sorted.
+ * Objects with equal keys (the fields of the order) are merged by a Combiner,
+ * so a count producing step followed by a HashCombiner sends one object per
+ * distinct key to the Sorter instead of one per occurrence. </p>
+ *
+ * <p> The table holds at most "limit" distinct keys (or "combiner-limit" in
+ * .galago.conf). When it is full, the partial aggregates are passed on
+ * unordered and the table starts again, so the same key may be emitted more
+ * than once; a reducer after the Sorter must finish the aggregation. </p>
+ *
+ * @param <T> the TupleflowType to combine
+ */
+public class HashCombiner<T> extends StandardStep<T, T> {
+
+  public static final long DEFAULT_LIMIT = 1024 * 1024;
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final Order<T> order;
+  private final Comparator<T> lessThan;
+  private final Combiner<T> combiner;
+  private final int limit;
+  // open addressing with linear probing
+  private Object[] entries = new Object[INITIAL_CAPACITY];
+  private int[] hashes = new int[INITIAL_CAPACITY];
+  private int size = 0;
+  private int combinedSinceFlush = 0;
+  private Counter combined = NullCounter.instance;
+  private Counter spills = NullCounter.instance;
+
+  public HashCombiner(Order<T> order, Combiner<T> combiner, long limit, Processor<T> processor) {
+    this.order = order;
+    this.lessThan = order.lessThan();
+    this.combiner = combiner;
+    this.limit = (int) Math.max(1, Math.min(limit, 1 << 28));
+    this.processor = processor;
+  }
+
+  @SuppressWarnings("unchecked")
+  public HashCombiner(TupleFlowParameters parameters)
+          throws ReflectiveOperationException {
+    Parameters p = parameters.getJSON();
+    String[] orderSpec = p.getString("order").split(" ");
+    Type<T> typeInstance = (Type<T>) Class.forName(p.getString("class")).getDeclaredConstructor().newInstance();
+    this.order = typeInstance.getOrder(orderSpec);
+    this.lessThan = order.lessThan();
+    this.combiner = (Combiner<T>) Class.forName(p.getString("combiner")).getDeclaredConstructor().newInstance();
+    long l = p.get("limit", GalagoConf.getAllOptions().get("combiner-limit", DEFAULT_LIMIT));
+    this.limit = (int) Math.max(1, Math.min(l, 1 << 28));
+
+    this.combined = parameters.getCounter("Combiner Objects Combined");
+    this.spills = parameters.getCounter("Combiner Spills");
+  }
+
+  public static void verify(TupleFlowParameters fullParameters, ErrorStore store) {
+    Parameters parameters = fullParameters.getJSON();
+    String[] requiredParameters = {"order", "class", "combiner"};
+
+    if (!Verification.requireParameters(requiredParameters, parameters, store)) {
+      return;
+    }
+    String className = parameters.getString("class");
+    String[] orderSpec = parameters.getString("order").split(" ");
+
+    Verification.requireClass(className, store);
+    Verification.requireOrder(className, orderSpec, store);
+    Verification.requireClass(parameters.getString("combiner"), store);
+  }
+
+  public static String getInputClass(TupleFlowParameters parameters) {
+    return parameters.getJSON().get("class", "");
+  }
+
+  public static String getOutputClass(TupleFlowParameters parameters) {
+    return parameters.getJSON().get("class", "");
+  }
+
+  /**
+   * The number of distinct keys in the table.
+   */
+  public int size() {
+    return size;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void process(T object) throws IOException {
+    int hash = order.hash(object) * 0x9E3779B9;
+    int mask = entries.length - 1;
+    int i = (hash ^ (hash >>> 16)) & mask;
+    while (entries[i] != null) {
+      if (hashes[i] == hash && lessThan.compare((T) entries[i], object) == 0) {
+        combiner.combine((T) entries[i], object);
+        combinedSinceFlush++;
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    entries[i] = object;
+    hashes[i] = hash;
+    size++;
+
+    if (size >= limit) {
+      flush();
+    } else if (size * 4 >= entries.length * 3) {
+      grow();
+    }
+  }
+
+  private void grow() {
+    Object[] oldEntries = entries;
+    int[] oldHashes = hashes;
+    entries = new Object[oldEntries.length * 2];
+    hashes = new int[oldEntries.length * 2];
+    int mask = entries.length - 1;
+    for (int j = 0; j < oldEntries.length; j++) {
+      if (oldEntries[j] != null) {
+        int hash = oldHashes[j];
+        int i = (hash ^ (hash >>> 16)) & mask;
+        while (entries[i] != null) {
+          i = (i + 1) & mask;
+        }
+        entries[i] = oldEntries[j];
+        hashes[i] = hash;
+      }
+    }
+  }
+
+  /**
+   * Passes the partial aggregates on and empties the table.
+   */
+  @SuppressWarnings("unchecked")
+  public void flush() throws IOException {
+    if (size == 0) {
+      return;
+    }
+    for (int i = 0; i < entries.length; i++) {
+      if (entries[i] != null) {
+        processor.process((T) entries[i]);
+      }
+    }
+    Arrays.fill(entries, null);
+    size = 0;
+    combined.incrementBy(combinedSinceFlush);
+    combinedSinceFlush = 0;
+    spills.increment();
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+    processor.close();
+  }
+
+  @Override
+  public String toString() {
+    return order.getOrderedClass().getName() + " " + Arrays.asList(order.getOrderSpec());
+  }
+}
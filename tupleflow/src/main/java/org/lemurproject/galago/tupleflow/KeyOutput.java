@@ -0,0 +1,169 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.tupleflow;
+
+import java.util.Arrays;
+
+/**
+ * Builds binary-comparable keys, one field at a time.
+ *
+ * Each field is encoded so that comparing the encodings as unsigned bytes
+ * agrees with CmpUtil.compare on the values, and no encoding is a prefix of
+ * another, so keys of several fields compare field by field. Descending fields
+ * are written with every byte inverted.
+ */
+public class KeyOutput {
+
+  private byte[] buffer;
+  private int length = 0;
+  private int mask = 0;
+
+  public KeyOutput() {
+    this(64);
+  }
+
+  public KeyOutput(int capacity) {
+    buffer = new byte[Math.max(8, capacity)];
+  }
+
+  public void reset() {
+    length = 0;
+  }
+
+  public byte[] getBuffer() {
+    return buffer;
+  }
+
+  public int length() {
+    return length;
+  }
+
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, length);
+  }
+
+  /**
+   * The first eight bytes of the key as a big-endian long, padded with zeros;
+   * comparing prefixes as unsigned longs orders keys by their first eight
+   * bytes.
+   */
+  public long prefix() {
+    long prefix = 0;
+    for (int i = 0; i < 8; i++) {
+      prefix <<= 8;
+      if (i < length) {
+        prefix |= buffer[i] & 0xFF;
+      }
+    }
+    return prefix;
+  }
+
+  private void put(int b) {
+    if (length == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+    buffer[length++] = (byte) (b ^ mask);
+  }
+
+  private void start(boolean descending) {
+    mask = descending ? 0xFF : 0;
+  }
+
+  public void writeBoolean(boolean value, boolean descending) {
+    start(descending);
+    put(value ? 1 : 0);
+  }
+
+  public void writeByte(byte value, boolean descending) {
+    start(descending);
+    put(value ^ 0x80);
+  }
+
+  public void writeShort(short value, boolean descending) {
+    start(descending);
+    int v = value ^ 0x8000;
+    put(v >>> 8);
+    put(v);
+  }
+
+  public void writeInt(int value, boolean descending) {
+    start(descending);
+    int v = value ^ Integer.MIN_VALUE;
+    put(v >>> 24);
+    put(v >>> 16);
+    put(v >>> 8);
+    put(v);
+  }
+
+  public void writeLong(long value, boolean descending) {
+    start(descending);
+    long v = value ^ Long.MIN_VALUE;
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      put((int) (v >>> shift));
+    }
+  }
+
+  /**
+   * Orders like Float.compare: -0.0 before 0.0, NaN last.
+   */
+  public void writeFloat(float value, boolean descending) {
+    int bits = Float.floatToIntBits(value);
+    // negative numbers: flip everything; positive: flip the sign bit. Then
+    // undo the sign flip writeInt applies.
+    bits = ((bits < 0) ? ~bits : bits ^ Integer.MIN_VALUE) ^ Integer.MIN_VALUE;
+    writeInt(bits, descending);
+  }
+
+  /**
+   * Orders like Double.compare: -0.0 before 0.0, NaN last.
+   */
+  public void writeDouble(double value, boolean descending) {
+    long bits = Double.doubleToLongBits(value);
+    bits = ((bits < 0) ? ~bits : bits ^ Long.MIN_VALUE) ^ Long.MIN_VALUE;
+    writeLong(bits, descending);
+  }
+
+  /**
+   * Orders like String.compareTo, which compares UTF-16 code units: each unit
+   * is written in the UTF-8 form of its value (surrogates as three bytes),
+   * units 0 and 1 are escaped as 0x01 0x01 and 0x01 0x02, and the string ends
+   * with 0x00.
+   */
+  public void writeString(String value, boolean descending) {
+    start(descending);
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 2) {
+        put(0x01);
+        put(c + 1);
+      } else if (c < 0x80) {
+        put(c);
+      } else if (c < 0x800) {
+        put(0xC0 | (c >>> 6));
+        put(0x80 | (c & 0x3F));
+      } else {
+        put(0xE0 | (c >>> 12));
+        put(0x80 | ((c >>> 6) & 0x3F));
+        put(0x80 | (c & 0x3F));
+      }
+    }
+    put(0x00);
+  }
+
+  /**
+   * Orders like CmpUtil.compare(byte[], byte[]): zero bytes are escaped as
+   * 0x00 0xFF, and the array ends with 0x00 0x00.
+   */
+  public void writeBytes(byte[] value, boolean descending) {
+    start(descending);
+    for (byte b : value) {
+      if (b == 0) {
+        put(0x00);
+        put(0xFF);
+      } else {
+        put(b & 0xFF);
+      }
+    }
+    put(0x00);
+    put(0x00);
+  }
+}
@@ -0,0 +1,124 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.tupleflow;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A tournament tree of losers for k-way merging.
+ *
+ * Each internal node holds the loser of the match played there, and the
+ * overall winner is kept at the root, so replacing the winner replays only
+ * the matches on its path to the root: log(k) comparisons, against the
+ * 2 log(k) of a binary heap. The runner-up is the best of the losers on the
+ * winner's path, which lets mergers copy a whole block from the winning input
+ * before playing again.
+ *
+ * Players compare with compareTo; ties go to the player that came first in
+ * the collection, so merges are stable. Players are mutable: after the
+ * winner's value changes, call update(); when it is exhausted, removeTop().
+ */
+public class LoserTree<E extends Comparable<? super E>> {
+
+  private final List<E> players;
+  private final int[] tree;
+  private int size;
+
+  public LoserTree(Collection<E> players) {
+    this.players = new ArrayList<>(players);
+    int k = this.players.size();
+    this.size = k;
+    this.tree = new int[Math.max(1, k)];
+
+    // play every match bottom up; leaf i sits at node k + i
+    int[] winners = new int[2 * k];
+    for (int i = 0; i < k; i++) {
+      winners[k + i] = i;
+    }
+    for (int node = k - 1; node >= 1; node--) {
+      int a = winners[2 * node];
+      int b = winners[2 * node + 1];
+      if (beats(a, b)) {
+        winners[node] = a;
+        tree[node] = b;
+      } else {
+        winners[node] = b;
+        tree[node] = a;
+      }
+    }
+    tree[0] = (k > 1) ? winners[1] : 0;
+  }
+
+  private boolean beats(int a, int b) {
+    E one = players.get(a);
+    E two = players.get(b);
+    if (one == null) {
+      return false;
+    }
+    if (two == null) {
+      return true;
+    }
+    int c = one.compareTo(two);
+    return c < 0 || (c == 0 && a < b);
+  }
+
+  /**
+   * The number of players that have not been removed.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The smallest player, or null if all were removed.
+   */
+  public E top() {
+    return (size == 0) ? null : players.get(tree[0]);
+  }
+
+  /**
+   * The smallest player other than the top, or null if there is none.
+   */
+  public E runnerUp() {
+    int k = players.size();
+    int best = -1;
+    for (int node = (tree[0] + k) >> 1; node >= 1; node >>= 1) {
+      int loser = tree[node];
+      if (players.get(loser) != null && (best < 0 || beats(loser, best))) {
+        best = loser;
+      }
+    }
+    return (best < 0) ? null : players.get(best);
+  }
+
+  /**
+   * Restores the tree after the top player's value has changed.
+   */
+  public void update() {
+    replay(tree[0]);
+  }
+
+  /**
+   * Removes the top player, which has been exhausted.
+   */
+  public void removeTop() {
+    int winner = tree[0];
+    players.set(winner, null);
+    size--;
+    replay(winner);
+  }
+
+  private void replay(int leaf) {
+    int k = players.size();
+    int winner = leaf;
+    for (int node = (leaf + k) >> 1; node >= 1; node >>= 1) {
+      if (beats(tree[node], winner)) {
+        int loser = winner;
+        winner = tree[node];
+        tree[node] = loser;
+      }
+    }
+    tree[0] = winner;
+  }
+}
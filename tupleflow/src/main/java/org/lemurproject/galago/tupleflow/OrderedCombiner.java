@@ -72,6 +72,10 @@ public class OrderedCombiner<T> implements ReaderSource<T> {
     return combineFromFiles(filenames, order, null, true, defaultBufferSize);
   }
 
+  public static <S> OrderedCombiner<S> combineFromFiles(List<String> filenames, Order<S> order, boolean readAhead) throws IOException {
+    return combineFromFiles(filenames, order, null, true, defaultBufferSize, readAhead);
+  }
+
   public static <S> OrderedCombiner<S> combineFromFileObjs(List<File> filenames, Order<S> order) throws IOException {
     List<String> paths = new ArrayList<String>();
     for (File f : filenames) {
@@ -80,13 +84,21 @@ public class OrderedCombiner<T> implements ReaderSource<T> {
     return combineFromFiles(paths, order, null, true, defaultBufferSize);
   }
 
-  @SuppressWarnings(value = "unchecked")
   public static <S> OrderedCombiner<S> combineFromFiles(List<String> filenames, Order<S> order, Processor<S> processor, boolean closeOnExit, int bufferSize) throws IOException {
+    return combineFromFiles(filenames, order, processor, closeOnExit, bufferSize, false);
+  }
+
+  /**
+   * @param readAhead reads each file on its own background thread, so that
+   * reading and decompressing the runs overlaps with merging them
+   */
+  @SuppressWarnings(value = "unchecked")
+  public static <S> OrderedCombiner<S> combineFromFiles(List<String> filenames, Order<S> order, Processor<S> processor, boolean closeOnExit, int bufferSize, boolean readAhead) throws IOException {
     TypeReader[] inputs = new TypeReader[filenames.size()];
     FileOrderedReader[] readers = new FileOrderedReader[filenames.size()];
 
     for (int i = 0; i < filenames.size(); i++) {
-      readers[i] = new FileOrderedReader<S>(filenames.get(i), bufferSize / filenames.size());
+      readers[i] = new FileOrderedReader<S>(filenames.get(i), bufferSize / filenames.size(), readAhead);
       inputs[i] = readers[i].getOrderedReader();
     }
 
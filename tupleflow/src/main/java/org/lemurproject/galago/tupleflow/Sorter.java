@@ -16,6 +16,12 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.management.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 /**
@@ -47,6 +53,20 @@ import java.util.logging.Logger;
  * application. Using a Reducer allows the application to buffer fewer items and
  * hopefully reduce the reliance on the disk during sorting.</p>
  *
+ * <p> If the "binary" sorter option is set and the order was generated by the
+ * TemplateTypeBuilder (so it is a BinaryOrder), a Sorter without a Reducer
+ * buffers serialized records in off-heap arenas rather than objects, and sorts
+ * them by their binary-comparable keys (see BinarySortBuffer). A run is then
+ * limited by "binary-limit" bytes as well as by the object limit. </p>
+ *
+ * <p> Large runs of objects are sorted with Arrays.parallelSort unless the
+ * "parallel-sort" option is false. Spilled runs are read ahead on background
+ * threads unless "read-ahead" is false, and, if "write-behind" is set, written
+ * behind as well (off by default: blocks in flight are not counted against
+ * the memory limits). When there are more than "file-limit" runs, up to
+ * "merge-threads" groups are merged into larger runs at the same time before
+ * the final merge. </p>
+ *
  * @author Trevor Strohman
  * @param <T> the TupleflowType to sort
  */
@@ -57,12 +77,22 @@ public class Sorter<T> extends StandardStep<T, T> implements NotificationListene
   public static final long DEFAULT_FILE_LIMIT = 20;
   public static final long DEFAULT_REDUCE_INTERVAL = 1 * 1024 * 1024;
   public static final double DEFAULT_MEMORY_FRACTION = 0.7;
+  public static final long DEFAULT_BINARY_LIMIT = 128 * 1024 * 1024;
+  public static final long DEFAULT_MERGE_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+  // smaller runs are not worth the fork/join overhead
+  private static final int MIN_PARALLEL_SORT = 1 << 13;
   //public static final boolean DEFAULT_FLUSH_PAUSE = false;
   // create limits and parameters
   private long limit;
   private int fileLimit;
   private long reduceInterval;
   private double memoryFraction;
+  private boolean binary;
+  private long binaryLimit;
+  private boolean parallelSort;
+  private boolean readAhead;
+  private boolean writeBehind;
+  private int mergeThreads;
   //private boolean pauseToFlush;
   private Order<T> order;
   private Comparator<T> lessThanCompare;
@@ -72,12 +102,16 @@ public class Sorter<T> extends StandardStep<T, T> implements NotificationListene
   private ArrayList<T> objects;
   private ArrayList<List<T>> runs;
   private ArrayList<File> temporaryFiles;
+  // only used in binary mode, instead of objects and runs
+  private BinarySortBuffer<T> records;
   // force flush - this variable is only used when pauseToFlush = true;
   private volatile boolean forceFlush;
   // statistics + logging
   private long runsCount = 0;
   private Counter filesWritten = NullCounter.instance;
   private Counter sorterCombineSteps = NullCounter.instance;
+  private Counter sorterBytesSpilled = NullCounter.instance;
+  private long bytesSpilled = 0;
   private static final Logger logger = Logger.getLogger(Sorter.class.toString());
   // counters to assign a better combineBufferSize
   private long minFlushSize = Sorter.DEFAULT_OBJECT_LIMIT;
@@ -102,6 +136,7 @@ public class Sorter<T> extends StandardStep<T, T> implements NotificationListene
     this.compression = CompressionType.VBYTE;
     
     setLimits(Parameters.create());
+    useBinaryMode();
 
     requestMemoryWarnings();
   }
@@ -136,8 +171,10 @@ public class Sorter<T> extends StandardStep<T, T> implements NotificationListene
 
     this.filesWritten = parameters.getCounter("Sorter Files Written");
     this.sorterCombineSteps = parameters.getCounter("Sorter Combine Steps");
+    this.sorterBytesSpilled = parameters.getCounter("Sorter KB Spilled");
 
-    setLimits(Parameters.create());
+    setLimits(parameters.getJSON());
+    useBinaryMode();
 
     requestMemoryWarnings();
   }
@@ -149,11 +186,31 @@ public class Sorter<T> extends StandardStep<T, T> implements NotificationListene
     this.fileLimit = (int) localParameters.get("file-limit", globalParameters.get("file-limit", Sorter.DEFAULT_FILE_LIMIT));
     this.reduceInterval = localParameters.get("reduce-interval", globalParameters.get("reduce-interval", Sorter.DEFAULT_REDUCE_INTERVAL));
     this.memoryFraction = localParameters.get("mem-fraction", globalParameters.get("mem-fraction", Sorter.DEFAULT_MEMORY_FRACTION));
+    this.binary = localParameters.get("binary", globalParameters.get("binary", false));
+    this.binaryLimit = localParameters.get("binary-limit", globalParameters.get("binary-limit", Sorter.DEFAULT_BINARY_LIMIT));
+    this.parallelSort = localParameters.get("parallel-sort", globalParameters.get("parallel-sort", true));
+    this.readAhead = localParameters.get("read-ahead", globalParameters.get("read-ahead", true));
+    this.writeBehind = localParameters.get("write-behind", globalParameters.get("write-behind", false));
+    this.mergeThreads = (int) Math.max(1, localParameters.get("merge-threads", globalParameters.get("merge-threads", Sorter.DEFAULT_MERGE_THREADS)));
     //this.pauseToFlush = localParameters.get("flush-pause", globalParameters.get("flush-pause", Sorter.DEFAULT_FLUSH_PAUSE));
 
     forceFlush = false;
   }
 
+  @SuppressWarnings("unchecked")
+  private void useBinaryMode() {
+    if (binary && reducer == null && order instanceof BinaryOrder) {
+      records = new BinarySortBuffer<>((BinaryOrder<T>) order);
+    }
+  }
+
+  /**
+   * Returns true if this sorter buffers serialized records instead of objects.
+   */
+  public boolean isBinary() {
+    return records != null;
+  }
+
   public final void requestMemoryWarnings() {
     List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
     long maxPoolSize = 0;
@@ -264,7 +321,8 @@ public class Sorter<T> extends StandardStep<T, T> implements NotificationListene
   }
 
   public boolean needsFlush() {
-    return size() > limit || this.forceFlush;
+    return size() > limit || this.forceFlush
+            || (records != null && records.getBytes() > binaryLimit);
   }
 
   public synchronized void flushIfNecessary() throws IOException {
@@ -279,6 +337,13 @@ public class Sorter<T> extends StandardStep<T, T> implements NotificationListene
 
   @Override
   public synchronized void process(T object) throws IOException {
+    if (records != null) {
+      records.add(object);
+      if (needsFlush()) {
+        flush();
+      }
+      return;
+    }
     objects.add(object);
     flushIfNecessary();
   }
@@ -304,11 +369,16 @@ public class Sorter<T> extends StandardStep<T, T> implements NotificationListene
       combineBufferSize = Math.max(20, (int) (minFlushSize / 10));
 
       combine();
+    } else if (records != null) {
+      records.sort();
+      records.emit(processor);
+      records.clear();
     } else {
 
       reduce();
       combineRuns(processor);
     }
+    records = null;
     processor.close();
     processor = null;
   }
@@ -341,13 +411,12 @@ public class Sorter<T> extends StandardStep<T, T> implements NotificationListene
       return;
     }
     List<T> results;
-
-    Collections.sort(objects, lessThanCompare);
+    List<T> sorted = sortObjects();
 
     if (reducer != null) {
-      results = reducer.reduce(objects);
+      results = reducer.reduce(sorted);
     } else {
-      results = objects;
+      results = sorted;
     }
 
     runs.add(results);
@@ -356,24 +425,48 @@ public class Sorter<T> extends StandardStep<T, T> implements NotificationListene
     objects = new ArrayList<>();
   }
 
+  /**
+   * Sorts the recently buffered objects. Both sorts are stable, so the result
+   * does not depend on whether the sort ran in parallel.
+   */
+  @SuppressWarnings("unchecked")
+  private List<T> sortObjects() {
+    if (!parallelSort || objects.size() < MIN_PARALLEL_SORT) {
+      Collections.sort(objects, lessThanCompare);
+      return objects;
+    }
+    T[] array = (T[]) objects.toArray();
+    Arrays.parallelSort(array, lessThanCompare);
+    return Arrays.asList(array);
+  }
+
   /**
    * Returns the number of currently buffered objects.
    */
   private long size() {
-    return runsCount + objects.size();
+    return runsCount + objects.size() + ((records != null) ? records.size() : 0);
   }
 
   public synchronized void flush() throws IOException {
     if (size() == 0) {
       return;
     }
-    reduce();
-    assert objects.isEmpty();
+    FileOrderedWriter<T> writer;
+    if (records != null) {
+      records.sort();
+      writer = getTemporaryWriter();
+      records.emit(writer);
+      records.clear();
+    } else {
+      reduce();
+      assert objects.isEmpty();
 
-    FileOrderedWriter<T> writer = getTemporaryWriter();
-    combineRuns(writer);
+      writer = getTemporaryWriter();
+      combineRuns(writer);
+    }
     writer.close();
     filesWritten.increment();
+    spilled(temporaryFiles.get(temporaryFiles.size() - 1));
 
     forceFlush = false;
   }
@@ -413,24 +506,24 @@ public class Sorter<T> extends StandardStep<T, T> implements NotificationListene
    * sorted list, which is processed by the processor called output.
    */
   private synchronized void combineRuns(Processor<T> output) throws IOException {
-    PriorityQueue<RunWrapper<T>> queue = new PriorityQueue<>();
+    ArrayList<RunWrapper<T>> wrappers = new ArrayList<>();
 
-    // make a run wrapper for each run we've got buffered,
-    // put it in the priority queue
+    // make a run wrapper for each run we've got buffered
     for (List<T> run : runs) {
       RunWrapper<T> wrapper = new RunWrapper<>(run, lessThanCompare);
       if (wrapper.next()) {
-        queue.offer(wrapper);
+        wrappers.add(wrapper);
       }
     }
+    LoserTree<RunWrapper<T>> tree = new LoserTree<>(wrappers);
 
     // we expect that some runs will have lots of contiguous tuples,
     // in the case where the input is already almost sorted.  This loop
     // is optimized for that case.
 
-    while (queue.size() > 1) {
-      RunWrapper<T> wrapper = queue.poll();
-      RunWrapper<T> next = queue.peek();
+    while (tree.size() > 1) {
+      RunWrapper<T> wrapper = tree.top();
+      RunWrapper<T> next = tree.runnerUp();
 
       output.process(wrapper.top);
       wrapper.next();
@@ -442,13 +535,15 @@ public class Sorter<T> extends StandardStep<T, T> implements NotificationListene
       }
 
       if (wrapper.top != null) {
-        queue.offer(wrapper);
+        tree.update();
+      } else {
+        tree.removeTop();
       }
     }
 
     // process all objects from the final run
-    if (queue.size() == 1) {
-      RunWrapper<T> wrapper = queue.poll();
+    if (tree.size() == 1) {
+      RunWrapper<T> wrapper = tree.top();
 
       do {
         output.process(wrapper.top);
@@ -462,11 +557,25 @@ public class Sorter<T> extends StandardStep<T, T> implements NotificationListene
   private synchronized FileOrderedWriter<T> getTemporaryWriter() throws IOException {
     File temporary = FileUtility.createTemporary();
     // default to VBYTE compression (but make this configurable later...
-    FileOrderedWriter<T> writer = new FileOrderedWriter<>(temporary.getAbsolutePath(), order, compression);
+    FileOrderedWriter<T> writer = new FileOrderedWriter<>(temporary.getAbsolutePath(), order, compression, writeBehind);
     temporaryFiles.add(temporary);
     return writer;
   }
 
+  private void spilled(File temporary) {
+    long length = temporary.length();
+    bytesSpilled += length;
+    sorterBytesSpilled.incrementBy((int) (length / 1024));
+  }
+
+  /**
+   * Returns the number of bytes written to temporary files so far, including
+   * files written while merging them.
+   */
+  public synchronized long getBytesSpilled() {
+    return bytesSpilled;
+  }
+
   private synchronized void combine() throws IOException {
     flush();
 
@@ -492,33 +601,98 @@ public class Sorter<T> extends StandardStep<T, T> implements NotificationListene
         }
       });
 
-      // pick a set of files to merge and remove them from the regular file set
-      ArrayList<File> temporaryFileSet = new ArrayList<>(temporaryFiles.subList(0,
-              fileLimit));
-      temporaryFiles.subList(0, fileLimit).clear();
-
-      FileOrderedWriter<T> writer = getTemporaryWriter();
-
-      // do the actual combination work
-      combineStep(temporaryFileSet, writer);
+      // pick sets of files to merge: merging n files removes n - 1 of them,
+      // so merge no more than it takes to get down to the file limit
+      ArrayList<List<File>> temporaryFileSets = new ArrayList<>();
+      int excess = temporaryFiles.size() - fileLimit;
+      int picked = 0;
+      while (excess > 0 && temporaryFileSets.size() < mergeThreads) {
+        int n = Math.min(Math.min(fileLimit, excess + 1), temporaryFiles.size() - picked);
+        if (n < 2) {
+          break;
+        }
+        temporaryFileSets.add(new ArrayList<>(temporaryFiles.subList(picked, picked + n)));
+        picked += n;
+        excess -= n - 1;
+      }
+      temporaryFiles.subList(0, picked).clear();
 
-      writer.close();
-      temporaryFileSet.clear();
+      for (File merged : mergeFileSets(temporaryFileSets)) {
+        temporaryFiles.add(merged);
+        spilled(merged);
+      }
     }
 
     combineStep(temporaryFiles, processor);
     temporaryFiles.clear();
   }
 
+  /**
+   * Merges each set of files into a new temporary file, merging the sets in
+   * parallel if there are several.
+   */
+  private List<File> mergeFileSets(List<List<File>> fileSets) throws IOException {
+    ArrayList<File> results = new ArrayList<>();
+    if (fileSets.size() == 1) {
+      results.add(mergeToTemporary(fileSets.get(0)));
+      sorterCombineSteps.increment();
+      return results;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(fileSets.size(), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "tupleflow-sorter-merge");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    try {
+      ArrayList<Future<File>> futures = new ArrayList<>();
+      for (final List<File> fileSet : fileSets) {
+        futures.add(pool.submit(new Callable<File>() {
+          @Override
+          public File call() throws IOException {
+            return mergeToTemporary(fileSet);
+          }
+        }));
+      }
+      for (Future<File> future : futures) {
+        results.add(future.get());
+        sorterCombineSteps.increment();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while merging sorted runs", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to merge sorted runs", e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+    return results;
+  }
+
+  // runs on merge threads, so touches no state but the files
+  private File mergeToTemporary(List<File> files) throws IOException {
+    File temporary = FileUtility.createTemporary();
+    FileOrderedWriter<T> writer = new FileOrderedWriter<>(temporary.getAbsolutePath(), order, compression, writeBehind);
+    mergeFiles(files, writer);
+    writer.close();
+    return temporary;
+  }
+
   private synchronized void combineStep(List<File> files, Processor<T> output) throws IOException {
     sorterCombineSteps.increment();
+    mergeFiles(files, output);
+  }
 
+  private void mergeFiles(List<File> files, Processor<T> output) throws IOException {
     ArrayList<String> filenames = new ArrayList<>();
 
     for (File f : files) {
       filenames.add(f.getPath());
     }
-    OrderedCombiner combiner = OrderedCombiner.combineFromFiles(filenames, order, output, false, combineBufferSize);
+    OrderedCombiner combiner = OrderedCombiner.combineFromFiles(filenames, order, output, false, combineBufferSize, readAhead);
     combiner.run();
 
     for (File file : files) {
@@ -24,8 +24,12 @@ public class Splitter<T> implements Processor<T> {
     return splitToFiles(filenames, sortOrder, hashOrder, null, c);
   }
 
-  @SuppressWarnings("unchecked")
   public static <S> Splitter<S> splitToFiles(String[] filenames, Order<S> sortOrder, Order<S> hashOrder, Class reducerClass, CompressionType c) throws IOException, IncompatibleProcessorException {
+    return splitToFiles(filenames, sortOrder, hashOrder, reducerClass, c, false);
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <S> Splitter<S> splitToFiles(String[] filenames, Order<S> sortOrder, Order<S> hashOrder, Class reducerClass, CompressionType c, boolean writeBehind) throws IOException, IncompatibleProcessorException {
     assert sortOrder != null;
     assert hashOrder != null;
 
@@ -33,7 +37,7 @@ public class Splitter<T> implements Processor<T> {
 
 //    try {
     for (int i = 0; i < filenames.length; i++) {
-      FileOrderedWriter<S> writer = new FileOrderedWriter<S>(filenames[i], sortOrder, c);
+      FileOrderedWriter<S> writer = new FileOrderedWriter<S>(filenames[i], sortOrder, c, writeBehind);
 //        Sorter sorter;
 //        if (reducerClass != null) {
 //          sorter = new Sorter<S>(sortOrder, (Reducer<S>) reducerClass.getConstructor().
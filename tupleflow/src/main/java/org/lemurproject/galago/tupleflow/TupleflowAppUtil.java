@@ -18,8 +18,24 @@ public class TupleflowAppUtil {
         return "Tupleflow Flags:\n"
                 + "  --printJob={true|false}: Simply prints the execution plan of a Tupleflow-based job then exits.\n"
                 + "                           [default=false]\n"
-                + "  --mode={local|slurm|fork}: Selects which executor to use \n"
+                + "  --mode={local|threaded|slurm|fork}: Selects which executor to use \n"
                 + "                           [default=local]\n"
+                + "  --threadCount={int}:     Threads that run stage instances with --mode=threaded\n"
+                + "                           [default=number of processors]\n"
+                + "  --streaming={true|false}: Streams connections between stages through memory, spilling to\n"
+                + "                           files when readers lag (mode=local or threaded only)\n"
+                + "                           [default=false]\n"
+                + "  --streamingBufferMB={int}: Memory for streamed connections before they spill\n"
+                + "                           [default=1/8 of the maximum heap]\n"
+                + "  --binarySort={true|false}: Sorters buffer serialized records in off-heap arenas rather than\n"
+                + "                           objects (mode=local or threaded; otherwise set sorter/binary in .galago.conf)\n"
+                + "                           [default=false]\n"
+                + "  --compression={NONE|VBYTE|GZIP|LZ4}: compression of intermediate files for connections that\n"
+                + "                           do not specify one (LZ4 is fastest) [default=GZIP]\n"
+                + "  --readAhead={true|false}: Reads and decompresses connection files on background threads\n"
+                + "                           [default=false]\n"
+                + "  --writeBehind={true|false}: Compresses and writes connection files on background threads\n"
+                + "                           [default=false]\n"
                 + "  --port={int<65000} :     port number for web based progress monitoring. \n"
                 + "                           [default=randomly selected free port]\n"
                 + "  --galagoJobDir=/path/to/temp/dir/: Sets the galago temp dir \n"
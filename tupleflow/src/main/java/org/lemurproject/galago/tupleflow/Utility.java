@@ -57,6 +57,29 @@ public class Utility {
     return new StepInformation(Sorter.class, p);
   }
 
+  /**
+   * Builds a HashCombiner step, which merges objects with equal keys in
+   * sortOrder before they reach a Sorter.
+   *
+   * @param sortOrder The order whose fields are the key.
+   * @param combinerClass A Combiner for the ordered class.
+   * @return a Step object that can be added to a TupleFlow Stage.
+   */
+  public static StepInformation getHashCombiner(Order sortOrder, Class<?> combinerClass) {
+    try {
+      combinerClass.asSubclass(Combiner.class);
+    } catch (ClassCastException e) {
+      throw new IllegalArgumentException("getHashCombiner called with a combinerClass argument "
+              + "which is not actually a combiner: "
+              + combinerClass.getName());
+    }
+    org.lemurproject.galago.utility.Parameters p = org.lemurproject.galago.utility.Parameters.create();
+    p.set("class", sortOrder.getOrderedClass().getName());
+    p.set("order", Utility.join(sortOrder.getOrderSpec()));
+    p.set("combiner", combinerClass.getName());
+    return new StepInformation(HashCombiner.class, p);
+  }
+
   /**
    * Finds a free port to listen on. Useful for starting up internal web
    * servers. (copied from chaoticjava.com)
@@ -21,24 +21,33 @@
  * Utility.copyFileToStream do the work. clear() will delete the temp file,
  * otherwise it's cleared when galago cleans up.
  *
+ * The spill file may be compressed (GZIP or LZ4); by default it uses the
+ * "spillCompression" setting of .galago.conf, or NONE.
+ *
  * @author sjh
  * @author irmarc
  */
 package org.lemurproject.galago.tupleflow.buffer;
 
 import gnu.trove.list.array.TIntArrayList;
+import org.lemurproject.galago.tupleflow.CompressionType;
 import org.lemurproject.galago.tupleflow.FileUtility;
+import org.lemurproject.galago.tupleflow.GalagoConf;
 import org.lemurproject.galago.utility.StreamUtil;
 import org.lemurproject.galago.utility.buffer.CompressedByteBuffer;
+import org.lemurproject.galago.utility.compression.LZ4InputStream;
+import org.lemurproject.galago.utility.compression.LZ4OutputStream;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class DiskSpillCompressedByteBuffer extends OutputStream implements Closeable {
 
   ArrayList<byte[]> values = null;
   TIntArrayList sizes = null;
-  FileOutputStream spillStream = null;
+  OutputStream spillStream = null;
   File spillFile = null;
   long spillLength;
   byte[] currentBuffer;
@@ -48,6 +57,7 @@ public class DiskSpillCompressedByteBuffer extends OutputStream implements Close
   int spillThreshold;
   long memoryLength;
   int position;
+  CompressionType spillCompression;
   private static final int BUFFER_LO = 2;
   private static final int BUFFER_HI = 32768;
   private static final int SPILL_SIZE = 32 << 20; // 32 MiB
@@ -57,10 +67,27 @@ public class DiskSpillCompressedByteBuffer extends OutputStream implements Close
   }
 
   public DiskSpillCompressedByteBuffer(int minimum, int maximum, int threshold) {
+    this(minimum, maximum, threshold,
+            CompressionType.fromString(GalagoConf.getAllOptions().get("spillCompression", "NONE")));
+  }
+
+  public DiskSpillCompressedByteBuffer(int minimum, int maximum, int threshold, CompressionType spillCompression) {
     assert (minimum <= maximum);
     lo = minimum;
     hi = maximum;
     spillThreshold = threshold;
+    switch (spillCompression) {
+      case GZIP:
+      case LZ4:
+        this.spillCompression = spillCompression;
+        break;
+      case NONE:
+      case UNSPECIFIED:
+        this.spillCompression = CompressionType.NONE;
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported spill compression: " + spillCompression);
+    }
     clear();
   }
 
@@ -239,8 +266,14 @@ public class DiskSpillCompressedByteBuffer extends OutputStream implements Close
     if (spillStream != null) {
       try {
         spillStream.close();
-        StreamUtil.copyFileToStream(spillFile, stream);
-        spillStream = new FileOutputStream(spillFile); // maybe use RandomAccess here to do it?
+        if (spillCompression == CompressionType.NONE) {
+          StreamUtil.copyFileToStream(spillFile, stream);
+        } else {
+          try (InputStream input = openSpillInput()) {
+            StreamUtil.copyStream(input, stream);
+          }
+        }
+        spillStream = openSpillOutput(); // maybe use RandomAccess here to do it?
       } catch (IOException ioe) {
         throw new RuntimeException(ioe);
       }
@@ -264,7 +297,7 @@ public class DiskSpillCompressedByteBuffer extends OutputStream implements Close
     try {
       if (spillStream == null) {
         spillFile = FileUtility.createTemporary();
-        spillStream = new FileOutputStream(spillFile);
+        spillStream = openSpillOutput();
       }
       // Spill everything in the array list, but not the current sub-buffer
       // We use sizes in case there was a buffer insertion (see add, above)
@@ -282,6 +315,30 @@ public class DiskSpillCompressedByteBuffer extends OutputStream implements Close
     }
   }
 
+  private OutputStream openSpillOutput() throws IOException {
+    OutputStream output = new FileOutputStream(spillFile);
+    switch (spillCompression) {
+      case GZIP:
+        return new GZIPOutputStream(output, 64 * 1024);
+      case LZ4:
+        return new LZ4OutputStream(output);
+      default:
+        return output;
+    }
+  }
+
+  private InputStream openSpillInput() throws IOException {
+    InputStream input = new FileInputStream(spillFile);
+    switch (spillCompression) {
+      case GZIP:
+        return new GZIPInputStream(input, 64 * 1024);
+      case LZ4:
+        return new LZ4InputStream(new BufferedInputStream(input, 64 * 1024));
+      default:
+        return input;
+    }
+  }
+
 	@Override
 	public void close() throws IOException {
 		super.close();
@@ -20,6 +20,8 @@ public class Connection implements Cloneable {
   String[] hash;
   int hashCount;
   CompressionType compression;
+  boolean readAhead;
+  boolean writeBehind;
   ConnectionEndPoint input;
   public ArrayList<ConnectionEndPoint> outputs = new ArrayList<ConnectionEndPoint>();
   
@@ -28,6 +30,8 @@ public class Connection implements Cloneable {
     this.className = point.getClassName();
     this.order = point.getOrder();
     this.compression = point.getCompression();
+    this.readAhead = point.isReadAhead();
+    this.writeBehind = point.isWriteBehind();
     this.hash = hash;
     this.hashCount = hashCount;
   }
@@ -59,6 +63,14 @@ public class Connection implements Cloneable {
   CompressionType getCompression(){
     return compression;
   }
+
+  boolean isReadAhead() {
+    return readAhead;
+  }
+
+  boolean isWriteBehind() {
+    return writeBehind;
+  }
   
   @Override
   public Connection clone() {
@@ -77,6 +89,8 @@ public class Connection implements Cloneable {
       copy.hash = this.hash;
       copy.hashCount = this.hashCount;
       copy.compression = this.compression;
+      copy.readAhead = this.readAhead;
+      copy.writeBehind = this.writeBehind;
       copy.input = input.clone();
       copy.outputs = outputCopy;
       return copy;
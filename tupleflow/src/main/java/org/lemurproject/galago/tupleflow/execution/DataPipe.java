@@ -3,6 +3,9 @@ package org.lemurproject.galago.tupleflow.execution;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.lemurproject.galago.tupleflow.CompressionType;
 
 /**
@@ -23,6 +26,11 @@ public class DataPipe implements Serializable {
   public String[] order;
   public String[] hash;
   CompressionType compression;
+  // if set, the files of this pipe are streamed through memory (see MemoryPipe)
+  private boolean streaming = false;
+  // if set, the files of this pipe are read and written on background threads
+  private boolean readAhead = false;
+  private boolean writeBehind = false;
 
   public DataPipe(String root, String pipeName, String className, String[] order, String[] hash, int inputCount, int outputCount, CompressionType compression) {
     this.root = root;
@@ -97,6 +105,17 @@ public class DataPipe implements Serializable {
     return root + File.separator + inputIndex + File.separator + outputIndex;
   }
 
+  /**
+   * Returns the names of all files written to this pipe.
+   */
+  public List<String> getFileNames() {
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < getInputCount(); i++) {
+      names.addAll(Arrays.asList(getInputFileNames(i)));
+    }
+    return names;
+  }
+
   public void makeDirectories() {
     for (int i = 0; i < getInputCount(); i++) {
       new File(root + File.separator + i).mkdirs();
@@ -134,4 +153,28 @@ public class DataPipe implements Serializable {
   public CompressionType getCompression() {
     return compression;
   }
+
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  public void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
+  public boolean isReadAhead() {
+    return readAhead;
+  }
+
+  public void setReadAhead(boolean readAhead) {
+    this.readAhead = readAhead;
+  }
+
+  public boolean isWriteBehind() {
+    return writeBehind;
+  }
+
+  public void setWriteBehind(boolean writeBehind) {
+    this.writeBehind = writeBehind;
+  }
 }
@@ -3,10 +3,12 @@ package org.lemurproject.galago.tupleflow.execution;
 
 import org.lemurproject.galago.tupleflow.CompressionType;
 import org.lemurproject.galago.tupleflow.FileUtility;
+import org.lemurproject.galago.tupleflow.GalagoConf;
 import org.lemurproject.galago.utility.FSUtil;
 import org.lemurproject.galago.utility.Parameters;
 import org.lemurproject.galago.tupleflow.Utility;
 import org.lemurproject.galago.tupleflow.execution.StageGroupDescription.DataPipeRegion;
+import org.lemurproject.galago.tupleflow.runtime.MemoryPipe;
 import org.lemurproject.galago.tupleflow.web.WebServer;
 import org.lemurproject.galago.tupleflow.web.WebServerException;
 
@@ -51,6 +53,13 @@ public class JobExecutor {
     HashMap<String, HashSet<String>> stageChildren = new HashMap<String, HashSet<String>>();
     HashMap<String, HashSet<String>> stageParents = new HashMap<String, HashSet<String>>();
     ArrayList<DataPipe> pipes = new ArrayList<DataPipe>();
+    // stream connections through memory (only for executors that run stages in this JVM)
+    boolean streaming = false;
+    // compression for file connections that do not specify one
+    CompressionType defaultCompression = CompressionType.UNSPECIFIED;
+    // background I/O for every file connection, not just those that ask for it
+    boolean readAhead = false;
+    boolean writeBehind = false;
 
     public JobExecutor(Job job, String temporaryStorage, ErrorStore store) {
         this.store = store;
@@ -187,6 +196,53 @@ public class JobExecutor {
         }
     }
 
+    /**
+     * Streams connections that have a single reader through memory instead
+     * of files. Stages that read a streamed connection start as soon as all
+     * instances of the stages that write it have started. Only valid for
+     * executors that run every stage in this JVM; must be set before
+     * prepare().
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Sets the compression of connections whose compression is UNSPECIFIED
+     * (streamed connections stay uncompressed). Must be set before prepare().
+     */
+    public void setDefaultCompression(CompressionType compression) {
+        this.defaultCompression = compression;
+    }
+
+    /**
+     * Reads and decompresses the files of every connection on background
+     * threads, as if each set StageConnectionPoint.setReadAhead. Must be set
+     * before prepare().
+     */
+    public void setReadAhead(boolean readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Compresses and writes the files of every connection on background
+     * threads, as if each set StageConnectionPoint.setWriteBehind. Must be
+     * set before prepare().
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    /**
+     * Returns true if the executor runs stage instances in this JVM, so that
+     * connections can be streamed through memory.
+     */
+    public static boolean supportsStreaming(StageExecutor executor) {
+        return executor instanceof LocalCheckpointedStageExecutor
+                || executor instanceof ThreadedStageExecutor
+                || executor instanceof LocalStageExecutor;
+    }
+
     public void prepare() {
         boolean successful = constructAndVerify();
 
@@ -576,6 +632,14 @@ public class JobExecutor {
             return connection.getCompression();
         }
 
+        public boolean isReadAhead() {
+            return connection.isReadAhead();
+        }
+
+        public boolean isWriteBehind() {
+            return connection.isWriteBehind();
+        }
+
         public DataPipe getPipe() {
             return pipe;
         }
@@ -745,6 +809,13 @@ public class JobExecutor {
             String directoryName = temporaryStorage + File.separator + connection.getName();
             new File(directoryName).mkdir();
 
+            // a memory pipe has exactly one reader
+            boolean streamed = streaming && connection.outputs.size() == 1;
+            CompressionType compression = connection.getCompression();
+            if (compression == CompressionType.UNSPECIFIED && !streamed) {
+                compression = defaultCompression;
+            }
+
             DataPipe pipe = new DataPipe(directoryName,
                     connection.getName(),
                     connection.getClassName(),
@@ -752,7 +823,11 @@ public class JobExecutor {
                     connection.getHash(),
                     connection.getInputCount(),
                     connection.getOutputCount(),
-                    connection.getCompression());
+                    compression);
+
+            pipe.setStreaming(streamed);
+            pipe.setReadAhead(!streamed && (readAhead || connection.isReadAhead()));
+            pipe.setWriteBehind(!streamed && (writeBehind || connection.isWriteBehind()));
 
             int startIndex = 0;
             connection.setPipe(pipe);
@@ -806,6 +881,8 @@ public class JobExecutor {
         // Wrap System.in and poll for characters. If we see a space+<enter>, print the
         // master URL out, b/c I'm tired of not being able to see it.
         BufferedReader poller = new BufferedReader(new InputStreamReader(System.in));
+        // true if some connection is streamed, so stages may start before their inputs are complete
+        boolean streaming = false;
 
         public JobExecutionStatus(HashMap<String, StageGroupDescription> stages,
                                   String temporaryStorage, StageExecutor executor, String cmd) {
@@ -826,6 +903,7 @@ public class JobExecutor {
                                 pipeName, new HashSet<String>());
                     }
                     connectionDependencies.get(pipeName).add(description.getName());
+                    streaming |= region.pipe.isStreaming();
                 }
 
                 description.setMasterURL(masterURL);
@@ -1001,7 +1079,9 @@ public class JobExecutor {
 
                 for (DataPipeRegion region : description.inputs.values()) {
                     // if this input is incomplete, we can't run this stage yet
-                    if (!completedConnections.contains(region.pipe.pipeName)) {
+                    // (unless it is streamed, and all of its writers are running)
+                    if (!completedConnections.contains(region.pipe.pipeName)
+                            && !(region.pipe.isStreaming() && isStreamStarted(region.pipe.pipeName))) {
                         allComplete = false;
                         break;
                     }
@@ -1016,6 +1096,23 @@ public class JobExecutor {
             return null;
         }
 
+        /**
+         * Returns true if every instance of every stage that writes to the
+         * connection has started (or finished).
+         */
+        private synchronized boolean isStreamStarted(String pipeName) {
+            for (String stageName : connectionDependencies.get(pipeName)) {
+                if (completedStages.containsKey(stageName)) {
+                    continue;
+                }
+                StageExecutionStatus status = runningStages.get(stageName);
+                if (status == null || status.getQueuedInstances() > 0 || status.getBlockedInstances() > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
         /**
          * Polls all the running stages to see if they've completed. When one
          * completes, it is added to completedStages and the method returns.
@@ -1054,8 +1151,14 @@ public class JobExecutor {
                     }
                 }
 
+                // a stage that reads a streamed connection can start before any stage completes
+                if (streaming && findRunnableStage(stages.values(), launchedStages, completedConnections) != null) {
+                    return;
+                }
+
                 // check at least once per 10 seconds, but poll faster at first
-                delay = Math.min(delay * 2, 10000);
+                // (and often when streaming, to start readers early)
+                delay = Math.min(delay * 2, streaming ? 100 : 10000);
                 poll();
                 Thread.sleep(delay);
             }
@@ -1095,6 +1198,7 @@ public class JobExecutor {
         WebServer webServer = null;
 
         try {
+            openStreams();
             webServer = WebServer.start(argp, handler);
             status.masterURL = webServer.getURL();
             System.out.println("WebServer @ " + webServer.getURL());
@@ -1102,6 +1206,7 @@ public class JobExecutor {
             handler.waitForFinalPage();
             webServer.stop();
         } finally {
+            releaseStreams();
             if (webServer != null) {
                 webServer.stop();
             }
@@ -1110,7 +1215,33 @@ public class JobExecutor {
 
     public void runWithoutServer(StageExecutor executor) throws ExecutionException, InterruptedException {
         JobExecutionStatus status = new JobExecutionStatus(stages, temporaryStorage, executor, null);
-        status.run();
+        try {
+            openStreams();
+            status.run();
+        } finally {
+            releaseStreams();
+        }
+    }
+
+    private void openStreams() {
+        for (DataPipe pipe : pipes) {
+            if (pipe.isStreaming()) {
+                for (String name : pipe.getFileNames()) {
+                    MemoryPipe.register(name);
+                }
+            }
+        }
+    }
+
+    // frees any memory pipes left over, e.g. after a failure
+    private void releaseStreams() {
+        for (DataPipe pipe : pipes) {
+            if (pipe.isStreaming()) {
+                for (String name : pipe.getFileNames()) {
+                    MemoryPipe.release(name);
+                }
+            }
+        }
     }
 
     public static boolean runLocally(Job job, ErrorStore store, Parameters p) throws Exception {
@@ -1130,6 +1261,9 @@ public class JobExecutor {
         String mode = p.get("mode", "local");
 
         String[] params = new String[]{};
+        if (mode.toLowerCase().startsWith("thread")) {
+            params = new String[]{Long.toString(p.get("threadCount", (long) Runtime.getRuntime().availableProcessors()))};
+        }
 
         String command;
         if (p.containsKey("command")) {
@@ -1141,6 +1275,25 @@ public class JobExecutor {
         StageExecutor executor = StageExecutorFactory.newInstance(mode, params);
         System.err.printf("Created executor: %s\n", executor.toString());
         JobExecutor jobExecutor = new JobExecutor(job, tempFolder.getAbsolutePath(), store);
+        if (p.get("streaming", false)) {
+            if (supportsStreaming(executor)) {
+                jobExecutor.setStreaming(true);
+                if (p.containsKey("streamingBufferMB")) {
+                    MemoryPipe.setBufferLimit(p.getLong("streamingBufferMB") * 1024 * 1024);
+                }
+            } else {
+                System.err.printf("Streaming is not supported by executor %s, using files.\n", executor.toString());
+            }
+        }
+        if (p.containsKey("compression")) {
+            jobExecutor.setDefaultCompression(CompressionType.fromString(p.getString("compression").toUpperCase()));
+        }
+        jobExecutor.setReadAhead(p.get("readAhead", false));
+        jobExecutor.setWriteBehind(p.get("writeBehind", false));
+        if (p.get("binarySort", false)) {
+            // sorters in this JVM buffer serialized records off-heap
+            GalagoConf.getSorterOptions().set("binary", true);
+        }
         jobExecutor.prepare();
 
         if (store.hasStatements()) {
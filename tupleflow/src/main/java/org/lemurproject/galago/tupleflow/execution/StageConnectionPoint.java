@@ -19,6 +19,9 @@ public class StageConnectionPoint implements Serializable {
 
   private static final long serialVersionUID = -429999457112309740L;
   public CompressionType compression;
+  // background I/O for the files of the connection (see DataPipe)
+  public boolean readAhead = false;
+  public boolean writeBehind = false;
   public ConnectionPointType type;
   public String externalName;
   public String internalName;
@@ -68,6 +71,32 @@ public class StageConnectionPoint implements Serializable {
     return compression;
   }
 
+  public boolean isReadAhead() {
+    return readAhead;
+  }
+
+  /**
+   * Readers of this connection read and decompress its files on background
+   * threads. Only applies to output points, like compression.
+   */
+  public StageConnectionPoint setReadAhead(boolean readAhead) {
+    this.readAhead = readAhead;
+    return this;
+  }
+
+  public boolean isWriteBehind() {
+    return writeBehind;
+  }
+
+  /**
+   * Writers of this connection compress and write its files on background
+   * threads. Only applies to output points, like compression.
+   */
+  public StageConnectionPoint setWriteBehind(boolean writeBehind) {
+    this.writeBehind = writeBehind;
+    return this;
+  }
+
   public String getClassName() {
     return className;
   }
@@ -7,6 +7,7 @@ import org.lemurproject.galago.tupleflow.execution.StageInstanceDescription.Pipe
 import org.lemurproject.galago.tupleflow.execution.StageInstanceDescription.PipeOutput;
 import org.lemurproject.galago.tupleflow.runtime.FileOrderedReader;
 import org.lemurproject.galago.tupleflow.runtime.FileOrderedWriter;
+import org.lemurproject.galago.tupleflow.runtime.MemoryPipe;
 import org.lemurproject.galago.utility.Parameters;
 import org.lemurproject.galago.utility.debug.Counter;
 import org.lemurproject.galago.utility.debug.NullCounter;
@@ -25,6 +26,8 @@ import java.util.List;
 public class StageInstanceFactory {
 
   NetworkedCounterManager counterManager;
+  // set while instantiating a stage instance, when profiling is enabled
+  private StepProfiler profiler;
 
   public StageInstanceFactory(NetworkedCounterManager counterManager) {
     this.counterManager = counterManager;
@@ -86,7 +89,54 @@ public class StageInstanceFactory {
 
   public ExNihiloSource instantiate(StageInstanceDescription instance)
           throws IncompatibleProcessorException, IOException {
-    return (ExNihiloSource) instantiate(instance, instance.getStage().getSteps());
+    profiler = StepProfiler.isEnabled() ? new StepProfiler(instance.getName()) : null;
+    try {
+      ExNihiloSource source = (ExNihiloSource) instantiate(instance, instance.getStage().getSteps());
+      List<String> streams = new ArrayList<>();
+      for (PipeInput output : instance.getWriters().values()) {
+        if (output.getPipe().isStreaming()) {
+          streams.addAll(Arrays.asList(output.getFileNames()));
+        }
+      }
+      return streams.isEmpty() ? source : new StreamingSource(source, streams);
+    } finally {
+      profiler = null;
+    }
+  }
+
+  /**
+   * Ends the streamed outputs of a stage instance once it has run, so that
+   * readers see the end of the stream, or the failure.
+   */
+  private static class StreamingSource implements ExNihiloSource {
+
+    private final ExNihiloSource source;
+    private final List<String> streams;
+
+    StreamingSource(ExNihiloSource source, List<String> streams) {
+      this.source = source;
+      this.streams = streams;
+    }
+
+    @Override
+    public void run() throws IOException {
+      try {
+        source.run();
+      } catch (IOException | RuntimeException | Error e) {
+        for (String stream : streams) {
+          MemoryPipe.abort(stream, e.toString());
+        }
+        throw e;
+      }
+      for (String stream : streams) {
+        MemoryPipe.finish(stream);
+      }
+    }
+
+    @Override
+    public void setProcessor(Step processor) throws IncompatibleProcessorException {
+      source.setProcessor(processor);
+    }
   }
 
   public Step instantiate(
@@ -111,11 +161,14 @@ public class StageInstanceFactory {
         current = instantiateStep(instance, step);
       }
 
+      if (profiler != null) {
+        current = profiler.wrap(current);
+      }
       if (first == null) {
         first = current;
       }
       if (previous != null) {
-        ((Source) previous).setProcessor(current);
+        link(previous, current);
       }
 
       previous = current;
@@ -124,6 +177,21 @@ public class StageInstanceFactory {
     return first;
   }
 
+  private void link(Step previous, Step current) throws IncompatibleProcessorException {
+    if (profiler == null) {
+      ((Source) previous).setProcessor(current);
+      return;
+    }
+    try {
+      ((Source) previous).setProcessor(current);
+    } catch (IncompatibleProcessorException e) {
+      // the source needs the concrete class of the next step; not profiled
+      ((Source) previous).setProcessor(StepProfiler.unwrap(current));
+      return;
+    }
+    profiler.link(previous, current);
+  }
+
   public Step instantiateStep(
           StageInstanceDescription instance,
           final StepInformation step) throws IOException {
@@ -200,7 +268,14 @@ public class StageInstanceFactory {
       ++i;
     }
 
-    return new org.lemurproject.galago.tupleflow.Multi(processors);
+    Step multi = new org.lemurproject.galago.tupleflow.Multi<Object>(processors);
+    if (profiler != null) {
+      multi = profiler.wrap(multi);
+      for (Processor<?> processor : processors) {
+        profiler.link(multi, processor);
+      }
+    }
+    return multi;
   }
 
   protected static Order createOrder(final DataPipe pipe) throws IOException {
@@ -236,10 +311,11 @@ public class StageInstanceFactory {
       fileNames.addAll(Arrays.asList(po.getFileNames()));
     }
 
+    boolean readAhead = pipes[0].getPipe().isReadAhead();
     if (fileNames.size() > 1) {
-      reader = OrderedCombiner.combineFromFiles(fileNames, order);
+      reader = OrderedCombiner.combineFromFiles(fileNames, order, readAhead);
     } else {
-      reader = new FileOrderedReader(fileNames.get(0));
+      reader = new FileOrderedReader(fileNames.get(0), 1024, readAhead);
     }
     return reader;
 
@@ -254,11 +330,12 @@ public class StageInstanceFactory {
 
     Order order = createOrder(pipeOutput.getPipe());
     String[] fileNames = pipeOutput.getFileNames();
+    boolean readAhead = pipeOutput.getPipe().isReadAhead();
 
     if (fileNames.length > 1) {
-      reader = OrderedCombiner.combineFromFiles(Arrays.asList(fileNames), order);
+      reader = OrderedCombiner.combineFromFiles(Arrays.asList(fileNames), order, readAhead);
     } else {
-      reader = new FileOrderedReader(fileNames[0]);
+      reader = new FileOrderedReader(fileNames[0], 1024, readAhead);
     }
     return reader;
   }
@@ -273,6 +350,8 @@ public class StageInstanceFactory {
 
     Order order = createOrder(pipeOutput.getPipe());
     String[] fileNames = pipeOutput.getFileNames();
+    boolean readAhead = pipeOutput.getPipe().isReadAhead();
+    boolean writeBehind = pipeOutput.getPipe().isWriteBehind();
 
     if (fileNames.length > 100) {
       List<String> names = Arrays.asList(fileNames);
@@ -284,12 +363,12 @@ public class StageInstanceFactory {
         int end = Math.min(names.size(), i + 20);
         List<String> toCombine = names.subList(start, end);
 
-        OrderedCombiner combReader = OrderedCombiner.combineFromFiles(toCombine, order);
+        OrderedCombiner combReader = OrderedCombiner.combineFromFiles(toCombine, order, readAhead);
         reader = combReader;
         CompressionType c = combReader.getCompression();
         
         File temporary = FileUtility.createTemporary();
-        FileOrderedWriter<T> writer = new FileOrderedWriter<T>(temporary.getAbsolutePath(), order, c);
+        FileOrderedWriter<T> writer = new FileOrderedWriter<T>(temporary.getAbsolutePath(), order, c, writeBehind);
 
         try {
           reader.setProcessor(writer);
@@ -303,11 +382,11 @@ public class StageInstanceFactory {
         temporary.deleteOnExit();
       }
 
-      reader = OrderedCombiner.combineFromFiles(reduced, order);
+      reader = OrderedCombiner.combineFromFiles(reduced, order, readAhead);
     } else if (fileNames.length > 1) {
-      reader = OrderedCombiner.combineFromFiles(Arrays.asList(fileNames), order);
+      reader = OrderedCombiner.combineFromFiles(Arrays.asList(fileNames), order, readAhead);
     } else {
-      reader = new FileOrderedReader(fileNames[0]);
+      reader = new FileOrderedReader(fileNames[0], 1024, readAhead);
     }
     return reader;
   }
@@ -324,12 +403,13 @@ public class StageInstanceFactory {
 
     assert order != null : "Order not found: " + Arrays.toString(pipeInput.getPipe().getOrder());
 
+    boolean writeBehind = pipeInput.getPipe().isWriteBehind();
     try {
       if (fileNames.length == 1) {
-        writer = new FileOrderedWriter(fileNames[0], order, pipeInput.getPipe().getCompression());
+        writer = new FileOrderedWriter(fileNames[0], order, pipeInput.getPipe().getCompression(), writeBehind);
       } else {
         assert hashOrder != null : "Hash order not found: " + pipeInput.getPipe().getPipeName() + " " + pipeInput.getPipe().getHash();
-        writer = Splitter.splitToFiles(fileNames, order, hashOrder, pipeInput.getPipe().getCompression());
+        writer = Splitter.splitToFiles(fileNames, order, hashOrder, null, pipeInput.getPipe().getCompression(), writeBehind);
       }
     } catch (IncompatibleProcessorException e) {
       throw new IOException("Failed to create a typeWriter", e);
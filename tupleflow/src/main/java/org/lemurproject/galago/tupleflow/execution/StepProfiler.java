@@ -0,0 +1,323 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.tupleflow.execution;
+
+import org.lemurproject.galago.tupleflow.ExNihiloSource;
+import org.lemurproject.galago.tupleflow.Processor;
+import org.lemurproject.galago.tupleflow.Sorter;
+import org.lemurproject.galago.tupleflow.Source;
+import org.lemurproject.galago.tupleflow.Step;
+import org.lemurproject.galago.tupleflow.error.IncompatibleProcessorException;
+import org.lemurproject.galago.utility.Parameters;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-step profiling of stage instances that run in this JVM.
+ *
+ * When enabled, StageInstanceFactory wraps each processor in a delegating
+ * processor that counts tuples and the time spent in the step and everything
+ * downstream of it; a step's own time is that minus the time of the steps it
+ * feeds. The wrapped source of the stage records the wall and CPU time of the
+ * whole instance. Instances of the same stage are summed, step by step, when
+ * they finish.
+ *
+ * CPU time is that of the thread that runs the instance: work that steps hand
+ * to other threads (Sorter's parallel sort and merge, write-behind of
+ * connection files) is not included, so CPU time may be less than the CPU the
+ * stage used.
+ *
+ * Profiles are only collected by executors that run instances in this JVM
+ * (mode=local or threaded). Shredded processors are profiled through the
+ * TupleShredder of their type, whose cost is counted as part of the step.
+ * The timer adds two System.nanoTime calls per tuple and step.
+ */
+public class StepProfiler {
+
+  private static volatile boolean enabled = false;
+  private static final Map<String, StageTotals> stages = new TreeMap<>();
+  private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+  private final String stageName;
+  private final List<StepCounts> steps = new ArrayList<>();
+
+  StepProfiler(String stageName) {
+    this.stageName = stageName;
+  }
+
+  public static void enable() {
+    enabled = true;
+  }
+
+  public static void disable() {
+    enabled = false;
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  public static synchronized void reset() {
+    stages.clear();
+  }
+
+  /**
+   * Returns a profiled wrapper of the step, or the step itself if it is not a
+   * source or a processor.
+   */
+  Step wrap(Step step) {
+    if (step == null || step instanceof Profiled) {
+      return step;
+    }
+    StepCounts counts = new StepCounts(steps.size(), step);
+    Step wrapped;
+    if (step instanceof ExNihiloSource) {
+      wrapped = new ProfiledSource(this, (ExNihiloSource<?>) step, counts);
+    } else if (step instanceof Processor) {
+      wrapped = new ProfiledProcessor<>(step, (Processor<?>) step, counts);
+    } else {
+      Processor<?> shredder = shredder(step);
+      if (shredder == null) {
+        return step;
+      }
+      wrapped = new ProfiledProcessor<>(step, shredder, counts);
+    }
+    steps.add(counts);
+    return wrapped;
+  }
+
+  /**
+   * Returns a TupleShredder that feeds the step, if it is a shredded processor
+   * of a generated type, or null.
+   */
+  private static Processor<?> shredder(Step step) {
+    for (Class<?> c = step.getClass(); c != null; c = c.getSuperclass()) {
+      for (Class<?> i : c.getInterfaces()) {
+        String name = i.getName();
+        if (!name.endsWith("$ShreddedProcessor")) {
+          continue;
+        }
+        String shredderName = name.substring(0, name.length() - "ShreddedProcessor".length()) + "TupleShredder";
+        try {
+          Class<?> shredder = Class.forName(shredderName, true, i.getClassLoader());
+          Object instance = shredder.getConstructor(i).newInstance(step);
+          if (instance instanceof Processor) {
+            return (Processor<?>) instance;
+          }
+        } catch (ReflectiveOperationException e) {
+          // not a generated type; the step is linked without profiling
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Records that the source step sends its output to the destination step.
+   */
+  void link(Step source, Step destination) {
+    StepCounts from = counts(source);
+    StepCounts to = counts(destination);
+    if (from != null && to != null) {
+      from.children.add(to);
+    }
+  }
+
+  /**
+   * Returns the step underneath a profiled wrapper.
+   */
+  static Step unwrap(Step step) {
+    return (step instanceof Profiled) ? ((Profiled) step).step : step;
+  }
+
+  private static StepCounts counts(Step step) {
+    return (step instanceof Profiled) ? ((Profiled) step).counts : null;
+  }
+
+  private void finished(long wallNanos, long cpuNanos) {
+    synchronized (StepProfiler.class) {
+      StageTotals totals = stages.get(stageName);
+      if (totals == null) {
+        totals = new StageTotals();
+        stages.put(stageName, totals);
+      }
+      totals.add(steps, wallNanos, cpuNanos);
+    }
+  }
+
+  /**
+   * The totals of all finished stage instances, by stage:
+   * {stage : {instances, wallSeconds, cpuSeconds, steps : [{step, tuples,
+   * seconds, inclusiveSeconds, tuplesPerSecond, bytesSpilled}]}}, where
+   * seconds is the time of the step itself.
+   */
+  public static synchronized Parameters getReport() {
+    Parameters report = Parameters.create();
+    for (Map.Entry<String, StageTotals> e : stages.entrySet()) {
+      report.set(e.getKey(), e.getValue().toParameters());
+    }
+    return report;
+  }
+
+  private static class StepCounts {
+
+    final int id;
+    final String name;
+    final Step step;
+    final List<StepCounts> children = new ArrayList<>();
+    long tuples;
+    long nanos;
+
+    StepCounts(int id, Step step) {
+      this.id = id;
+      this.step = step;
+      this.name = step.getClass().getSimpleName();
+    }
+
+    long getSelfNanos() {
+      long self = nanos;
+      for (StepCounts child : children) {
+        self -= child.nanos;
+      }
+      return Math.max(0, self);
+    }
+
+    long getBytesSpilled() {
+      return (step instanceof Sorter) ? ((Sorter) step).getBytesSpilled() : 0;
+    }
+  }
+
+  private static class StageTotals {
+
+    long instances;
+    long wallNanos;
+    long cpuNanos;
+    // summed by position, since every instance of a stage has the same steps
+    final List<String> names = new ArrayList<>();
+    final List<long[]> values = new ArrayList<>();
+
+    void add(List<StepCounts> steps, long wall, long cpu) {
+      instances++;
+      wallNanos += wall;
+      cpuNanos += Math.max(0, cpu);
+      for (StepCounts step : steps) {
+        if (step.id >= names.size()) {
+          names.add(step.name);
+          values.add(new long[4]);
+        }
+        long[] v = values.get(step.id);
+        v[0] += step.tuples;
+        v[1] += step.getSelfNanos();
+        v[2] += step.nanos;
+        v[3] += step.getBytesSpilled();
+      }
+    }
+
+    Parameters toParameters() {
+      Parameters p = Parameters.create();
+      p.set("instances", instances);
+      p.set("wallSeconds", wallNanos / 1e9);
+      p.set("cpuSeconds", cpuNanos / 1e9);
+      List<Parameters> stepList = new ArrayList<>();
+      for (int i = 0; i < names.size(); i++) {
+        long[] v = values.get(i);
+        Parameters step = Parameters.create();
+        step.set("step", names.get(i));
+        step.set("tuples", v[0]);
+        step.set("seconds", v[1] / 1e9);
+        step.set("inclusiveSeconds", v[2] / 1e9);
+        step.set("tuplesPerSecond", (v[1] == 0) ? 0.0 : v[0] / (v[1] / 1e9));
+        step.set("bytesSpilled", v[3]);
+        stepList.add(step);
+      }
+      p.set("steps", stepList);
+      return p;
+    }
+  }
+
+  // public: Linkage calls close() reflectively
+  public static abstract class Profiled implements Source<Object> {
+
+    final Step step;
+    final StepCounts counts;
+
+    Profiled(Step step, StepCounts counts) {
+      this.step = step;
+      this.counts = counts;
+    }
+
+    @Override
+    public void setProcessor(Step processor) throws IncompatibleProcessorException {
+      if (!(step instanceof Source)) {
+        throw new IncompatibleProcessorException(step.getClass().getName() + " is not a source.");
+      }
+      ((Source<?>) step).setProcessor(processor);
+    }
+  }
+
+  /**
+   * The source of a stage instance, which runs the whole instance.
+   */
+  public static class ProfiledSource extends Profiled implements ExNihiloSource<Object> {
+
+    private final StepProfiler profiler;
+
+    ProfiledSource(StepProfiler profiler, ExNihiloSource<?> source, StepCounts counts) {
+      super(source, counts);
+      this.profiler = profiler;
+    }
+
+    @Override
+    public void run() throws IOException {
+      long cpuStart = threadCpuTime();
+      long start = System.nanoTime();
+      try {
+        ((ExNihiloSource<?>) step).run();
+      } finally {
+        long elapsed = System.nanoTime() - start;
+        counts.nanos += elapsed;
+        profiler.finished(elapsed, (cpuStart < 0) ? -1 : threadCpuTime() - cpuStart);
+      }
+    }
+  }
+
+  public static class ProfiledProcessor<T> extends Profiled implements Processor<T> {
+
+    private final Processor<T> processor;
+
+    ProfiledProcessor(Step step, Processor<T> processor, StepCounts counts) {
+      super(step, counts);
+      this.processor = processor;
+    }
+
+    @Override
+    public void process(T object) throws IOException {
+      counts.tuples++;
+      long start = System.nanoTime();
+      try {
+        processor.process(object);
+      } finally {
+        counts.nanos += System.nanoTime() - start;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      long start = System.nanoTime();
+      try {
+        processor.close();
+      } finally {
+        counts.nanos += System.nanoTime() - start;
+      }
+    }
+  }
+
+  private static long threadCpuTime() {
+    return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+  }
+}
@@ -0,0 +1,208 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.tupleflow.execution;
+
+import org.lemurproject.galago.tupleflow.ExNihiloSource;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs stage instances concurrently on a fixed pool of threads in this JVM
+ * (mode=threaded).
+ *
+ * Like the other checkpointed executors, each instance is serialized to its
+ * own job file and read back before it runs, so instances never share
+ * parameter objects; each instance also gets its own StageInstanceFactory and
+ * counters. Instances of every running stage share the one pool, so a
+ * machine is kept busy without forking a JVM per instance.
+ */
+public class ThreadedStageExecutor extends CheckpointedStageExecutor {
+
+  private static final Logger logger = Logger.getLogger("ThreadedStageExecutor");
+  private final ExecutorService pool;
+  private final int threadCount;
+
+  /**
+   * @param args optionally, the number of threads (default: one per processor)
+   */
+  public ThreadedStageExecutor(String... args) {
+    int threads = Runtime.getRuntime().availableProcessors();
+    if (args.length > 0 && !args[0].isEmpty()) {
+      threads = Integer.parseInt(args[0]);
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException("ThreadedStageExecutor needs at least one thread: " + threads);
+    }
+    this.threadCount = threads;
+    this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "tupleflow-stage-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  public static class ThreadedExecutionStatus implements StageExecutionStatus {
+
+    private final String stageName;
+    private final ArrayList<Exception> exceptions = new ArrayList<>();
+    private final ArrayList<Double> runTimes = new ArrayList<>();
+    private int queuedInstances;
+    private int runningInstances = 0;
+    private int completedInstances = 0;
+
+    ThreadedExecutionStatus(String stageName, int instances) {
+      this.stageName = stageName;
+      this.queuedInstances = instances;
+    }
+
+    /**
+     * Runs one instance from its job file, writing .complete or .error next
+     * to it. Once one instance of the stage fails, the rest are skipped.
+     */
+    void runInstance(String instanceFile) {
+      synchronized (this) {
+        queuedInstances -= 1;
+        if (!exceptions.isEmpty()) {
+          completedInstances += 1;
+          return;
+        }
+        runningInstances += 1;
+      }
+
+      File errorFile = new File(instanceFile + ".error");
+      File completeFile = new File(instanceFile + ".complete");
+      Exception failure = null;
+      long start = System.nanoTime();
+
+      if (completeFile.exists()) {
+        logger.info("Skipping instance because a complete checkpoint was found: " + instanceFile);
+      } else {
+        if (errorFile.exists()) {
+          errorFile.delete();
+        }
+        NetworkedCounterManager manager = new NetworkedCounterManager();
+        manager.start();
+        try (ObjectInputStream stream = new ObjectInputStream(new FileInputStream(new File(instanceFile)))) {
+          StageInstanceDescription instance = (StageInstanceDescription) stream.readObject();
+          ExNihiloSource source = new StageInstanceFactory(manager).instantiate(instance);
+          source.run();
+        } catch (Throwable err) {
+          logger.log(Level.SEVERE, "Stage instance failed: " + instanceFile, err);
+          failure = new Exception(err);
+        } finally {
+          manager.stop();
+        }
+
+        try {
+          if (failure == null) {
+            completeFile.createNewFile();
+          } else {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(errorFile))) {
+              writer.write(failure.toString());
+              writer.write("\n");
+            }
+          }
+        } catch (IOException e) {
+          logger.log(Level.SEVERE, "Trouble writing completion/error files: " + instanceFile, e);
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+
+      synchronized (this) {
+        runningInstances -= 1;
+        completedInstances += 1;
+        runTimes.add((System.nanoTime() - start) / 1e9);
+        if (failure != null) {
+          exceptions.add(failure);
+        }
+      }
+    }
+
+    @Override
+    public String getName() {
+      return stageName;
+    }
+
+    @Override
+    public int getBlockedInstances() {
+      return 0;
+    }
+
+    @Override
+    public synchronized int getQueuedInstances() {
+      return queuedInstances;
+    }
+
+    @Override
+    public synchronized int getRunningInstances() {
+      return runningInstances;
+    }
+
+    @Override
+    public synchronized int getCompletedInstances() {
+      return completedInstances;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+      return queuedInstances == 0 && runningInstances == 0;
+    }
+
+    @Override
+    public synchronized List<Exception> getExceptions() {
+      return new ArrayList<>(exceptions);
+    }
+
+    @Override
+    public synchronized List<Double> getRunTimes() {
+      return new ArrayList<>(runTimes);
+    }
+  }
+
+  @Override
+  public StageExecutionStatus submit(String stageName, ArrayList<String> jobPaths, String temporary) {
+    final ThreadedExecutionStatus status = new ThreadedExecutionStatus(stageName, jobPaths.size());
+    for (final String jobPath : jobPaths) {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          status.runInstance(jobPath);
+        }
+      });
+    }
+    return status;
+  }
+
+  @Override
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return "ThreadedStageExecutor(" + threadCount + " threads)";
+  }
+}
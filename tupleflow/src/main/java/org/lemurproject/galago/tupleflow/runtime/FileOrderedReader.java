@@ -4,6 +4,7 @@ package org.lemurproject.galago.tupleflow.runtime;
 import org.lemurproject.galago.tupleflow.*;
 import org.lemurproject.galago.tupleflow.error.IncompatibleProcessorException;
 import org.lemurproject.galago.utility.StreamCreator;
+import org.lemurproject.galago.utility.compression.LZ4InputStream;
 import org.lemurproject.galago.utility.buffer.VByteInput;
 
 import java.io.DataInputStream;
@@ -30,24 +31,48 @@ public class FileOrderedReader<T> implements ReaderSource<T> {
   }
 
   public FileOrderedReader(String filename, int bufferSize) throws IOException {
+    this(filename, bufferSize, false);
+  }
+
+  /**
+   * @param readAhead reads and decompresses the file on a background thread
+   * (see ReadAheadInputStream)
+   */
+  public FileOrderedReader(String filename, int bufferSize, boolean readAhead) throws IOException {
     // set up the input stream and get its length in bytes
-    dataStream = StreamCreator.bufferedInputStream(filename);
+    dataStream = MemoryPipe.openInput(filename);
+    if (dataStream == null) {
+      dataStream = StreamCreator.bufferedInputStream(filename);
+    }
     byte comp = (byte) dataStream.read();
     c = CompressionType.fromByte( comp );
 
     // now, set up the stream, including a stopper that keeps us from
     // reading into the XML region (which no longer exists, but BufferedFileDataStream also buffers for us)
+    InputStream decompressed;
     switch (c) {
       case VBYTE:
-        stream = new ArrayInput(new VByteInput(new DataInputStream(new GZIPInputStream(dataStream))));
-        break;
       case GZIP:
-        stream = new ArrayInput(new DataInputStream(new GZIPInputStream(dataStream)));
+        decompressed = new GZIPInputStream(dataStream);
+        break;
+      case LZ4:
+        decompressed = new LZ4InputStream(dataStream);
         break;
       case UNSPECIFIED:
       case NONE:
       default:
-        stream = new ArrayInput(new DataInputStream(dataStream));
+        decompressed = dataStream;
+    }
+    if (readAhead) {
+      decompressed = new ReadAheadInputStream(decompressed);
+      dataStream = decompressed;
+    }
+    switch (c) {
+      case VBYTE:
+        stream = new ArrayInput(new VByteInput(new DataInputStream(decompressed)));
+        break;
+      default:
+        stream = new ArrayInput(new DataInputStream(decompressed));
     }
 
     String className = stream.readString();
@@ -58,6 +83,7 @@ public class FileOrderedReader<T> implements ReaderSource<T> {
       org.lemurproject.galago.tupleflow.Type type = (org.lemurproject.galago.tupleflow.Type) typeClass.getConstructor().newInstance();
       order = type.getOrder(orderSpec);
     } catch (Exception e) {
+      dataStream.close();
       throw (IOException) new IOException(
               "Couldn't create an order object for type: " + className).initCause(e);
     }
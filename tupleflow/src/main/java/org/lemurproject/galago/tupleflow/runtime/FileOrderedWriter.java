@@ -6,10 +6,12 @@ import org.lemurproject.galago.tupleflow.CompressionType;
 import org.lemurproject.galago.tupleflow.Order;
 import org.lemurproject.galago.tupleflow.Processor;
 import org.lemurproject.galago.utility.StreamCreator;
+import org.lemurproject.galago.utility.compression.LZ4OutputStream;
 import org.lemurproject.galago.utility.buffer.VByteOutput;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -23,16 +25,36 @@ public class FileOrderedWriter<T> implements Processor<T> {
     Processor<T> orderedWriter;
 
     public FileOrderedWriter(String filename, Order<T> order, CompressionType c) throws IOException {
+        this(filename, order, c, false);
+    }
+
+    /**
+     * @param writeBehind compresses and writes the file on a background thread
+     * (see WriteBehindOutputStream); ignored for streamed pipes
+     */
+    public FileOrderedWriter(String filename, Order<T> order, CompressionType c, boolean writeBehind) throws IOException {
         this.filename = filename;
         this.order = order;
 
-        DataOutputStream dataStream = StreamCreator.realOutputStream(filename);
+        DataOutputStream dataStream;
+        OutputStream pipe = MemoryPipe.openOutput(filename);
+        if (pipe != null) {
+            dataStream = new DataOutputStream(pipe);
+            // a streamed pipe stays in memory, so by default don't spend time compressing it
+            if (c == CompressionType.UNSPECIFIED) {
+                c = CompressionType.NONE;
+            }
+            writeBehind = false;
+        } else {
+            dataStream = StreamCreator.realOutputStream(filename);
+        }
 
         switch(c){
             // well-specified.
             case NONE:
             case VBYTE:
             case GZIP:
+            case LZ4:
                 break;
 
             case UNSPECIFIED:
@@ -44,19 +66,31 @@ public class FileOrderedWriter<T> implements Processor<T> {
 
         // write the compression type (un compressed)
         dataStream.writeByte(CompressionType.toByte(c));
+        OutputStream compressed;
         switch(c){
             case VBYTE:
-                stream = new ArrayOutput(new VByteOutput(new DataOutputStream(new GZIPOutputStream(dataStream))));
-                break;
             case GZIP:
-                stream = new ArrayOutput(new DataOutputStream(new GZIPOutputStream(dataStream)));
+                compressed = new GZIPOutputStream(dataStream);
+                break;
+            case LZ4:
+                compressed = new LZ4OutputStream(dataStream);
                 break;
             case NONE:
-                stream = new ArrayOutput(dataStream);
+                compressed = dataStream;
                 break;
             default:
                 throw new RuntimeException("Compression Logic in FileOrderedWriter broken!");
         }
+        if (writeBehind) {
+            compressed = new WriteBehindOutputStream(compressed);
+        }
+        switch(c){
+            case VBYTE:
+                stream = new ArrayOutput(new VByteOutput(new DataOutputStream(compressed)));
+                break;
+            default:
+                stream = new ArrayOutput(new DataOutputStream(compressed));
+        }
 
         stream.writeString(order.getOrderedClass().getName());
         stream.writeStrings(order.getOrderSpec());
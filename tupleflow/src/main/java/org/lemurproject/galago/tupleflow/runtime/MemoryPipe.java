@@ -0,0 +1,405 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.tupleflow.runtime;
+
+import org.lemurproject.galago.utility.StreamCreator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * An in-memory replacement for one data pipe file, used for streaming
+ * connections between stages that run in this JVM.
+ *
+ * The producer writes serialized tuples in chunks that are queued for the
+ * consumer, who may read them while the producer is still running. The writer
+ * never waits for the reader: when the chunks queued by all pipes reach the
+ * buffer limit, further chunks are spilled to the pipe's file and read back
+ * from there, in order.
+ *
+ * FileOrderedWriter and FileOrderedReader use a registered pipe in place of
+ * the file with the same name.
+ */
+public class MemoryPipe {
+
+  private static final Logger logger = Logger.getLogger("MemoryPipe");
+  static final int CHUNK_SIZE = 64 * 1024;
+  private static final Map<String, MemoryPipe> pipes = new HashMap<>();
+  private static long bufferLimit = Runtime.getRuntime().maxMemory() / 8;
+  private static long bufferedBytes = 0;
+  private static long spilledBytes = 0;
+
+  private final String filename;
+  private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+  private boolean opened = false;
+  private boolean finished = false;
+  private boolean unwritten = false;
+  private boolean released = false;
+  private String failure = null;
+  private RandomAccessFile spill = null;
+  private long spillLength = 0;
+
+  private MemoryPipe(String filename) {
+    this.filename = filename;
+  }
+
+  /**
+   * Sets the number of bytes that may be queued by all pipes together before
+   * chunks are spilled to disk.
+   */
+  public static synchronized void setBufferLimit(long bytes) {
+    bufferLimit = bytes;
+  }
+
+  public static synchronized long getBufferLimit() {
+    return bufferLimit;
+  }
+
+  /**
+   * Total bytes spilled to disk by all pipes since this JVM started.
+   */
+  public static synchronized long getBytesSpilled() {
+    return spilledBytes;
+  }
+
+  /**
+   * Makes the file a streaming pipe; must be called before either end opens
+   * it.
+   */
+  public static synchronized void register(String filename) {
+    if (!pipes.containsKey(filename)) {
+      pipes.put(filename, new MemoryPipe(filename));
+    }
+  }
+
+  public static synchronized boolean isRegistered(String filename) {
+    return pipes.containsKey(filename);
+  }
+
+  private static synchronized MemoryPipe get(String filename) {
+    return pipes.get(filename);
+  }
+
+  private static synchronized boolean reserve(long bytes) {
+    if (bufferedBytes + bytes > bufferLimit) {
+      return false;
+    }
+    bufferedBytes += bytes;
+    return true;
+  }
+
+  private static synchronized void unreserve(long bytes) {
+    bufferedBytes -= bytes;
+  }
+
+  private static synchronized void spilled(long bytes) {
+    spilledBytes += bytes;
+  }
+
+  /**
+   * Returns a stream that writes to the pipe, or null if the file is not a
+   * registered pipe.
+   */
+  public static OutputStream openOutput(String filename) throws IOException {
+    MemoryPipe pipe = get(filename);
+    if (pipe == null) {
+      return null;
+    }
+    pipe.openWriter();
+    return pipe.new Output();
+  }
+
+  /**
+   * Returns a stream that reads from the pipe, or null if the file is not a
+   * registered pipe. Reads wait for the producer.
+   */
+  public static InputStream openInput(String filename) {
+    MemoryPipe pipe = get(filename);
+    if (pipe == null) {
+      return null;
+    }
+    return pipe.new Input();
+  }
+
+  /**
+   * Called once the producer has finished. If it never opened the pipe, the
+   * reader falls back to the file on disk, as it would without streaming.
+   */
+  public static void finish(String filename) {
+    MemoryPipe pipe = get(filename);
+    if (pipe != null) {
+      pipe.finishWriter();
+    }
+  }
+
+  /**
+   * Called if the producer failed: readers of the pipe will throw.
+   */
+  public static void abort(String filename, String reason) {
+    MemoryPipe pipe = get(filename);
+    if (pipe != null) {
+      pipe.fail(reason);
+    }
+  }
+
+  /**
+   * Removes the pipe and frees its buffers and spill file. Any reader still
+   * waiting on it will throw; any further writes are dropped.
+   */
+  public static void release(String filename) {
+    MemoryPipe pipe;
+    synchronized (MemoryPipe.class) {
+      pipe = pipes.remove(filename);
+    }
+    if (pipe != null) {
+      pipe.close();
+    }
+  }
+
+  private synchronized void openWriter() throws IOException {
+    if (opened) {
+      throw new IOException("Pipe was already opened for writing: " + filename);
+    }
+    opened = true;
+  }
+
+  private synchronized void finishWriter() {
+    if (!opened) {
+      unwritten = true;
+    }
+    finished = true;
+    notifyAll();
+  }
+
+  private synchronized void fail(String reason) {
+    if (failure == null) {
+      failure = reason;
+    }
+    notifyAll();
+  }
+
+  private synchronized void close() {
+    if (released) {
+      return;
+    }
+    released = true;
+    if (failure == null && !finished) {
+      failure = "pipe was released";
+    }
+    for (Chunk chunk : chunks) {
+      if (chunk.data != null) {
+        unreserve(chunk.length);
+      }
+    }
+    chunks.clear();
+    if (spill != null) {
+      try {
+        spill.close();
+      } catch (IOException e) {
+        logger.warning("Failed to close spill file: " + filename);
+      }
+      spill = null;
+      new File(filename).delete();
+    }
+    notifyAll();
+  }
+
+  private synchronized void put(byte[] data, int length) throws IOException {
+    if (released) {
+      // the reader has gone away
+      return;
+    }
+    if (failure != null) {
+      throw new IOException("Pipe " + filename + " failed: " + failure);
+    }
+    if (reserve(length)) {
+      chunks.add(new Chunk(data, 0, length));
+    } else {
+      if (spill == null) {
+        spill = StreamCreator.writeFile(filename);
+      }
+      spill.seek(spillLength);
+      spill.write(data, 0, length);
+      chunks.add(new Chunk(null, spillLength, length));
+      spillLength += length;
+      spilled(length);
+    }
+    notifyAll();
+  }
+
+  /**
+   * Waits for the next chunk; returns null at the end of the stream.
+   */
+  private synchronized Chunk take() throws IOException {
+    while (chunks.isEmpty() && !finished && failure == null) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while reading pipe: " + filename, e);
+      }
+    }
+    if (failure != null) {
+      throw new IOException("Pipe " + filename + " failed: " + failure);
+    }
+    Chunk chunk = chunks.poll();
+    if (chunk == null || chunk.data != null) {
+      if (chunk != null) {
+        unreserve(chunk.length);
+      }
+      return chunk;
+    }
+    byte[] data = new byte[chunk.length];
+    spill.seek(chunk.offset);
+    spill.readFully(data);
+    return new Chunk(data, 0, chunk.length);
+  }
+
+  private synchronized boolean isUnwritten() throws IOException {
+    while (!finished && !opened && failure == null) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while opening pipe: " + filename, e);
+      }
+    }
+    return unwritten;
+  }
+
+  private static class Chunk {
+
+    final byte[] data;
+    final long offset;
+    final int length;
+
+    Chunk(byte[] data, long offset, int length) {
+      this.data = data;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  private class Output extends OutputStream {
+
+    private byte[] buffer = new byte[CHUNK_SIZE];
+    private int position = 0;
+    private boolean closed = false;
+
+    @Override
+    public void write(int b) throws IOException {
+      if (position == buffer.length) {
+        flushChunk();
+      }
+      buffer[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+      while (length > 0) {
+        if (position == buffer.length) {
+          flushChunk();
+        }
+        int count = Math.min(length, buffer.length - position);
+        System.arraycopy(data, offset, buffer, position, count);
+        position += count;
+        offset += count;
+        length -= count;
+      }
+    }
+
+    private void flushChunk() throws IOException {
+      if (position > 0) {
+        put(buffer, position);
+        buffer = new byte[CHUNK_SIZE];
+        position = 0;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        flushChunk();
+        finishWriter();
+      }
+    }
+  }
+
+  private class Input extends InputStream {
+
+    private Chunk chunk = null;
+    private int position = 0;
+    private boolean done = false;
+    private InputStream file = null;
+
+    // returns false at the end of the stream
+    private boolean fill() throws IOException {
+      if (done) {
+        return false;
+      }
+      if (chunk == null && file == null && isUnwritten()) {
+        // nothing was streamed, read the file like any other pipe
+        file = StreamCreator.bufferedInputStream(filename);
+      }
+      if (file != null) {
+        return true;
+      }
+      while (chunk == null || position == chunk.length) {
+        chunk = take();
+        position = 0;
+        if (chunk == null) {
+          done = true;
+          release(filename);
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      if (file != null) {
+        return file.read();
+      }
+      return chunk.data[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] data, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      if (file != null) {
+        return file.read(data, offset, length);
+      }
+      int count = Math.min(length, chunk.length - position);
+      System.arraycopy(chunk.data, position, data, offset, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (file != null) {
+        file.close();
+      }
+      if (!done) {
+        done = true;
+        release(filename);
+      }
+    }
+  }
+}
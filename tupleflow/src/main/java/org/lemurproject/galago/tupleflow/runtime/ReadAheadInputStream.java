@@ -0,0 +1,211 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.tupleflow.runtime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.logging.Logger;
+
+/**
+ * Reads a stream ahead of its consumer on a background thread.
+ *
+ * The thread fills blocks from the underlying stream, which for compressed
+ * tuple files includes the decompression, while the consumer decodes the
+ * blocks read before; at most a fixed number of blocks are read ahead. Errors
+ * from the underlying stream are thrown to the consumer when it reaches them.
+ * The underlying stream is closed by the background thread.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+  private static final Logger logger = Logger.getLogger("ReadAheadInputStream");
+  public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+  public static final int DEFAULT_BLOCKS = 2;
+
+  private final InputStream input;
+  private final int blockSize;
+  private final int maxBlocks;
+  private final ArrayDeque<Block> ready = new ArrayDeque<>();
+  private final ArrayDeque<byte[]> free = new ArrayDeque<>();
+  private final Thread thread;
+  private int allocated = 0;
+  private boolean finished = false;
+  private boolean closed = false;
+  private IOException failure = null;
+  private Block current = null;
+  private int position = 0;
+
+  public ReadAheadInputStream(InputStream input) {
+    this(input, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCKS);
+  }
+
+  public ReadAheadInputStream(InputStream input, int blockSize, int blocks) {
+    this.input = input;
+    this.blockSize = blockSize;
+    this.maxBlocks = Math.max(1, blocks);
+    this.thread = new Thread("tupleflow-read-ahead") {
+      @Override
+      public void run() {
+        readAll();
+      }
+    };
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  private void readAll() {
+    try {
+      while (true) {
+        byte[] data = takeFree();
+        if (data == null) {
+          return;
+        }
+        int length = 0;
+        int count = 0;
+        while (length < data.length && (count = input.read(data, length, data.length - length)) >= 0) {
+          length += count;
+        }
+        put(new Block(data, length), count < 0);
+        if (count < 0) {
+          return;
+        }
+      }
+    } catch (IOException e) {
+      fail(e);
+    } catch (RuntimeException e) {
+      fail(new IOException(e));
+    } finally {
+      try {
+        input.close();
+      } catch (IOException e) {
+        logger.warning("Failed to close stream: " + e.getMessage());
+      }
+    }
+  }
+
+  private synchronized byte[] takeFree() {
+    while (!closed && free.isEmpty() && allocated >= maxBlocks) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        return null;
+      }
+    }
+    if (closed) {
+      return null;
+    }
+    if (!free.isEmpty()) {
+      return free.poll();
+    }
+    allocated++;
+    return new byte[blockSize];
+  }
+
+  private synchronized void put(Block block, boolean last) {
+    if (block.length > 0) {
+      ready.add(block);
+    }
+    finished = last;
+    notifyAll();
+  }
+
+  private synchronized void fail(IOException e) {
+    failure = e;
+    notifyAll();
+  }
+
+  // returns false at the end of the stream
+  private boolean fill() throws IOException {
+    if (current != null && position < current.length) {
+      return true;
+    }
+    synchronized (this) {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      if (current != null) {
+        free.add(current.data);
+        current = null;
+        notifyAll();
+      }
+      while (ready.isEmpty() && !finished && failure == null) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while reading ahead");
+        }
+      }
+      if (ready.isEmpty()) {
+        if (failure != null) {
+          throw failure;
+        }
+        return false;
+      }
+      current = ready.poll();
+      position = 0;
+      return true;
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!fill()) {
+      return -1;
+    }
+    return current.data[position++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] data, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (!fill()) {
+      return -1;
+    }
+    int count = Math.min(length, current.length - position);
+    System.arraycopy(current.data, position, data, offset, count);
+    position += count;
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return (current == null) ? 0 : current.length - position;
+  }
+
+  /**
+   * Stops reading ahead and waits for the underlying stream to be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      ready.clear();
+      notifyAll();
+    }
+    // wakes the thread if it is waiting on a slow underlying stream
+    thread.interrupt();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while closing");
+    }
+  }
+
+  private static class Block {
+
+    final byte[] data;
+    final int length;
+
+    Block(byte[] data, int length) {
+      this.data = data;
+      this.length = length;
+    }
+  }
+}
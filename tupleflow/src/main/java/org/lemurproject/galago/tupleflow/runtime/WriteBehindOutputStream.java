@@ -0,0 +1,230 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.tupleflow.runtime;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes a stream behind its producer on a background thread.
+ *
+ * The producer fills blocks, which are handed to a shared pool of writer
+ * threads that write them to the underlying stream, which for compressed
+ * tuple files includes the compression; at most a fixed number of blocks are
+ * in flight, after which the producer waits. The blocks of one stream are
+ * written in order, by one pool thread at a time, so a stage that writes many
+ * files (a hashed connection) does not need a thread for each.
+ *
+ * Errors from the underlying stream are thrown to the producer on its next
+ * write, flush or close. A stream must only be used by one producer thread.
+ */
+public class WriteBehindOutputStream extends OutputStream {
+
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+  public static final int DEFAULT_BLOCKS = 2;
+  private static final ExecutorService writers = Executors.newFixedThreadPool(
+          Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "tupleflow-write-behind");
+              t.setDaemon(true);
+              return t;
+            }
+          });
+
+  private final OutputStream output;
+  private final int blockSize;
+  private final int maxBlocks;
+  private final ArrayDeque<Block> pending = new ArrayDeque<>();
+  private final ArrayDeque<byte[]> free = new ArrayDeque<>();
+  private final Runnable drain;
+  private int allocated = 0;
+  private boolean draining = false;
+  private boolean closed = false;
+  private IOException failure = null;
+  private byte[] current = null;
+  private int position = 0;
+
+  public WriteBehindOutputStream(OutputStream output) {
+    this(output, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCKS);
+  }
+
+  public WriteBehindOutputStream(OutputStream output, int blockSize, int blocks) {
+    this.output = output;
+    this.blockSize = blockSize;
+    this.maxBlocks = Math.max(1, blocks);
+    this.drain = new Runnable() {
+      @Override
+      public void run() {
+        writeAll();
+      }
+    };
+  }
+
+  // runs on a pool thread until no blocks are pending
+  private void writeAll() {
+    while (true) {
+      Block block;
+      synchronized (this) {
+        block = pending.poll();
+        if (block == null) {
+          draining = false;
+          notifyAll();
+          return;
+        }
+      }
+      try {
+        output.write(block.data, 0, block.length);
+      } catch (IOException e) {
+        fail(e);
+        return;
+      } catch (RuntimeException e) {
+        fail(new IOException(e));
+        return;
+      }
+      synchronized (this) {
+        free.add(block.data);
+        notifyAll();
+      }
+    }
+  }
+
+  private synchronized void fail(IOException e) {
+    failure = e;
+    pending.clear();
+    draining = false;
+    notifyAll();
+  }
+
+  private synchronized byte[] takeFree() throws IOException {
+    while (failure == null && free.isEmpty() && allocated >= maxBlocks) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while writing behind");
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    if (!free.isEmpty()) {
+      return free.poll();
+    }
+    allocated++;
+    return new byte[blockSize];
+  }
+
+  private void handOff() throws IOException {
+    if (current == null || position == 0) {
+      return;
+    }
+    synchronized (this) {
+      if (failure != null) {
+        throw failure;
+      }
+      pending.add(new Block(current, position));
+      current = null;
+      position = 0;
+      if (!draining) {
+        draining = true;
+        writers.execute(drain);
+      }
+    }
+  }
+
+  // waits until every handed off block is written
+  private synchronized void await() throws IOException {
+    while (draining) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while writing behind");
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (current == null) {
+      current = takeFree();
+      position = 0;
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureOpen();
+    current[position++] = (byte) b;
+    if (position == current.length) {
+      handOff();
+    }
+  }
+
+  @Override
+  public void write(byte[] data, int offset, int length) throws IOException {
+    while (length > 0) {
+      ensureOpen();
+      int count = Math.min(length, current.length - position);
+      System.arraycopy(data, offset, current, position, count);
+      position += count;
+      offset += count;
+      length -= count;
+      if (position == current.length) {
+        handOff();
+      }
+    }
+  }
+
+  /**
+   * Writes everything buffered so far, then flushes the underlying stream.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (closed) {
+      return;
+    }
+    handOff();
+    await();
+    output.flush();
+  }
+
+  /**
+   * Writes everything buffered so far and closes the underlying stream.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      handOff();
+      await();
+    } finally {
+      closed = true;
+      current = null;
+      output.close();
+    }
+  }
+
+  private static class Block {
+
+    final byte[] data;
+    final int length;
+
+    Block(byte[] data, int length) {
+      this.data = data;
+      this.length = length;
+    }
+  }
+}
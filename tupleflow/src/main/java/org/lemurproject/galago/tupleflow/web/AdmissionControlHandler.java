@@ -0,0 +1,265 @@
+package org.lemurproject.galago.tupleflow.web;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.lemurproject.galago.utility.Parameters;
+import org.lemurproject.galago.utility.metrics.Metrics;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Handles at most 'maxConcurrentRequests' requests at once. Other requests
+ * wait in a queue; a request that waits longer than 'queueTimeout'
+ * milliseconds, or arrives when 'maxQueuedRequests' are already waiting, is
+ * answered with a 503 (Retry-After: 1), so latency stays bounded under
+ * overload.
+ *
+ * Requests are handled asynchronously (servlet 3 async), so Jetty's own
+ * threads only do I/O, and a waiting request holds no thread: it is parked
+ * until a running request finishes and hands it its slot. Admitted requests
+ * run on a pool of maxConcurrentRequests threads, or with 'virtualThreads' on
+ * a virtual thread each (if the JVM supports them).
+ */
+public class AdmissionControlHandler extends AbstractHandler {
+
+  private static final Logger logger = Logger.getLogger("AdmissionControlHandler");
+  private final WebHandler handler;
+  private final ExecutorService executor;
+  private final ScheduledExecutorService timer;
+  private final int maxConcurrent;
+  private final int maxQueued;
+  private final long queueTimeout;
+  // guarded by this
+  private final ArrayDeque<Waiting> waiting = new ArrayDeque<>();
+  private int active = 0;
+  private final AtomicLong accepted = new AtomicLong(0);
+  private final AtomicLong rejected = new AtomicLong(0);
+
+  public AdmissionControlHandler(WebHandler handler, Parameters p) {
+    this.handler = handler;
+    this.maxConcurrent = (int) p.get("maxConcurrentRequests", (long) Runtime.getRuntime().availableProcessors());
+    this.maxQueued = (int) p.get("maxQueuedRequests", 4L * maxConcurrent);
+    this.queueTimeout = p.get("queueTimeout", 100L);
+    this.executor = createExecutor(p.get("virtualThreads", false), maxConcurrent);
+    this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "web-queue-timeout");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    registerMetrics();
+  }
+
+  private void registerMetrics() {
+    Metrics.gauge("galago_http_requests_queued", new Metrics.Gauge() {
+      @Override
+      public double value() {
+        return getQueuedRequests();
+      }
+    });
+    Metrics.gauge("galago_http_requests_active", new Metrics.Gauge() {
+      @Override
+      public double value() {
+        return getActiveRequests();
+      }
+    });
+    Metrics.gauge("galago_http_requests_accepted", new Metrics.Gauge() {
+      @Override
+      public double value() {
+        return getAcceptedRequests();
+      }
+    });
+    Metrics.gauge("galago_http_requests_rejected", new Metrics.Gauge() {
+      @Override
+      public double value() {
+        return getRejectedRequests();
+      }
+    });
+  }
+
+  private static ExecutorService createExecutor(boolean virtualThreads, int threads) {
+    if (virtualThreads) {
+      try {
+        Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        return (ExecutorService) factory.invoke(null);
+      } catch (ReflectiveOperationException e) {
+        logger.info("Virtual threads are not available, using a thread pool.");
+      }
+    }
+    final AtomicInteger threadCount = new AtomicInteger(0);
+    return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "web-request-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  @Override
+  public void handle(String target, Request jettyRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+    jettyRequest.setHandled(true);
+    AsyncContext context = request.startAsync();
+    context.setTimeout(0);
+    final Waiting pending = new Waiting(context, request, response);
+
+    boolean run = false;
+    synchronized (this) {
+      if (active < maxConcurrent) {
+        active++;
+        run = true;
+      } else if (waiting.size() < maxQueued && queueTimeout > 0) {
+        waiting.add(pending);
+        pending.timeout = timer.schedule(new Runnable() {
+          @Override
+          public void run() {
+            expire(pending);
+          }
+        }, queueTimeout, TimeUnit.MILLISECONDS);
+        return;
+      }
+    }
+    if (run) {
+      dispatch(pending);
+    } else {
+      reject(pending);
+    }
+  }
+
+  // runs an admitted request, which holds one of the maxConcurrent slots
+  private void dispatch(final Waiting pending) {
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          serve(pending);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      reject(pending);
+      finished();
+    }
+  }
+
+  private void expire(Waiting pending) {
+    synchronized (this) {
+      if (!waiting.remove(pending)) {
+        // already admitted
+        return;
+      }
+    }
+    reject(pending);
+  }
+
+  // passes the slot of a finished request to the next waiting one
+  private void finished() {
+    Waiting next;
+    synchronized (this) {
+      next = waiting.poll();
+      if (next == null) {
+        active--;
+        return;
+      }
+    }
+    next.timeout.cancel(false);
+    dispatch(next);
+  }
+
+  private void serve(Waiting pending) {
+    try {
+      accepted.incrementAndGet();
+      try {
+        handler.handle(pending.request, pending.response);
+      } catch (Exception e) {
+        if (!pending.response.isCommitted()) {
+          pending.response.sendError(501, e.getMessage());
+        }
+      }
+    } catch (IOException e) {
+      logger.fine("Failed to respond: " + e.getMessage());
+    } finally {
+      pending.context.complete();
+      finished();
+    }
+  }
+
+  private void reject(Waiting pending) {
+    rejected.incrementAndGet();
+    try {
+      HttpServletResponse response = pending.response;
+      response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      response.setHeader("Retry-After", "1");
+      response.setContentType("application/json");
+      response.getWriter().write("{\"error\" : \"overloaded\"}");
+    } catch (IOException e) {
+      logger.fine("Failed to respond: " + e.getMessage());
+    } finally {
+      pending.context.complete();
+    }
+  }
+
+  /**
+   * Number of requests waiting for a slot.
+   */
+  public synchronized int getQueuedRequests() {
+    return waiting.size();
+  }
+
+  /**
+   * Number of requests being handled.
+   */
+  public synchronized int getActiveRequests() {
+    return active;
+  }
+
+  public long getAcceptedRequests() {
+    return accepted.get();
+  }
+
+  public long getRejectedRequests() {
+    return rejected.get();
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    executor.shutdown();
+    timer.shutdownNow();
+    for (String gauge : new String[]{"queued", "active", "accepted", "rejected"}) {
+      Metrics.removeGauge("galago_http_requests_" + gauge);
+    }
+    super.doStop();
+  }
+
+  private static class Waiting {
+
+    final AsyncContext context;
+    final HttpServletRequest request;
+    final HttpServletResponse response;
+    ScheduledFuture<?> timeout;
+
+    Waiting(AsyncContext context, HttpServletRequest request, HttpServletResponse response) {
+      this.context = context;
+      this.request = request;
+      this.response = response;
+    }
+  }
+}
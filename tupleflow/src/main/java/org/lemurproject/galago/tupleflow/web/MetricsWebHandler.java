@@ -0,0 +1,29 @@
+package org.lemurproject.galago.tupleflow.web;
+
+import org.lemurproject.galago.utility.metrics.Metrics;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+
+/**
+ * Serves the process metrics (see Metrics): the Prometheus text format by
+ * default, or JSON with ?format=json.
+ */
+public class MetricsWebHandler implements WebHandler {
+
+  @Override
+  public void handle(HttpServletRequest request, HttpServletResponse response) throws Exception {
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setCharacterEncoding("UTF-8");
+    PrintWriter writer = response.getWriter();
+    if ("json".equals(request.getParameter("format"))) {
+      response.setContentType("application/json");
+      writer.write(Metrics.toParameters().toString());
+    } else {
+      response.setContentType("text/plain; version=0.0.4");
+      writer.write(Metrics.toPrometheus());
+    }
+    writer.flush();
+  }
+}
@@ -1,8 +1,12 @@
 package org.lemurproject.galago.tupleflow.web;
 
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
 import org.lemurproject.galago.tupleflow.Utility;
 import org.lemurproject.galago.utility.Parameters;
 import org.lemurproject.galago.utility.json.JSONUtil;
@@ -19,14 +23,37 @@ import java.util.List;
 
 /**
  * Consolidating some common Jetty stuff.
+ *
+ * Servers started from Parameters accept:
+ * - port : (default: any free port)
+ * - gzip : compress responses for clients that accept it (default: false)
+ * - idleTimeout : milliseconds a keep-alive connection may be idle (default: 30000)
+ * - maxConcurrentRequests, maxQueuedRequests, queueTimeout, virtualThreads :
+ *   handle requests with admission control and load shedding, see
+ *   AdmissionControlHandler. Without these, requests run on Jetty's threads.
+ *
  * @author jfoley.
  */
 public class WebServer {
 
   private final Server server;
+  private final AdmissionControlHandler admissionControl;
 
   public WebServer(Server server) {
+    this(server, null);
+  }
+
+  public WebServer(Server server, AdmissionControlHandler admissionControl) {
     this.server = server;
+    this.admissionControl = admissionControl;
+  }
+
+  /**
+   * Returns the admission control of this server, or null if requests are
+   * handled directly on Jetty's threads.
+   */
+  public AdmissionControlHandler getAdmissionControl() {
+    return admissionControl;
   }
 
   public void stop() throws WebServerException {
@@ -83,7 +110,36 @@ public class WebServer {
         throw new WebServerException(e);
       }
     }
-    return start(port, handler);
+
+    Server server = new Server(port);
+    for (Connector connector : server.getConnectors()) {
+      if (connector instanceof ServerConnector) {
+        ((ServerConnector) connector).setIdleTimeout(p.get("idleTimeout", 30000L));
+      }
+    }
+
+    AdmissionControlHandler admissionControl = null;
+    Handler h;
+    if (p.containsKey("maxConcurrentRequests") || p.get("virtualThreads", false)) {
+      admissionControl = new AdmissionControlHandler(handler, p);
+      h = admissionControl;
+    } else {
+      h = new JettyHandler(handler);
+    }
+    if (p.get("gzip", false)) {
+      GzipHandler gzip = new GzipHandler();
+      gzip.setIncludedMethods("GET", "POST");
+      gzip.setHandler(h);
+      h = gzip;
+    }
+    server.setHandler(h);
+    try {
+      server.start();
+    } catch (Exception ex) {
+      throw new WebServerException(ex);
+    }
+
+    return new WebServer(server, admissionControl);
   }
 
   public static final class JettyHandler extends AbstractHandler {
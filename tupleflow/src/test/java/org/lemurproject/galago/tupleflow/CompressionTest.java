@@ -6,11 +6,17 @@ package org.lemurproject.galago.tupleflow;
 import org.junit.Test;
 import org.lemurproject.galago.tupleflow.runtime.FileOrderedReader;
 import org.lemurproject.galago.tupleflow.runtime.FileOrderedWriter;
+import org.lemurproject.galago.tupleflow.runtime.WriteBehindOutputStream;
 import org.lemurproject.galago.tupleflow.types.TupleflowString;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  *
@@ -22,6 +28,7 @@ public class CompressionTest {
     File f1 = FileUtility.createTemporary();
     File f2 = FileUtility.createTemporary();
     File f3 = FileUtility.createTemporary();
+    File f4 = FileUtility.createTemporary();
     try {
       // write a series of strings to these files.
       Order<TupleflowString> o = new TupleflowString.ValueOrder();
@@ -29,38 +36,93 @@ public class CompressionTest {
       FileOrderedWriter<TupleflowString> w1 = new FileOrderedWriter<>(f1.getAbsolutePath(), o, CompressionType.NONE);
       FileOrderedWriter<TupleflowString> w2 = new FileOrderedWriter<>(f2.getAbsolutePath(), o, CompressionType.VBYTE);
       FileOrderedWriter<TupleflowString> w3 = new FileOrderedWriter<>(f3.getAbsolutePath(), o, CompressionType.GZIP);
+      FileOrderedWriter<TupleflowString> w4 = new FileOrderedWriter<>(f4.getAbsolutePath(), o, CompressionType.LZ4);
       for (int i = 0; i < 100; i++) {
         String s = "i=" + i;
         w1.process(new TupleflowString(s));
         w2.process(new TupleflowString(s));
         w3.process(new TupleflowString(s));
+        w4.process(new TupleflowString(s));
       }
       w1.close();
       w2.close();
       w3.close();
+      w4.close();
 
       FileOrderedReader<TupleflowString> r1 = new FileOrderedReader<>(f1.getAbsolutePath());
       FileOrderedReader<TupleflowString> r2 = new FileOrderedReader<>(f2.getAbsolutePath());
       FileOrderedReader<TupleflowString> r3 = new FileOrderedReader<>(f3.getAbsolutePath());
+      FileOrderedReader<TupleflowString> r4 = new FileOrderedReader<>(f4.getAbsolutePath());
 
       assert (r1.getCompression().equals(CompressionType.NONE));
       assert (r2.getCompression().equals(CompressionType.VBYTE));
       assert (r3.getCompression().equals(CompressionType.GZIP));
+      assert (r4.getCompression().equals(CompressionType.LZ4));
 
       for (int i = 0; i < 100; i++) {
         String s = "i=" + i;
         assert(s.equals(r1.read().value));
         assert(s.equals(r2.read().value));
         assert(s.equals(r3.read().value));
+        assert(s.equals(r4.read().value));
       }
       r1.close();
       r2.close();
       r3.close();
+      assert (r4.read() == null);
+      r4.close();
 
     } finally {
       assertTrue(f1.delete());
       assertTrue(f2.delete());
       assertTrue(f3.delete());
+      assertTrue(f4.delete());
+    }
+  }
+
+  @Test
+  public void testBackgroundIO() throws Exception {
+    Order<TupleflowString> o = new TupleflowString.ValueOrder();
+    CompressionType[] types = {CompressionType.NONE, CompressionType.VBYTE, CompressionType.GZIP, CompressionType.LZ4};
+    for (CompressionType c : types) {
+      File f = FileUtility.createTemporary();
+      try {
+        // enough to fill many blocks
+        FileOrderedWriter<TupleflowString> w = new FileOrderedWriter<>(f.getAbsolutePath(), o, c, true);
+        for (int i = 0; i < 100000; i++) {
+          w.process(new TupleflowString("i=" + i));
+        }
+        w.close();
+
+        FileOrderedReader<TupleflowString> r = new FileOrderedReader<>(f.getAbsolutePath(), 1024, true);
+        assertEquals(c, r.getCompression());
+        for (int i = 0; i < 100000; i++) {
+          assertEquals("i=" + i, r.read().value);
+        }
+        assertNull(r.read());
+      } finally {
+        assertTrue(f.delete());
+      }
+    }
+  }
+
+  @Test
+  public void testWriteBehindFailure() throws Exception {
+    OutputStream failing = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("disk full");
+      }
+    };
+    WriteBehindOutputStream stream = new WriteBehindOutputStream(failing, 16, 2);
+    try {
+      for (int i = 0; i < 1000; i++) {
+        stream.write(i);
+      }
+      stream.close();
+      fail("expected the write error");
+    } catch (IOException e) {
+      assertEquals("disk full", e.getMessage());
     }
   }
 }
@@ -0,0 +1,87 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.tupleflow;
+
+import org.junit.Test;
+import org.lemurproject.galago.tupleflow.types.TupleflowString;
+import org.lemurproject.galago.utility.Parameters;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class HashCombinerTest {
+
+  // the strings are the keys; combining just counts the duplicates dropped
+  public static class CountCombiner implements Combiner<TupleflowString> {
+
+    int combined = 0;
+
+    @Override
+    public void combine(TupleflowString aggregate, TupleflowString value) {
+      assertEquals(aggregate.value, value.value);
+      combined++;
+    }
+  }
+
+  // returns the number of times each key was emitted
+  private static Map<String, Integer> run(HashCombiner<TupleflowString> combiner, int keys, int objects) throws Exception {
+    final Map<String, Integer> emitted = new HashMap<>();
+    combiner.setProcessor(new Processor<TupleflowString>() {
+      @Override
+      public void process(TupleflowString object) throws IOException {
+        Integer count = emitted.get(object.value);
+        emitted.put(object.value, (count == null) ? 1 : count + 1);
+      }
+
+      @Override
+      public void close() throws IOException {
+      }
+    });
+    for (int i = 0; i < objects; i++) {
+      combiner.process(new TupleflowString("k" + ((i * 7) % keys)));
+    }
+    combiner.close();
+    return emitted;
+  }
+
+  @Test
+  public void testCombine() throws Exception {
+    CountCombiner counter = new CountCombiner();
+    HashCombiner<TupleflowString> combiner = new HashCombiner<>(new TupleflowString.ValueOrder(), counter, 100000, null);
+    Map<String, Integer> emitted = run(combiner, 5000, 100000);
+
+    assertEquals(5000, emitted.size());
+    for (int count : emitted.values()) {
+      assertEquals(1, count);
+    }
+    assertEquals(95000, counter.combined);
+  }
+
+  @Test
+  public void testSpill() throws Exception {
+    Parameters p = Parameters.create();
+    p.set("class", TupleflowString.class.getName());
+    p.set("order", "+value");
+    p.set("combiner", CountCombiner.class.getName());
+    p.set("limit", 100);
+    HashCombiner<TupleflowString> combiner = new HashCombiner<>(new FakeParameters(p));
+
+    // keys repeat only every 1000 objects, so each table fills with new keys
+    // and every key is emitted once per occurrence
+    Map<String, Integer> emitted = run(combiner, 1000, 10000);
+    assertEquals(1000, emitted.size());
+    for (int count : emitted.values()) {
+      assertEquals(10, count);
+    }
+
+    // fewer keys than the limit are emitted once
+    combiner = new HashCombiner<>(new FakeParameters(p));
+    emitted = run(combiner, 99, 10000);
+    assertEquals(99, emitted.size());
+    for (int count : emitted.values()) {
+      assertEquals(1, count);
+    }
+  }
+}
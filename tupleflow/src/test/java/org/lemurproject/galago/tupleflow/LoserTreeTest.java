@@ -0,0 +1,77 @@
+package org.lemurproject.galago.tupleflow;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LoserTreeTest {
+
+  private static class Run implements Comparable<Run> {
+
+    final int id;
+    final List<Integer> values;
+    int position = 0;
+
+    Run(int id, List<Integer> values) {
+      this.id = id;
+      this.values = values;
+    }
+
+    int value() {
+      return values.get(position);
+    }
+
+    @Override
+    public int compareTo(Run other) {
+      return Integer.compare(value(), other.value());
+    }
+  }
+
+  @Test
+  public void testMerge() {
+    Random random = new Random(3);
+    for (int k = 1; k <= 17; k++) {
+      List<Run> runs = new ArrayList<>();
+      List<Integer> expected = new ArrayList<>();
+      for (int i = 0; i < k; i++) {
+        List<Integer> values = new ArrayList<>();
+        for (int j = random.nextInt(50) + 1; j > 0; j--) {
+          values.add(random.nextInt(20));
+        }
+        Collections.sort(values);
+        expected.addAll(values);
+        runs.add(new Run(i, values));
+      }
+      Collections.sort(expected);
+
+      LoserTree<Run> tree = new LoserTree<>(runs);
+      List<Integer> merged = new ArrayList<>();
+      while (tree.size() > 0) {
+        Run top = tree.top();
+        Run next = tree.runnerUp();
+        if (next != null) {
+          // the runner-up is the smallest of the others; ties go to the earlier run
+          int c = top.compareTo(next);
+          assertTrue(c < 0 || (c == 0 && top.id < next.id));
+        }
+        merged.add(top.value());
+        top.position++;
+        if (top.position == top.values.size()) {
+          tree.removeTop();
+        } else {
+          tree.update();
+        }
+      }
+      assertEquals(expected, merged);
+      assertNull(tree.top());
+      assertNull(tree.runnerUp());
+    }
+  }
+}
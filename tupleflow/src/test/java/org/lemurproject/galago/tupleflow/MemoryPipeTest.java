@@ -0,0 +1,136 @@
+package org.lemurproject.galago.tupleflow;
+
+import org.junit.Test;
+import org.lemurproject.galago.tupleflow.runtime.FileOrderedReader;
+import org.lemurproject.galago.tupleflow.runtime.FileOrderedWriter;
+import org.lemurproject.galago.tupleflow.runtime.MemoryPipe;
+import org.lemurproject.galago.tupleflow.types.TupleflowString;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MemoryPipeTest {
+
+  private static final int COUNT = 50000;
+
+  private static void write(String filename) throws IOException {
+    FileOrderedWriter<TupleflowString> writer = new FileOrderedWriter<>(filename, new TupleflowString.ValueOrder(), CompressionType.UNSPECIFIED);
+    for (int i = 0; i < COUNT; i++) {
+      writer.process(new TupleflowString(String.format("value-%08d", i)));
+    }
+    writer.close();
+  }
+
+  private static void read(String filename) throws IOException {
+    FileOrderedReader<TupleflowString> reader = new FileOrderedReader<>(filename);
+    for (int i = 0; i < COUNT; i++) {
+      assertEquals(String.format("value-%08d", i), reader.read().value);
+    }
+    assertNull(reader.read());
+  }
+
+  @Test
+  public void testConcurrent() throws Exception {
+    final File file = FileUtility.createTemporary();
+    file.delete();
+    MemoryPipe.register(file.getAbsolutePath());
+    try {
+      final AtomicReference<Exception> failure = new AtomicReference<>();
+      Thread writer = new Thread() {
+        @Override
+        public void run() {
+          try {
+            write(file.getAbsolutePath());
+            MemoryPipe.finish(file.getAbsolutePath());
+          } catch (Exception e) {
+            failure.set(e);
+          }
+        }
+      };
+      writer.start();
+      read(file.getAbsolutePath());
+      writer.join();
+      assertNull(failure.get());
+      // nothing touched the disk, and the pipe is gone once read
+      assertFalse(file.exists());
+      assertFalse(MemoryPipe.isRegistered(file.getAbsolutePath()));
+    } finally {
+      MemoryPipe.release(file.getAbsolutePath());
+    }
+  }
+
+  @Test
+  public void testSpill() throws Exception {
+    File file = FileUtility.createTemporary();
+    file.delete();
+    long limit = MemoryPipe.getBufferLimit();
+    long spilled = MemoryPipe.getBytesSpilled();
+    MemoryPipe.setBufferLimit(64 * 1024);
+    MemoryPipe.register(file.getAbsolutePath());
+    try {
+      // no reader yet, so all but the first chunk spill
+      write(file.getAbsolutePath());
+      MemoryPipe.finish(file.getAbsolutePath());
+      assertTrue(file.exists());
+      assertTrue(MemoryPipe.getBytesSpilled() > spilled);
+
+      read(file.getAbsolutePath());
+      assertFalse(file.exists());
+    } finally {
+      MemoryPipe.setBufferLimit(limit);
+      MemoryPipe.release(file.getAbsolutePath());
+    }
+  }
+
+  @Test
+  public void testUnwritten() throws Exception {
+    // a producer that never opens the pipe leaves the reader with the file
+    File file = FileUtility.createTemporary();
+    try {
+      write(file.getAbsolutePath());
+      MemoryPipe.register(file.getAbsolutePath());
+      MemoryPipe.finish(file.getAbsolutePath());
+      read(file.getAbsolutePath());
+    } finally {
+      MemoryPipe.release(file.getAbsolutePath());
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testAbort() throws Exception {
+    final File file = FileUtility.createTemporary();
+    file.delete();
+    MemoryPipe.register(file.getAbsolutePath());
+    try {
+      Thread aborter = new Thread() {
+        @Override
+        public void run() {
+          try {
+            Thread.sleep(100);
+          } catch (InterruptedException e) {
+            return;
+          }
+          MemoryPipe.abort(file.getAbsolutePath(), "producer failed");
+        }
+      };
+      aborter.start();
+      try {
+        new FileOrderedReader<TupleflowString>(file.getAbsolutePath());
+        fail("expected the reader to fail");
+      } catch (IOException e) {
+        assertTrue(e.getMessage().contains("producer failed"));
+      }
+      aborter.join();
+    } finally {
+      MemoryPipe.release(file.getAbsolutePath());
+    }
+  }
+}
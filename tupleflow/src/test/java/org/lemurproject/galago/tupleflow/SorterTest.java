@@ -3,9 +3,18 @@ package org.lemurproject.galago.tupleflow;
 import org.junit.Test;
 import org.lemurproject.galago.tupleflow.error.IncompatibleProcessorException;
 import org.lemurproject.galago.tupleflow.runtime.NullProcessor;
+import org.lemurproject.galago.tupleflow.types.TupleflowString;
+import org.lemurproject.galago.utility.CmpUtil;
 import org.lemurproject.galago.utility.Parameters;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  *
@@ -52,4 +61,122 @@ public class SorterTest {
     Sorter<FakeType> instance = new Sorter<FakeType>(new FakeType().getOrder("+document", "+length"));
     instance.setProcessor(new NullProcessor<FakeType>(FakeType.class));
   }
+
+  @Test
+  public void testBinaryMode() throws Exception {
+    Parameters p = Parameters.create();
+    p.set("class", TupleflowString.class.getName());
+    p.set("order", "+value");
+    p.set("binary", true);
+    // small enough to spill many runs and merge them
+    p.set("binary-limit", 4096);
+    Sorter<TupleflowString> instance = new Sorter<>(new FakeParameters(p));
+    assertTrue(instance.isBinary());
+
+    final List<String> sorted = new ArrayList<>();
+    instance.setProcessor(new Processor<TupleflowString>() {
+      @Override
+      public void process(TupleflowString object) throws IOException {
+        sorted.add(object.value);
+      }
+
+      @Override
+      public void close() throws IOException {
+      }
+    });
+
+    Random random = new Random(42);
+    String[] pieces = {"", "a", "ab", "\u0000", "\u0001", "z\u0000", "\u00e9", "\u4e2d", "\ud83d\ude00", "\uffff", "abcdefghij"};
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      StringBuilder value = new StringBuilder();
+      for (int j = random.nextInt(4); j > 0; j--) {
+        value.append(pieces[random.nextInt(pieces.length)]);
+      }
+      expected.add(value.toString());
+      instance.process(new TupleflowString(value.toString()));
+    }
+    instance.close();
+    assertTrue(instance.getBytesSpilled() > 0);
+
+    Collections.sort(expected);
+    assertEquals(expected, sorted);
+  }
+
+  @Test
+  public void testKeyOrder() {
+    Random random = new Random(7);
+    long[] longs = {Long.MIN_VALUE, -1000, -1, 0, 1, 255, 256, Long.MAX_VALUE};
+    double[] doubles = {Double.NEGATIVE_INFINITY, -1.5, -0.0, 0.0, Double.MIN_VALUE, 2.5, Double.POSITIVE_INFINITY, Double.NaN};
+    byte[][] arrays = {{}, {0}, {0, 0}, {0, 1}, {1}, {(byte) 0xFF}, {(byte) 0xFF, 0}};
+    for (int i = 0; i < 2000; i++) {
+      long a = longs[random.nextInt(longs.length)] + random.nextInt(3);
+      long b = longs[random.nextInt(longs.length)] + random.nextInt(3);
+      double x = doubles[random.nextInt(doubles.length)];
+      double y = doubles[random.nextInt(doubles.length)];
+      byte[] u = arrays[random.nextInt(arrays.length)];
+      byte[] v = arrays[random.nextInt(arrays.length)];
+      for (boolean descending : new boolean[]{false, true}) {
+        // (+bytes, -double, +long) keys compare field by field
+        KeyOutput one = new KeyOutput();
+        one.writeBytes(u, descending);
+        one.writeDouble(x, !descending);
+        one.writeLong(a, descending);
+        KeyOutput two = new KeyOutput();
+        two.writeBytes(v, descending);
+        two.writeDouble(y, !descending);
+        two.writeLong(b, descending);
+
+        int expected = CmpUtil.compare(u, v);
+        if (expected == 0) {
+          expected = -CmpUtil.compare(x, y);
+        }
+        if (expected == 0) {
+          expected = CmpUtil.compare(a, b);
+        }
+        if (descending) {
+          expected = -expected;
+        }
+        int result = CmpUtil.compare(one.toByteArray(), two.toByteArray());
+        assertEquals(Integer.signum(expected), Integer.signum(result));
+      }
+    }
+  }
+
+  @Test
+  public void testParallelMerge() throws Exception {
+    Parameters p = Parameters.create();
+    p.set("class", TupleflowString.class.getName());
+    p.set("order", "+value");
+    // many small runs, merged a few at a time on several threads
+    p.set("object-limit", 100);
+    p.set("reduce-interval", 100);
+    p.set("file-limit", 3);
+    p.set("merge-threads", 3);
+    Sorter<TupleflowString> instance = new Sorter<>(new FakeParameters(p));
+
+    final List<String> sorted = new ArrayList<>();
+    instance.setProcessor(new Processor<TupleflowString>() {
+      @Override
+      public void process(TupleflowString object) throws IOException {
+        sorted.add(object.value);
+      }
+
+      @Override
+      public void close() throws IOException {
+      }
+    });
+
+    Random random = new Random(11);
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 20000; i++) {
+      String value = Integer.toString(random.nextInt(5000), 36);
+      expected.add(value);
+      instance.process(new TupleflowString(value));
+    }
+    instance.close();
+
+    Collections.sort(expected);
+    assertEquals(expected, sorted);
+  }
 }
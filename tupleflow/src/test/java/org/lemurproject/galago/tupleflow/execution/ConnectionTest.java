@@ -145,6 +145,32 @@ public class ConnectionTest {
 
   @Test
   public void testMultiMultiEach() throws Exception {
+    Job job = multiMultiEachJob();
+    ErrorStore err = new ErrorStore();
+    Verification.verify(job, err);
+
+    JobExecutor.runLocally(job, err, Parameters.parseString("{\"server\":false}"));
+    if (err.hasStatements()) {
+      throw new RuntimeException(err.toString());
+    }
+  }
+
+  @Test
+  public void testStreamedMultiMultiEach() throws Exception {
+    // connections through memory, with stages run one thread per stage, or on a pool
+    for (String mode : new String[]{"local", "threaded"}) {
+      Job job = multiMultiEachJob();
+      ErrorStore err = new ErrorStore();
+      Verification.verify(job, err);
+
+      JobExecutor.runLocally(job, err, Parameters.parseString("{\"server\":false, \"streaming\":true, \"mode\":\"" + mode + "\"}"));
+      if (err.hasStatements()) {
+        throw new RuntimeException(err.toString());
+      }
+    }
+  }
+
+  private static Job multiMultiEachJob() throws Exception {
     Job job = new Job();
 
     Stage one = new Stage("one");
@@ -182,13 +208,7 @@ public class ConnectionTest {
     job.connect("three", "four", ConnectionAssignmentType.Combined);
 
     job.properties.put("hashCount", "2");
-    ErrorStore err = new ErrorStore();
-    Verification.verify(job, err);
-
-    JobExecutor.runLocally(job, err, Parameters.parseString("{\"server\":false}"));
-    if (err.hasStatements()) {
-      throw new RuntimeException(err.toString());
-    }
+    return job;
   }
 
   @Test
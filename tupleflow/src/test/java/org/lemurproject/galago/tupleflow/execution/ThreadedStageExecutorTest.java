@@ -0,0 +1,155 @@
+/*
+ * BSD License (http://www.galagosearch.org/license)
+ */
+package org.lemurproject.galago.tupleflow.execution;
+
+import org.junit.Test;
+import org.lemurproject.galago.tupleflow.*;
+import org.lemurproject.galago.tupleflow.error.IncompatibleProcessorException;
+import org.lemurproject.galago.tupleflow.types.TupleflowString;
+import org.lemurproject.galago.utility.Parameters;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs jobs with mode=threaded.
+ */
+public class ThreadedStageExecutorTest {
+
+  static CountDownLatch started;
+  static final AtomicBoolean sequential = new AtomicBoolean();
+  static final AtomicBoolean shared = new AtomicBoolean();
+
+  @Test
+  public void testConcurrentInstances() throws Exception {
+    started = new CountDownLatch(4);
+    sequential.set(false);
+    shared.set(false);
+
+    Job job = new Job();
+
+    Stage one = new Stage("one");
+    one.add(new StageConnectionPoint(ConnectionPointType.Output,
+            "conn-1-2", new TupleflowString.ValueOrder()));
+    one.add(new StepInformation(ConnectionTest.NullSource.class));
+    job.add(one);
+
+    Stage two = new Stage("two");
+    two.add(new StageConnectionPoint(ConnectionPointType.Input,
+            "conn-1-2", new TupleflowString.ValueOrder()));
+    two.add(new StageConnectionPoint(ConnectionPointType.Output,
+            "conn-2-3", new TupleflowString.ValueOrder()));
+    two.add(new StepInformation(ConcurrentGenerator.class, Parameters.parseString("{\"conn\":\"conn-2-3\"}")));
+    job.add(two);
+
+    Stage three = new Stage("three");
+    three.add(new StageConnectionPoint(ConnectionPointType.Input,
+            "conn-2-3", new TupleflowString.ValueOrder()));
+    // 10 items from each of the 4 instances of two
+    three.add(new StepInformation(ConnectionTest.Receiver.class, Parameters.parseString("{\"expectedCount\":40, \"connIn\" : [\"conn-2-3\"]}")));
+    job.add(three);
+
+    job.connect("one", "two", ConnectionAssignmentType.Each);
+    job.connect("two", "three", ConnectionAssignmentType.Combined);
+
+    job.properties.put("hashCount", "4");
+    ErrorStore err = new ErrorStore();
+    Verification.verify(job, err);
+    JobExecutor.runLocally(job, err, Parameters.parseString("{\"server\":false, \"mode\":\"threaded\", \"threadCount\":4}"));
+    if (err.hasStatements()) {
+      throw new RuntimeException(err.toString());
+    }
+    assertFalse("instances of a stage did not run concurrently", sequential.get());
+    assertFalse("instances shared parameters", shared.get());
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    Job job = new Job();
+    Stage one = new Stage("one");
+    one.add(new StepInformation(FailingSource.class));
+    job.add(one);
+
+    ErrorStore err = new ErrorStore();
+    boolean success = JobExecutor.runLocally(job, err, Parameters.parseString("{\"server\":false, \"mode\":\"threaded\", \"threadCount\":2}"));
+    assertFalse(success);
+    assertTrue(err.hasStatements());
+  }
+
+  @Test
+  public void testFactory() {
+    StageExecutor executor = StageExecutorFactory.newInstance("threaded", "3");
+    assertTrue(executor instanceof ThreadedStageExecutor);
+    assertTrue(((ThreadedStageExecutor) executor).getThreadCount() == 3);
+    executor.shutdown();
+  }
+
+  public static class ConcurrentGenerator implements ExNihiloSource {
+
+    TupleFlowParameters params;
+
+    public ConcurrentGenerator(TupleFlowParameters params) {
+      this.params = params;
+    }
+
+    @Override
+    public void run() throws IOException {
+      // each instance has its own copy of the parameters
+      if (params.getJSON().containsKey("instance")) {
+        shared.set(true);
+      }
+      params.getJSON().set("instance", params.getInstanceId());
+
+      started.countDown();
+      try {
+        if (!started.await(30, TimeUnit.SECONDS)) {
+          sequential.set(true);
+        }
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+
+      try {
+        Processor<TupleflowString> c = params.getTypeWriter(params.getJSON().getString("conn"));
+        Sorter<TupleflowString> s = new Sorter<>(new TupleflowString.ValueOrder());
+        s.setProcessor(c);
+        for (int i = 0; i < 10; i++) {
+          s.process(new TupleflowString("two-" + params.getInstanceId() + "-" + i));
+        }
+        s.close();
+      } catch (IncompatibleProcessorException ex) {
+        throw new IOException(ex);
+      }
+    }
+
+    @Override
+    public void setProcessor(Step processor) throws IncompatibleProcessorException {
+      Linkage.link(this, processor);
+    }
+
+    public static void verify(TupleFlowParameters parameters, ErrorStore store) throws IOException {
+      if (!parameters.getJSON().isString("conn")) {
+        store.addError("ConcurrentGenerator - Could not find an output connection specified in parameters");
+      }
+    }
+  }
+
+  public static class FailingSource implements ExNihiloSource {
+
+    @Override
+    public void run() throws IOException {
+      throw new IOException("failing on purpose");
+    }
+
+    @Override
+    public void setProcessor(Step processor) throws IncompatibleProcessorException {
+      Linkage.link(this, processor);
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package org.lemurproject.galago.tupleflow.web;
+
+import org.junit.Test;
+import org.lemurproject.galago.utility.Parameters;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControlHandlerTest {
+
+  @Test
+  public void testLoadShedding() throws Exception {
+    Parameters p = Parameters.create();
+    p.set("maxConcurrentRequests", 1);
+    p.set("maxQueuedRequests", 2);
+    p.set("queueTimeout", 50);
+    final WebServer server = WebServer.start(p, new WebHandler() {
+      @Override
+      public void handle(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        Thread.sleep(500);
+        response.setContentType("application/json");
+        response.getWriter().write("{\"ok\" : true}");
+      }
+    });
+
+    ExecutorService clients = Executors.newFixedThreadPool(6);
+    try {
+      List<Future<Long[]>> responses = new ArrayList<>();
+      for (int i = 0; i < 6; i++) {
+        responses.add(clients.submit(new Callable<Long[]>() {
+          @Override
+          public Long[] call() throws Exception {
+            long start = System.currentTimeMillis();
+            HttpURLConnection c = (HttpURLConnection) new URL(server.getURL() + "search").openConnection();
+            int status = c.getResponseCode();
+            return new Long[]{(long) status, System.currentTimeMillis() - start};
+          }
+        }));
+      }
+
+      int ok = 0;
+      int shed = 0;
+      for (Future<Long[]> response : responses) {
+        Long[] r = response.get();
+        if (r[0] == 200) {
+          ok++;
+        } else {
+          assertEquals(503, r[0].longValue());
+          // rejected requests do not wait for the slow request
+          assertTrue(r[1] < 450);
+          shed++;
+        }
+      }
+      assertTrue(ok >= 1);
+      assertTrue(shed >= 1);
+      assertEquals(shed, server.getAdmissionControl().getRejectedRequests());
+      assertEquals(ok, server.getAdmissionControl().getAcceptedRequests());
+    } finally {
+      clients.shutdown();
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testQueuedRequestsHoldNoThread() throws Exception {
+    Parameters p = Parameters.create();
+    p.set("maxConcurrentRequests", 1);
+    p.set("maxQueuedRequests", 4);
+    p.set("queueTimeout", 60000);
+    final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+    final WebServer server = WebServer.start(p, new WebHandler() {
+      @Override
+      public void handle(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        threads.add(Thread.currentThread());
+        Thread.sleep(100);
+        response.setContentType("application/json");
+        response.getWriter().write("{\"ok\" : true}");
+      }
+    });
+
+    ExecutorService clients = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Integer>> responses = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        responses.add(clients.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            HttpURLConnection c = (HttpURLConnection) new URL(server.getURL() + "search").openConnection();
+            return c.getResponseCode();
+          }
+        }));
+      }
+      for (Future<Integer> response : responses) {
+        assertEquals(200, response.get().intValue());
+      }
+      assertEquals(4, server.getAdmissionControl().getAcceptedRequests());
+
+      // waiting requests were handed the slot, and its single thread
+      assertEquals(1, threads.size());
+    } finally {
+      clients.shutdown();
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testGzip() throws Exception {
+    Parameters p = Parameters.create();
+    p.set("maxConcurrentRequests", 2);
+    p.set("gzip", true);
+    final StringBuilder json = new StringBuilder("{\"results\" : [");
+    for (int i = 0; i < 1000; i++) {
+      json.append(i > 0 ? ", " : "").append(i);
+    }
+    json.append("]}");
+    WebServer server = WebServer.start(p, new WebHandler() {
+      @Override
+      public void handle(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        response.setContentType("application/json");
+        response.getWriter().write(json.toString());
+      }
+    });
+    try {
+      HttpURLConnection c = (HttpURLConnection) new URL(server.getURL() + "search").openConnection();
+      c.setRequestProperty("Accept-Encoding", "gzip");
+      assertEquals(200, c.getResponseCode());
+      assertEquals("gzip", c.getHeaderField("Content-Encoding"));
+      assertEquals(json.toString(), read(new GZIPInputStream(c.getInputStream())));
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static String read(InputStream in) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    byte[] buffer = new byte[4096];
+    int n;
+    while ((n = in.read(buffer)) > 0) {
+      sb.append(new String(buffer, 0, n, "UTF-8"));
+    }
+    in.close();
+    return sb.toString();
+  }
+}
@@ -1,10 +1,14 @@
 package org.lemurproject.galago.utility.buffer;
 
+import org.lemurproject.galago.utility.metrics.Metrics;
+
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author jfoley.
@@ -12,19 +16,30 @@ import java.nio.channels.FileChannel;
 public class FileReadableBuffer implements ReadableBuffer {
   private final FileChannel channel;
   private final RandomAccessFile file;
+  // bytes read, labelled by file (index part) name; null if the name is unknown
+  private final LongAdder bytesRead;
 
   public FileReadableBuffer(RandomAccessFile raf) {
+    this(raf, null);
+  }
+
+  private FileReadableBuffer(RandomAccessFile raf, LongAdder bytesRead) {
     this.channel = raf.getChannel();
     this.file = raf;
+    this.bytesRead = bytesRead;
   }
 
   public FileReadableBuffer(String path) throws FileNotFoundException {
-    this(new RandomAccessFile(path, "r"));
+    this(new RandomAccessFile(path, "r"), Metrics.counter("galago_index_bytes_read_total", "part", new File(path).getName()));
   }
 
   @Override
   public int read(ByteBuffer buf, long offset) throws IOException {
-    return channel.read(buf, offset);
+    int read = channel.read(buf, offset);
+    if (bytesRead != null && read > 0) {
+      bytesRead.add(read);
+    }
+    return read;
   }
 
   @Override
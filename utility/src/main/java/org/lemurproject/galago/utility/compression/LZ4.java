@@ -0,0 +1,198 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.utility.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A pure Java compressor for the LZ4 block format: a fast, single-pass LZ77
+ * that finds matches through a hash table of 4-byte sequences. It compresses
+ * less than gzip, but many times faster, and decompression is little more
+ * than copying.
+ *
+ * Blocks are limited to what fits in a byte array; see LZ4OutputStream and
+ * LZ4InputStream for a framed stream with checksums.
+ */
+public class LZ4 {
+
+  private static final int MIN_MATCH = 4;
+  // the last match starts at least 12 bytes before the end of the block,
+  // and the last 5 bytes are always literals
+  private static final int MF_LIMIT = 12;
+  private static final int LAST_LITERALS = 5;
+  private static final int MAX_OFFSET = 65535;
+  private static final int HASH_LOG = 14;
+  private static final int SKIP_TRIGGER = 6;
+
+  private final int[] table = new int[1 << HASH_LOG];
+
+  /**
+   * The largest compressed size of a block of the given length.
+   */
+  public static int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  private static int readInt(byte[] data, int i) {
+    return (data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF) << 16 | (data[i + 3] & 0xFF) << 24;
+  }
+
+  private static int hash(int value) {
+    return (value * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  private static int writeLength(byte[] dst, int dp, int length) {
+    while (length >= 255) {
+      dst[dp++] = (byte) 255;
+      length -= 255;
+    }
+    dst[dp++] = (byte) length;
+    return dp;
+  }
+
+  private static int writeLiterals(byte[] src, int anchor, int length, byte[] dst, int dp, int matchToken) {
+    int token = dp++;
+    if (length >= 15) {
+      dst[token] = (byte) (0xF0 | matchToken);
+      dp = writeLength(dst, dp, length - 15);
+    } else {
+      dst[token] = (byte) ((length << 4) | matchToken);
+    }
+    System.arraycopy(src, anchor, dst, dp, length);
+    return dp + length;
+  }
+
+  /**
+   * Compresses src[srcOffset, srcOffset + length) into dst, which must have
+   * room for maxCompressedLength(length) bytes. Returns the compressed length.
+   * Instances are not thread safe: each holds its own hash table.
+   */
+  public int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+    int end = srcOffset + length;
+    int anchor = srcOffset;
+    int dp = dstOffset;
+
+    if (length >= MF_LIMIT + 1) {
+      Arrays.fill(table, -1);
+      int mfLimit = end - MF_LIMIT;
+      int matchLimit = end - LAST_LITERALS;
+      int ip = srcOffset;
+      table[hash(readInt(src, ip))] = ip;
+      ip++;
+
+      search:
+      while (true) {
+        // find a match, skipping faster through incompressible data
+        int ref;
+        int attempts = 1 << SKIP_TRIGGER;
+        while (true) {
+          if (ip > mfLimit) {
+            break search;
+          }
+          int h = hash(readInt(src, ip));
+          ref = table[h];
+          table[h] = ip;
+          if (ref >= 0 && ip - ref <= MAX_OFFSET && readInt(src, ref) == readInt(src, ip)) {
+            break;
+          }
+          ip += attempts++ >>> SKIP_TRIGGER;
+        }
+
+        // extend the match backwards into the pending literals
+        while (ip > anchor && ref > srcOffset && src[ip - 1] == src[ref - 1]) {
+          ip--;
+          ref--;
+        }
+
+        int matchStart = ip;
+        ip += MIN_MATCH;
+        int r = ref + MIN_MATCH;
+        while (ip < matchLimit && src[ip] == src[r]) {
+          ip++;
+          r++;
+        }
+        int matchLength = ip - matchStart - MIN_MATCH;
+
+        dp = writeLiterals(src, anchor, matchStart - anchor, dst, dp, Math.min(matchLength, 15));
+        int offset = matchStart - ref;
+        dst[dp++] = (byte) offset;
+        dst[dp++] = (byte) (offset >>> 8);
+        if (matchLength >= 15) {
+          dp = writeLength(dst, dp, matchLength - 15);
+        }
+        anchor = ip;
+
+        if (ip > mfLimit) {
+          break;
+        }
+        table[hash(readInt(src, ip - 2))] = ip - 2;
+      }
+    }
+
+    return writeLiterals(src, anchor, end - anchor, dst, dp, 0) - dstOffset;
+  }
+
+  /**
+   * Decompresses a block of exactly length bytes from src[srcOffset,
+   * srcOffset + compressedLength) into dst. Throws if the block is corrupt.
+   */
+  public static void decompress(byte[] src, int srcOffset, int compressedLength, byte[] dst, int dstOffset, int length) throws IOException {
+    int sp = srcOffset;
+    int srcEnd = srcOffset + compressedLength;
+    int dp = dstOffset;
+    int dstEnd = dstOffset + length;
+
+    try {
+      while (true) {
+        int token = src[sp++] & 0xFF;
+        int literals = token >>> 4;
+        if (literals == 15) {
+          int b;
+          do {
+            b = src[sp++] & 0xFF;
+            literals += b;
+          } while (b == 255);
+        }
+        if (literals > srcEnd - sp || literals > dstEnd - dp) {
+          throw new IOException("Corrupt LZ4 block: literals overrun");
+        }
+        System.arraycopy(src, sp, dst, dp, literals);
+        sp += literals;
+        dp += literals;
+        if (sp == srcEnd) {
+          break;
+        }
+
+        int offset = (src[sp] & 0xFF) | (src[sp + 1] & 0xFF) << 8;
+        sp += 2;
+        int matchLength = token & 0x0F;
+        if (matchLength == 15) {
+          int b;
+          do {
+            b = src[sp++] & 0xFF;
+            matchLength += b;
+          } while (b == 255);
+        }
+        matchLength += MIN_MATCH;
+        int ref = dp - offset;
+        if (offset == 0 || ref < dstOffset || matchLength > dstEnd - dp) {
+          throw new IOException("Corrupt LZ4 block: bad match");
+        }
+        if (offset >= matchLength) {
+          System.arraycopy(dst, ref, dst, dp, matchLength);
+          dp += matchLength;
+        } else {
+          // overlapping copy repeats the last offset bytes
+          for (int i = 0; i < matchLength; i++) {
+            dst[dp++] = dst[ref++];
+          }
+        }
+      }
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IOException("Corrupt LZ4 block: truncated", e);
+    }
+    if (dp != dstEnd || sp != srcEnd) {
+      throw new IOException("Corrupt LZ4 block: expected " + length + " bytes, decoded " + (dp - dstOffset));
+    }
+  }
+}
@@ -0,0 +1,111 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.utility.compression;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a stream written by LZ4OutputStream, verifying the checksum of every
+ * block. Throws an IOException on a corrupt block, or if the stream ends
+ * before its end marker.
+ */
+public class LZ4InputStream extends InputStream {
+
+  private final DataInputStream in;
+  private final CRC32 checksum = new CRC32();
+  private byte[] block = new byte[0];
+  private byte[] compressed = new byte[0];
+  private int length = 0;
+  private int position = 0;
+  private boolean finished = false;
+
+  public LZ4InputStream(InputStream in) {
+    this.in = new DataInputStream(in);
+  }
+
+  // returns false at the end of the stream
+  private boolean fill() throws IOException {
+    while (position == length) {
+      if (finished) {
+        return false;
+      }
+      readBlock();
+    }
+    return true;
+  }
+
+  private void readBlock() throws IOException {
+    int raw;
+    int stored;
+    int expected;
+    try {
+      raw = in.readInt();
+      stored = in.readInt();
+      expected = in.readInt();
+    } catch (EOFException e) {
+      throw new IOException("Truncated LZ4 stream: missing end marker", e);
+    }
+    if (raw == 0) {
+      finished = true;
+      length = position = 0;
+      return;
+    }
+    if (raw < 0 || stored <= 0 || stored > LZ4.maxCompressedLength(raw)) {
+      throw new IOException("Corrupt LZ4 stream: bad block header");
+    }
+    if (block.length < raw) {
+      block = new byte[raw];
+    }
+    if (stored == raw) {
+      in.readFully(block, 0, raw);
+    } else {
+      if (compressed.length < stored) {
+        compressed = new byte[stored];
+      }
+      in.readFully(compressed, 0, stored);
+      LZ4.decompress(compressed, 0, stored, block, 0, raw);
+    }
+    checksum.reset();
+    checksum.update(block, 0, raw);
+    if ((int) checksum.getValue() != expected) {
+      throw new IOException("Corrupt LZ4 stream: checksum mismatch");
+    }
+    length = raw;
+    position = 0;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!fill()) {
+      return -1;
+    }
+    return block[position++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] data, int offset, int count) throws IOException {
+    if (count == 0) {
+      return 0;
+    }
+    if (!fill()) {
+      return -1;
+    }
+    int n = Math.min(count, length - position);
+    System.arraycopy(block, position, data, offset, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return length - position;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
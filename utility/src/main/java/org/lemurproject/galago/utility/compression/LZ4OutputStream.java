@@ -0,0 +1,111 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.utility.compression;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a stream of LZ4-compressed blocks, each framed as:
+ *
+ * [raw length][stored length][CRC32 of the raw bytes][stored bytes]
+ *
+ * with big-endian ints. A block that does not compress is stored as is, with
+ * stored length == raw length. The stream ends with an empty block, so that
+ * LZ4InputStream can tell a complete stream from a truncated one.
+ */
+public class LZ4OutputStream extends FilterOutputStream {
+
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+  static final int HEADER_SIZE = 12;
+
+  private final LZ4 compressor = new LZ4();
+  private final CRC32 checksum = new CRC32();
+  private final byte[] block;
+  private final byte[] compressed;
+  private int position = 0;
+  private boolean closed = false;
+
+  public LZ4OutputStream(OutputStream out) {
+    this(out, DEFAULT_BLOCK_SIZE);
+  }
+
+  public LZ4OutputStream(OutputStream out, int blockSize) {
+    super(out);
+    this.block = new byte[blockSize];
+    this.compressed = new byte[HEADER_SIZE + LZ4.maxCompressedLength(blockSize)];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (position == block.length) {
+      writeBlock();
+    }
+    block[position++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] data, int offset, int length) throws IOException {
+    while (length > 0) {
+      if (position == block.length) {
+        writeBlock();
+      }
+      int count = Math.min(length, block.length - position);
+      System.arraycopy(data, offset, block, position, count);
+      position += count;
+      offset += count;
+      length -= count;
+    }
+  }
+
+  private static void putInt(byte[] data, int i, int value) {
+    data[i] = (byte) (value >>> 24);
+    data[i + 1] = (byte) (value >>> 16);
+    data[i + 2] = (byte) (value >>> 8);
+    data[i + 3] = (byte) value;
+  }
+
+  private void writeBlock() throws IOException {
+    if (position == 0) {
+      return;
+    }
+    checksum.reset();
+    checksum.update(block, 0, position);
+    int stored = compressor.compress(block, 0, position, compressed, HEADER_SIZE);
+    if (stored >= position) {
+      stored = position;
+      System.arraycopy(block, 0, compressed, HEADER_SIZE, position);
+    }
+    putInt(compressed, 0, position);
+    putInt(compressed, 4, stored);
+    putInt(compressed, 8, (int) checksum.getValue());
+    out.write(compressed, 0, HEADER_SIZE + stored);
+    position = 0;
+  }
+
+  /**
+   * Writes the pending block; the stream stays open.
+   */
+  @Override
+  public void flush() throws IOException {
+    writeBlock();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      writeBlock();
+      byte[] end = new byte[HEADER_SIZE];
+      out.write(end);
+      out.flush();
+    } finally {
+      out.close();
+    }
+  }
+}
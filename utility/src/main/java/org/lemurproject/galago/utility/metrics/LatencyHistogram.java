@@ -0,0 +1,93 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.utility.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with power-of-two microsecond buckets (1us .. ~1min).
+ *
+ * Buckets are striped counters, so recording from many threads does not
+ * contend; percentiles are approximate to the bucket boundaries.
+ */
+public class LatencyHistogram {
+
+  // bucket i holds latencies up to 2^i microseconds; the last is unbounded
+  static final int BUCKETS = 27;
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(long nanos) {
+    long micros = Math.max(0, nanos) / 1000;
+    int bucket = (micros <= 1) ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+    buckets[Math.min(bucket, BUCKETS - 1)].increment();
+    count.increment();
+    totalNanos.add(nanos);
+  }
+
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  public double getMeanMillis() {
+    long n = count.sum();
+    return (n == 0) ? 0.0 : totalNanos.sum() / (double) n / 1e6;
+  }
+
+  /**
+   * Upper bound of bucket i in seconds (infinite for the last bucket).
+   */
+  static double upperBoundSeconds(int i) {
+    if (i == BUCKETS - 1) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return (1L << i) / (double) TimeUnit.SECONDS.toMicros(1);
+  }
+
+  long[] getBucketCounts() {
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets[i].sum();
+    }
+    return counts;
+  }
+
+  /**
+   * Approximate quantile (0..1) in milliseconds: the upper bound of the bucket
+   * that contains it.
+   */
+  public double getQuantileMillis(double q) {
+    long[] counts = getBucketCounts();
+    long total = 0;
+    for (long c : counts) {
+      total += c;
+    }
+    if (total == 0) {
+      return 0.0;
+    }
+    long rank = (long) Math.ceil(q * total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS - 1; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return upperBoundSeconds(i) * 1000;
+      }
+    }
+    return upperBoundSeconds(BUCKETS - 2) * 1000;
+  }
+}
@@ -0,0 +1,214 @@
+// BSD License (http://lemurproject.org/galago-license)
+package org.lemurproject.galago.utility.metrics;
+
+import org.lemurproject.galago.utility.Parameters;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide registry of counters, gauges and latency histograms.
+ *
+ * Counters and gauges are striped (LongAdder), so concurrent updates do not
+ * contend. Counts taken in inner loops (e.g. postings decoded) are kept in a
+ * local field and added once per list. Metrics are named as in Prometheus, with
+ * optional label pairs, e.g. counter("galago_cache_requests_total", "cache",
+ * "names", "result", "hit"). The registry is published as the JMX MBean
+ * org.lemurproject.galago:type=Metrics, and rendered by toPrometheus and
+ * toParameters (e.g. for a /metrics handler).
+ */
+public final class Metrics {
+
+  private static final Logger logger = Logger.getLogger("Metrics");
+  public static final String MBEAN_NAME = "org.lemurproject.galago:type=Metrics";
+
+  /**
+   * A value read when the metrics are rendered.
+   */
+  public interface Gauge {
+
+    double value();
+  }
+
+  private static final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<String, LongAdder> levels = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+  static {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), new ObjectName(MBEAN_NAME));
+    } catch (Exception e) {
+      // e.g. already registered by another class loader
+      logger.log(Level.INFO, "Metrics MBean not registered: {0}", e.toString());
+    }
+  }
+
+  private Metrics() {
+  }
+
+  /**
+   * A monotonic counter.
+   */
+  public static LongAdder counter(String name, String... labels) {
+    String key = key(name, labels);
+    LongAdder counter = counters.get(key);
+    if (counter == null) {
+      counter = counters.computeIfAbsent(key, k -> new LongAdder());
+    }
+    return counter;
+  }
+
+  /**
+   * A counter that goes up and down, e.g. queries in progress.
+   */
+  public static LongAdder level(String name, String... labels) {
+    String key = key(name, labels);
+    LongAdder level = levels.get(key);
+    if (level == null) {
+      level = levels.computeIfAbsent(key, k -> new LongAdder());
+    }
+    return level;
+  }
+
+  /**
+   * Registers (or replaces) a gauge.
+   */
+  public static void gauge(String name, Gauge gauge, String... labels) {
+    gauges.put(key(name, labels), gauge);
+  }
+
+  public static void removeGauge(String name, String... labels) {
+    gauges.remove(key(name, labels));
+  }
+
+  public static LatencyHistogram histogram(String name, String... labels) {
+    String key = key(name, labels);
+    LatencyHistogram histogram = histograms.get(key);
+    if (histogram == null) {
+      histogram = histograms.computeIfAbsent(key, k -> new LatencyHistogram());
+    }
+    return histogram;
+  }
+
+  static String key(String name, String... labels) {
+    if (labels.length == 0) {
+      return name;
+    }
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("Metric labels must be name, value pairs: " + name);
+    }
+    StringBuilder sb = new StringBuilder(name).append('{');
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(labels[i]).append("=\"").append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+    }
+    return sb.append('}').toString();
+  }
+
+  private static String name(String key) {
+    int brace = key.indexOf('{');
+    return (brace < 0) ? key : key.substring(0, brace);
+  }
+
+  private static String labels(String key) {
+    int brace = key.indexOf('{');
+    return (brace < 0) ? "" : key.substring(brace + 1, key.length() - 1);
+  }
+
+  /**
+   * Current value of every counter, gauge and histogram summary, keyed by
+   * metric name and labels. Histograms contribute count, mean, p50 and p99.
+   */
+  public static Map<String, Number> snapshot() {
+    TreeMap<String, Number> values = new TreeMap<>();
+    for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+      values.put(e.getKey(), e.getValue().sum());
+    }
+    for (Map.Entry<String, LongAdder> e : levels.entrySet()) {
+      values.put(e.getKey(), e.getValue().sum());
+    }
+    for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+      values.put(e.getKey(), e.getValue().value());
+    }
+    for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+      LatencyHistogram h = e.getValue();
+      values.put(e.getKey() + ".count", h.getCount());
+      values.put(e.getKey() + ".meanMillis", h.getMeanMillis());
+      values.put(e.getKey() + ".p50Millis", h.getQuantileMillis(0.5));
+      values.put(e.getKey() + ".p99Millis", h.getQuantileMillis(0.99));
+    }
+    return values;
+  }
+
+  public static Parameters toParameters() {
+    Parameters p = Parameters.create();
+    for (Map.Entry<String, Number> e : snapshot().entrySet()) {
+      if (e.getValue() instanceof Long) {
+        p.set(e.getKey(), e.getValue().longValue());
+      } else {
+        p.set(e.getKey(), e.getValue().doubleValue());
+      }
+    }
+    return p;
+  }
+
+  /**
+   * Renders all metrics in the Prometheus text exposition format.
+   */
+  public static String toPrometheus() {
+    StringBuilder sb = new StringBuilder();
+    appendAdders(sb, counters, "counter");
+    appendAdders(sb, levels, "gauge");
+
+    String last = null;
+    for (Map.Entry<String, Gauge> e : new TreeMap<>(gauges).entrySet()) {
+      last = appendType(sb, last, name(e.getKey()), "gauge");
+      sb.append(e.getKey()).append(' ').append(e.getValue().value()).append('\n');
+    }
+
+    last = null;
+    for (Map.Entry<String, LatencyHistogram> e : new TreeMap<>(histograms).entrySet()) {
+      String name = name(e.getKey());
+      String labels = labels(e.getKey());
+      String prefix = labels.isEmpty() ? "" : labels + ",";
+      last = appendType(sb, last, name, "histogram");
+      long[] counts = e.getValue().getBucketCounts();
+      long cumulative = 0;
+      for (int i = 0; i < counts.length; i++) {
+        cumulative += counts[i];
+        double bound = LatencyHistogram.upperBoundSeconds(i);
+        sb.append(name).append("_bucket{").append(prefix).append("le=\"")
+                .append(Double.isInfinite(bound) ? "+Inf" : Double.toString(bound)).append("\"} ")
+                .append(cumulative).append('\n');
+      }
+      String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+      sb.append(name).append("_sum").append(suffix).append(' ').append(e.getValue().getTotalNanos() / 1e9).append('\n');
+      sb.append(name).append("_count").append(suffix).append(' ').append(e.getValue().getCount()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private static void appendAdders(StringBuilder sb, Map<String, LongAdder> adders, String type) {
+    String last = null;
+    for (Map.Entry<String, LongAdder> e : new TreeMap<>(adders).entrySet()) {
+      last = appendType(sb, last, name(e.getKey()), type);
+      sb.append(e.getKey()).append(' ').append(e.getValue().sum()).append('\n');
+    }
+  }
+
+  private static String appendType(StringBuilder sb, String last, String name, String type) {
+    if (!name.equals(last)) {
+      sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+    return name;
+  }
+}
@@ -0,0 +1,103 @@
+package org.lemurproject.galago.utility.compression;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LZ4Test {
+
+  private static byte[] compress(byte[] data, int blockSize) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    LZ4OutputStream out = new LZ4OutputStream(bytes, blockSize);
+    // uneven writes, to cross block boundaries
+    int offset = 0;
+    for (int i = 1; offset < data.length; i++) {
+      int count = Math.min(i * 37, data.length - offset);
+      out.write(data, offset, count);
+      offset += count;
+    }
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static byte[] decompress(byte[] data) throws IOException {
+    InputStream in = new LZ4InputStream(new ByteArrayInputStream(data));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1000];
+    int count;
+    while ((count = in.read(buffer)) >= 0) {
+      bytes.write(buffer, 0, count);
+    }
+    in.close();
+    return bytes.toByteArray();
+  }
+
+  private static byte[] sample(Random random, int length, int alphabet) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      // runs of repeated phrases mixed with noise
+      if (i > 100 && random.nextInt(4) != 0) {
+        int back = 1 + random.nextInt(Math.min(i, 70000) - 1);
+        int run = Math.min(length - i, 1 + random.nextInt(300));
+        for (int j = 0; j < run; j++) {
+          data[i + j] = data[i - back + j];
+        }
+        i += run - 1;
+      } else {
+        data[i] = (byte) random.nextInt(alphabet);
+      }
+    }
+    return data;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Random random = new Random(5);
+    int[] lengths = {0, 1, 5, 12, 13, 100, 4096, 65536, 65537, 300000};
+    for (int length : lengths) {
+      for (int alphabet : new int[]{1, 4, 256}) {
+        byte[] data = sample(random, length, alphabet);
+        for (int blockSize : new int[]{1024, LZ4OutputStream.DEFAULT_BLOCK_SIZE}) {
+          byte[] compressed = compress(data, blockSize);
+          assertArrayEquals(data, decompress(compressed));
+        }
+      }
+    }
+
+    // repetitive data compresses well
+    byte[] data = sample(random, 100000, 4);
+    assertTrue(compress(data, LZ4OutputStream.DEFAULT_BLOCK_SIZE).length < data.length / 4);
+  }
+
+  @Test
+  public void testCorruption() throws IOException {
+    byte[] data = sample(new Random(9), 50000, 16);
+    byte[] compressed = compress(data, 8192);
+
+    byte[] damaged = Arrays.copyOf(compressed, compressed.length);
+    damaged[compressed.length / 2] ^= 0x10;
+    try {
+      decompress(damaged);
+      fail("expected a corrupt stream");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("Corrupt"));
+    }
+
+    byte[] truncated = Arrays.copyOf(compressed, compressed.length - LZ4OutputStream.HEADER_SIZE);
+    try {
+      decompress(truncated);
+      fail("expected a truncated stream");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("Truncated"));
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package org.lemurproject.galago.utility.metrics;
+
+import org.junit.Test;
+import org.lemurproject.galago.utility.Parameters;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+  @Test
+  public void testHistogram() {
+    LatencyHistogram h = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      h.record(TimeUnit.MICROSECONDS.toNanos(100));
+    }
+    h.record(TimeUnit.MILLISECONDS.toNanos(50));
+    assertEquals(100, h.getCount());
+    // 100us falls in the (64us, 128us] bucket, 50ms in (32.768ms, 65.536ms]
+    assertEquals(0.128, h.getQuantileMillis(0.5), 0.0001);
+    assertEquals(0.128, h.getQuantileMillis(0.99), 0.0001);
+    assertEquals(65.536, h.getQuantileMillis(1.0), 0.0001);
+    assertEquals((99 * 0.1 + 50) / 100, h.getMeanMillis(), 0.0001);
+  }
+
+  @Test
+  public void testRegistry() throws Exception {
+    Metrics.counter("test_requests_total", "result", "hit").add(3);
+    Metrics.counter("test_requests_total", "result", "hit").increment();
+    assertSame(Metrics.counter("test_requests_total", "result", "miss"), Metrics.counter("test_requests_total", "result", "miss"));
+    Metrics.level("test_active").increment();
+    Metrics.gauge("test_ratio", new Metrics.Gauge() {
+      @Override
+      public double value() {
+        return 0.5;
+      }
+    });
+    Metrics.histogram("test_seconds", "model", "ranked").record(TimeUnit.MILLISECONDS.toNanos(3));
+
+    String text = Metrics.toPrometheus();
+    assertTrue(text.contains("# TYPE test_requests_total counter\n"));
+    assertTrue(text.contains("test_requests_total{result=\"hit\"} 4\n"));
+    assertTrue(text.contains("test_active 1\n"));
+    assertTrue(text.contains("test_ratio 0.5\n"));
+    assertTrue(text.contains("# TYPE test_seconds histogram\n"));
+    assertTrue(text.contains("test_seconds_bucket{model=\"ranked\",le=\"0.004096\"} 1\n"));
+    assertTrue(text.contains("test_seconds_bucket{model=\"ranked\",le=\"+Inf\"} 1\n"));
+    assertTrue(text.contains("test_seconds_count{model=\"ranked\"} 1\n"));
+
+    Parameters json = Metrics.toParameters();
+    assertEquals(4, json.getLong("test_requests_total{result=\"hit\"}"));
+    assertEquals(1, json.getLong("test_seconds{model=\"ranked\"}.count"));
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(Metrics.MBEAN_NAME);
+    assertEquals(4L, server.getAttribute(name, "test_requests_total{result=\"hit\"}"));
+    assertEquals(0.5, (Double) server.getAttribute(name, "test_ratio"), 0.0);
+
+    Metrics.removeGauge("test_ratio");
+    assertTrue(!Metrics.toPrometheus().contains("test_ratio"));
+  }
+}